@@ -21,6 +21,7 @@ import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.config.SaslConfigs;
 import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.ChannelBuilders;
+import org.apache.kafka.common.record.ZstdDictionary;
 import org.apache.kafka.common.security.JaasContext;
 import org.apache.kafka.common.security.auth.SecurityProtocol;
 import org.apache.kafka.common.utils.LogContext;
@@ -28,12 +29,17 @@ import org.apache.kafka.common.utils.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.apache.kafka.common.utils.Utils.getHost;
 import static org.apache.kafka.common.utils.Utils.getPort;
@@ -90,6 +96,40 @@ public final class ClientUtils {
         return addresses;
     }
 
+    /**
+     * Load the zstd dictionaries of topics from a list of <code>topic:path</code> entries.
+     *
+     * @param entries The entries of the config
+     * @param configName The name of the config, for error messages
+     * @return The dictionaries of each topic, in the order of the entries
+     * @throws ConfigException If an entry is invalid, or a topic has more than one dictionary with the same id
+     */
+    public static Map<String, List<ZstdDictionary>> loadZstdDictionaries(List<String> entries, String configName) {
+        Map<String, List<ZstdDictionary>> dictionaries = new HashMap<>();
+        for (String entry : entries) {
+            // topic names cannot contain colons, but paths may
+            int separator = entry.indexOf(':');
+            if (separator <= 0 || separator == entry.length() - 1)
+                throw new ConfigException(configName, entry, "Entries must be in the form topic:path");
+            String topic = entry.substring(0, separator).trim();
+            String path = entry.substring(separator + 1).trim();
+            ZstdDictionary dictionary;
+            try {
+                dictionary = ZstdDictionary.fromBytes(Files.readAllBytes(Paths.get(path)));
+            } catch (IOException | IllegalArgumentException e) {
+                throw new ConfigException(configName, entry, "Failed to load the zstd dictionary: " + e.getMessage());
+            }
+            List<ZstdDictionary> topicDictionaries = dictionaries.computeIfAbsent(topic, t -> new ArrayList<>());
+            for (ZstdDictionary other : topicDictionaries) {
+                if (other.id() == dictionary.id())
+                    throw new ConfigException(configName, entry, "Topic " + topic + " has more than one zstd " +
+                        "dictionary with id " + dictionary.id());
+            }
+            topicDictionaries.add(dictionary);
+        }
+        return dictionaries;
+    }
+
     /**
      * Create a new channel builder from the provided configuration.
      *
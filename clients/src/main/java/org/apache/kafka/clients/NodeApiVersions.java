@@ -36,12 +36,18 @@ import java.util.TreeMap;
  */
 public class NodeApiVersions {
 
+    // The number of batches of each producer which brokers retain to detect duplicates unless they report otherwise
+    public static final int DEFAULT_PRODUCER_STATE_RETAINED_BATCHES = 5;
+
     // A map of the usable versions of each API, keyed by the ApiKeys instance
     private final Map<ApiKeys, ApiVersion> supportedVersions = new EnumMap<>(ApiKeys.class);
 
     // List of APIs which the broker supports, but which are unknown to the client
     private final List<ApiVersion> unknownApis = new ArrayList<>();
 
+    // The number of most recent batches of each producer which the broker retains for each partition
+    private final int producerStateRetainedBatches;
+
     /**
      * Create a NodeApiVersions object with the current ApiVersions.
      *
@@ -89,6 +95,11 @@ public class NodeApiVersions {
     }
 
     public NodeApiVersions(ApiVersionsResponseKeyCollection nodeApiVersions) {
+        this(nodeApiVersions, DEFAULT_PRODUCER_STATE_RETAINED_BATCHES);
+    }
+
+    public NodeApiVersions(ApiVersionsResponseKeyCollection nodeApiVersions, int producerStateRetainedBatches) {
+        this.producerStateRetainedBatches = producerStateRetainedBatches;
         for (ApiVersionsResponseKey nodeApiVersion : nodeApiVersions) {
             if (ApiKeys.hasId(nodeApiVersion.apiKey())) {
                 ApiKeys nodeApiKey = ApiKeys.forId(nodeApiVersion.apiKey());
@@ -101,6 +112,7 @@ public class NodeApiVersions {
     }
 
     public NodeApiVersions(Collection<ApiVersion> nodeApiVersions) {
+        this.producerStateRetainedBatches = DEFAULT_PRODUCER_STATE_RETAINED_BATCHES;
         for (ApiVersion nodeApiVersion : nodeApiVersions) {
             if (ApiKeys.hasId(nodeApiVersion.apiKey)) {
                 ApiKeys nodeApiKey = ApiKeys.forId(nodeApiVersion.apiKey);
@@ -112,6 +124,14 @@ public class NodeApiVersions {
         }
     }
 
+    /**
+     * Return the number of most recent batches of each producer which the node retains for each partition to detect
+     * duplicates, which bounds the produce requests an idempotent producer may have in flight to it.
+     */
+    public int producerStateRetainedBatches() {
+        return producerStateRetainedBatches;
+    }
+
     /**
      * Return the most recent version supported by both the node and the local software.
      */
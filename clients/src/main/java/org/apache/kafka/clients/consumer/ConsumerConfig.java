@@ -206,6 +206,14 @@ public class ConsumerConfig extends AbstractConfig {
     public static final String CHECK_CRCS_CONFIG = "check.crcs";
     private static final String CHECK_CRCS_DOC = "Automatically check the CRC32 of the records consumed. This ensures no on-the-wire or on-disk corruption to the messages occurred. This check adds some overhead, so it may be disabled in cases seeking extreme performance.";
 
+    /** <code>compression.zstd.dictionaries</code> */
+    public static final String COMPRESSION_ZSTD_DICTIONARIES_CONFIG = "compression.zstd.dictionaries";
+    private static final String COMPRESSION_ZSTD_DICTIONARIES_DOC = "A list of zstd dictionaries of topics in the form <code>topic:path</code>, where the file at path is a "
+                                                       + "dictionary trained on records of the topic with <code>kafka-zstd-dictionary-trainer.sh</code>. The consumer decompresses the "
+                                                       + "batches which producers compressed with these dictionaries. The brokers recompress such batches without the dictionary "
+                                                       + "for consumers which do not support dictionaries, but not for this consumer, so all the dictionaries of the consumed "
+                                                       + "topics must be listed, including the ones which have been replaced but may still be used by the batches in the logs.";
+
     /** <code>key.deserializer</code> */
     public static final String KEY_DESERIALIZER_CLASS_CONFIG = "key.deserializer";
     public static final String KEY_DESERIALIZER_CLASS_DOC = "Deserializer class for key that implements the <code>org.apache.kafka.common.serialization.Deserializer</code> interface.";
@@ -404,6 +412,11 @@ public class ConsumerConfig extends AbstractConfig {
                                         true,
                                         Importance.LOW,
                                         CHECK_CRCS_DOC)
+                                .define(COMPRESSION_ZSTD_DICTIONARIES_CONFIG,
+                                        Type.LIST,
+                                        Collections.emptyList(),
+                                        Importance.LOW,
+                                        COMPRESSION_ZSTD_DICTIONARIES_DOC)
                                 .define(METRICS_SAMPLE_WINDOW_MS_CONFIG,
                                         Type.LONG,
                                         30000,
@@ -51,6 +51,7 @@ import org.apache.kafka.common.metrics.MetricsReporter;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.Selector;
+import org.apache.kafka.common.record.ZstdDictionaries;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.utils.AppInfoParser;
@@ -806,7 +807,8 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     this.retryBackoffMs,
                     this.requestTimeoutMs,
                     isolationLevel,
-                    apiVersions);
+                    apiVersions,
+                    zstdDictionaries(config));
 
             this.kafkaConsumerMetrics = new KafkaConsumerMetrics(metrics, metricGrpPrefix);
 
@@ -873,6 +875,14 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         return "consumer-" + CONSUMER_CLIENT_ID_SEQUENCE.getAndIncrement();
     }
 
+    private static Map<String, ZstdDictionaries> zstdDictionaries(ConsumerConfig config) {
+        Map<String, ZstdDictionaries> dictionaries = new HashMap<>();
+        ClientUtils.loadZstdDictionaries(config.getList(ConsumerConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG),
+                ConsumerConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG).forEach((topic, topicDictionaries) ->
+                dictionaries.put(topic, ZstdDictionaries.of(topicDictionaries)));
+        return dictionaries;
+    }
+
     private static Metrics buildMetrics(ConsumerConfig config, Time time, String clientId) {
         Map<String, String> metricsTags = Collections.singletonMap(CLIENT_ID_METRIC_TAG, clientId);
         MetricConfig metricConfig = new MetricConfig().samples(config.getInt(ConsumerConfig.METRICS_NUM_SAMPLES_CONFIG))
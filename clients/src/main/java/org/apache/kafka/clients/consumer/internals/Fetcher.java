@@ -63,6 +63,7 @@ import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.Records;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.record.ZstdDictionaries;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
 import org.apache.kafka.common.requests.ListOffsetRequest;
@@ -153,6 +154,7 @@ public class Fetcher<K, V> implements Closeable {
     private final OffsetsForLeaderEpochClient offsetsForLeaderEpochClient;
     private final Set<Integer> nodesWithPendingFetchRequests;
     private final ApiVersions apiVersions;
+    private final Map<String, ZstdDictionaries> zstdDictionaries;
 
     private CompletedFetch nextInLineFetch = null;
 
@@ -176,6 +178,35 @@ public class Fetcher<K, V> implements Closeable {
                    long requestTimeoutMs,
                    IsolationLevel isolationLevel,
                    ApiVersions apiVersions) {
+        this(logContext, client, minBytes, maxBytes, maxWaitMs, fetchSize, maxPollRecords, checkCrcs, clientRackId,
+            keyDeserializer, valueDeserializer, metadata, subscriptions, metrics, metricsRegistry, time, retryBackoffMs,
+            requestTimeoutMs, isolationLevel, apiVersions, Collections.emptyMap());
+    }
+
+    /**
+     * @param zstdDictionaries The zstd dictionaries which the batches of each topic may be compressed with
+     */
+    public Fetcher(LogContext logContext,
+                   ConsumerNetworkClient client,
+                   int minBytes,
+                   int maxBytes,
+                   int maxWaitMs,
+                   int fetchSize,
+                   int maxPollRecords,
+                   boolean checkCrcs,
+                   String clientRackId,
+                   Deserializer<K> keyDeserializer,
+                   Deserializer<V> valueDeserializer,
+                   ConsumerMetadata metadata,
+                   SubscriptionState subscriptions,
+                   Metrics metrics,
+                   FetcherMetricsRegistry metricsRegistry,
+                   Time time,
+                   long retryBackoffMs,
+                   long requestTimeoutMs,
+                   IsolationLevel isolationLevel,
+                   ApiVersions apiVersions,
+                   Map<String, ZstdDictionaries> zstdDictionaries) {
         this.log = logContext.logger(Fetcher.class);
         this.logContext = logContext;
         this.time = time;
@@ -197,6 +228,7 @@ public class Fetcher<K, V> implements Closeable {
         this.requestTimeoutMs = requestTimeoutMs;
         this.isolationLevel = isolationLevel;
         this.apiVersions = apiVersions;
+        this.zstdDictionaries = zstdDictionaries;
         this.sessionHandlers = new HashMap<>();
         this.offsetsForLeaderEpochClient = new OffsetsForLeaderEpochClient(client, logContext);
         this.nodesWithPendingFetchRequests = new HashSet<>();
@@ -1492,7 +1524,8 @@ public class Fetcher<K, V> implements Closeable {
                         }
                     }
 
-                    records = currentBatch.streamingIterator(decompressionBufferSupplier);
+                    records = currentBatch.streamingIterator(decompressionBufferSupplier,
+                        zstdDictionaries.getOrDefault(partition.topic(), ZstdDictionaries.EMPTY));
                 } else {
                     Record record = records.next();
                     // skip any records out of range
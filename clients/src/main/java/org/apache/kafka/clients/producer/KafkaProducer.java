@@ -24,12 +24,19 @@ import org.apache.kafka.clients.NetworkClient;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.producer.internals.AdaptiveBatching;
+import org.apache.kafka.clients.producer.internals.BatchCompressor;
 import org.apache.kafka.clients.producer.internals.BufferPool;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.clients.producer.internals.NodeLoadStats;
 import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
 import org.apache.kafka.clients.producer.internals.ProducerMetadata;
 import org.apache.kafka.clients.producer.internals.ProducerMetrics;
 import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.SendBatchFuture;
 import org.apache.kafka.clients.producer.internals.Sender;
+import org.apache.kafka.clients.producer.internals.SerializingValueWriter;
+import org.apache.kafka.clients.producer.internals.SlabBufferPool;
 import org.apache.kafka.clients.producer.internals.TransactionManager;
 import org.apache.kafka.clients.producer.internals.TransactionalRequestResult;
 import org.apache.kafka.common.Cluster;
@@ -62,7 +69,12 @@ import org.apache.kafka.common.network.Selector;
 import org.apache.kafka.common.record.AbstractRecords;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.RecordFieldWriter;
+import org.apache.kafka.common.record.ZstdDictionary;
+import org.apache.kafka.common.serialization.BufferSerializer;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
 import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.common.utils.KafkaThread;
 import org.apache.kafka.common.utils.LogContext;
@@ -232,6 +244,7 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     private static final String JMX_PREFIX = "kafka.producer";
     public static final String NETWORK_THREAD_PREFIX = "kafka-producer-network-thread";
     public static final String PRODUCER_METRIC_GROUP_NAME = "producer-metrics";
+    private static final String PRODUCER_NODE_METRIC_GROUP_NAME = "producer-node-metrics";
 
     private final String clientId;
     // Visible for testing
@@ -241,6 +254,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     private final long totalMemorySize;
     private final ProducerMetadata metadata;
     private final RecordAccumulator accumulator;
+    private final BatchCompressor compressor;
+    private final AdaptiveBatching adaptiveBatching;
     private final Sender sender;
     private final Thread ioThread;
     private final CompressionType compressionType;
@@ -248,6 +263,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     private final Time time;
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
+    private final BufferSerializer<V> valueBufferSerializer;
+    private final boolean partitionerUsesValueBytes;
     private final ProducerConfig producerConfig;
     private final long maxBlockTimeMs;
     private final ProducerInterceptors<K, V> interceptors;
@@ -352,6 +369,7 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             reporters.add(new JmxReporter(JMX_PREFIX));
             this.metrics = new Metrics(metricConfig, reporters, time);
             this.partitioner = config.getConfiguredInstance(ProducerConfig.PARTITIONER_CLASS_CONFIG, Partitioner.class);
+            NodeLoadStats loadStats = nodeLoadStats(config, partitioner, metrics);
             long retryBackoffMs = config.getLong(ProducerConfig.RETRY_BACKOFF_MS_CONFIG);
             if (keySerializer == null) {
                 this.keySerializer = config.getConfiguredInstance(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,
@@ -369,6 +387,12 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                 config.ignore(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG);
                 this.valueSerializer = valueSerializer;
             }
+            this.valueBufferSerializer = inPlaceValueSerializer(this.valueSerializer);
+            // the built-in partitioners do not look at the serialized value, so it can be serialized into the batch
+            Class<?> partitionerClass = this.partitioner.getClass();
+            this.partitionerUsesValueBytes = partitionerClass != DefaultPartitioner.class
+                && partitionerClass != RoundRobinPartitioner.class
+                && partitionerClass != UniformStickyPartitioner.class;
 
             // load interceptors and make sure they get clientId
             userProvidedConfigs.put(ProducerConfig.CLIENT_ID_CONFIG, clientId);
@@ -390,6 +414,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             int deliveryTimeoutMs = configureDeliveryTimeout(config, log);
 
             this.apiVersions = new ApiVersions();
+            int compressionThreads = config.getInt(ProducerConfig.COMPRESSION_THREADS_CONFIG);
+            this.compressor = compressionThreads > 0 && this.compressionType != CompressionType.NONE ?
+                new BatchCompressor(compressionThreads, clientId) : null;
+            this.adaptiveBatching = adaptiveBatching(config, metrics);
             this.accumulator = new RecordAccumulator(logContext,
                     config.getInt(ProducerConfig.BATCH_SIZE_CONFIG),
                     this.compressionType,
@@ -401,7 +429,13 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                     time,
                     apiVersions,
                     transactionManager,
-                    new BufferPool(this.totalMemorySize, config.getInt(ProducerConfig.BATCH_SIZE_CONFIG), metrics, time, PRODUCER_METRIC_GROUP_NAME));
+                    bufferPool(config, metrics, time),
+                    config.getInt(ProducerConfig.BATCH_APPEND_LANES_CONFIG),
+                    compressor,
+                    adaptiveBatching,
+                    loadStats,
+                    config.getBoolean(ProducerConfig.DICTIONARY_ENCODING_ENABLE_CONFIG),
+                    zstdDictionaries(config));
             List<InetSocketAddress> addresses = ClientUtils.parseAndValidateAddresses(
                     config.getList(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG),
                     config.getString(ProducerConfig.CLIENT_DNS_LOOKUP_CONFIG));
@@ -473,10 +507,67 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                 apiVersions);
     }
 
+    private static AdaptiveBatching adaptiveBatching(ProducerConfig config, Metrics metrics) {
+        if (!config.getBoolean(ProducerConfig.ADAPTIVE_BATCHING_ENABLE_CONFIG))
+            return null;
+        return new AdaptiveBatching(lingerMs(config), config.getInt(ProducerConfig.BATCH_SIZE_CONFIG),
+            configureInflightRequests(config), metrics, PRODUCER_NODE_METRIC_GROUP_NAME);
+    }
+
+    /**
+     * The load of the brokers which the built-in sticky partitioners choose partitions with, if load aware partitioning
+     * is enabled. Other partitioners are not given the load, which is then not tracked.
+     */
+    private static NodeLoadStats nodeLoadStats(ProducerConfig config, Partitioner partitioner, Metrics metrics) {
+        if (!config.getBoolean(ProducerConfig.PARTITIONER_LOAD_AWARE_ENABLE_CONFIG))
+            return null;
+        NodeLoadStats loadStats = new NodeLoadStats(metrics, PRODUCER_NODE_METRIC_GROUP_NAME);
+        if (partitioner.getClass() == DefaultPartitioner.class)
+            ((DefaultPartitioner) partitioner).useNodeLoad(loadStats);
+        else if (partitioner.getClass() == UniformStickyPartitioner.class)
+            ((UniformStickyPartitioner) partitioner).useNodeLoad(loadStats);
+        else
+            return null;
+        return loadStats;
+    }
+
+    /**
+     * The value serializer as a BufferSerializer if values are serialized directly into the batches. Since they are
+     * serialized while the batch is locked, this is only the case for the built-in serializers, which only copy the
+     * value, and not for user serializers, which could stall the other threads appending to the batch and the sender.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> BufferSerializer<V> inPlaceValueSerializer(Serializer<V> valueSerializer) {
+        Class<?> serializerClass = valueSerializer.getClass();
+        if (serializerClass != StringSerializer.class && serializerClass != ByteBufferSerializer.class)
+            return null;
+        BufferSerializer<V> serializer = (BufferSerializer<V>) valueSerializer;
+        return serializer.serializesInPlace() ? serializer : null;
+    }
+
     private static int lingerMs(ProducerConfig config) {
         return (int) Math.min(config.getLong(ProducerConfig.LINGER_MS_CONFIG), Integer.MAX_VALUE);
     }
 
+    /**
+     * The zstd dictionary to compress the batches of each topic with, which is the last one configured for the topic
+     */
+    private static Map<String, ZstdDictionary> zstdDictionaries(ProducerConfig config) {
+        Map<String, ZstdDictionary> dictionaries = new HashMap<>();
+        ClientUtils.loadZstdDictionaries(config.getList(ProducerConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG),
+            ProducerConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG).forEach((topic, topicDictionaries) ->
+                dictionaries.put(topic, topicDictionaries.get(topicDictionaries.size() - 1)));
+        return dictionaries;
+    }
+
+    private static BufferPool bufferPool(ProducerConfig config, Metrics metrics, Time time) {
+        long totalMemorySize = config.getLong(ProducerConfig.BUFFER_MEMORY_CONFIG);
+        int batchSize = config.getInt(ProducerConfig.BATCH_SIZE_CONFIG);
+        if (config.getString(ProducerConfig.BUFFER_POOL_TYPE_CONFIG).equals("slab"))
+            return new SlabBufferPool(totalMemorySize, batchSize, metrics, time, PRODUCER_METRIC_GROUP_NAME);
+        return new BufferPool(totalMemorySize, batchSize, metrics, time, PRODUCER_METRIC_GROUP_NAME);
+    }
+
     private static int configureDeliveryTimeout(ProducerConfig config, Logger log) {
         int deliveryTimeoutMs = config.getInt(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG);
         int lingerMs = lingerMs(config);
@@ -533,9 +624,11 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     }
 
     private static int configureInflightRequests(ProducerConfig config) {
-        if (config.idempotenceEnabled() && 5 < config.getInt(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION)) {
-            throw new ConfigException("Must set " + ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION + " to at most 5" +
-                    " to use the idempotent producer.");
+        int retainedBatches = config.getInt(ProducerConfig.PRODUCER_STATE_RETAINED_BATCHES_CONFIG);
+        if (config.idempotenceEnabled() && retainedBatches < config.getInt(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION)) {
+            throw new ConfigException("Must set " + ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION + " to at most " +
+                    retainedBatches + " to use the idempotent producer, or raise " +
+                    ProducerConfig.PRODUCER_STATE_RETAINED_BATCHES_CONFIG + " if the brokers retain more batches.");
         }
         return config.getInt(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION);
     }
@@ -816,7 +909,55 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     public Future<RecordMetadata> send(ProducerRecord<K, V> record, Callback callback) {
         // intercept the record, which can be potentially modified; this method does not throw exceptions
         ProducerRecord<K, V> interceptedRecord = this.interceptors.onSend(record);
-        return doSend(interceptedRecord, callback);
+        return doSend(interceptedRecord, callback, null);
+    }
+
+    /**
+     * Asynchronously send a group of records, with a single future for all of them rather than a future and a callback
+     * for each record.
+     * <p>
+     * The records are sent as if by {@link #send(ProducerRecord)}, but without a future of their own the producer does
+     * not allocate anything for each record once it is serialized, which reduces garbage collection when sending many
+     * small records. Instead, each batch of records sent to a partition completes the returned future once, whatever the
+     * number of records appended to it. The future completes once all the records have been acknowledged, or fails with
+     * the exception of the first record which failed. Records of other partitions may still have been written even if
+     * the future fails, so this is best suited to applications which handle a failure by resending all the records or
+     * by aborting a transaction.
+     * <p>
+     * With {@link ProducerInterceptor interceptors}, each record still gets a callback so that the interceptors are
+     * notified when it is acknowledged.
+     * <p>
+     * The list can be reused once this returns. If an exception is thrown, the records before the one which failed
+     * may have been sent.
+     *
+     * @param records The records to send
+     * @return A future which completes once all the records have been acknowledged by the server
+     *
+     * @throws AuthenticationException if authentication fails. See the exception for more details
+     * @throws AuthorizationException fatal error indicating that the producer is not allowed to write
+     * @throws IllegalStateException if a transactional.id has been configured and no transaction has been started, or
+     *                               when send is invoked after producer has been closed.
+     * @throws InterruptException If the thread is interrupted while blocked
+     * @throws SerializationException If the key or value are not valid objects given the configured serializers
+     * @throws KafkaException If a Kafka related error occurs that does not belong to the public API exceptions.
+     */
+    @Override
+    public Future<Void> sendBatch(List<ProducerRecord<K, V>> records) {
+        SendBatchFuture future = new SendBatchFuture();
+        boolean untracked = this.interceptors.isEmpty();
+        Callback callback = untracked ? null : (metadata, exception) -> future.complete(exception);
+        for (int i = 0; i < records.size(); i++) {
+            // intercept the record, which can be potentially modified; this method does not throw exceptions
+            ProducerRecord<K, V> interceptedRecord = this.interceptors.onSend(records.get(i));
+            if (untracked) {
+                doSend(interceptedRecord, null, future);
+            } else {
+                future.register();
+                doSend(interceptedRecord, callback, null);
+            }
+        }
+        future.sent();
+        return future;
     }
 
     // Verify that this producer instance has not been closed. This method throws IllegalStateException if the producer
@@ -827,9 +968,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     }
 
     /**
-     * Implementation of asynchronously send a record to a topic.
+     * Implementation of asynchronously send a record to a topic. If sendBatchFuture is not null, the record is sent
+     * without a future or callback of its own and the future returned is null.
      */
-    private Future<RecordMetadata> doSend(ProducerRecord<K, V> record, Callback callback) {
+    private Future<RecordMetadata> doSend(ProducerRecord<K, V> record, Callback callback, SendBatchFuture sendBatchFuture) {
         TopicPartition tp = null;
         try {
             throwIfProducerClosed();
@@ -854,9 +996,18 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                         " to class " + producerConfig.getClass(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG).getName() +
                         " specified in key.serializer", cce);
             }
-            byte[] serializedValue;
+            byte[] serializedValue = null;
+            RecordFieldWriter valueWriter = null;
             try {
-                serializedValue = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+                if (valueBufferSerializer != null && (record.partition() != null || !partitionerUsesValueBytes)) {
+                    // the value is serialized directly into the batch when it is appended
+                    int valueSize = valueBufferSerializer.serializedSize(record.topic(), record.headers(), record.value());
+                    if (valueSize >= 0)
+                        valueWriter = new SerializingValueWriter<>(valueBufferSerializer, record.topic(),
+                            record.headers(), record.value(), valueSize);
+                } else {
+                    serializedValue = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+                }
             } catch (ClassCastException cce) {
                 throw new SerializationException("Can't convert value of class " + record.value().getClass().getName() +
                         " to class " + producerConfig.getClass(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG).getName() +
@@ -868,21 +1019,23 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             setReadOnly(record.headers());
             Header[] headers = record.headers().toArray();
 
+            int serializedValueSize = valueWriter != null ? valueWriter.sizeInBytes() :
+                    serializedValue == null ? -1 : serializedValue.length;
             int serializedSize = AbstractRecords.estimateSizeInBytesUpperBound(apiVersions.maxUsableProduceMagic(),
-                    compressionType, serializedKey, serializedValue, headers);
+                    compressionType, serializedKey == null ? -1 : serializedKey.length, serializedValueSize, headers);
             ensureValidRecordSize(serializedSize);
             long timestamp = record.timestamp() == null ? nowMs : record.timestamp();
             if (log.isTraceEnabled()) {
                 log.trace("Attempting to append record {} with callback {} to topic {} partition {}", record, callback, record.topic(), partition);
             }
             // producer callback will make sure to call both 'callback' and interceptor callback
-            Callback interceptCallback = new InterceptorCallback<>(callback, this.interceptors, tp);
+            Callback interceptCallback = interceptorCallback(callback, tp);
 
             if (transactionManager != null && transactionManager.isTransactional()) {
                 transactionManager.failIfNotReadyForSend();
             }
-            RecordAccumulator.RecordAppendResult result = accumulator.append(tp, timestamp, serializedKey,
-                    serializedValue, headers, interceptCallback, remainingWaitMs, true, nowMs);
+            RecordAccumulator.RecordAppendResult result = append(tp, timestamp, serializedKey, serializedValue,
+                    valueWriter, headers, interceptCallback, sendBatchFuture, remainingWaitMs, true, nowMs);
 
             if (result.abortForNewBatch) {
                 int prevPartition = partition;
@@ -893,10 +1046,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                     log.trace("Retrying append due to new batch creation for topic {} partition {}. The old partition was {}", record.topic(), partition, prevPartition);
                 }
                 // producer callback will make sure to call both 'callback' and interceptor callback
-                interceptCallback = new InterceptorCallback<>(callback, this.interceptors, tp);
+                interceptCallback = interceptorCallback(callback, tp);
 
-                result = accumulator.append(tp, timestamp, serializedKey,
-                    serializedValue, headers, interceptCallback, remainingWaitMs, false, nowMs);
+                result = append(tp, timestamp, serializedKey, serializedValue,
+                    valueWriter, headers, interceptCallback, sendBatchFuture, remainingWaitMs, false, nowMs);
             }
 
             if (transactionManager != null && transactionManager.isTransactional())
@@ -916,6 +1069,11 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                 callback.onCompletion(null, e);
             this.errors.record();
             this.interceptors.onSendError(record, tp, e);
+            if (sendBatchFuture != null) {
+                sendBatchFuture.register();
+                sendBatchFuture.complete(e);
+                return null;
+            }
             return new FutureFailure(e);
         } catch (InterruptedException e) {
             this.errors.record();
@@ -937,6 +1095,34 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         }
     }
 
+    /**
+     * The callback to append a record with, which is null if there is neither a user callback nor interceptors to call
+     */
+    private Callback interceptorCallback(Callback callback, TopicPartition tp) {
+        if (callback == null && this.interceptors.isEmpty())
+            return null;
+        return new InterceptorCallback<>(callback, this.interceptors, tp);
+    }
+
+    private RecordAccumulator.RecordAppendResult append(TopicPartition tp, long timestamp, byte[] serializedKey,
+                                                        byte[] serializedValue, RecordFieldWriter valueWriter,
+                                                        Header[] headers, Callback callback,
+                                                        SendBatchFuture sendBatchFuture, long remainingWaitMs,
+                                                        boolean abortOnNewBatch, long nowMs) throws InterruptedException {
+        if (sendBatchFuture != null) {
+            if (valueWriter != null)
+                return accumulator.appendUntracked(tp, timestamp, serializedKey, valueWriter, headers, sendBatchFuture,
+                    remainingWaitMs, abortOnNewBatch, nowMs);
+            return accumulator.appendUntracked(tp, timestamp, serializedKey, serializedValue, headers, sendBatchFuture,
+                remainingWaitMs, abortOnNewBatch, nowMs);
+        }
+        if (valueWriter != null)
+            return accumulator.append(tp, timestamp, serializedKey, valueWriter, headers, callback, remainingWaitMs,
+                abortOnNewBatch, nowMs);
+        return accumulator.append(tp, timestamp, serializedKey, serializedValue, headers, callback, remainingWaitMs,
+            abortOnNewBatch, nowMs);
+    }
+
     private void setReadOnly(Headers headers) {
         if (headers instanceof RecordHeaders) {
             ((RecordHeaders) headers).setReadOnly();
@@ -1176,6 +1362,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             }
         }
 
+        Utils.closeQuietly(compressor, "producer compressor", firstException);
+        Utils.closeQuietly(adaptiveBatching, "producer adaptive batching", firstException);
         Utils.closeQuietly(interceptors, "producer interceptors", firstException);
         Utils.closeQuietly(metrics, "producer metrics", firstException);
         Utils.closeQuietly(keySerializer, "producer keySerializer", firstException);
@@ -20,6 +20,7 @@ import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
 import org.apache.kafka.clients.producer.internals.FutureRecordMetadata;
 import org.apache.kafka.clients.producer.internals.ProduceRequestResult;
+import org.apache.kafka.clients.producer.internals.SendBatchFuture;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.Metric;
@@ -274,6 +275,24 @@ public class MockProducer<K, V> implements Producer<K, V> {
         return future;
     }
 
+    /**
+     * Adds the records to the list of sent records, like {@link #send(ProducerRecord)} for each of them. The returned
+     * future completes once all of the records are completed, and fails with the error of the first one which failed.
+     *
+     * @see #history()
+     */
+    @Override
+    public synchronized Future<Void> sendBatch(List<ProducerRecord<K, V>> records) {
+        SendBatchFuture future = new SendBatchFuture();
+        Callback callback = (metadata, exception) -> future.complete(exception);
+        for (ProducerRecord<K, V> record : records) {
+            future.register();
+            send(record, callback);
+        }
+        future.sent();
+        return future;
+    }
+
     /**
      * Get the next offset for this topic/partition
      */
@@ -73,6 +73,11 @@ public interface Producer<K, V> extends Closeable {
      */
     Future<RecordMetadata> send(ProducerRecord<K, V> record, Callback callback);
 
+    /**
+     * See {@link KafkaProducer#sendBatch(List)}
+     */
+    Future<Void> sendBatch(List<ProducerRecord<K, V>> records);
+
     /**
      * See {@link KafkaProducer#flush()}
      */
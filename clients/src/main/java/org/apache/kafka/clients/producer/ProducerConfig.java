@@ -76,6 +76,13 @@ public class ProducerConfig extends AbstractConfig {
                                                  + "batching entirely). A very large batch size may use memory a bit more wastefully as we will always allocate a "
                                                  + "buffer of the specified batch size in anticipation of additional records.";
 
+    /** <code>batch.append.lanes</code> */
+    public static final String BATCH_APPEND_LANES_CONFIG = "batch.append.lanes";
+    private static final String BATCH_APPEND_LANES_DOC = "The number of batches of a partition that records can be appended to concurrently. Each thread "
+                                                 + "sending records always appends to the same batch of a partition, so the records sent by a thread to a partition "
+                                                 + "keep their order. Increasing this reduces contention when many threads share a producer and send to the same "
+                                                 + "partitions, at the cost of smaller batches and of up to this many batches of memory per partition.";
+
     /** <code>acks</code> */
     public static final String ACKS_CONFIG = "acks";
     private static final String ACKS_DOC = "The number of acknowledgments the producer requires the leader to have received before considering a request complete. This controls the "
@@ -162,6 +169,14 @@ public class ProducerConfig extends AbstractConfig {
                                                     + "not all memory the producer uses is used for buffering. Some additional memory will be used for compression (if "
                                                     + "compression is enabled) as well as for maintaining in-flight requests.";
 
+    /** <code>buffer.pool.type</code> */
+    public static final String BUFFER_POOL_TYPE_CONFIG = "buffer.pool.type";
+    private static final String BUFFER_POOL_TYPE_DOC = "The kind of pool the producer allocates batch buffers from. With <code>heap</code>, buffers of exactly "
+                                                    + "<code>" + BATCH_SIZE_CONFIG + "</code> bytes are recycled and other buffers are left to the garbage collector. "
+                                                    + "With <code>slab</code>, buffers are allocated in direct memory in size classes of <code>" + BATCH_SIZE_CONFIG + "</code> "
+                                                    + "bytes multiplied by powers of two, which are all recycled, and allocation does not take a lock unless memory is exhausted. "
+                                                    + "Note that direct memory is limited by the JVM's <code>-XX:MaxDirectMemorySize</code> option.";
+
     /** <code>retry.backoff.ms</code> */
     public static final String RETRY_BACKOFF_MS_CONFIG = CommonClientConfigs.RETRY_BACKOFF_MS_CONFIG;
 
@@ -171,6 +186,41 @@ public class ProducerConfig extends AbstractConfig {
                                                        + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, <code>lz4</code>, or <code>zstd</code>. "
                                                        + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression).";
 
+    /** <code>compression.threads</code> */
+    public static final String COMPRESSION_THREADS_CONFIG = "compression.threads";
+    private static final String COMPRESSION_THREADS_DOC = "The number of threads which compress batches of data when they are sent, rather than when records are "
+                                                       + "appended. With 0, records are compressed by the threads sending them as they are appended to a batch. Otherwise, records "
+                                                       + "are appended uncompressed, batches are filled with as much data as they are expected to compress into <code>" + BATCH_SIZE_CONFIG + "</code> "
+                                                       + "bytes, and the batches of a request are compressed in parallel by this many threads before the request is sent. "
+                                                       + "This moves the cost of compression off the sending threads at the cost of more buffer memory per batch. "
+                                                       + "It has no effect if <code>" + COMPRESSION_TYPE_CONFIG + "</code> is <code>none</code>.";
+
+    /** <code>compression.zstd.dictionaries</code> */
+    public static final String COMPRESSION_ZSTD_DICTIONARIES_CONFIG = "compression.zstd.dictionaries";
+    private static final String COMPRESSION_ZSTD_DICTIONARIES_DOC = "A list of zstd dictionaries of topics in the form <code>topic:path</code>, where the file at path is a "
+                                                       + "dictionary trained on records of the topic with <code>kafka-zstd-dictionary-trainer.sh</code>. When <code>" + COMPRESSION_TYPE_CONFIG + "</code> "
+                                                       + "is <code>zstd</code>, the producer compresses the batches of these topics with their dictionary, which improves the compression "
+                                                       + "ratio of small batches a lot. The brokers must support produce request version 10, and the dictionary must be in the "
+                                                       + "<code>compression.zstd.dictionaries</code> config of the topic, so that the brokers can read the batches. If a topic "
+                                                       + "has more than one dictionary, the last one is used.";
+
+    /** <code>dictionary.encoding.enable</code> */
+    public static final String DICTIONARY_ENCODING_ENABLE_CONFIG = "dictionary.encoding.enable";
+    private static final String DICTIONARY_ENCODING_ENABLE_DOC = "When set to 'true', the producer writes batches in the dictionary encoding, in which records do not "
+                                                       + "repeat the header keys, header values and key prefixes of the previous records of their batch. This makes batches of records with "
+                                                       + "similar keys and the same headers smaller, before and after compression. The brokers must support produce request version 9, "
+                                                       + "and they only store the batches as they are for topics with <code>message.dictionary.encoding.enable</code> set to true, "
+                                                       + "for which they convert the batches for consumers that do not support the encoding. Note that sends fail with an "
+                                                       + "<code>UnsupportedVersionException</code> if the brokers do not support the encoding.";
+
+    /** <code>adaptive.batching.enable</code> */
+    public static final String ADAPTIVE_BATCHING_ENABLE_CONFIG = "adaptive.batching.enable";
+    private static final String ADAPTIVE_BATCHING_ENABLE_DOC = "When set to 'true', the producer tunes how long it lingers and how large a batch it waits for "
+                                                       + "separately for each broker, from the observed produce request latency, the number of in-flight requests and the rate at "
+                                                       + "which data is sent to the broker. Lightly loaded brokers are sent batches sooner, while loaded brokers are sent larger batches. "
+                                                       + "<code>" + LINGER_MS_CONFIG + "</code> and <code>" + BATCH_SIZE_CONFIG + "</code> then give the upper bounds of the tuned values. "
+                                                       + "The tuned values are exposed as the <code>effective-linger-ms</code> and <code>effective-batch-size</code> metrics of each broker.";
+
     /** <code>metrics.sample.window.ms</code> */
     public static final String METRICS_SAMPLE_WINDOW_MS_CONFIG = CommonClientConfigs.METRICS_SAMPLE_WINDOW_MS_CONFIG;
 
@@ -218,17 +268,36 @@ public class ProducerConfig extends AbstractConfig {
     public static final String PARTITIONER_CLASS_CONFIG = "partitioner.class";
     private static final String PARTITIONER_CLASS_DOC = "Partitioner class that implements the <code>org.apache.kafka.clients.producer.Partitioner</code> interface.";
 
+    /** <code>partitioner.load.aware.enable</code> */
+    public static final String PARTITIONER_LOAD_AWARE_ENABLE_CONFIG = "partitioner.load.aware.enable";
+    private static final String PARTITIONER_LOAD_AWARE_ENABLE_DOC = "When set to 'true', the built-in sticky partitioners choose a new sticky partition for records "
+                                                        + "without a key which is more likely the fewer bytes are queued for or in flight to its leader than to the most loaded leader, so that "
+                                                        + "less traffic goes to brokers which are falling behind. The partitions of the most loaded leader are still chosen at least half "
+                                                        + "as often as those of an idle leader. The load and the number of sticky partitions chosen "
+                                                        + "for each broker are exposed as the <code>partitioner-load-bytes</code> and <code>partitioner-sticky-partition-total</code> metrics. "
+                                                        + "It has no effect on custom partitioners.";
+
     /** <code>interceptor.classes</code> */
     public static final String INTERCEPTOR_CLASSES_CONFIG = "interceptor.classes";
     public static final String INTERCEPTOR_CLASSES_DOC = "A list of classes to use as interceptors. "
                                                         + "Implementing the <code>org.apache.kafka.clients.producer.ProducerInterceptor</code> interface allows you to intercept (and possibly mutate) the records "
                                                         + "received by the producer before they are published to the Kafka cluster. By default, there are no interceptors.";
 
+    /** <code>producer.state.retained.batches</code> */
+    public static final String PRODUCER_STATE_RETAINED_BATCHES_CONFIG = "producer.state.retained.batches";
+    private static final String PRODUCER_STATE_RETAINED_BATCHES_DOC = "The number of most recent batches of each producer which the brokers retain "
+                                                        + "for each partition to detect duplicates, as configured by the broker config of the same name. An idempotent producer may have at most "
+                                                        + "this many requests in flight per connection, so raising both allows the producer to pipeline more requests on high latency links. "
+                                                        + "The producer never has more requests in flight to a broker than the number of batches the broker reports to retain, "
+                                                        + "or 5 for brokers which do not report it, so raising this only has an effect on brokers configured to retain more batches.";
+    static final int DEFAULT_PRODUCER_STATE_RETAINED_BATCHES = 5;
+
     /** <code>enable.idempotence</code> */
     public static final String ENABLE_IDEMPOTENCE_CONFIG = "enable.idempotence";
     public static final String ENABLE_IDEMPOTENCE_DOC = "When set to 'true', the producer will ensure that exactly one copy of each message is written in the stream. If 'false', producer "
                                                         + "retries due to broker failures, etc., may write duplicates of the retried message in the stream. "
-                                                        + "Note that enabling idempotence requires <code>" + MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION + "</code> to be less than or equal to 5, "
+                                                        + "Note that enabling idempotence requires <code>" + MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION + "</code> to be less than or equal to "
+                                                        + "<code>" + PRODUCER_STATE_RETAINED_BATCHES_CONFIG + "</code>, which is 5 by default, "
                                                         + "<code>" + RETRIES_CONFIG + "</code> to be greater than 0 and <code>" + ACKS_CONFIG + "</code> must be 'all'. If these values "
                                                         + "are not explicitly set by the user, suitable values will be chosen. If incompatible values are set, "
                                                         + "a <code>ConfigException</code> will be thrown.";
@@ -264,6 +333,12 @@ public class ProducerConfig extends AbstractConfig {
                                         Importance.MEDIUM,
                                         CommonClientConfigs.CLIENT_DNS_LOOKUP_DOC)
                                 .define(BUFFER_MEMORY_CONFIG, Type.LONG, 32 * 1024 * 1024L, atLeast(0L), Importance.HIGH, BUFFER_MEMORY_DOC)
+                                .define(BUFFER_POOL_TYPE_CONFIG,
+                                        Type.STRING,
+                                        "heap",
+                                        in("heap", "slab"),
+                                        Importance.LOW,
+                                        BUFFER_POOL_TYPE_DOC)
                                 .define(RETRIES_CONFIG, Type.INT, Integer.MAX_VALUE, between(0, Integer.MAX_VALUE), Importance.HIGH, RETRIES_DOC)
                                 .define(ACKS_CONFIG,
                                         Type.STRING,
@@ -272,7 +347,12 @@ public class ProducerConfig extends AbstractConfig {
                                         Importance.HIGH,
                                         ACKS_DOC)
                                 .define(COMPRESSION_TYPE_CONFIG, Type.STRING, "none", Importance.HIGH, COMPRESSION_TYPE_DOC)
+                                .define(COMPRESSION_THREADS_CONFIG, Type.INT, 0, atLeast(0), Importance.LOW, COMPRESSION_THREADS_DOC)
+                                .define(COMPRESSION_ZSTD_DICTIONARIES_CONFIG, Type.LIST, Collections.emptyList(), Importance.LOW, COMPRESSION_ZSTD_DICTIONARIES_DOC)
+                                .define(DICTIONARY_ENCODING_ENABLE_CONFIG, Type.BOOLEAN, false, Importance.LOW, DICTIONARY_ENCODING_ENABLE_DOC)
+                                .define(ADAPTIVE_BATCHING_ENABLE_CONFIG, Type.BOOLEAN, false, Importance.LOW, ADAPTIVE_BATCHING_ENABLE_DOC)
                                 .define(BATCH_SIZE_CONFIG, Type.INT, 16384, atLeast(0), Importance.MEDIUM, BATCH_SIZE_DOC)
+                                .define(BATCH_APPEND_LANES_CONFIG, Type.INT, 1, atLeast(1), Importance.LOW, BATCH_APPEND_LANES_DOC)
                                 .define(LINGER_MS_CONFIG, Type.LONG, 0, atLeast(0), Importance.MEDIUM, LINGER_MS_DOC)
                                 .define(DELIVERY_TIMEOUT_MS_CONFIG, Type.INT, 120 * 1000, atLeast(0), Importance.MEDIUM, DELIVERY_TIMEOUT_MS_DOC)
                                 .define(CLIENT_ID_CONFIG, Type.STRING, "", Importance.MEDIUM, CommonClientConfigs.CLIENT_ID_DOC)
@@ -343,6 +423,11 @@ public class ProducerConfig extends AbstractConfig {
                                         Type.CLASS,
                                         DefaultPartitioner.class,
                                         Importance.MEDIUM, PARTITIONER_CLASS_DOC)
+                                .define(PARTITIONER_LOAD_AWARE_ENABLE_CONFIG,
+                                        Type.BOOLEAN,
+                                        false,
+                                        Importance.LOW,
+                                        PARTITIONER_LOAD_AWARE_ENABLE_DOC)
                                 .define(INTERCEPTOR_CLASSES_CONFIG,
                                         Type.LIST,
                                         Collections.emptyList(),
@@ -366,6 +451,12 @@ public class ProducerConfig extends AbstractConfig {
                                         false,
                                         Importance.LOW,
                                         ENABLE_IDEMPOTENCE_DOC)
+                                .define(PRODUCER_STATE_RETAINED_BATCHES_CONFIG,
+                                        Type.INT,
+                                        DEFAULT_PRODUCER_STATE_RETAINED_BATCHES,
+                                        atLeast(DEFAULT_PRODUCER_STATE_RETAINED_BATCHES),
+                                        Importance.LOW,
+                                        PRODUCER_STATE_RETAINED_BATCHES_DOC)
                                 .define(TRANSACTION_TIMEOUT_CONFIG,
                                         Type.INT,
                                         60000,
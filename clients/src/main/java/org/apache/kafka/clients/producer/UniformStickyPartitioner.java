@@ -18,6 +18,7 @@ package org.apache.kafka.clients.producer;
 
 import java.util.Map;
 
+import org.apache.kafka.clients.producer.internals.NodeLoadStats;
 import org.apache.kafka.clients.producer.internals.StickyPartitionCache;
 import org.apache.kafka.common.Cluster;
 
@@ -26,7 +27,8 @@ import org.apache.kafka.common.Cluster;
  * The partitioning strategy:
  * <ul>
  * <li>If a partition is specified in the record, use it
- * <li>Otherwise choose the sticky partition that changes when the batch is full.
+ * <li>Otherwise choose the sticky partition that changes when the batch is full. With
+ * <code>partitioner.load.aware.enable</code>, partitions of less loaded brokers are more likely to be chosen.
  * 
  * NOTE: In constrast to the DefaultPartitioner, the record key is NOT used as part of the partitioning strategy in this 
  *       partitioner. Records with the same key are not guaranteed to be sent to the same partition.
@@ -35,10 +37,18 @@ import org.apache.kafka.common.Cluster;
  */
 public class UniformStickyPartitioner implements Partitioner {
 
-    private final StickyPartitionCache stickyPartitionCache = new StickyPartitionCache();
+    private StickyPartitionCache stickyPartitionCache = new StickyPartitionCache();
 
     public void configure(Map<String, ?> configs) {}
 
+    /**
+     * Choose the sticky partitions with the given load of the brokers. This is called by the producer which created
+     * the partitioner, before any record is partitioned.
+     */
+    void useNodeLoad(NodeLoadStats loadStats) {
+        stickyPartitionCache = new StickyPartitionCache(loadStats);
+    }
+
     /**
      * Compute the partition for the given record.
      *
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tunes how long the batches sent to each broker linger and how large they grow before they are sent, between zero
+ * and the configured linger time and batch size.
+ * <p>
+ * While a broker has no requests in flight, a batch is sent as soon as possible since there is nothing to wait for.
+ * As the requests in flight to a broker approach the maximum, a new request would wait for earlier ones anyway, so
+ * batches linger for up to the recent produce latency of the broker in proportion to the requests in flight. The
+ * target size of a batch is what is expected to be appended during its linger time, at the rate data has recently
+ * been sent to the broker; a batch is sent once it reaches the target size even if it lingered for less time.
+ * <p>
+ * Brokers for which no produce latency or rate has been observed yet use the configured linger time and batch size.
+ * This class is only updated by the sender thread, while the effective values are exposed as metrics of each broker.
+ * The metrics of a broker are removed once it is no longer in the cluster, and those of all brokers when this is
+ * closed.
+ */
+public class AdaptiveBatching implements Closeable {
+    // the weight of a new observation in the moving averages of the produce latency and of the sent bytes rate
+    private static final double SMOOTHING_FACTOR = 0.2;
+
+    private final long maxLingerMs;
+    private final int maxBatchSize;
+    private final int maxInFlightRequests;
+    private final Metrics metrics;
+    private final String metricGrpName;
+    private final Map<Integer, NodeBatching> nodes = new ConcurrentHashMap<>();
+    // the cluster the brokers were last retained for
+    private Cluster cluster;
+
+    public AdaptiveBatching(long maxLingerMs, int maxBatchSize, int maxInFlightRequests, Metrics metrics,
+                            String metricGrpName) {
+        this.maxLingerMs = maxLingerMs;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.metrics = metrics;
+        this.metricGrpName = metricGrpName;
+    }
+
+    /**
+     * The time batches sent to the given broker linger before they are sent
+     */
+    public long lingerMs(int nodeId) {
+        NodeBatching node = nodes.get(nodeId);
+        return node == null ? maxLingerMs : node.lingerMs;
+    }
+
+    /**
+     * The size in bytes at which batches sent to the given broker are sent even if they lingered for less than
+     * {@link #lingerMs(int)}
+     */
+    public int batchSize(int nodeId) {
+        NodeBatching node = nodes.get(nodeId);
+        return node == null ? maxBatchSize : node.batchSize;
+    }
+
+    /**
+     * Record that a produce request of the given size was sent to a broker, which now has the given number of requests
+     * in flight.
+     */
+    public void onRequestSent(int nodeId, int sizeInBytes, int inFlightRequests, long nowMs) {
+        NodeBatching node = node(nodeId, nowMs);
+        node.pendingBytes += sizeInBytes;
+        long elapsedMs = nowMs - node.lastRateUpdateMs;
+        if (elapsedMs > 0) {
+            node.bytesPerMs = average(node.bytesPerMs, (double) node.pendingBytes / elapsedMs);
+            node.pendingBytes = 0;
+            node.lastRateUpdateMs = nowMs;
+        }
+        update(node, inFlightRequests);
+    }
+
+    /**
+     * Record the latency of a produce request to a broker, which now has the given number of requests in flight.
+     */
+    public void onResponse(int nodeId, long latencyMs, int inFlightRequests, long nowMs) {
+        NodeBatching node = node(nodeId, nowMs);
+        node.latencyMs = node.latencyMs < 0 ? latencyMs : average(node.latencyMs, latencyMs);
+        update(node, inFlightRequests);
+    }
+
+    /**
+     * Forget the brokers which are not in the given cluster, and remove their metrics
+     */
+    public void retainNodes(Cluster cluster) {
+        if (cluster == this.cluster)
+            return;
+        this.cluster = cluster;
+        Iterator<Integer> iter = nodes.keySet().iterator();
+        while (iter.hasNext()) {
+            int nodeId = iter.next();
+            if (cluster.nodeById(nodeId) == null) {
+                iter.remove();
+                removeMetrics(nodeId);
+            }
+        }
+    }
+
+    /**
+     * Remove the metrics of all brokers
+     */
+    @Override
+    public void close() {
+        Iterator<Integer> iter = nodes.keySet().iterator();
+        while (iter.hasNext()) {
+            int nodeId = iter.next();
+            iter.remove();
+            removeMetrics(nodeId);
+        }
+    }
+
+    private void update(NodeBatching node, int inFlightRequests) {
+        if (node.latencyMs < 0)
+            return;
+        double load = Math.min(1.0, (double) inFlightRequests / maxInFlightRequests);
+        long lingerMs = Math.min(maxLingerMs, Math.round(node.latencyMs * load));
+        node.lingerMs = lingerMs;
+        // until a rate has been observed, batches are only sent early once they are full
+        if (node.bytesPerMs > 0)
+            node.batchSize = (int) Math.min(maxBatchSize, Math.round(node.bytesPerMs * lingerMs));
+    }
+
+    private static double average(double average, double value) {
+        return average + SMOOTHING_FACTOR * (value - average);
+    }
+
+    private NodeBatching node(int nodeId, long nowMs) {
+        NodeBatching node = nodes.get(nodeId);
+        if (node == null) {
+            node = new NodeBatching(nowMs, maxLingerMs, maxBatchSize);
+            nodes.put(nodeId, node);
+            registerMetrics(nodeId, node);
+        }
+        return node;
+    }
+
+    private void registerMetrics(int nodeId, NodeBatching node) {
+        metrics.addMetric(lingerMsMetricName(nodeId), new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return node.lingerMs;
+            }
+        });
+        metrics.addMetric(batchSizeMetricName(nodeId), new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return node.batchSize;
+            }
+        });
+    }
+
+    private void removeMetrics(int nodeId) {
+        metrics.removeMetric(lingerMsMetricName(nodeId));
+        metrics.removeMetric(batchSizeMetricName(nodeId));
+    }
+
+    private MetricName lingerMsMetricName(int nodeId) {
+        return metrics.metricName("effective-linger-ms", metricGrpName,
+            "The time batches sent to the broker currently linger before they are sent.", tags(nodeId));
+    }
+
+    private MetricName batchSizeMetricName(int nodeId) {
+        return metrics.metricName("effective-batch-size", metricGrpName,
+            "The size in bytes at which batches sent to the broker are currently sent without lingering any longer.",
+            tags(nodeId));
+    }
+
+    private static Map<String, String> tags(int nodeId) {
+        return Collections.singletonMap("node-id", "node-" + nodeId);
+    }
+
+    private static final class NodeBatching {
+        private double latencyMs = -1;
+        private double bytesPerMs;
+        private long pendingBytes;
+        private long lastRateUpdateMs;
+        private volatile long lingerMs;
+        private volatile int batchSize;
+
+        private NodeBatching(long nowMs, long lingerMs, int batchSize) {
+            this.lastRateUpdateMs = nowMs;
+            this.lingerMs = lingerMs;
+            this.batchSize = batchSize;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.utils.KafkaThread;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of threads which compress the records of drained batches whose compression was deferred, so that
+ * neither the threads appending records nor the sender thread spend their time compressing records, and so that the
+ * batches of a produce request are compressed in parallel.
+ */
+public class BatchCompressor implements Closeable {
+    private final ExecutorService executor;
+
+    public BatchCompressor(int numThreads, String clientId) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("The number of compression threads must be at least 1, but was " + numThreads);
+        AtomicInteger threadCount = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(numThreads, runnable -> KafkaThread.daemon(
+            "kafka-producer-compression-thread-" + clientId + "-" + threadCount.incrementAndGet(), runnable));
+    }
+
+    /**
+     * Compress the records of the given batches which need it, and wait until they are all compressed. The last batch
+     * is compressed by the calling thread rather than waiting idle. A batch whose records could not be compressed
+     * records the failure, see {@link ProducerBatch#compressionException()}, and the other batches are still compressed.
+     */
+    public void compress(Collection<List<ProducerBatch>> batches) {
+        List<ProducerBatch> toCompress = new ArrayList<>();
+        for (List<ProducerBatch> nodeBatches : batches) {
+            for (ProducerBatch batch : nodeBatches) {
+                if (batch.needsCompression())
+                    toCompress.add(batch);
+            }
+        }
+        if (toCompress.isEmpty())
+            return;
+
+        Map<ProducerBatch, Future<?>> futures = new LinkedHashMap<>();
+        for (ProducerBatch batch : toCompress.subList(0, toCompress.size() - 1)) {
+            try {
+                futures.put(batch, executor.submit(batch::compressRecords));
+            } catch (RejectedExecutionException e) {
+                // the compressor is closed while the sender still sends the remaining batches
+                batch.compressRecords();
+            }
+        }
+        toCompress.get(toCompress.size() - 1).compressRecords();
+        awaitAll(futures);
+    }
+
+    private static void awaitAll(Map<ProducerBatch, Future<?>> futures) {
+        boolean interrupted = false;
+        try {
+            for (Map.Entry<ProducerBatch, Future<?>> entry : futures.entrySet()) {
+                while (true) {
+                    try {
+                        entry.getValue().get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // the batches must not be sent before they are compressed, so keep waiting
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        // only the batch is failed, since the other batches have left their deques too
+                        entry.getKey().failCompression(new KafkaException("Unexpected error while compressing the " +
+                            "records of batch for topic-partition " + entry.getKey().topicPartition, e.getCause()));
+                        break;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the compression threads once the batches submitted so far are compressed. Batches which are compressed
+     * afterwards are compressed by the calling thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -29,16 +29,25 @@ import org.apache.kafka.common.utils.Utils;
  * <ul>
  * <li>If a partition is specified in the record, use it
  * <li>If no partition is specified but a key is present choose a partition based on a hash of the key
- * <li>If no partition or key is present choose the sticky partition that changes when the batch is full.
+ * <li>If no partition or key is present choose the sticky partition that changes when the batch is full. With
+ * <code>partitioner.load.aware.enable</code>, partitions of less loaded brokers are more likely to be chosen.
  * 
  * See KIP-480 for details about sticky partitioning.
  */
 public class DefaultPartitioner implements Partitioner {
 
-    private final StickyPartitionCache stickyPartitionCache = new StickyPartitionCache();
+    private StickyPartitionCache stickyPartitionCache = new StickyPartitionCache();
 
     public void configure(Map<String, ?> configs) {}
 
+    /**
+     * Choose the sticky partitions with the given load of the brokers. This is called by the producer which created
+     * the partitioner, before any record is partitioned.
+     */
+    public void useNodeLoad(NodeLoadStats loadStats) {
+        stickyPartitionCache = new StickyPartitionCache(loadStats);
+    }
+
     /**
      * Compute the partition for the given record.
      *
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Meter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The load of each broker as seen by the producer, which is the number of bytes of the batches queued in the
+ * accumulator for the partitions it leads plus the number of bytes of the produce requests in flight to it. The
+ * accumulator counts each batch against the load of a broker as records are appended to it, moves it to the broker it
+ * is sent to when it is drained, and stops counting it when it is deallocated, while the sticky partitioners read the
+ * load to prefer the partitions of less loaded brokers.
+ * <p>
+ * The load and the number of sticky partitions chosen for each broker are exposed as metrics of the broker, which shows
+ * how traffic is distributed between the brokers.
+ */
+public class NodeLoadStats {
+    private final Metrics metrics;
+    private final String metricGrpName;
+    private final ConcurrentMap<Integer, NodeLoad> nodes = new ConcurrentHashMap<>();
+    // the cluster whose leaders the new batches are counted against
+    private volatile Cluster cluster;
+
+    public NodeLoadStats(Metrics metrics, String metricGrpName) {
+        this.metrics = metrics;
+        this.metricGrpName = metricGrpName;
+    }
+
+    /**
+     * The load of the given broker in bytes, which is 0 for brokers which have not been sent any data yet
+     */
+    public long load(int nodeId) {
+        NodeLoad node = nodes.get(nodeId);
+        return node == null ? 0 : node.bytes.sum();
+    }
+
+    /**
+     * Update the cluster whose partition leaders the batches queued from now on are counted against
+     */
+    void updateLeaders(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Count the given queued batch against the load of the leader of its partition, instead of the broker it was
+     * counted against so far. The batch is not counted if the leader is not known.
+     */
+    void countQueued(ProducerBatch batch) {
+        batch.uncountLoad();
+        Cluster cluster = this.cluster;
+        Node leader = cluster == null ? null : cluster.leaderFor(batch.topicPartition);
+        if (leader != null)
+            batch.countLoad(node(leader.id()));
+    }
+
+    /**
+     * Count the given drained batch against the load of the broker it is sent to, instead of the broker it was counted
+     * against while queued
+     */
+    void countInFlight(ProducerBatch batch, int nodeId) {
+        batch.uncountLoad();
+        batch.countLoad(node(nodeId));
+    }
+
+    /**
+     * Record that a sticky partition led by the given broker was chosen
+     */
+    public void recordStickyPartition(int nodeId) {
+        node(nodeId).stickyPartitions.record();
+    }
+
+    private NodeLoad node(int nodeId) {
+        NodeLoad node = nodes.get(nodeId);
+        return node == null ? nodes.computeIfAbsent(nodeId, NodeLoad::new) : node;
+    }
+
+    private Map<String, String> tags(int nodeId) {
+        return Collections.singletonMap("node-id", "node-" + nodeId);
+    }
+
+    final class NodeLoad {
+        private final LongAdder bytes = new LongAdder();
+        private final Sensor stickyPartitions;
+
+        private NodeLoad(int nodeId) {
+            Map<String, String> tags = tags(nodeId);
+            MetricName metricName = metrics.metricName("partitioner-load-bytes", metricGrpName,
+                "The number of bytes queued for or in flight to the broker, which the partitioner uses to prefer the partitions of less loaded brokers.",
+                tags);
+            metrics.addMetric(metricName, new Measurable() {
+                public double measure(MetricConfig config, long now) {
+                    return bytes.sum();
+                }
+            });
+            this.stickyPartitions = metrics.sensor("node-" + nodeId + ".sticky-partitions");
+            this.stickyPartitions.add(new Meter(
+                metrics.metricName("partitioner-sticky-partition-rate", metricGrpName,
+                    "The number of sticky partitions led by the broker chosen per second.", tags),
+                metrics.metricName("partitioner-sticky-partition-total", metricGrpName,
+                    "The total number of sticky partitions led by the broker chosen.", tags)));
+        }
+
+        void add(long bytes) {
+            this.bytes.add(bytes);
+        }
+    }
+}
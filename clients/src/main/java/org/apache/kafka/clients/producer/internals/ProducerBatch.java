@@ -19,20 +19,28 @@ package org.apache.kafka.clients.producer.internals;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.common.utils.ProducerIdAndEpoch;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.RecordBatchTooLargeException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.record.AbstractRecords;
+import org.apache.kafka.common.record.BufferSupplier;
 import org.apache.kafka.common.record.CompressionRatioEstimator;
 import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.DefaultRecordBatch;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.RecordFieldWriter;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.record.ZstdDictionaries;
+import org.apache.kafka.common.record.ZstdDictionary;
 import org.apache.kafka.common.requests.ProduceResponse;
+import org.apache.kafka.common.utils.CloseableIterator;
 import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,8 +71,12 @@ public final class ProducerBatch {
     final TopicPartition topicPartition;
     final ProduceRequestResult produceFuture;
 
+    // the thunk of each record, which is null for records appended without a future of their own
     private final List<Thunk> thunks = new ArrayList<>();
     private final MemoryRecordsBuilder recordsBuilder;
+    // the compression of records which are appended uncompressed and compressed by compressRecords() once closed
+    private final CompressionType deferredCompressionType;
+    private final ZstdDictionary deferredZstdDictionary;
     private final AtomicInteger attempts = new AtomicInteger(0);
     private final boolean isSplitBatch;
     private final AtomicReference<FinalState> finalState = new AtomicReference<>(null);
@@ -76,12 +88,46 @@ public final class ProducerBatch {
     private long drainedMs;
     private boolean retry;
     private boolean reopened;
+    // the records compressed by compressRecords(), which replaced the uncompressed records in the buffer of the batch
+    private MemoryRecords compressedRecords;
+    private DefaultRecordBatch compressedBatch;
+    private double compressedRatio;
+    // whether compressRecords() did not make the records smaller, so that the compressed records are kept in a heap
+    // buffer of their own rather than in the buffer of the batch
+    private boolean incompressible;
+    // the failure of compressRecords(), which fails the batch rather than sending its records uncompressed
+    private RuntimeException compressionException;
+    // the size and fullness of the records appended so far, published for the sender thread, which reads them
+    // without holding the lock of the append lane the records are appended through
+    private volatile int appendedSizeInBytes;
+    private volatile boolean appendedFull;
+    // the load of the broker the batch is counted against for the partitioner, and the bytes it is counted with
+    private NodeLoadStats.NodeLoad load;
+    private int loadBytes;
+    // the futures which records were appended for by tryAppendUntracked()
+    private List<SendBatchFuture> sendBatchFutures;
 
     public ProducerBatch(TopicPartition tp, MemoryRecordsBuilder recordsBuilder, long createdMs) {
         this(tp, recordsBuilder, createdMs, false);
     }
 
     public ProducerBatch(TopicPartition tp, MemoryRecordsBuilder recordsBuilder, long createdMs, boolean isSplitBatch) {
+        this(tp, recordsBuilder, createdMs, isSplitBatch, null, null);
+    }
+
+    /**
+     * Create a batch whose records are appended uncompressed to the given builder, and compressed with the given
+     * compression type, and zstd dictionary if it is not null, by {@link #compressRecords()} once the batch is closed.
+     */
+    public ProducerBatch(TopicPartition tp, MemoryRecordsBuilder recordsBuilder, long createdMs,
+                         CompressionType deferredCompressionType, ZstdDictionary deferredZstdDictionary) {
+        this(tp, recordsBuilder, createdMs, false, deferredCompressionType, deferredZstdDictionary);
+    }
+
+    private ProducerBatch(TopicPartition tp, MemoryRecordsBuilder recordsBuilder, long createdMs, boolean isSplitBatch,
+                          CompressionType deferredCompressionType, ZstdDictionary deferredZstdDictionary) {
+        if (deferredCompressionType != null && recordsBuilder.compressionType() != CompressionType.NONE)
+            throw new IllegalArgumentException("The records of a batch with deferred compression must be appended uncompressed");
         this.createdMs = createdMs;
         this.lastAttemptMs = createdMs;
         this.recordsBuilder = recordsBuilder;
@@ -90,9 +136,12 @@ public final class ProducerBatch {
         this.produceFuture = new ProduceRequestResult(topicPartition);
         this.retry = false;
         this.isSplitBatch = isSplitBatch;
+        this.deferredCompressionType = deferredCompressionType;
+        this.deferredZstdDictionary = deferredZstdDictionary;
         float compressionRatioEstimation = CompressionRatioEstimator.estimation(topicPartition.topic(),
                                                                                 recordsBuilder.compressionType());
         recordsBuilder.setEstimatedCompressionRatio(compressionRatioEstimation);
+        publishAppendedState();
     }
 
     /**
@@ -105,22 +154,131 @@ public final class ProducerBatch {
             return null;
         } else {
             Long checksum = this.recordsBuilder.append(timestamp, key, value, headers);
-            this.maxRecordSize = Math.max(this.maxRecordSize, AbstractRecords.estimateSizeInBytesUpperBound(magic(),
-                    recordsBuilder.compressionType(), key, value, headers));
-            this.lastAppendTime = now;
-            FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, this.recordCount,
-                                                                   timestamp, checksum,
-                                                                   key == null ? -1 : key.length,
-                                                                   value == null ? -1 : value.length,
-                                                                   Time.SYSTEM);
-            // we have to keep every future returned to the users in case the batch needs to be
-            // split to several new batches and resent.
-            thunks.add(new Thunk(callback, future));
-            this.recordCount++;
-            return future;
+            return appended(timestamp, checksum, key == null ? -1 : key.length, value == null ? -1 : value.length,
+                    headers, callback, now);
+        }
+    }
+
+    /**
+     * Append the record, whose value writes itself into the batch, to the current record set and return the relative
+     * offset within that record set
+     *
+     * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
+     */
+    public FutureRecordMetadata tryAppend(long timestamp, byte[] key, RecordFieldWriter value, Header[] headers, Callback callback, long now) {
+        if (!recordsBuilder.hasRoomFor(timestamp, key, value, headers)) {
+            return null;
+        } else {
+            Long checksum = this.recordsBuilder.append(timestamp, Utils.wrapNullable(key), value, headers);
+            return appended(timestamp, checksum, key == null ? -1 : key.length, value.sizeInBytes(), headers,
+                    callback, now);
+        }
+    }
+
+    /**
+     * Append the record to the current record set without a future or callback of its own. Instead, the batch
+     * completes the given future once, whatever the number of records appended for it.
+     *
+     * @return true if the record has been appended, false if there isn't sufficient room
+     */
+    public boolean tryAppendUntracked(long timestamp, byte[] key, byte[] value, Header[] headers,
+                                      SendBatchFuture future, long now) {
+        if (!recordsBuilder.hasRoomFor(timestamp, key, value, headers))
+            return false;
+        this.recordsBuilder.append(timestamp, key, value, headers);
+        appendedUntracked(key == null ? -1 : key.length, value == null ? -1 : value.length, headers, future, now);
+        return true;
+    }
+
+    /**
+     * Append the record, whose value writes itself into the batch, to the current record set without a future or
+     * callback of its own.
+     *
+     * @return true if the record has been appended, false if there isn't sufficient room
+     * @see #tryAppendUntracked(long, byte[], byte[], Header[], SendBatchFuture, long)
+     */
+    public boolean tryAppendUntracked(long timestamp, byte[] key, RecordFieldWriter value, Header[] headers,
+                                      SendBatchFuture future, long now) {
+        if (!recordsBuilder.hasRoomFor(timestamp, key, value, headers))
+            return false;
+        this.recordsBuilder.append(timestamp, Utils.wrapNullable(key), value, headers);
+        appendedUntracked(key == null ? -1 : key.length, value.sizeInBytes(), headers, future, now);
+        return true;
+    }
+
+    private void appendedUntracked(int keySize, int valueSize, Header[] headers, SendBatchFuture future, long now) {
+        recordAppended(keySize, valueSize, headers, now);
+        thunks.add(null);
+        addSendBatchFuture(future);
+        this.recordCount++;
+    }
+
+    /**
+     * Register the future with this batch, unless it is the last one registered. A future whose records are
+     * interleaved with those of other futures may be registered more than once, and is completed as many times.
+     */
+    private void addSendBatchFuture(SendBatchFuture future) {
+        if (sendBatchFutures == null)
+            sendBatchFutures = new ArrayList<>(1);
+        else if (sendBatchFutures.get(sendBatchFutures.size() - 1) == future)
+            return;
+        future.register();
+        sendBatchFutures.add(future);
+    }
+
+    private void recordAppended(int keySize, int valueSize, Header[] headers, long now) {
+        this.maxRecordSize = Math.max(this.maxRecordSize, AbstractRecords.estimateSizeInBytesUpperBound(magic(),
+                recordsBuilder.compressionType(), keySize, valueSize, headers));
+        this.lastAppendTime = now;
+        publishAppendedState();
+    }
+
+    private void publishAppendedState() {
+        appendedSizeInBytes = recordsBuilder.estimatedSizeInBytes();
+        appendedFull = recordsBuilder.isFull();
+        if (load != null) {
+            int sizeInBytes = estimatedSizeInBytes();
+            load.add(sizeInBytes - loadBytes);
+            loadBytes = sizeInBytes;
+        }
+    }
+
+    /**
+     * Count the batch against the given load, with its estimated size until it stops being counted. Appending records
+     * to the batch adds them to the load.
+     */
+    void countLoad(NodeLoadStats.NodeLoad load) {
+        this.load = load;
+        this.loadBytes = estimatedSizeInBytes();
+        load.add(loadBytes);
+    }
+
+    /**
+     * Stop counting the batch against the load it is counted against, if any
+     */
+    void uncountLoad() {
+        if (load != null) {
+            load.add(-loadBytes);
+            load = null;
+            loadBytes = 0;
         }
     }
 
+    private FutureRecordMetadata appended(long timestamp, Long checksum, int keySize, int valueSize, Header[] headers,
+                                          Callback callback, long now) {
+        recordAppended(keySize, valueSize, headers, now);
+        FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, this.recordCount,
+                                                               timestamp, checksum,
+                                                               keySize,
+                                                               valueSize,
+                                                               Time.SYSTEM);
+        // we have to keep every future returned to the users in case the batch needs to be
+        // split to several new batches and resent.
+        thunks.add(new Thunk(callback, future));
+        this.recordCount++;
+        return future;
+    }
+
     /**
      * This method is only used by {@link #split(int)} when splitting a large batch to smaller ones.
      * @return true if the record has been successfully appended, false otherwise.
@@ -133,6 +291,13 @@ public final class ProducerBatch {
             this.recordsBuilder.append(timestamp, key, value, headers);
             this.maxRecordSize = Math.max(this.maxRecordSize, AbstractRecords.estimateSizeInBytesUpperBound(magic(),
                     recordsBuilder.compressionType(), key, value, headers));
+            publishAppendedState();
+            if (thunk == null) {
+                // the record was appended without a future of its own
+                this.thunks.add(null);
+                this.recordCount++;
+                return true;
+            }
             FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, this.recordCount,
                                                                    timestamp, thunk.future.checksumOrNull(),
                                                                    key == null ? -1 : key.remaining(),
@@ -221,6 +386,8 @@ public final class ProducerBatch {
 
         // execute callbacks
         for (Thunk thunk : thunks) {
+            if (thunk == null)
+                continue;
             try {
                 if (exception == null) {
                     RecordMetadata metadata = thunk.future.value();
@@ -234,13 +401,17 @@ public final class ProducerBatch {
                 log.error("Error executing user-provided callback on message for topic-partition '{}'", topicPartition, e);
             }
         }
+        if (sendBatchFutures != null) {
+            for (SendBatchFuture future : sendBatchFutures)
+                future.complete(exception);
+        }
 
         produceFuture.done();
     }
 
     public Deque<ProducerBatch> split(int splitBatchSize) {
         Deque<ProducerBatch> batches = new ArrayDeque<>();
-        MemoryRecords memoryRecords = recordsBuilder.build();
+        MemoryRecords memoryRecords = records();
 
         Iterator<MutableRecordBatch> recordBatchIter = memoryRecords.batches().iterator();
         if (!recordBatchIter.hasNext())
@@ -259,17 +430,25 @@ public final class ProducerBatch {
         // And we also Retain the create time of the original batch.
         ProducerBatch batch = null;
 
-        for (Record record : recordBatch) {
-            assert thunkIter.hasNext();
-            Thunk thunk = thunkIter.next();
-            if (batch == null)
-                batch = createBatchOffAccumulatorForRecord(record, splitBatchSize);
-
-            // A newly created batch can always host the first message.
-            if (!batch.tryAppendForSplit(record.timestamp(), record.key(), record.value(), record.headers(), thunk)) {
-                batches.add(batch);
-                batch = createBatchOffAccumulatorForRecord(record, splitBatchSize);
-                batch.tryAppendForSplit(record.timestamp(), record.key(), record.value(), record.headers(), thunk);
+        // the records may be compressed with the zstd dictionary of the topic
+        ZstdDictionary zstdDictionary = zstdDictionary();
+        ZstdDictionaries zstdDictionaries = zstdDictionary == null ? ZstdDictionaries.EMPTY :
+            ZstdDictionaries.of(zstdDictionary);
+        try (CloseableIterator<Record> records = recordBatch.streamingIterator(BufferSupplier.NO_CACHING,
+                zstdDictionaries)) {
+            while (records.hasNext()) {
+                Record record = records.next();
+                assert thunkIter.hasNext();
+                Thunk thunk = thunkIter.next();
+                if (batch == null)
+                    batch = createBatchOffAccumulatorForRecord(record, splitBatchSize);
+
+                // A newly created batch can always host the first message.
+                if (!batch.tryAppendForSplit(record.timestamp(), record.key(), record.value(), record.headers(), thunk)) {
+                    batches.add(batch);
+                    batch = createBatchOffAccumulatorForRecord(record, splitBatchSize);
+                    batch.tryAppendForSplit(record.timestamp(), record.key(), record.value(), record.headers(), thunk);
+                }
             }
         }
 
@@ -277,6 +456,17 @@ public final class ProducerBatch {
         if (batch != null)
             batches.add(batch);
 
+        // The futures of the untracked records now wait for the new batches instead of this one
+        if (sendBatchFutures != null) {
+            for (ProducerBatch newBatch : batches) {
+                for (SendBatchFuture future : sendBatchFutures)
+                    newBatch.addSendBatchFuture(future);
+            }
+            for (SendBatchFuture future : sendBatchFutures)
+                future.complete(null);
+            sendBatchFutures = null;
+        }
+
         produceFuture.set(ProduceResponse.INVALID_OFFSET, NO_TIMESTAMP, new RecordBatchTooLargeException());
         produceFuture.done();
 
@@ -293,19 +483,108 @@ public final class ProducerBatch {
 
     private ProducerBatch createBatchOffAccumulatorForRecord(Record record, int batchSize) {
         int initialSize = Math.max(AbstractRecords.estimateSizeInBytesUpperBound(magic(),
-                recordsBuilder.compressionType(), record.key(), record.value(), record.headers()), batchSize);
+                compressionType(), record.key(), record.value(), record.headers()), batchSize);
         ByteBuffer buffer = ByteBuffer.allocate(initialSize);
 
         // Note that we intentionally do not set producer state (producerId, epoch, sequence, and isTransactional)
         // for the newly created batch. This will be set when the batch is dequeued for sending (which is consistent
         // with how normal batches are handled).
-        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic(), recordsBuilder.compressionType(),
-                TimestampType.CREATE_TIME, 0L);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic(), compressionType(),
+                TimestampType.CREATE_TIME, 0L, recordsBuilder.isDictionaryEncoded(), zstdDictionary());
         return new ProducerBatch(topicPartition, builder, this.createdMs, true);
     }
 
     public boolean isCompressed() {
-        return recordsBuilder.compressionType() != CompressionType.NONE;
+        return compressionType() != CompressionType.NONE;
+    }
+
+    /**
+     * The compression type of the records when they are sent, which differs from the compression type of the
+     * records builder if compression is deferred.
+     */
+    private CompressionType compressionType() {
+        return deferredCompressionType != null ? deferredCompressionType : recordsBuilder.compressionType();
+    }
+
+    /**
+     * The zstd dictionary the records are compressed with when they are sent, if any.
+     */
+    private ZstdDictionary zstdDictionary() {
+        return deferredCompressionType != null ? deferredZstdDictionary : recordsBuilder.zstdDictionary();
+    }
+
+    /**
+     * Whether the records of this closed batch were appended uncompressed and still have to be compressed by
+     * {@link #compressRecords()} before they are sent.
+     */
+    public boolean needsCompression() {
+        return deferredCompressionType != null && compressedRecords == null && compressionException == null
+            && recordsBuilder.isClosed() && recordCount > 0;
+    }
+
+    /**
+     * Whether the records of this batch were appended uncompressed, and compressing them did not make them smaller.
+     */
+    public boolean isIncompressible() {
+        return incompressible;
+    }
+
+    /**
+     * The failure to compress the records of this batch, which were appended uncompressed, if any. The batch must be
+     * failed with it rather than sent, since its records are only sent with the configured compression type.
+     */
+    public RuntimeException compressionException() {
+        return compressionException;
+    }
+
+    /**
+     * Record the failure to compress the records of this batch.
+     */
+    void failCompression(RuntimeException exception) {
+        if (compressionException == null)
+            compressionException = exception;
+    }
+
+    /**
+     * Compress the records of this closed batch, which were appended uncompressed. The compressed records are built
+     * in a temporary heap buffer and copied back over the uncompressed records, so that the memory they use is still
+     * accounted for by the buffer pool the batch was allocated from. If compression does not make the records smaller,
+     * the compressed records are kept in the temporary buffer instead, which is not accounted for by the buffer pool.
+     * If compression fails, the failure is recorded by {@link #compressionException()}.
+     */
+    public void compressRecords() {
+        MemoryRecords records = recordsBuilder.build();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(records.sizeInBytes());
+            MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, magic(), deferredCompressionType,
+                    TimestampType.CREATE_TIME, 0L, NO_TIMESTAMP, producerId(), producerEpoch(), baseSequence(),
+                    isTransactional(), false, RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity(),
+                    recordsBuilder.isDictionaryEncoded(), deferredZstdDictionary);
+            for (RecordBatch batch : records.batches()) {
+                for (Record record : batch)
+                    builder.appendWithOffset(record.offset(), record.timestamp(), record.key(), record.value(),
+                            record.headers());
+            }
+            MemoryRecords compressed = builder.build();
+            CompressionRatioEstimator.updateEstimation(topicPartition.topic(), deferredCompressionType,
+                                                       (float) builder.compressionRatio());
+            if (compressed.sizeInBytes() > records.sizeInBytes()) {
+                incompressible = true;
+                compressedRecords = compressed;
+            } else {
+                ByteBuffer recordsBuffer = records.buffer();
+                recordsBuffer.put(compressed.buffer());
+                recordsBuffer.flip();
+                compressedRecords = MemoryRecords.readableRecords(recordsBuffer);
+            }
+            compressedBatch = (DefaultRecordBatch) compressedRecords.batches().iterator().next();
+            compressedRatio = builder.compressionRatio();
+        } catch (RuntimeException e) {
+            log.error("Failed to compress the records of batch for topic-partition '{}' with {}",
+                    topicPartition, deferredCompressionType, e);
+            failCompression(new KafkaException("Failed to compress the records of batch for topic-partition " +
+                    topicPartition + " with " + deferredCompressionType, e));
+        }
     }
 
     /**
@@ -369,19 +648,33 @@ public final class ProducerBatch {
     }
 
     public MemoryRecords records() {
-        return recordsBuilder.build();
+        return compressedRecords != null ? compressedRecords : recordsBuilder.build();
     }
 
+    /**
+     * The estimated size of the records when they are sent. This is safe to call while records are appended to the
+     * batch by another thread, the size of the records appended so far is then returned.
+     */
     public int estimatedSizeInBytes() {
-        return recordsBuilder.estimatedSizeInBytes();
+        if (compressedRecords != null)
+            return compressedRecords.sizeInBytes();
+        // the builder is only read once closed, when no thread appends to it any more
+        int sizeInBytes = recordsBuilder.isClosed() ? recordsBuilder.estimatedSizeInBytes() : appendedSizeInBytes;
+        if (deferredCompressionType != null)
+            return (int) (sizeInBytes * CompressionRatioEstimator.estimation(topicPartition.topic(), deferredCompressionType));
+        return sizeInBytes;
     }
 
     public double compressionRatio() {
-        return recordsBuilder.compressionRatio();
+        return compressedRecords != null ? compressedRatio : recordsBuilder.compressionRatio();
     }
 
+    /**
+     * Whether the batch has no room for more records. This is safe to call while records are appended to the batch by
+     * another thread.
+     */
     public boolean isFull() {
-        return recordsBuilder.isFull();
+        return recordsBuilder.isClosed() || appendedFull;
     }
 
     public void setProducerState(ProducerIdAndEpoch producerIdAndEpoch, int baseSequence, boolean isTransactional) {
@@ -390,7 +683,11 @@ public final class ProducerBatch {
 
     public void resetProducerState(ProducerIdAndEpoch producerIdAndEpoch, int baseSequence, boolean isTransactional) {
         reopened = true;
-        recordsBuilder.reopenAndRewriteProducerState(producerIdAndEpoch.producerId, producerIdAndEpoch.epoch, baseSequence, isTransactional);
+        // the uncompressed records were overwritten by the compressed ones, whose header is rewritten instead
+        if (compressedBatch != null)
+            compressedBatch.setProducerState(producerIdAndEpoch.producerId, producerIdAndEpoch.epoch, baseSequence, isTransactional);
+        else
+            recordsBuilder.reopenAndRewriteProducerState(producerIdAndEpoch.producerId, producerIdAndEpoch.epoch, baseSequence, isTransactional);
     }
 
     /**
@@ -399,11 +696,12 @@ public final class ProducerBatch {
      */
     public void closeForRecordAppends() {
         recordsBuilder.closeForRecordAppends();
+        publishAppendedState();
     }
 
     public void close() {
         recordsBuilder.close();
-        if (!recordsBuilder.isControlBatch()) {
+        if (!recordsBuilder.isControlBatch() && deferredCompressionType == null) {
             CompressionRatioEstimator.updateEstimation(topicPartition.topic(),
                                                        recordsBuilder.compressionType(),
                                                        (float) recordsBuilder.compressionRatio());
@@ -419,6 +717,8 @@ public final class ProducerBatch {
      * {@link RecordAccumulator#abortBatches()}).
      */
     public void abortRecordAppends() {
+        compressedRecords = null;
+        compressedBatch = null;
         recordsBuilder.abort();
     }
 
@@ -443,15 +743,15 @@ public final class ProducerBatch {
     }
 
     public long producerId() {
-        return recordsBuilder.producerId();
+        return compressedBatch != null ? compressedBatch.producerId() : recordsBuilder.producerId();
     }
 
     public short producerEpoch() {
-        return recordsBuilder.producerEpoch();
+        return compressedBatch != null ? compressedBatch.producerEpoch() : recordsBuilder.producerEpoch();
     }
 
     public int baseSequence() {
-        return recordsBuilder.baseSequence();
+        return compressedBatch != null ? compressedBatch.baseSequence() : recordsBuilder.baseSequence();
     }
 
     public boolean hasSequence() {
@@ -459,7 +759,7 @@ public final class ProducerBatch {
     }
 
     public boolean isTransactional() {
-        return recordsBuilder.isTransactional();
+        return compressedBatch != null ? compressedBatch.isTransactional() : recordsBuilder.isTransactional();
     }
 
     public boolean sequenceHasBeenReset() {
@@ -40,6 +40,13 @@ public class ProducerInterceptors<K, V> implements Closeable {
         this.interceptors = interceptors;
     }
 
+    /**
+     * Whether there are no interceptors, in which case calling them can be skipped
+     */
+    public boolean isEmpty() {
+        return interceptors.isEmpty();
+    }
+
     /**
      * This is called when client sends the record to KafkaProducer, before key and value gets serialized.
      * The method calls {@link ProducerInterceptor#onSend(ProducerRecord)} method. ProducerRecord
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -52,7 +53,9 @@ import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.RecordFieldWriter;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.record.ZstdDictionary;
 import org.apache.kafka.common.utils.CopyOnWriteMap;
 import org.apache.kafka.common.utils.LogContext;
 import org.apache.kafka.common.utils.Time;
@@ -64,9 +67,25 @@ import org.slf4j.Logger;
  * <p>
  * The accumulator uses a bounded amount of memory and append calls will block when that memory is exhausted, unless
  * this behavior is explicitly disabled.
+ * <p>
+ * Records are appended to the open batches of a partition through its append lanes. Each appending thread always uses
+ * the same lane, and each lane has its own open batch and lock, so that threads appending to the same partition
+ * through different lanes do not contend with each other, nor with the sender thread, which only locks the lanes when
+ * it removes their open batch from the partition queue, and otherwise only reads the size and fullness the batches
+ * publish. The batches of all the lanes are queued in the order they were created, which preserves the order of the
+ * records appended by each thread. With a single lane, records are appended with the partition queue locked.
+ * <p>
+ * If the accumulator has a {@link BatchCompressor}, compressed records are appended uncompressed and the batches are
+ * compressed by the compressor when they are drained. The batches are then filled with as many uncompressed bytes as
+ * the {@link CompressionRatioEstimator} expects to compress into the batch size. Since the drained batches are only
+ * sized with the estimated compression ratio, those which no longer fit in the request once compressed are put back,
+ * and those which could not be compressed are split into batches of the batch size.
  */
 public final class RecordAccumulator {
 
+    // the most uncompressed bytes a batch is filled with when compression is deferred, relative to the batch size
+    private static final int MAX_DEFERRED_COMPRESSION_EXPANSION = 4;
+
     private final Logger log;
     private volatile boolean closed;
     private final AtomicInteger flushesInProgress;
@@ -80,6 +99,13 @@ public final class RecordAccumulator {
     private final Time time;
     private final ApiVersions apiVersions;
     private final ConcurrentMap<TopicPartition, Deque<ProducerBatch>> batches;
+    private final int appendLanes;
+    private final ConcurrentMap<TopicPartition, AppendLane[]> lanes;
+    private final BatchCompressor compressor;
+    private final AdaptiveBatching adaptiveBatching;
+    private final NodeLoadStats loadStats;
+    private final boolean dictionaryEncoding;
+    private final Map<String, ZstdDictionary> zstdDictionaries;
     private final IncompleteBatches incomplete;
     // The following variables are only accessed by the sender thread, so we don't need to protect them.
     private final Map<TopicPartition, Long> muted;
@@ -103,6 +129,7 @@ public final class RecordAccumulator {
      * @param apiVersions Request API versions for current connected brokers
      * @param transactionManager The shared transaction state object which tracks producer IDs, epochs, and sequence
      *                           numbers per partition.
+     * @param bufferPool The buffer pool batches are allocated from
      */
     public RecordAccumulator(LogContext logContext,
                              int batchSize,
@@ -116,6 +143,56 @@ public final class RecordAccumulator {
                              ApiVersions apiVersions,
                              TransactionManager transactionManager,
                              BufferPool bufferPool) {
+        this(logContext, batchSize, compression, lingerMs, retryBackoffMs, deliveryTimeoutMs, metrics, metricGrpName,
+            time, apiVersions, transactionManager, bufferPool, 1, null, null, null, false, Collections.emptyMap());
+    }
+
+    /**
+     * Create a new record accumulator
+     *
+     * @param logContext The log context used for logging
+     * @param batchSize The size to use when allocating {@link MemoryRecords} instances
+     * @param compression The compression codec for the records
+     * @param lingerMs An artificial delay time to add before declaring a records instance that isn't full ready for
+     *        sending. This allows time for more records to arrive. Setting a non-zero lingerMs will trade off some
+     *        latency for potentially better throughput due to more batching (and hence fewer, larger requests).
+     * @param retryBackoffMs An artificial delay time to retry the produce request upon receiving an error. This avoids
+     *        exhausting all retries in a short period of time.
+     * @param metrics The metrics
+     * @param time The time instance to use
+     * @param apiVersions Request API versions for current connected brokers
+     * @param transactionManager The shared transaction state object which tracks producer IDs, epochs, and sequence
+     *                           numbers per partition.
+     * @param bufferPool The buffer pool batches are allocated from
+     * @param appendLanes The number of batches of a partition that records can be appended to concurrently
+     * @param compressor The compressor which compresses the batches when they are drained, or null to compress the
+     *                   records as they are appended
+     * @param adaptiveBatching The tuner of the linger time and batch size of each broker, or null to use lingerMs and
+     *                         batchSize for all brokers
+     * @param loadStats The load of the brokers to update for the partitioner, or null if it is not used
+     * @param dictionaryEncoding Whether to write the records of v2 batches in the dictionary encoding
+     * @param zstdDictionaries The zstd dictionaries to compress the v2 batches of topics with if the compression is zstd
+     */
+    public RecordAccumulator(LogContext logContext,
+                             int batchSize,
+                             CompressionType compression,
+                             int lingerMs,
+                             long retryBackoffMs,
+                             int deliveryTimeoutMs,
+                             Metrics metrics,
+                             String metricGrpName,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager,
+                             BufferPool bufferPool,
+                             int appendLanes,
+                             BatchCompressor compressor,
+                             AdaptiveBatching adaptiveBatching,
+                             NodeLoadStats loadStats,
+                             boolean dictionaryEncoding,
+                             Map<String, ZstdDictionary> zstdDictionaries) {
+        if (appendLanes < 1)
+            throw new IllegalArgumentException("The number of append lanes must be at least 1, but was " + appendLanes);
         this.log = logContext.logger(RecordAccumulator.class);
         this.drainIndex = 0;
         this.closed = false;
@@ -127,6 +204,13 @@ public final class RecordAccumulator {
         this.retryBackoffMs = retryBackoffMs;
         this.deliveryTimeoutMs = deliveryTimeoutMs;
         this.batches = new CopyOnWriteMap<>();
+        this.appendLanes = appendLanes;
+        this.lanes = new CopyOnWriteMap<>();
+        this.compressor = compression == CompressionType.NONE ? null : compressor;
+        this.adaptiveBatching = adaptiveBatching;
+        this.loadStats = loadStats;
+        this.dictionaryEncoding = dictionaryEncoding;
+        this.zstdDictionaries = zstdDictionaries;
         this.free = bufferPool;
         this.incomplete = new IncompleteBatches();
         this.muted = new HashMap<>();
@@ -193,6 +277,105 @@ public final class RecordAccumulator {
                                      long maxTimeToBlock,
                                      boolean abortOnNewBatch,
                                      long nowMs) throws InterruptedException {
+        return append(tp, timestamp, key, value, null, headers, callback, null, maxTimeToBlock, abortOnNewBatch, nowMs);
+    }
+
+    /**
+     * Add a record whose value writes itself into the batch to the accumulator, return the append result
+     * <p>
+     * The value is written while the batch is locked, directly into the buffer of the batch unless it is compressed.
+     * If writing the value fails, the record is not appended and the exception is thrown.
+     * <p>
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param headers the Headers for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @param abortOnNewBatch A boolean that indicates returning before a new batch is created and
+     *                        running the the partitioner's onNewBatch method before trying to append again
+     * @param nowMs The current time, in milliseconds
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     byte[] key,
+                                     RecordFieldWriter value,
+                                     Header[] headers,
+                                     Callback callback,
+                                     long maxTimeToBlock,
+                                     boolean abortOnNewBatch,
+                                     long nowMs) throws InterruptedException {
+        return append(tp, timestamp, key, null, value, headers, callback, null, maxTimeToBlock, abortOnNewBatch, nowMs);
+    }
+
+    /**
+     * Add a record to the accumulator without a future or callback of its own, return the append result
+     * <p>
+     * Instead, the given future is registered with the batch the record is appended to, and completes once all the
+     * batches it is registered with are complete. The append result has no future, and appending the record does not
+     * allocate unless a new batch is created.
+     * <p>
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The value for the record
+     * @param headers the Headers for the record
+     * @param future The future of the group of records the record is sent with
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     * @param abortOnNewBatch A boolean that indicates returning before a new batch is created and
+     *                        running the the partitioner's onNewBatch method before trying to append again
+     * @param nowMs The current time, in milliseconds
+     */
+    public RecordAppendResult appendUntracked(TopicPartition tp,
+                                              long timestamp,
+                                              byte[] key,
+                                              byte[] value,
+                                              Header[] headers,
+                                              SendBatchFuture future,
+                                              long maxTimeToBlock,
+                                              boolean abortOnNewBatch,
+                                              long nowMs) throws InterruptedException {
+        return append(tp, timestamp, key, value, null, headers, null, Objects.requireNonNull(future), maxTimeToBlock,
+            abortOnNewBatch, nowMs);
+    }
+
+    /**
+     * Add a record whose value writes itself into the batch to the accumulator without a future or callback of its
+     * own, return the append result
+     *
+     * @see #appendUntracked(TopicPartition, long, byte[], byte[], Header[], SendBatchFuture, long, boolean, long)
+     */
+    public RecordAppendResult appendUntracked(TopicPartition tp,
+                                              long timestamp,
+                                              byte[] key,
+                                              RecordFieldWriter value,
+                                              Header[] headers,
+                                              SendBatchFuture future,
+                                              long maxTimeToBlock,
+                                              boolean abortOnNewBatch,
+                                              long nowMs) throws InterruptedException {
+        return append(tp, timestamp, key, null, value, headers, null, Objects.requireNonNull(future), maxTimeToBlock,
+            abortOnNewBatch, nowMs);
+    }
+
+    /**
+     * Add a record to the accumulator. Its value is written by valueWriter if it is not null. The record has no
+     * future of its own if sendBatchFuture is not null.
+     */
+    private RecordAppendResult append(TopicPartition tp,
+                                      long timestamp,
+                                      byte[] key,
+                                      byte[] value,
+                                      RecordFieldWriter valueWriter,
+                                      Header[] headers,
+                                      Callback callback,
+                                      SendBatchFuture sendBatchFuture,
+                                      long maxTimeToBlock,
+                                      boolean abortOnNewBatch,
+                                      long nowMs) throws InterruptedException {
         // We keep track of the number of appending thread to make sure we do not miss batches in
         // abortIncompleteBatches().
         appendsInProgress.incrementAndGet();
@@ -201,49 +384,69 @@ public final class RecordAccumulator {
         try {
             // check if we have an in-progress batch
             Deque<ProducerBatch> dq = getOrCreateDeque(tp);
-            synchronized (dq) {
-                if (closed)
-                    throw new KafkaException("Producer closed while send in progress");
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq, nowMs);
-                if (appendResult != null)
-                    return appendResult;
+            AppendLane lane = appendLane(tp);
+            // a single lane does not spare contention with the sender, so the deque is locked like without lanes
+            synchronized (appendLanes == 1 ? dq : lane) {
+                synchronized (lane) {
+                    if (closed)
+                        throw new KafkaException("Producer closed while send in progress");
+                    // the deque is only read if it is locked
+                    RecordAppendResult appendResult = tryAppend(timestamp, key, value, valueWriter, headers, callback,
+                        sendBatchFuture, appendLanes == 1 && dq.size() > 1, lane, nowMs);
+                    if (appendResult != null)
+                        return appendResult;
+                }
             }
 
             // we don't have an in-progress record batch try to allocate a new batch
             if (abortOnNewBatch) {
                 // Return a result that will cause another call to append.
-                return new RecordAppendResult(null, false, false, true);
+                return RecordAppendResult.ABORT_FOR_NEW_BATCH;
             }
 
             byte maxUsableMagic = apiVersions.maxUsableProduceMagic();
-            int size = Math.max(this.batchSize, AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression, key, value, headers));
+            boolean deferCompression = compressor != null && maxUsableMagic >= RecordBatch.MAGIC_VALUE_V2;
+            int valueSize = valueWriter != null ? valueWriter.sizeInBytes() : value == null ? -1 : value.length;
+            int size = Math.max(deferCompression ? deferredCompressionBatchSize(tp.topic()) : this.batchSize,
+                AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic,
+                    deferCompression ? CompressionType.NONE : compression, key == null ? -1 : key.length, valueSize, headers));
             log.trace("Allocating a new {} byte message buffer for topic {} partition {}", size, tp.topic(), tp.partition());
             buffer = free.allocate(size, maxTimeToBlock);
 
             // Update the current time in case the buffer allocation blocked above.
             nowMs = time.milliseconds();
+            // the deque is locked before the lane, like when the sender removes the open batch of a lane
             synchronized (dq) {
-                // Need to check if producer is closed again after grabbing the dequeue lock.
-                if (closed)
-                    throw new KafkaException("Producer closed while send in progress");
-
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq, nowMs);
-                if (appendResult != null) {
-                    // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
-                    return appendResult;
-                }
-
-                MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic);
-                ProducerBatch batch = new ProducerBatch(tp, recordsBuilder, nowMs);
-                FutureRecordMetadata future = Objects.requireNonNull(batch.tryAppend(timestamp, key, value, headers,
-                        callback, nowMs));
-
-                dq.addLast(batch);
-                incomplete.add(batch);
+                synchronized (lane) {
+                    // Need to check if producer is closed again after grabbing the lane lock.
+                    if (closed)
+                        throw new KafkaException("Producer closed while send in progress");
+
+                    RecordAppendResult appendResult = tryAppend(timestamp, key, value, valueWriter, headers, callback,
+                        sendBatchFuture, dq.size() > appendLanes, lane, nowMs);
+                    if (appendResult != null) {
+                        // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
+                        return appendResult;
+                    }
 
-                // Don't deallocate this buffer in the finally block as it's being used in the record batch
-                buffer = null;
-                return new RecordAppendResult(future, dq.size() > 1 || batch.isFull(), true, false);
+                    ZstdDictionary zstdDictionary = zstdDictionary(tp.topic(), maxUsableMagic);
+                    ProducerBatch batch = deferCompression ?
+                        new ProducerBatch(tp, recordsBuilder(buffer, maxUsableMagic, CompressionType.NONE, null), nowMs,
+                            compression, zstdDictionary) :
+                        new ProducerBatch(tp, recordsBuilder(buffer, maxUsableMagic, compression, zstdDictionary), nowMs);
+                    RecordAppendResult newBatchAppendResult = Objects.requireNonNull(tryAppend(batch, timestamp, key,
+                            value, valueWriter, headers, callback, sendBatchFuture, dq.size() + 1 > appendLanes, true, nowMs));
+
+                    if (loadStats != null)
+                        loadStats.countQueued(batch);
+                    dq.addLast(batch);
+                    lane.batch = batch;
+                    incomplete.add(batch);
+
+                    // Don't deallocate this buffer in the finally block as it's being used in the record batch
+                    buffer = null;
+                    return newBatchAppendResult;
+                }
             }
         } finally {
             if (buffer != null)
@@ -252,35 +455,116 @@ public final class RecordAccumulator {
         }
     }
 
-    private MemoryRecordsBuilder recordsBuilder(ByteBuffer buffer, byte maxUsableMagic) {
+    /**
+     * The size of a batch whose records are appended uncompressed, such that they are expected to compress into the
+     * batch size.
+     */
+    private int deferredCompressionBatchSize(String topic) {
+        float estimatedRatio = CompressionRatioEstimator.estimation(topic, compression);
+        long size = Math.min((long) (batchSize / estimatedRatio), (long) batchSize * MAX_DEFERRED_COMPRESSION_EXPANSION);
+        return (int) Math.min(Math.max(size, batchSize), free.totalMemory());
+    }
+
+    private ZstdDictionary zstdDictionary(String topic, byte maxUsableMagic) {
+        if (compression != CompressionType.ZSTD || maxUsableMagic < RecordBatch.MAGIC_VALUE_V2)
+            return null;
+        return zstdDictionaries.get(topic);
+    }
+
+    private MemoryRecordsBuilder recordsBuilder(ByteBuffer buffer, byte maxUsableMagic, CompressionType compressionType,
+                                                ZstdDictionary zstdDictionary) {
         if (transactionManager != null && maxUsableMagic < RecordBatch.MAGIC_VALUE_V2) {
             throw new UnsupportedVersionException("Attempting to use idempotence with a broker which does not " +
                 "support the required message format (v2). The broker must be version 0.11 or later.");
         }
-        return MemoryRecords.builder(buffer, maxUsableMagic, compression, TimestampType.CREATE_TIME, 0L);
+        return MemoryRecords.builder(buffer, maxUsableMagic, compressionType, TimestampType.CREATE_TIME, 0L,
+            dictionaryEncoding && maxUsableMagic >= RecordBatch.MAGIC_VALUE_V2, zstdDictionary);
     }
 
     /**
-     *  Try to append to a ProducerBatch.
+     *  Try to append to the open ProducerBatch of a lane. The lane must be locked by the caller.
      *
      *  If it is full, we return null and a new batch is created. We also close the batch for record appends to free up
      *  resources like compression buffers. The batch will be fully closed (ie. the record batch headers will be written
      *  and memory records built) in one of the following cases (whichever comes first): right before send,
      *  if it is expired, or when the producer is closed.
      */
-    private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers,
-                                         Callback callback, Deque<ProducerBatch> deque, long nowMs) {
-        ProducerBatch last = deque.peekLast();
+    private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, RecordFieldWriter valueWriter,
+                                         Header[] headers, Callback callback, SendBatchFuture sendBatchFuture,
+                                         boolean dequeFull, AppendLane lane, long nowMs) {
+        ProducerBatch last = lane.batch;
         if (last != null) {
-            FutureRecordMetadata future = last.tryAppend(timestamp, key, value, headers, callback, nowMs);
-            if (future == null)
+            RecordAppendResult appendResult = tryAppend(last, timestamp, key, value, valueWriter, headers, callback,
+                sendBatchFuture, dequeFull, false, nowMs);
+            if (appendResult == null) {
                 last.closeForRecordAppends();
-            else
-                return new RecordAppendResult(future, deque.size() > 1 || last.isFull(), false, false);
+                lane.batch = null;
+            } else {
+                return appendResult;
+            }
         }
         return null;
     }
 
+    /**
+     * Try to append to the given batch, return null if it has no room for the record
+     *
+     * @param dequeFull Whether the deque of the partition has more batches than lanes, so that the first is full
+     * @param newBatchCreated Whether the batch was just created for the record
+     */
+    private static RecordAppendResult tryAppend(ProducerBatch batch, long timestamp, byte[] key, byte[] value,
+                                                RecordFieldWriter valueWriter, Header[] headers, Callback callback,
+                                                SendBatchFuture sendBatchFuture, boolean dequeFull,
+                                                boolean newBatchCreated, long nowMs) {
+        if (sendBatchFuture != null) {
+            boolean appended = valueWriter != null ?
+                batch.tryAppendUntracked(timestamp, key, valueWriter, headers, sendBatchFuture, nowMs) :
+                batch.tryAppendUntracked(timestamp, key, value, headers, sendBatchFuture, nowMs);
+            return appended ? RecordAppendResult.untracked(dequeFull || batch.isFull(), newBatchCreated) : null;
+        }
+        FutureRecordMetadata future = valueWriter != null ?
+            batch.tryAppend(timestamp, key, valueWriter, headers, callback, nowMs) :
+            batch.tryAppend(timestamp, key, value, headers, callback, nowMs);
+        return future == null ? null :
+            new RecordAppendResult(future, dequeFull || batch.isFull(), newBatchCreated, false);
+    }
+
+    /**
+     * Get the append lane of the current thread for the given topic-partition, creating the lanes if necessary.
+     */
+    private AppendLane appendLane(TopicPartition tp) {
+        AppendLane[] partitionLanes = lanes.get(tp);
+        if (partitionLanes == null) {
+            partitionLanes = new AppendLane[appendLanes];
+            for (int i = 0; i < appendLanes; i++)
+                partitionLanes[i] = new AppendLane();
+            AppendLane[] previous = lanes.putIfAbsent(tp, partitionLanes);
+            if (previous != null)
+                partitionLanes = previous;
+        }
+        if (appendLanes == 1)
+            return partitionLanes[0];
+        return partitionLanes[(int) (Thread.currentThread().getId() % appendLanes)];
+    }
+
+    /**
+     * Stop appending to the given batch if it is the open batch of one of the lanes of its partition. The deque of the
+     * partition must be locked by the caller. Once this returns, no thread is appending to the batch.
+     */
+    private void closeAppendLane(ProducerBatch batch) {
+        AppendLane[] partitionLanes = lanes.get(batch.topicPartition);
+        if (partitionLanes == null)
+            return;
+        for (AppendLane lane : partitionLanes) {
+            synchronized (lane) {
+                if (lane.batch == batch) {
+                    lane.batch = null;
+                    return;
+                }
+            }
+        }
+    }
+
     private boolean isMuted(TopicPartition tp, long now) {
         // Take care to avoid unnecessary map look-ups because this method is a hotspot if producing to a
         // large number of partitions
@@ -324,6 +608,7 @@ public final class RecordAccumulator {
                     ProducerBatch batch = deque.getFirst();
                     if (batch.hasReachedDeliveryTimeout(deliveryTimeoutMs, now)) {
                         deque.poll();
+                        closeAppendLane(batch);
                         batch.abortRecordAppends();
                         expiredBatches.add(batch);
                     } else {
@@ -348,6 +633,8 @@ public final class RecordAccumulator {
         batch.reenqueued(now);
         Deque<ProducerBatch> deque = getOrCreateDeque(batch.topicPartition);
         synchronized (deque) {
+            if (loadStats != null)
+                loadStats.countQueued(batch);
             if (transactionManager != null)
                 insertInSequenceOrder(deque, batch);
             else
@@ -373,6 +660,8 @@ public final class RecordAccumulator {
             incomplete.add(batch);
             // We treat the newly split batches as if they are not even tried.
             synchronized (partitionDequeue) {
+                if (loadStats != null)
+                    loadStats.countQueued(batch);
                 if (transactionManager != null) {
                     // We should track the newly created batches since they already have assigned sequences.
                     transactionManager.addInFlightBatch(batch);
@@ -451,7 +740,9 @@ public final class RecordAccumulator {
      * <li><b>and <i>any</i></b> of the following are true</li>
      * <ul>
      *     <li>The record set is full</li>
-     *     <li>The record set has sat in the accumulator for at least lingerMs milliseconds</li>
+     *     <li>The record set has sat in the accumulator for at least lingerMs milliseconds, or the linger time of its
+     *     leader with adaptive batching</li>
+     *     <li>The record set reached the batch size of its leader with adaptive batching</li>
      *     <li>The accumulator is out of memory and threads are blocking waiting for data (in this case all partitions
      *     are immediately considered ready).</li>
      *     <li>The accumulator has been closed</li>
@@ -462,6 +753,10 @@ public final class RecordAccumulator {
         Set<Node> readyNodes = new HashSet<>();
         long nextReadyCheckDelayMs = Long.MAX_VALUE;
         Set<String> unknownLeaderTopics = new HashSet<>();
+        if (loadStats != null)
+            loadStats.updateLeaders(cluster);
+        if (adaptiveBatching != null)
+            adaptiveBatching.retainNodes(cluster);
 
         boolean exhausted = this.free.queued() > 0;
         for (Map.Entry<TopicPartition, Deque<ProducerBatch>> entry : this.batches.entrySet()) {
@@ -480,8 +775,9 @@ public final class RecordAccumulator {
                     } else if (!readyNodes.contains(leader) && !isMuted(part, nowMs)) {
                         long waitedTimeMs = batch.waitedTimeMs(nowMs);
                         boolean backingOff = batch.attempts() > 0 && waitedTimeMs < retryBackoffMs;
-                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs;
-                        boolean full = deque.size() > 1 || batch.isFull();
+                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs(leader);
+                        // each lane has at most one open batch, so the first batch is full if there are more batches
+                        boolean full = deque.size() > appendLanes || batch.isFull() || reachedBatchSize(batch, leader);
                         boolean expired = waitedTimeMs >= timeToWaitMs;
                         boolean sendable = full || expired || exhausted || closed || flushInProgress();
                         if (sendable && !backingOff) {
@@ -500,6 +796,35 @@ public final class RecordAccumulator {
         return new ReadyCheckResult(readyNodes, nextReadyCheckDelayMs, unknownLeaderTopics);
     }
 
+    private long lingerMs(Node leader) {
+        return adaptiveBatching == null ? lingerMs : adaptiveBatching.lingerMs(leader.id());
+    }
+
+    /**
+     * Whether the batch reached the size at which batches sent to the leader are sent without lingering any longer,
+     * which is only smaller than the batch size with adaptive batching
+     */
+    private boolean reachedBatchSize(ProducerBatch batch, Node leader) {
+        return adaptiveBatching != null && batch.estimatedSizeInBytes() >= adaptiveBatching.batchSize(leader.id());
+    }
+
+    /**
+     * Record that a produce request of the given size was sent to a broker, which now has the given number of requests
+     * in flight
+     */
+    public void onProduceRequestSent(int nodeId, int sizeInBytes, int inFlightRequests, long nowMs) {
+        if (adaptiveBatching != null)
+            adaptiveBatching.onRequestSent(nodeId, sizeInBytes, inFlightRequests, nowMs);
+    }
+
+    /**
+     * Record the latency of a produce request to a broker, which now has the given number of requests in flight
+     */
+    public void onProduceResponse(int nodeId, long latencyMs, int inFlightRequests, long nowMs) {
+        if (adaptiveBatching != null)
+            adaptiveBatching.onResponse(nodeId, latencyMs, inFlightRequests, nowMs);
+    }
+
     /**
      * Check whether there are any batches which haven't been drained
      */
@@ -586,6 +911,7 @@ public final class RecordAccumulator {
                     ProducerIdAndEpoch producerIdAndEpoch =
                         transactionManager != null ? transactionManager.producerIdAndEpoch() : null;
                     ProducerBatch batch = deque.pollFirst();
+                    closeAppendLane(batch);
                     if (producerIdAndEpoch != null && !batch.hasSequence()) {
                         // If the batch already has an assigned sequence, then we should not change the producer id and
                         // sequence number, since this may introduce duplicates. In particular, the previous attempt
@@ -604,7 +930,7 @@ public final class RecordAccumulator {
                         transactionManager.addInFlightBatch(batch);
                     }
                     batch.close();
-                    size += batch.records().sizeInBytes();
+                    size += batch.estimatedSizeInBytes();
                     ready.add(batch);
 
                     batch.drained(now);
@@ -616,7 +942,9 @@ public final class RecordAccumulator {
 
     /**
      * Drain all the data for the given nodes and collate them into a list of batches that will fit within the specified
-     * size on a per-node basis. This method attempts to avoid choosing the same topic-node over and over.
+     * size on a per-node basis. This method attempts to avoid choosing the same topic-node over and over. If compression
+     * is deferred, the drained batches are compressed before they are returned, and those which no longer fit are
+     * drained again later.
      *
      * @param cluster The current cluster metadata
      * @param nodes The list of node to drain
@@ -633,9 +961,57 @@ public final class RecordAccumulator {
             List<ProducerBatch> ready = drainBatchesForOneNode(cluster, node, maxSize, now);
             batches.put(node.id(), ready);
         }
+        if (compressor != null) {
+            compressor.compress(batches.values());
+            for (List<ProducerBatch> ready : batches.values())
+                fitCompressedBatches(ready, maxSize);
+        }
+        if (loadStats != null) {
+            for (Map.Entry<Integer, List<ProducerBatch>> entry : batches.entrySet()) {
+                for (ProducerBatch batch : entry.getValue())
+                    loadStats.countInFlight(batch, entry.getKey());
+            }
+        }
         return batches;
     }
 
+    /**
+     * Remove the batches which do not fit in the request from the compressed batches drained for a node, like when
+     * draining, but with their compressed size rather than the estimated one, and put them back in their deque. The
+     * batches larger than the batch size whose records did not get smaller when compressed are split and put back too.
+     * The batches whose records could not be compressed are left for the sender to fail.
+     */
+    private void fitCompressedBatches(List<ProducerBatch> ready, int maxSize) {
+        int size = 0;
+        Iterator<ProducerBatch> iter = ready.iterator();
+        while (iter.hasNext()) {
+            ProducerBatch batch = iter.next();
+            if (batch.compressionException() != null) {
+                // failed by the sender rather than sent
+                continue;
+            } else if (batch.isIncompressible() && batch.recordCount > 1 && batch.estimatedSizeInBytes() > batchSize) {
+                iter.remove();
+                // like when the broker rejects a batch which is too large
+                if (transactionManager != null)
+                    transactionManager.removeInFlightBatch(batch);
+                splitAndReenqueue(batch);
+                deallocate(batch);
+            } else if (size + batch.estimatedSizeInBytes() > maxSize && size > 0) {
+                iter.remove();
+                // the batch keeps its producer state, like a batch which is reenqueued
+                Deque<ProducerBatch> deque = getOrCreateDeque(batch.topicPartition);
+                synchronized (deque) {
+                    if (transactionManager != null && batch.hasSequence())
+                        insertInSequenceOrder(deque, batch);
+                    else
+                        deque.addFirst(batch);
+                }
+            } else {
+                size += batch.estimatedSizeInBytes();
+            }
+        }
+    }
+
     /**
      * The earliest absolute time a batch will expire (in milliseconds)
      */
@@ -667,6 +1043,7 @@ public final class RecordAccumulator {
      */
     public void deallocate(ProducerBatch batch) {
         incomplete.remove(batch);
+        batch.uncountLoad();
         // Only deallocate the batch if it is not a split batch because split batch are allocated outside the
         // buffer pool.
         if (!batch.isSplitBatch())
@@ -744,6 +1121,7 @@ public final class RecordAccumulator {
         // batch appended by the last appending thread.
         abortBatches();
         this.batches.clear();
+        this.lanes.clear();
     }
 
     /**
@@ -760,6 +1138,7 @@ public final class RecordAccumulator {
         for (ProducerBatch batch : incomplete.copyAll()) {
             Deque<ProducerBatch> dq = getDeque(batch.topicPartition);
             synchronized (dq) {
+                closeAppendLane(batch);
                 batch.abortRecordAppends();
                 dq.remove(batch);
             }
@@ -778,6 +1157,7 @@ public final class RecordAccumulator {
             synchronized (dq) {
                 if ((transactionManager != null && !batch.hasSequence()) || (transactionManager == null && !batch.isClosed())) {
                     aborted = true;
+                    closeAppendLane(batch);
                     batch.abortRecordAppends();
                     dq.remove(batch);
                 }
@@ -804,10 +1184,26 @@ public final class RecordAccumulator {
         this.closed = true;
     }
 
+    /*
+     * The open batch records of a partition are appended to by the threads using this lane, guarded by the lane
+     */
+    private final static class AppendLane {
+        private ProducerBatch batch;
+    }
+
     /*
      * Metadata about a record just appended to the record accumulator
      */
     public final static class RecordAppendResult {
+        private static final RecordAppendResult ABORT_FOR_NEW_BATCH = new RecordAppendResult(null, false, false, true);
+        // the results of records appended without a future, indexed by batchIsFull and newBatchCreated
+        private static final RecordAppendResult[] UNTRACKED = {
+            new RecordAppendResult(null, false, false, false),
+            new RecordAppendResult(null, false, true, false),
+            new RecordAppendResult(null, true, false, false),
+            new RecordAppendResult(null, true, true, false)
+        };
+
         public final FutureRecordMetadata future;
         public final boolean batchIsFull;
         public final boolean newBatchCreated;
@@ -819,6 +1215,10 @@ public final class RecordAccumulator {
             this.newBatchCreated = newBatchCreated;
             this.abortForNewBatch = abortForNewBatch;
         }
+
+        private static RecordAppendResult untracked(boolean batchIsFull, boolean newBatchCreated) {
+            return UNTRACKED[(batchIsFull ? 2 : 0) + (newBatchCreated ? 1 : 0)];
+        }
     }
 
     /*
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The future result of sending a group of records without a future or callback for each record. Instead of completing
+ * each record, the producer batches the records are appended to register this future once, and it completes when all of
+ * them are complete. If any record fails, the future fails with the first exception.
+ */
+public final class SendBatchFuture implements Future<Void> {
+
+    // the registrations which are not complete yet, plus one until all the records have been sent
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile Exception exception;
+
+    /**
+     * Register something the future waits for, such as a producer batch some of the records were appended to. Each
+     * registration has to be completed with {@link #complete(Exception)}.
+     */
+    public void register() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Complete a registration
+     *
+     * @param exception The exception the records of the registration failed with, or null if they succeeded
+     */
+    public void complete(Exception exception) {
+        if (exception != null && this.exception == null)
+            this.exception = exception;
+        if (pending.decrementAndGet() == 0)
+            latch.countDown();
+    }
+
+    /**
+     * Mark that all the records have been sent, once they have been appended or failed. The future cannot complete
+     * before this is called.
+     */
+    public void sent() {
+        complete(null);
+    }
+
+    @Override
+    public boolean cancel(boolean interrupt) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return valueOrError();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit))
+            throw new TimeoutException("Timeout after waiting for " + unit.toMillis(timeout) + " ms.");
+        return valueOrError();
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    private Void valueOrError() throws ExecutionException {
+        if (exception != null)
+            throw new ExecutionException(exception);
+        return null;
+    }
+}
@@ -22,6 +22,7 @@ import org.apache.kafka.clients.ClientResponse;
 import org.apache.kafka.clients.KafkaClient;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.NetworkClientUtils;
+import org.apache.kafka.clients.NodeApiVersions;
 import org.apache.kafka.clients.RequestCompletionHandler;
 import org.apache.kafka.common.utils.ProducerIdAndEpoch;
 import org.apache.kafka.common.Cluster;
@@ -360,11 +361,15 @@ public class Sender implements Runnable {
             if (!this.client.ready(node, now)) {
                 iter.remove();
                 notReadyTimeout = Math.min(notReadyTimeout, this.client.pollDelayMs(node, now));
+            } else if (!canSendMoreProduceRequests(node)) {
+                // the node is ready again once a request in flight to it completes
+                iter.remove();
             }
         }
 
         // create produce requests
         Map<Integer, List<ProducerBatch>> batches = this.accumulator.drain(cluster, result.readyNodes, this.maxRequestSize, now);
+        failBatchesNotCompressed(batches);
         addToInflightBatches(batches);
         if (guaranteeMessageOrder) {
             // Mute all the partitions drained
@@ -415,6 +420,20 @@ public class Sender implements Runnable {
         return pollTimeout;
     }
 
+    /**
+     * Whether another produce request can be sent to the node. An idempotent producer may have at most as many requests
+     * in flight to a broker as the broker retains batches of each producer to detect duplicates, which is only known
+     * once the API versions of the broker are, and is otherwise assumed to be the default.
+     */
+    private boolean canSendMoreProduceRequests(Node node) {
+        if (transactionManager == null)
+            return true;
+        NodeApiVersions nodeApiVersions = apiVersions.get(node.idString());
+        int retainedBatches = nodeApiVersions == null ? NodeApiVersions.DEFAULT_PRODUCER_STATE_RETAINED_BATCHES :
+            nodeApiVersions.producerStateRetainedBatches();
+        return client.inFlightRequestCount(node.idString()) < retainedBatches;
+    }
+
     /**
      * Returns true if a transactional request is sent or polled, or if a FindCoordinator request is enqueued
      */
@@ -602,6 +621,8 @@ public class Sender implements Runnable {
                     completeBatch(batch, partResp, correlationId, now, receivedTimeMs + produceResponse.throttleTimeMs());
                 }
                 this.sensors.recordLatency(response.destination(), response.requestLatencyMs());
+                this.accumulator.onProduceResponse(Integer.parseInt(response.destination()), response.requestLatencyMs(),
+                    client.inFlightRequestCount(response.destination()), now);
             } else {
                 // this is the acks = 0 case, just complete all requests
                 for (ProducerBatch batch : batches.values()) {
@@ -738,6 +759,24 @@ public class Sender implements Runnable {
         }
     }
 
+    /**
+     * Remove the drained batches whose records could not be compressed and fail them, rather than sending their records
+     * with another compression type than the configured one.
+     */
+    private void failBatchesNotCompressed(Map<Integer, List<ProducerBatch>> batches) {
+        for (List<ProducerBatch> batchList : batches.values()) {
+            Iterator<ProducerBatch> iter = batchList.iterator();
+            while (iter.hasNext()) {
+                ProducerBatch batch = iter.next();
+                RuntimeException exception = batch.compressionException();
+                if (exception != null) {
+                    iter.remove();
+                    failBatch(batch, -1, NO_TIMESTAMP, exception, false);
+                }
+            }
+        }
+    }
+
     /**
      * We can retry a send if the error is transient and the number of attempts taken is fewer than the maximum allowed.
      * We can also retry OutOfOrderSequence exceptions for future batches, since if the first batch has failed, the
@@ -776,6 +815,7 @@ public class Sender implements Runnable {
                 minUsedMagic = batch.magic();
         }
 
+        int sizeInBytes = 0;
         for (ProducerBatch batch : batches) {
             TopicPartition tp = batch.topicPartition;
             MemoryRecords records = batch.records();
@@ -791,6 +831,7 @@ public class Sender implements Runnable {
                 records = batch.records().downConvert(minUsedMagic, 0, time).records();
             produceRecordsByPartition.put(tp, records);
             recordsByPartition.put(tp, batch);
+            sizeInBytes += records.sizeInBytes();
         }
 
         String transactionalId = null;
@@ -809,6 +850,7 @@ public class Sender implements Runnable {
         ClientRequest clientRequest = client.newClientRequest(nodeId, requestBuilder, now, acks != 0,
                 requestTimeoutMs, callback);
         client.send(clientRequest, now);
+        accumulator.onProduceRequestSent(destination, sizeInBytes, client.inFlightRequestCount(nodeId), now);
         log.trace("Sent produce request to {}: {}", nodeId, requestBuilder);
     }
 
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.record.RecordFieldWriter;
+import org.apache.kafka.common.serialization.BufferSerializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The value of a record which is serialized by a {@link BufferSerializer} when the record is appended to a batch.
+ */
+public final class SerializingValueWriter<T> implements RecordFieldWriter {
+    private final BufferSerializer<T> serializer;
+    private final String topic;
+    private final Headers headers;
+    private final T value;
+    private final int sizeInBytes;
+
+    public SerializingValueWriter(BufferSerializer<T> serializer, String topic, Headers headers, T value, int sizeInBytes) {
+        this.serializer = serializer;
+        this.topic = topic;
+        this.headers = headers;
+        this.value = value;
+        this.sizeInBytes = sizeInBytes;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        serializer.serialize(topic, headers, value, buffer);
+    }
+}
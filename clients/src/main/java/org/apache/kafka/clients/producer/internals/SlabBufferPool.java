@@ -0,0 +1,366 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.utils.Time;
+
+
+/**
+ * A pool of direct ByteBuffers kept under a given memory limit, which recycles buffers of several sizes. It differs
+ * from {@link BufferPool} in the following ways:
+ * <ol>
+ * <li>Buffers are allocated in size classes, which are the poolable size multiplied by powers of two. A request is
+ * served by a buffer of the smallest class that fits it, limited to the requested size, and buffers of every class
+ * are kept in a free list and recycled. Only requests larger than the largest class are allocated on the heap and
+ * left to the garbage collector.
+ * <li>Allocating from a free list or from unallocated memory and deallocating do not take any lock. A lock is only
+ * taken by threads which have to wait for memory, and by deallocations while some thread is waiting.
+ * <li>It is not fair. A thread waiting for memory takes it as soon as enough is available, so a thread asking for a
+ * large chunk of memory may wait longer than threads asking for smaller chunks after it.
+ * </ol>
+ * When a request can not be served by its free list nor by unallocated memory, pooled buffers of the other classes
+ * are released until it can. Since the memory of direct buffers is only returned once they are garbage collected, the
+ * direct memory used by the pool may briefly exceed the memory limit.
+ */
+public class SlabBufferPool extends BufferPool {
+
+    static final int MAX_SIZE_CLASSES = 8;
+    /** Returned by tryAllocate when memory was reserved for a new buffer */
+    private static final ByteBuffer RESERVED = ByteBuffer.allocate(0);
+
+    private final long totalMemory;
+    private final int poolableSize;
+    private final int[] classSizes;
+    private final Queue<ByteBuffer>[] free;
+    /** Memory which backs neither an allocated buffer nor a pooled one */
+    private final AtomicLong unallocatedMemory;
+    /** Memory of the buffers in the free lists */
+    private final AtomicLong pooledMemory;
+    private final AtomicInteger waiters;
+    private final ReentrantLock lock;
+    private final Condition moreMemory;
+    private final Time time;
+    private final Sensor reclaimedSensor;
+    private final Sensor unpooledSensor;
+
+    /**
+     * Create a new slab buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The size of the smallest size class
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    @SuppressWarnings("unchecked")
+    public SlabBufferPool(long memory, int poolableSize, Metrics metrics, Time time, String metricGrpName) {
+        super(memory, poolableSize, metrics, time, metricGrpName);
+        this.totalMemory = memory;
+        this.poolableSize = poolableSize;
+        this.classSizes = classSizes(memory, poolableSize);
+        this.free = new Queue[classSizes.length];
+        for (int i = 0; i < free.length; i++)
+            this.free[i] = new ConcurrentLinkedQueue<>();
+        this.unallocatedMemory = new AtomicLong(memory);
+        this.pooledMemory = new AtomicLong(0);
+        this.waiters = new AtomicInteger(0);
+        this.lock = new ReentrantLock();
+        this.moreMemory = lock.newCondition();
+        this.time = time;
+
+        MetricName metricName = metrics.metricName("bufferpool-pooled-bytes", metricGrpName,
+            "The amount of buffer memory held by buffers in the free lists.");
+        Measurable pooledBytes = new Measurable() {
+            public double measure(MetricConfig config, long now) {
+                return pooledMemory.get();
+            }
+        };
+        metrics.addMetric(metricName, pooledBytes);
+
+        this.reclaimedSensor = metrics.sensor("bufferpool-reclaimed-buffers");
+        MetricName rateMetricName = metrics.metricName("bufferpool-reclaimed-rate", metricGrpName,
+            "The average per-second number of pooled buffers released to serve a request of another size.");
+        MetricName totalMetricName = metrics.metricName("bufferpool-reclaimed-total", metricGrpName,
+            "The total number of pooled buffers released to serve a request of another size.");
+        this.reclaimedSensor.add(new Meter(rateMetricName, totalMetricName));
+
+        this.unpooledSensor = metrics.sensor("bufferpool-unpooled-allocations");
+        rateMetricName = metrics.metricName("bufferpool-unpooled-allocation-rate", metricGrpName,
+            "The average per-second number of buffers allocated on the heap because they are larger than the largest size class.");
+        totalMetricName = metrics.metricName("bufferpool-unpooled-allocation-total", metricGrpName,
+            "The total number of buffers allocated on the heap because they are larger than the largest size class.");
+        this.unpooledSensor.add(new Meter(rateMetricName, totalMetricName));
+    }
+
+    private static int[] classSizes(long memory, int poolableSize) {
+        if (poolableSize <= 0)
+            return new int[0];
+        int count = 1;
+        long size = poolableSize;
+        while (count < MAX_SIZE_CLASSES && size * 2 <= Math.min(memory, Integer.MAX_VALUE)) {
+            size *= 2;
+            count++;
+        }
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++)
+            sizes[i] = poolableSize << i;
+        return sizes;
+    }
+
+    /**
+     * Get the index of the smallest size class which fits the given size, or -1 if it is larger than all of them.
+     */
+    private int sizeClass(int size) {
+        for (int i = 0; i < classSizes.length; i++) {
+            if (size <= classSizes[i])
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Allocate a buffer of the given size. The returned buffer may have a larger capacity, but its limit is the given
+     * size. This method blocks if there is not enough memory.
+     *
+     * @param size The buffer size to allocate in bytes
+     * @param maxTimeToBlockMs The maximum time in milliseconds to block for buffer memory to be available
+     * @return The buffer
+     * @throws InterruptedException If the thread is interrupted while blocked
+     * @throws IllegalArgumentException if size is larger than the total memory controlled by the pool (and hence we would block
+     *         forever)
+     */
+    @Override
+    public ByteBuffer allocate(int size, long maxTimeToBlockMs) throws InterruptedException {
+        if (size > this.totalMemory)
+            throw new IllegalArgumentException("Attempt to allocate " + size
+                                               + " bytes, but there is a hard limit of "
+                                               + this.totalMemory
+                                               + " on memory allocations.");
+
+        int sizeClass = sizeClass(size);
+        int capacity = sizeClass >= 0 ? classSizes[sizeClass] : size;
+        ByteBuffer buffer = tryAllocate(sizeClass, capacity);
+        if (buffer == null)
+            buffer = allocateBlocking(sizeClass, capacity, maxTimeToBlockMs);
+        if (buffer == RESERVED)
+            return safeAllocate(sizeClass, capacity, size);
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Take a buffer from the free list of the size class or reserve its capacity in memory without blocking. Returns
+     * the pooled buffer, {@link #RESERVED} if memory was reserved for a new buffer, or null if there is not enough
+     * memory.
+     */
+    private ByteBuffer tryAllocate(int sizeClass, int capacity) {
+        if (sizeClass >= 0) {
+            ByteBuffer buffer = free[sizeClass].poll();
+            if (buffer != null) {
+                pooledMemory.addAndGet(-capacity);
+                return buffer;
+            }
+        }
+        if (reserve(capacity) || (reclaim(capacity) && reserve(capacity)))
+            return RESERVED;
+        return null;
+    }
+
+    private ByteBuffer allocateBlocking(int sizeClass, int capacity, long maxTimeToBlockMs) throws InterruptedException {
+        waiters.incrementAndGet();
+        lock.lock();
+        try {
+            long remainingTimeToBlockNs = TimeUnit.MILLISECONDS.toNanos(maxTimeToBlockMs);
+            while (true) {
+                ByteBuffer buffer = tryAllocate(sizeClass, capacity);
+                if (buffer != null)
+                    return buffer;
+
+                long startWaitNs = time.nanoseconds();
+                long timeNs;
+                boolean waitingTimeElapsed;
+                try {
+                    waitingTimeElapsed = !moreMemory.await(remainingTimeToBlockNs, TimeUnit.NANOSECONDS);
+                } finally {
+                    long endWaitNs = time.nanoseconds();
+                    timeNs = Math.max(0L, endWaitNs - startWaitNs);
+                    recordWaitTime(timeNs);
+                }
+
+                if (waitingTimeElapsed) {
+                    throw new TimeoutException("Failed to allocate memory within the configured max blocking time " + maxTimeToBlockMs + " ms.");
+                }
+
+                remainingTimeToBlockNs -= timeNs;
+            }
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve the given amount of unallocated memory, if there is enough of it.
+     */
+    private boolean reserve(int size) {
+        while (true) {
+            long unallocated = unallocatedMemory.get();
+            if (unallocated < size)
+                return false;
+            if (unallocatedMemory.compareAndSet(unallocated, unallocated - size))
+                return true;
+        }
+    }
+
+    /**
+     * Release pooled buffers, largest first, until there is at least the given amount of unallocated memory. Returns
+     * false if the pooled buffers are not enough.
+     */
+    private boolean reclaim(int size) {
+        for (int i = free.length - 1; i >= 0; i--) {
+            while (unallocatedMemory.get() < size) {
+                ByteBuffer buffer = free[i].poll();
+                if (buffer == null)
+                    break;
+                pooledMemory.addAndGet(-buffer.capacity());
+                unallocatedMemory.addAndGet(buffer.capacity());
+                reclaimedSensor.record();
+            }
+        }
+        return unallocatedMemory.get() >= size;
+    }
+
+    /**
+     * Allocate a buffer for which memory was reserved. If buffer allocation fails (e.g. because of OOM) then return
+     * the memory.
+     */
+    private ByteBuffer safeAllocate(int sizeClass, int capacity, int size) {
+        boolean error = true;
+        try {
+            ByteBuffer buffer;
+            if (sizeClass >= 0) {
+                buffer = allocateByteBuffer(capacity);
+                buffer.limit(size);
+            } else {
+                buffer = ByteBuffer.allocate(capacity);
+                unpooledSensor.record();
+            }
+            error = false;
+            return buffer;
+        } finally {
+            if (error)
+                release(capacity);
+        }
+    }
+
+    @Override
+    protected ByteBuffer allocateByteBuffer(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Return buffers to the pool. If they are direct buffers of one of the size classes add them to its free list,
+     * otherwise just mark the memory as free.
+     *
+     * @param buffer The buffer to return
+     * @param size The size of the buffer to mark as deallocated, note that this may be smaller than buffer.capacity
+     *             since the buffer may re-allocate itself during in-place compression
+     */
+    @Override
+    public void deallocate(ByteBuffer buffer, int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass >= 0 && classSizes[sizeClass] == size && size == buffer.capacity() && buffer.isDirect()) {
+            buffer.clear();
+            pooledMemory.addAndGet(size);
+            free[sizeClass].add(buffer);
+            signalWaiters();
+        } else {
+            release(size);
+        }
+    }
+
+    private void release(int size) {
+        unallocatedMemory.addAndGet(size);
+        signalWaiters();
+    }
+
+    private void signalWaiters() {
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                moreMemory.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public long availableMemory() {
+        return unallocatedMemory.get() + pooledMemory.get();
+    }
+
+    @Override
+    protected int freeSize() {
+        int size = 0;
+        for (Queue<ByteBuffer> buffers : free)
+            size += buffers.size();
+        return size;
+    }
+
+    @Override
+    public long unallocatedMemory() {
+        return unallocatedMemory.get();
+    }
+
+    @Override
+    public int queued() {
+        return waiters.get();
+    }
+
+    @Override
+    public int poolableSize() {
+        return this.poolableSize;
+    }
+
+    @Override
+    public long totalMemory() {
+        return this.totalMemory;
+    }
+
+    // package-private method used only for testing
+    int[] classSizes() {
+        return classSizes;
+    }
+}
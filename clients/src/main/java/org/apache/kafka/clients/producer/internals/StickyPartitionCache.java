@@ -17,7 +17,9 @@
 package org.apache.kafka.clients.producer.internals;
 
 import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
 
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
@@ -28,11 +30,26 @@ import org.apache.kafka.common.utils.Utils;
 /**
  * An internal class that implements a cache used for sticky partitioning behavior. The cache tracks the current sticky
  * partition for any given topic. This class should not be used externally. 
+ * <p>
+ * With the load of the brokers, a new sticky partition is more likely to be chosen the less loaded its leader is than
+ * the most loaded leader, so that fewer records are appended to the partitions of brokers which are falling behind.
+ * The partitions of the most loaded leader are still chosen at least half as often as those of an idle leader, so that
+ * small or short-lived differences of load do not move all the traffic away from a broker.
  */
 public class StickyPartitionCache {
     private final ConcurrentMap<String, Integer> indexCache;
+    private final NodeLoadStats loadStats;
+
     public StickyPartitionCache() {
+        this(null);
+    }
+
+    /**
+     * @param loadStats The load of the brokers, or null to choose new sticky partitions uniformly
+     */
+    public StickyPartitionCache(NodeLoadStats loadStats) {
         this.indexCache = new ConcurrentHashMap<>();
+        this.loadStats = loadStats;
     }
 
     public int partition(String topic, Cluster cluster) {
@@ -56,6 +73,8 @@ public class StickyPartitionCache {
                 newPart = random % partitions.size();
             } else if (availablePartitions.size() == 1) {
                 newPart = availablePartitions.get(0).partition();
+            } else if (loadStats != null) {
+                newPart = leastLoadedPartition(availablePartitions, oldPart);
             } else {
                 while (newPart == null || newPart.equals(oldPart)) {
                     Integer random = Utils.toPositive(ThreadLocalRandom.current().nextInt());
@@ -63,14 +82,48 @@ public class StickyPartitionCache {
                 }
             }
             // Only change the sticky partition if it is null or prevPartition matches the current sticky partition.
+            boolean changed;
             if (oldPart == null) {
-                indexCache.putIfAbsent(topic, newPart);
+                changed = indexCache.putIfAbsent(topic, newPart) == null;
             } else {
-                indexCache.replace(topic, prevPartition, newPart);
+                changed = indexCache.replace(topic, prevPartition, newPart);
+            }
+            if (changed && loadStats != null) {
+                Node leader = cluster.leaderFor(new TopicPartition(topic, newPart));
+                if (leader != null)
+                    loadStats.recordStickyPartition(leader.id());
             }
             return indexCache.get(topic);
         }
         return indexCache.get(topic);
     }
 
+    /**
+     * Choose a random partition other than the current sticky partition, weighing each partition by
+     * {@code 2 * maxLoad - load + 1}: how many more bytes are queued for or in flight to the most loaded leader than
+     * to its leader, plus the load of the most loaded leader to dampen the difference, plus one so that all partitions
+     * can be chosen. The weight of a partition of the most loaded leader is thus at least half of the weight of a
+     * partition of an idle leader.
+     */
+    private int leastLoadedPartition(List<PartitionInfo> availablePartitions, Integer oldPart) {
+        long[] loads = new long[availablePartitions.size()];
+        long maxLoad = 0;
+        for (int i = 0; i < loads.length; i++) {
+            loads[i] = loadStats.load(availablePartitions.get(i).leader().id());
+            maxLoad = Math.max(maxLoad, loads[i]);
+        }
+        // the cumulative weights of the partitions, with no weight for the current sticky partition
+        long totalWeight = 0;
+        for (int i = 0; i < loads.length; i++) {
+            if (oldPart == null || availablePartitions.get(i).partition() != oldPart)
+                totalWeight += 2 * maxLoad - loads[i] + 1;
+            loads[i] = totalWeight;
+        }
+        long random = ThreadLocalRandom.current().nextLong(totalWeight);
+        int i = 0;
+        while (loads[i] <= random)
+            i++;
+        return availablePartitions.get(i).partition();
+    }
+
 }
\ No newline at end of file
@@ -181,4 +181,27 @@ public class TopicConfig {
         "broker will not perform down-conversion for consumers expecting an older message format. The broker responds " +
         "with <code>UNSUPPORTED_VERSION</code> error for consume requests from such older clients. This configuration" +
         "does not apply to any message format conversion that might be required for replication to followers.";
+
+    public static final String MESSAGE_DICTIONARY_ENCODING_ENABLE_CONFIG = "message.dictionary.encoding.enable";
+    public static final String MESSAGE_DICTIONARY_ENCODING_ENABLE_DOC = "This configuration controls whether record " +
+        "batches which producers write in the dictionary encoding are stored as they are. In that encoding, records do " +
+        "not repeat the header keys, header values and key prefixes of the previous records of their batch. Consumers " +
+        "which do not support the encoding get the batches converted to the plain encoding, which is as expensive as " +
+        "message format down-conversion. When set to <code>false</code>, the broker converts dictionary encoded batches " +
+        "to the plain encoding when they are produced, as it does until the <code>inter.broker.protocol.version</code> " +
+        "is 2.5 or higher.";
+
+    public static final String COMPRESSION_ZSTD_DICTIONARIES_CONFIG = "compression.zstd.dictionaries";
+    public static final String COMPRESSION_ZSTD_DICTIONARIES_DOC = "A list of the ids of zstd dictionaries trained " +
+        "on the records of this topic and registered for it, for example with <code>kafka-zstd-dictionary-trainer.sh</code>. " +
+        "Dictionaries improve the compression ratio of small batches a lot. The broker compresses with the first " +
+        "dictionary when it recompresses batches with zstd, and it reads the batches producers compress with any of the " +
+        "dictionaries. Registered dictionaries are kept until the topic is deleted, so that the batches compressed with " +
+        "a dictionary which is removed from the list can still be read, including by replicas created later. The ids " +
+        "must be unique. Batches compressed with a dictionary which is not in the list are recompressed when they are " +
+        "produced, as are all the batches compressed with a dictionary until the " +
+        "<code>inter.broker.protocol.version</code> is 2.5 or higher. Consumers need the dictionaries configured too, " +
+        "including the removed ones the log may still have batches compressed with, unless they do not support " +
+        "them, in which case they get the batches " +
+        "recompressed without the dictionary, which is as expensive as message format down-conversion.";
 }
@@ -264,6 +264,12 @@ public abstract class AbstractLegacyRecordBatch extends AbstractRecordBatch impl
         return iterator(bufferSupplier);
     }
 
+    @Override
+    public CloseableIterator<Record> streamingIterator(BufferSupplier bufferSupplier, ZstdDictionaries zstdDictionaries) {
+        // the older message format versions do not support zstd dictionaries
+        return streamingIterator(bufferSupplier);
+    }
+
     static void writeHeader(ByteBuffer buffer, long offset, int size) {
         buffer.putLong(offset);
         buffer.putInt(size);
@@ -514,6 +520,11 @@ public abstract class AbstractLegacyRecordBatch extends AbstractRecordBatch impl
             return CloseableIterator.wrap(iterator(bufferSupplier));
         }
 
+        @Override
+        public CloseableIterator<Record> skipKeyValueIterator(BufferSupplier bufferSupplier, ZstdDictionaries zstdDictionaries) {
+            return skipKeyValueIterator(bufferSupplier);
+        }
+
         @Override
         public void writeTo(ByteBufferOutputStream outputStream) {
             outputStream.write(buffer.duplicate());
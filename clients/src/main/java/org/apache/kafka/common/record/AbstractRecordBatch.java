@@ -33,4 +33,14 @@ abstract class AbstractRecordBatch implements RecordBatch {
         return compressionType() != CompressionType.NONE;
     }
 
+    @Override
+    public boolean isDictionaryEncoded() {
+        return false;
+    }
+
+    @Override
+    public boolean usesZstdDictionary() {
+        return false;
+    }
+
 }
@@ -139,6 +139,22 @@ public abstract class AbstractRecords implements Records {
             return Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, key, value);
     }
 
+    /**
+     * Get an upper bound estimate on the batch size needed to hold a record with fields of the given sizes, where a
+     * size of -1 stands for a null field. This is only an estimate because it does not take into account overhead from
+     * the compression algorithm.
+     */
+    public static int estimateSizeInBytesUpperBound(byte magic, CompressionType compressionType, int keySize,
+                                                    int valueSize, Header[] headers) {
+        if (magic >= RecordBatch.MAGIC_VALUE_V2)
+            return DefaultRecordBatch.estimateBatchSizeUpperBound(keySize, valueSize, headers);
+        int legacyRecordSize = LegacyRecord.recordSize(magic, Math.max(0, keySize), Math.max(0, valueSize));
+        if (compressionType != CompressionType.NONE)
+            return Records.LOG_OVERHEAD + LegacyRecord.recordOverhead(magic) + legacyRecordSize;
+        else
+            return Records.LOG_OVERHEAD + legacyRecordSize;
+    }
+
     /**
      * Return the size of the record batch header.
      *
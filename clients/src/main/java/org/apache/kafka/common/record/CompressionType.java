@@ -166,6 +166,32 @@ public enum CompressionType {
      */
     public abstract InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier);
 
+    /**
+     * Wrap bufferStream with an OutputStream that will compress data with zstd and the given dictionary.
+     */
+    static OutputStream wrapForZstdOutput(ByteBufferOutputStream bufferStream, ZstdDictionary dictionary) {
+        try {
+            OutputStream outputStream = (OutputStream) ZstdConstructors.OUTPUT.invoke(bufferStream);
+            ZstdDictionarySetters.OUTPUT.invoke(outputStream, dictionary.bytes());
+            return outputStream;
+        } catch (Throwable e) {
+            throw new KafkaException(e);
+        }
+    }
+
+    /**
+     * Wrap buffer with an InputStream that will decompress data with zstd and the given dictionary.
+     */
+    static InputStream wrapForZstdInput(ByteBuffer buffer, ZstdDictionary dictionary) {
+        try {
+            InputStream inputStream = (InputStream) ZstdConstructors.INPUT.invoke(new ByteBufferInputStream(buffer));
+            ZstdDictionarySetters.INPUT.invoke(inputStream, dictionary.bytes());
+            return inputStream;
+        } catch (Throwable e) {
+            throw new KafkaException(e);
+        }
+    }
+
     public static CompressionType forId(int id) {
         switch (id) {
             case 0:
@@ -221,6 +247,19 @@ public enum CompressionType {
             MethodType.methodType(void.class, OutputStream.class));
     }
 
+    private static class ZstdDictionarySetters {
+        static final MethodHandle INPUT = findSetDict("com.github.luben.zstd.ZstdInputStream");
+        static final MethodHandle OUTPUT = findSetDict("com.github.luben.zstd.ZstdOutputStream");
+    }
+
+    private static MethodHandle findSetDict(String className) {
+        try {
+            return MethodHandles.publicLookup().unreflect(Class.forName(className).getMethod("setDict", byte[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static MethodHandle findConstructor(String className, MethodType methodType) {
         try {
             return MethodHandles.publicLookup().findConstructor(Class.forName(className), methodType);
@@ -19,6 +19,7 @@ package org.apache.kafka.common.record;
 import org.apache.kafka.common.InvalidRecordException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.utils.ByteBufferOutputStream;
 import org.apache.kafka.common.utils.ByteUtils;
 import org.apache.kafka.common.utils.Checksums;
 import org.apache.kafka.common.utils.Crc32C;
@@ -64,6 +65,9 @@ import static org.apache.kafka.common.record.RecordBatch.MAGIC_VALUE_V2;
  *
  * The offset and timestamp deltas compute the difference relative to the base offset and
  * base timestamp of the batch that this record is contained in.
+ *
+ * The records of batches with the dictionary encoding flag set encode their keys and headers differently, which is
+ * described in {@link DictionaryEncoding}.
  */
 public class DefaultRecord implements Record {
 
@@ -233,6 +237,64 @@ public class DefaultRecord implements Record {
         return ByteUtils.sizeOfVarint(sizeInBytes) + sizeInBytes;
     }
 
+    /**
+     * Write the record to the buffer of `out` and return its size. The value writes itself into the buffer. If it
+     * fails, nothing is written.
+     */
+    public static int writeTo(ByteBufferOutputStream out,
+                              int offsetDelta,
+                              long timestampDelta,
+                              ByteBuffer key,
+                              RecordFieldWriter value,
+                              Header[] headers) {
+        int keySize = key == null ? -1 : key.remaining();
+        int valueSize = value.sizeInBytes();
+        int sizeInBytes = sizeOfBodyInBytes(offsetDelta, timestampDelta, keySize, valueSize, headers);
+        int totalSizeInBytes = ByteUtils.sizeOfVarint(sizeInBytes) + sizeInBytes;
+        out.ensureRemaining(totalSizeInBytes);
+
+        ByteBuffer buffer = out.buffer();
+        int initialPosition = buffer.position();
+        try {
+            ByteUtils.writeVarint(sizeInBytes, buffer);
+            buffer.put((byte) 0); // there are no used record attributes at the moment
+            ByteUtils.writeVarlong(timestampDelta, buffer);
+            ByteUtils.writeVarint(offsetDelta, buffer);
+
+            ByteUtils.writeVarint(keySize, buffer);
+            if (key != null)
+                buffer.put(key.duplicate());
+
+            ByteUtils.writeVarint(valueSize, buffer);
+            ByteBuffer valueBuffer = buffer.duplicate();
+            valueBuffer.limit(buffer.position() + valueSize);
+            value.writeTo(valueBuffer);
+            if (valueBuffer.hasRemaining())
+                throw new IllegalStateException("The value wrote " + (valueSize - valueBuffer.remaining()) +
+                    " bytes, but its size is " + valueSize + " bytes");
+            buffer.position(valueBuffer.position());
+
+            ByteUtils.writeVarint(headers.length, buffer);
+            for (Header header : headers) {
+                byte[] utf8Bytes = Utils.utf8(header.key());
+                ByteUtils.writeVarint(utf8Bytes.length, buffer);
+                buffer.put(utf8Bytes);
+
+                byte[] headerValue = header.value();
+                if (headerValue == null) {
+                    ByteUtils.writeVarint(-1, buffer);
+                } else {
+                    ByteUtils.writeVarint(headerValue.length, buffer);
+                    buffer.put(headerValue);
+                }
+            }
+        } catch (RuntimeException e) {
+            buffer.position(initialPosition);
+            throw e;
+        }
+        return totalSizeInBytes;
+    }
+
     @Override
     public boolean hasMagic(byte magic) {
         return magic >= MAGIC_VALUE_V2;
@@ -293,12 +355,24 @@ public class DefaultRecord implements Record {
                                          long baseTimestamp,
                                          int baseSequence,
                                          Long logAppendTime) throws IOException {
+        return readFrom(input, baseOffset, baseTimestamp, baseSequence, logAppendTime, null);
+    }
+
+    /**
+     * Read a record, which is dictionary encoded if the decoder is not null (see {@link DictionaryEncoding}).
+     */
+    static DefaultRecord readFrom(DataInput input,
+                                  long baseOffset,
+                                  long baseTimestamp,
+                                  int baseSequence,
+                                  Long logAppendTime,
+                                  DictionaryEncoding.Decoder decoder) throws IOException {
         int sizeOfBodyInBytes = ByteUtils.readVarint(input);
         ByteBuffer recordBuffer = ByteBuffer.allocate(sizeOfBodyInBytes);
         input.readFully(recordBuffer.array(), 0, sizeOfBodyInBytes);
         int totalSizeInBytes = ByteUtils.sizeOfVarint(sizeOfBodyInBytes) + sizeOfBodyInBytes;
         return readFrom(recordBuffer, totalSizeInBytes, sizeOfBodyInBytes, baseOffset, baseTimestamp,
-                baseSequence, logAppendTime);
+                baseSequence, logAppendTime, decoder);
     }
 
     public static DefaultRecord readFrom(ByteBuffer buffer,
@@ -306,13 +380,25 @@ public class DefaultRecord implements Record {
                                          long baseTimestamp,
                                          int baseSequence,
                                          Long logAppendTime) {
+        return readFrom(buffer, baseOffset, baseTimestamp, baseSequence, logAppendTime, null);
+    }
+
+    /**
+     * Read a record, which is dictionary encoded if the decoder is not null (see {@link DictionaryEncoding}).
+     */
+    static DefaultRecord readFrom(ByteBuffer buffer,
+                                  long baseOffset,
+                                  long baseTimestamp,
+                                  int baseSequence,
+                                  Long logAppendTime,
+                                  DictionaryEncoding.Decoder decoder) {
         int sizeOfBodyInBytes = ByteUtils.readVarint(buffer);
         if (buffer.remaining() < sizeOfBodyInBytes)
             return null;
 
         int totalSizeInBytes = ByteUtils.sizeOfVarint(sizeOfBodyInBytes) + sizeOfBodyInBytes;
         return readFrom(buffer, totalSizeInBytes, sizeOfBodyInBytes, baseOffset, baseTimestamp,
-                baseSequence, logAppendTime);
+                baseSequence, logAppendTime, decoder);
     }
 
     private static DefaultRecord readFrom(ByteBuffer buffer,
@@ -321,7 +407,8 @@ public class DefaultRecord implements Record {
                                           long baseOffset,
                                           long baseTimestamp,
                                           int baseSequence,
-                                          Long logAppendTime) {
+                                          Long logAppendTime,
+                                          DictionaryEncoding.Decoder decoder) {
         try {
             int recordStart = buffer.position();
             byte attributes = buffer.get();
@@ -337,11 +424,15 @@ public class DefaultRecord implements Record {
                     RecordBatch.NO_SEQUENCE;
 
             ByteBuffer key = null;
-            int keySize = ByteUtils.readVarint(buffer);
-            if (keySize >= 0) {
-                key = buffer.slice();
-                key.limit(keySize);
-                buffer.position(buffer.position() + keySize);
+            if (decoder != null) {
+                key = decoder.readKey(buffer);
+            } else {
+                int keySize = ByteUtils.readVarint(buffer);
+                if (keySize >= 0) {
+                    key = buffer.slice();
+                    key.limit(keySize);
+                    buffer.position(buffer.position() + keySize);
+                }
             }
 
             ByteBuffer value = null;
@@ -359,6 +450,8 @@ public class DefaultRecord implements Record {
             final Header[] headers;
             if (numHeaders == 0)
                 headers = Record.EMPTY_HEADERS;
+            else if (decoder != null)
+                headers = decoder.readHeaders(buffer, numHeaders);
             else
                 headers = readHeaders(buffer, numHeaders);
 
@@ -379,11 +472,25 @@ public class DefaultRecord implements Record {
                                                          long baseTimestamp,
                                                          int baseSequence,
                                                          Long logAppendTime) throws IOException {
+        return readPartiallyFrom(input, skipArray, baseOffset, baseTimestamp, baseSequence, logAppendTime, false);
+    }
+
+    /**
+     * Read a record without its key, value and headers, which is dictionary encoded if `dictionaryEncoded` is true
+     * (see {@link DictionaryEncoding}). Skipping the fields does not require the dictionaries of the batch.
+     */
+    static PartialDefaultRecord readPartiallyFrom(DataInput input,
+                                                  byte[] skipArray,
+                                                  long baseOffset,
+                                                  long baseTimestamp,
+                                                  int baseSequence,
+                                                  Long logAppendTime,
+                                                  boolean dictionaryEncoded) throws IOException {
         int sizeOfBodyInBytes = ByteUtils.readVarint(input);
         int totalSizeInBytes = ByteUtils.sizeOfVarint(sizeOfBodyInBytes) + sizeOfBodyInBytes;
 
         return readPartiallyFrom(input, skipArray, totalSizeInBytes, sizeOfBodyInBytes, baseOffset, baseTimestamp,
-            baseSequence, logAppendTime);
+            baseSequence, logAppendTime, dictionaryEncoded);
     }
 
     private static PartialDefaultRecord readPartiallyFrom(DataInput input,
@@ -393,7 +500,8 @@ public class DefaultRecord implements Record {
                                                           long baseOffset,
                                                           long baseTimestamp,
                                                           int baseSequence,
-                                                          Long logAppendTime) throws IOException {
+                                                          Long logAppendTime,
+                                                          boolean dictionaryEncoded) throws IOException {
         ByteBuffer skipBuffer = ByteBuffer.wrap(skipArray);
         // set its limit to 0 to indicate no bytes readable yet
         skipBuffer.limit(0);
@@ -416,7 +524,14 @@ public class DefaultRecord implements Record {
                 RecordBatch.NO_SEQUENCE;
 
             // first skip key
-            int keySize = skipLengthDelimitedField(skipBuffer, input, bytesRemaining);
+            final int keySize;
+            if (dictionaryEncoded) {
+                keySize = readVarInt(skipBuffer, input, bytesRemaining);
+                if (keySize >= 0)
+                    skipKeySuffix(skipBuffer, input, bytesRemaining, keySize);
+            } else {
+                keySize = skipLengthDelimitedField(skipBuffer, input, bytesRemaining);
+            }
 
             // then skip value
             int valueSize = skipLengthDelimitedField(skipBuffer, input, bytesRemaining);
@@ -426,6 +541,11 @@ public class DefaultRecord implements Record {
             if (numHeaders < 0)
                 throw new InvalidRecordException("Found invalid number of record headers " + numHeaders);
             for (int i = 0; i < numHeaders; i++) {
+                if (dictionaryEncoded) {
+                    skipDictionaryEncodedHeader(skipBuffer, input, bytesRemaining);
+                    continue;
+                }
+
                 int headerKeySize = skipLengthDelimitedField(skipBuffer, input, bytesRemaining);
                 if (headerKeySize < 0)
                     throw new InvalidRecordException("Invalid negative header key size " + headerKeySize);
@@ -503,6 +623,37 @@ public class DefaultRecord implements Record {
         }
     }
 
+    private static void skipKeySuffix(ByteBuffer buffer, DataInput input, IntRef bytesRemaining, int keySize) throws IOException {
+        int keyPrefixSize = readVarInt(buffer, input, bytesRemaining);
+        if (keyPrefixSize < 0 || keyPrefixSize > keySize)
+            throw new InvalidRecordException("Invalid key prefix size " + keyPrefixSize + " of key with size " + keySize);
+        skipBytes(buffer, input, bytesRemaining, keySize - keyPrefixSize);
+    }
+
+    private static void skipDictionaryEncodedHeader(ByteBuffer buffer, DataInput input, IntRef bytesRemaining) throws IOException {
+        // the header key and value are only followed by their bytes if they are not in the dictionaries
+        if (readVarInt(buffer, input, bytesRemaining) == DictionaryEncoding.LITERAL_HEADER_KEY) {
+            int headerKeySize = skipLengthDelimitedField(buffer, input, bytesRemaining);
+            if (headerKeySize < 0)
+                throw new InvalidRecordException("Invalid negative header key size " + headerKeySize);
+        }
+
+        if (readVarInt(buffer, input, bytesRemaining) == DictionaryEncoding.LITERAL_HEADER_VALUE) {
+            int headerValueSize = skipLengthDelimitedField(buffer, input, bytesRemaining);
+            if (headerValueSize < 0)
+                throw new InvalidRecordException("Invalid negative header value size " + headerValueSize);
+        }
+    }
+
+    private static void skipBytes(ByteBuffer buffer, DataInput input, IntRef bytesRemaining, int bytesToSkip) throws IOException {
+        while (bytesToSkip > buffer.remaining()) {
+            bytesToSkip -= buffer.remaining();
+            buffer.position(buffer.limit());
+            readMore(buffer, input, bytesRemaining);
+        }
+        buffer.position(buffer.position() + bytesToSkip);
+    }
+
     private static void readMore(ByteBuffer buffer, DataInput input, IntRef bytesRemaining) throws IOException {
         if (bytesRemaining.value > 0) {
             byte[] array = buffer.array();
@@ -630,6 +781,10 @@ public class DefaultRecord implements Record {
     static int recordSizeUpperBound(ByteBuffer key, ByteBuffer value, Header[] headers) {
         int keySize = key == null ? -1 : key.remaining();
         int valueSize = value == null ? -1 : value.remaining();
+        return recordSizeUpperBound(keySize, valueSize, headers);
+    }
+
+    static int recordSizeUpperBound(int keySize, int valueSize, Header[] headers) {
         return MAX_RECORD_OVERHEAD + sizeOf(keySize, valueSize, headers);
     }
 
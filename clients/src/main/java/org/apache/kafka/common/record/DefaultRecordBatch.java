@@ -91,9 +91,19 @@ import static org.apache.kafka.common.record.Records.LOG_OVERHEAD;
  *
  * The current attributes are given below:
  *
- *  -------------------------------------------------------------------------------------------------
- *  | Unused (6-15) | Control (5) | Transactional (4) | Timestamp Type (3) | Compression Type (0-2) |
- *  -------------------------------------------------------------------------------------------------
+ *  ------------------------------------------------------------------------------------------------------------------------------------------------
+ *  | Unused (8-15) | Zstd Dictionary (7) | Dictionary Encoding (6) | Control (5) | Transactional (4) | Timestamp Type (3) | Compression Type (0-2) |
+ *  ------------------------------------------------------------------------------------------------------------------------------------------------
+ *
+ * The records of batches with the dictionary encoding flag set do not repeat the header keys, header values and key
+ * prefixes of the previous records of the batch (see {@link DictionaryEncoding}). Control batches are never dictionary
+ * encoded. Clients which do not support the encoding get the batches converted to the plain encoding by the broker.
+ *
+ * The records of zstd compressed batches with the zstd dictionary flag set are compressed with a trained dictionary
+ * (see {@link ZstdDictionary}). The id of the dictionary is the one in the header of the zstd frame, and the records
+ * can only be read with the dictionary (see {@link #streamingIterator(BufferSupplier, ZstdDictionaries)}). The iterators
+ * which are not given the dictionaries fail with an {@link InvalidRecordException} for such batches. Clients which do
+ * not support dictionaries get the batches recompressed without the dictionary by the broker.
  */
 public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRecordBatch {
     static final int BASE_OFFSET_OFFSET = 0;
@@ -129,6 +139,8 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
     private static final byte TRANSACTIONAL_FLAG_MASK = 0x10;
     private static final int CONTROL_FLAG_MASK = 0x20;
     private static final byte TIMESTAMP_TYPE_MASK = 0x08;
+    private static final byte DICTIONARY_ENCODING_FLAG_MASK = 0x40;
+    private static final int ZSTD_DICTIONARY_FLAG_MASK = 0x80;
 
     private static final int MAX_SKIP_BUFFER_SIZE = 2048;
 
@@ -250,32 +262,65 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         return (attributes() & CONTROL_FLAG_MASK) > 0;
     }
 
+    @Override
+    public boolean isDictionaryEncoded() {
+        return (attributes() & DICTIONARY_ENCODING_FLAG_MASK) > 0;
+    }
+
+    @Override
+    public boolean usesZstdDictionary() {
+        return (attributes() & ZSTD_DICTIONARY_FLAG_MASK) != 0;
+    }
+
+    /**
+     * Get the id of the zstd dictionary the records are compressed with, which is read from the header of the
+     * compressed frame. Only valid if {@link #usesZstdDictionary()} is true.
+     */
+    public int zstdDictionaryId() {
+        ByteBuffer buffer = this.buffer.duplicate();
+        buffer.position(RECORDS_OFFSET);
+        return ZstdDictionary.frameDictionaryId(buffer);
+    }
+
     @Override
     public int partitionLeaderEpoch() {
         return buffer.getInt(PARTITION_LEADER_EPOCH_OFFSET);
     }
 
-    private CloseableIterator<Record> compressedIterator(BufferSupplier bufferSupplier, boolean skipKeyValue) {
+    private CloseableIterator<Record> compressedIterator(BufferSupplier bufferSupplier, boolean skipKeyValue,
+                                                         ZstdDictionaries zstdDictionaries) {
         final ByteBuffer buffer = this.buffer.duplicate();
         buffer.position(RECORDS_OFFSET);
-        final DataInputStream inputStream = new DataInputStream(compressionType().wrapForInput(buffer, magic(),
-            bufferSupplier));
+        final DataInputStream inputStream;
+        if (usesZstdDictionary()) {
+            if (zstdDictionaries == null)
+                throw new InvalidRecordException("The batch is compressed with the zstd dictionary " + zstdDictionaryId() +
+                    ", so its records can only be read with the zstd dictionaries of its topic");
+            inputStream = new DataInputStream(CompressionType.wrapForZstdInput(buffer,
+                zstdDictionaries.forFrame(buffer)));
+        } else
+            inputStream = new DataInputStream(compressionType().wrapForInput(buffer, magic(), bufferSupplier));
 
         if (skipKeyValue) {
             // this buffer is used to skip length delimited fields like key, value, headers
             byte[] skipArray = new byte[MAX_SKIP_BUFFER_SIZE];
 
+            boolean dictionaryEncoded = isDictionaryEncoded();
+
             return new StreamRecordIterator(inputStream) {
                 @Override
                 protected Record doReadRecord(long baseOffset, long firstTimestamp, int baseSequence, Long logAppendTime) throws IOException {
-                    return DefaultRecord.readPartiallyFrom(inputStream, skipArray, baseOffset, firstTimestamp, baseSequence, logAppendTime);
+                    return DefaultRecord.readPartiallyFrom(inputStream, skipArray, baseOffset, firstTimestamp, baseSequence,
+                        logAppendTime, dictionaryEncoded);
                 }
             };
         } else {
+            DictionaryEncoding.Decoder decoder = newDecoder();
+
             return new StreamRecordIterator(inputStream) {
                 @Override
                 protected Record doReadRecord(long baseOffset, long firstTimestamp, int baseSequence, Long logAppendTime) throws IOException {
-                    return DefaultRecord.readFrom(inputStream, baseOffset, firstTimestamp, baseSequence, logAppendTime);
+                    return DefaultRecord.readFrom(inputStream, baseOffset, firstTimestamp, baseSequence, logAppendTime, decoder);
                 }
             };
         }
@@ -284,11 +329,12 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
     private CloseableIterator<Record> uncompressedIterator() {
         final ByteBuffer buffer = this.buffer.duplicate();
         buffer.position(RECORDS_OFFSET);
+        DictionaryEncoding.Decoder decoder = newDecoder();
         return new RecordIterator() {
             @Override
             protected Record readNext(long baseOffset, long firstTimestamp, int baseSequence, Long logAppendTime) {
                 try {
-                    return DefaultRecord.readFrom(buffer, baseOffset, firstTimestamp, baseSequence, logAppendTime);
+                    return DefaultRecord.readFrom(buffer, baseOffset, firstTimestamp, baseSequence, logAppendTime, decoder);
                 } catch (BufferUnderflowException e) {
                     throw new InvalidRecordException("Incorrect declared batch size, premature EOF reached");
                 }
@@ -302,6 +348,10 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         };
     }
 
+    private DictionaryEncoding.Decoder newDecoder() {
+        return isDictionaryEncoded() ? new DictionaryEncoding.Decoder() : null;
+    }
+
     @Override
     public Iterator<Record> iterator() {
         if (count() == 0)
@@ -313,7 +363,7 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         // for a normal iterator, we cannot ensure that the underlying compression stream is closed,
         // so we decompress the full record set here. Use cases which call for a lower memory footprint
         // can use `streamingIterator` at the cost of additional complexity
-        try (CloseableIterator<Record> iterator = compressedIterator(BufferSupplier.NO_CACHING, false)) {
+        try (CloseableIterator<Record> iterator = compressedIterator(BufferSupplier.NO_CACHING, false, null)) {
             List<Record> records = new ArrayList<>(count());
             while (iterator.hasNext())
                 records.add(iterator.next());
@@ -323,6 +373,11 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
 
     @Override
     public CloseableIterator<Record> skipKeyValueIterator(BufferSupplier bufferSupplier) {
+        return skipKeyValueIterator(bufferSupplier, null);
+    }
+
+    @Override
+    public CloseableIterator<Record> skipKeyValueIterator(BufferSupplier bufferSupplier, ZstdDictionaries zstdDictionaries) {
         if (count() == 0) {
             return CloseableIterator.wrap(Collections.emptyIterator());
         }
@@ -337,13 +392,18 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
 
         // we define this to be a closable iterator so that caller (i.e. the log validator) needs to close it
         // while we can save memory footprint of not decompressing the full record set ahead of time
-        return compressedIterator(bufferSupplier, true);
+        return compressedIterator(bufferSupplier, true, zstdDictionaries);
     }
 
     @Override
     public CloseableIterator<Record> streamingIterator(BufferSupplier bufferSupplier) {
+        return streamingIterator(bufferSupplier, null);
+    }
+
+    @Override
+    public CloseableIterator<Record> streamingIterator(BufferSupplier bufferSupplier, ZstdDictionaries zstdDictionaries) {
         if (isCompressed())
-            return compressedIterator(bufferSupplier, false);
+            return compressedIterator(bufferSupplier, false, zstdDictionaries);
         else
             return uncompressedIterator();
     }
@@ -360,13 +420,29 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         if (timestampType() == timestampType && currentMaxTimestamp == maxTimestamp)
             return;
 
-        byte attributes = computeAttributes(compressionType(), timestampType, isTransactional(), isControlBatch());
+        short attributes = computeAttributes(compressionType(), timestampType, isTransactional(), isControlBatch(),
+            isDictionaryEncoded(), usesZstdDictionary());
         buffer.putShort(ATTRIBUTES_OFFSET, attributes);
         buffer.putLong(MAX_TIMESTAMP_OFFSET, maxTimestamp);
         long crc = computeChecksum();
         ByteUtils.writeUnsignedInt(buffer, CRC_OFFSET, crc);
     }
 
+    /**
+     * Rewrite the producer state of this batch, as the producer does when it resets the producer state of a batch it
+     * already built.
+     */
+    public void setProducerState(long producerId, short producerEpoch, int baseSequence, boolean isTransactional) {
+        short attributes = computeAttributes(compressionType(), timestampType(), isTransactional, isControlBatch(),
+            isDictionaryEncoded(), usesZstdDictionary());
+        buffer.putShort(ATTRIBUTES_OFFSET, attributes);
+        buffer.putLong(PRODUCER_ID_OFFSET, producerId);
+        buffer.putShort(PRODUCER_EPOCH_OFFSET, producerEpoch);
+        buffer.putInt(BASE_SEQUENCE_OFFSET, baseSequence);
+        long crc = computeChecksum();
+        ByteUtils.writeUnsignedInt(buffer, CRC_OFFSET, crc);
+    }
+
     @Override
     public void setPartitionLeaderEpoch(int epoch) {
         buffer.putInt(PARTITION_LEADER_EPOCH_OFFSET, epoch);
@@ -406,19 +482,24 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         return buffer != null ? buffer.hashCode() : 0;
     }
 
-    private static byte computeAttributes(CompressionType type, TimestampType timestampType,
-                                          boolean isTransactional, boolean isControl) {
+    private static short computeAttributes(CompressionType type, TimestampType timestampType,
+                                           boolean isTransactional, boolean isControl, boolean isDictionaryEncoded,
+                                           boolean usesZstdDictionary) {
         if (timestampType == TimestampType.NO_TIMESTAMP_TYPE)
             throw new IllegalArgumentException("Timestamp type must be provided to compute attributes for message " +
                     "format v2 and above");
 
-        byte attributes = isTransactional ? TRANSACTIONAL_FLAG_MASK : 0;
+        short attributes = isTransactional ? TRANSACTIONAL_FLAG_MASK : 0;
         if (isControl)
             attributes |= CONTROL_FLAG_MASK;
         if (type.id > 0)
             attributes |= COMPRESSION_CODEC_MASK & type.id;
         if (timestampType == TimestampType.LOG_APPEND_TIME)
             attributes |= TIMESTAMP_TYPE_MASK;
+        if (isDictionaryEncoded)
+            attributes |= DICTIONARY_ENCODING_FLAG_MASK;
+        if (usesZstdDictionary)
+            attributes |= ZSTD_DICTIONARY_FLAG_MASK;
         return attributes;
     }
 
@@ -456,12 +537,36 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
                             boolean isControlBatch,
                             int partitionLeaderEpoch,
                             int numRecords) {
+        writeHeader(buffer, baseOffset, lastOffsetDelta, sizeInBytes, magic, compressionType, timestampType,
+                firstTimestamp, maxTimestamp, producerId, epoch, sequence, isTransactional, isControlBatch, false,
+                false, partitionLeaderEpoch, numRecords);
+    }
+
+    static void writeHeader(ByteBuffer buffer,
+                            long baseOffset,
+                            int lastOffsetDelta,
+                            int sizeInBytes,
+                            byte magic,
+                            CompressionType compressionType,
+                            TimestampType timestampType,
+                            long firstTimestamp,
+                            long maxTimestamp,
+                            long producerId,
+                            short epoch,
+                            int sequence,
+                            boolean isTransactional,
+                            boolean isControlBatch,
+                            boolean isDictionaryEncoded,
+                            boolean usesZstdDictionary,
+                            int partitionLeaderEpoch,
+                            int numRecords) {
         if (magic < RecordBatch.CURRENT_MAGIC_VALUE)
             throw new IllegalArgumentException("Invalid magic value " + magic);
         if (firstTimestamp < 0 && firstTimestamp != NO_TIMESTAMP)
             throw new IllegalArgumentException("Invalid message timestamp " + firstTimestamp);
 
-        short attributes = computeAttributes(compressionType, timestampType, isTransactional, isControlBatch);
+        short attributes = computeAttributes(compressionType, timestampType, isTransactional, isControlBatch,
+                isDictionaryEncoded, usesZstdDictionary);
 
         int position = buffer.position();
         buffer.putLong(position + BASE_OFFSET_OFFSET, baseOffset);
@@ -484,7 +589,9 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
     @Override
     public String toString() {
         return "RecordBatch(magic=" + magic() + ", offsets=[" + baseOffset() + ", " + lastOffset() + "], " +
-                "compression=" + compressionType() + ", timestampType=" + timestampType() + ", crc=" + checksum() + ")";
+                "compression=" + compressionType() + ", timestampType=" + timestampType() +
+                (isDictionaryEncoded() ? ", dictionaryEncoded=true" : "") +
+                (usesZstdDictionary() ? ", zstdDictionary=true" : "") + ", crc=" + checksum() + ")";
     }
 
     public static int sizeInBytes(long baseOffset, Iterable<Record> records) {
@@ -534,6 +641,10 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         return RECORD_BATCH_OVERHEAD + DefaultRecord.recordSizeUpperBound(key, value, headers);
     }
 
+    static int estimateBatchSizeUpperBound(int keySize, int valueSize, Header[] headers) {
+        return RECORD_BATCH_OVERHEAD + DefaultRecord.recordSizeUpperBound(keySize, valueSize, headers);
+    }
+
     public static int incrementSequence(int sequence, int increment) {
         if (sequence > Integer.MAX_VALUE - increment)
             return increment - (Integer.MAX_VALUE - sequence) - 1;
@@ -704,6 +815,16 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
             return loadBatchHeader().isControlBatch();
         }
 
+        @Override
+        public boolean isDictionaryEncoded() {
+            return loadBatchHeader().isDictionaryEncoded();
+        }
+
+        @Override
+        public boolean usesZstdDictionary() {
+            return loadBatchHeader().usesZstdDictionary();
+        }
+
         @Override
         public int partitionLeaderEpoch() {
             return loadBatchHeader().partitionLeaderEpoch();
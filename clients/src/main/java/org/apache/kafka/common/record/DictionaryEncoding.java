@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.InvalidRecordException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.utils.ByteUtils;
+import org.apache.kafka.common.utils.Utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dictionary encoding of the records of a v2 batch, which is used when the dictionary encoding flag is set in the
+ * batch attributes (see {@link DefaultRecordBatch}). The records do not repeat the header keys, header values and key
+ * prefixes of the records before them in the batch. The schema is given below:
+ *
+ * Record =>
+ *   Length => Varint
+ *   Attributes => Int8
+ *   TimestampDelta => Varlong
+ *   OffsetDelta => Varint
+ *   KeyLength => Varint
+ *   KeyPrefixLength => Varint (only present if KeyLength >= 0)
+ *   KeySuffix => Bytes (KeyLength - KeyPrefixLength bytes)
+ *   Value => Bytes
+ *   Headers => [HeaderKey HeaderValue]
+ *     HeaderKey => Varint (an index into the header key dictionary, or -1 if a String follows)
+ *     HeaderValue => Varint (an index into the header value dictionary, -1 for null, or -2 if Bytes follow)
+ *
+ * KeyPrefixLength is the number of leading bytes the key shares with the key of the previous record of the batch which
+ * has a key. Both dictionaries are empty at the start of the batch, and each header key and value which follows its
+ * reference is added to its dictionary, until the dictionary has {@link #MAX_DICTIONARY_SIZE} entries. The records of
+ * a batch can therefore only be read in order, which is what all the record iterators do.
+ */
+final class DictionaryEncoding {
+
+    static final int MAX_DICTIONARY_SIZE = 256;
+
+    static final int LITERAL_HEADER_KEY = -1;
+    static final int NULL_HEADER_VALUE = -1;
+    static final int LITERAL_HEADER_VALUE = -2;
+
+    // the key prefix length, plus one byte if the record length grows by a byte
+    private static final int MAX_RECORD_OVERHEAD = 6;
+
+    private DictionaryEncoding() {}
+
+    /**
+     * The maximum number of bytes the dictionary encoding of a record takes in addition to its plain encoding, which
+     * is at most one byte for each literal header key and value and the length of the key prefix.
+     */
+    static int maxOverheadInBytes(Header[] headers) {
+        return MAX_RECORD_OVERHEAD + 2 * headers.length;
+    }
+
+    /**
+     * Writes the records of a batch. The records have to be written in offset order.
+     */
+    static final class Encoder {
+        private final Map<String, Integer> headerKeys = new HashMap<>();
+        private final Map<ByteBuffer, Integer> headerValues = new HashMap<>();
+        private byte[] previousKey = new byte[0];
+        private int previousKeySize = 0;
+
+        // the encoding of the record being written
+        private int keyPrefixSize;
+        private int[] headerKeyRefs = new int[0];
+        private byte[][] headerKeyLiterals = new byte[0][];
+        private int[] headerValueRefs = new int[0];
+
+        /**
+         * Write the record to `out` and return its size.
+         */
+        int writeTo(DataOutputStream out,
+                    int offsetDelta,
+                    long timestampDelta,
+                    ByteBuffer key,
+                    ByteBuffer value,
+                    Header[] headers) throws IOException {
+            int sizeInBytes = encode(offsetDelta, timestampDelta, key, value, headers);
+            ByteUtils.writeVarint(sizeInBytes, out);
+
+            byte attributes = 0; // there are no used record attributes at the moment
+            out.write(attributes);
+
+            ByteUtils.writeVarlong(timestampDelta, out);
+            ByteUtils.writeVarint(offsetDelta, out);
+
+            if (key == null) {
+                ByteUtils.writeVarint(-1, out);
+            } else {
+                int keySize = key.remaining();
+                ByteUtils.writeVarint(keySize, out);
+                ByteUtils.writeVarint(keyPrefixSize, out);
+                ByteBuffer keySuffix = key.duplicate();
+                keySuffix.position(keySuffix.position() + keyPrefixSize);
+                Utils.writeTo(out, keySuffix, keySize - keyPrefixSize);
+                setPreviousKey(key);
+            }
+
+            if (value == null) {
+                ByteUtils.writeVarint(-1, out);
+            } else {
+                int valueSize = value.remaining();
+                ByteUtils.writeVarint(valueSize, out);
+                Utils.writeTo(out, value, valueSize);
+            }
+
+            ByteUtils.writeVarint(headers.length, out);
+
+            for (int i = 0; i < headers.length; i++) {
+                ByteUtils.writeVarint(headerKeyRefs[i], out);
+                if (headerKeyRefs[i] == LITERAL_HEADER_KEY) {
+                    byte[] utf8Bytes = headerKeyLiterals[i];
+                    ByteUtils.writeVarint(utf8Bytes.length, out);
+                    out.write(utf8Bytes);
+                }
+
+                ByteUtils.writeVarint(headerValueRefs[i], out);
+                if (headerValueRefs[i] == LITERAL_HEADER_VALUE) {
+                    byte[] headerValue = headers[i].value();
+                    ByteUtils.writeVarint(headerValue.length, out);
+                    out.write(headerValue);
+                }
+            }
+
+            Arrays.fill(headerKeyLiterals, 0, headers.length, null);
+            return ByteUtils.sizeOfVarint(sizeInBytes) + sizeInBytes;
+        }
+
+        /**
+         * Encode the key and headers of the record, adding its literal header keys and values to the dictionaries,
+         * and return the size of its body.
+         */
+        private int encode(int offsetDelta, long timestampDelta, ByteBuffer key, ByteBuffer value, Header[] headers) {
+            if (headers == null)
+                throw new IllegalArgumentException("Headers cannot be null");
+
+            int size = 1; // always one byte for attributes
+            size += ByteUtils.sizeOfVarint(offsetDelta);
+            size += ByteUtils.sizeOfVarlong(timestampDelta);
+
+            if (key == null) {
+                size += ByteUtils.sizeOfVarint(-1);
+            } else {
+                int keySize = key.remaining();
+                keyPrefixSize = sharedPrefixSize(key);
+                size += ByteUtils.sizeOfVarint(keySize) + ByteUtils.sizeOfVarint(keyPrefixSize) + keySize - keyPrefixSize;
+            }
+
+            if (value == null) {
+                size += ByteUtils.sizeOfVarint(-1);
+            } else {
+                int valueSize = value.remaining();
+                size += ByteUtils.sizeOfVarint(valueSize) + valueSize;
+            }
+
+            if (headerKeyRefs.length < headers.length) {
+                headerKeyRefs = new int[headers.length];
+                headerKeyLiterals = new byte[headers.length][];
+                headerValueRefs = new int[headers.length];
+            }
+
+            size += ByteUtils.sizeOfVarint(headers.length);
+            for (int i = 0; i < headers.length; i++) {
+                String headerKey = headers[i].key();
+                if (headerKey == null)
+                    throw new IllegalArgumentException("Invalid null header key found in headers");
+
+                Integer headerKeyRef = headerKeys.get(headerKey);
+                if (headerKeyRef == null) {
+                    byte[] utf8Bytes = Utils.utf8(headerKey);
+                    headerKeyRefs[i] = LITERAL_HEADER_KEY;
+                    headerKeyLiterals[i] = utf8Bytes;
+                    size += ByteUtils.sizeOfVarint(LITERAL_HEADER_KEY) + ByteUtils.sizeOfVarint(utf8Bytes.length) +
+                        utf8Bytes.length;
+                    if (headerKeys.size() < MAX_DICTIONARY_SIZE)
+                        headerKeys.put(headerKey, headerKeys.size());
+                } else {
+                    headerKeyRefs[i] = headerKeyRef;
+                    size += ByteUtils.sizeOfVarint(headerKeyRef);
+                }
+
+                byte[] headerValue = headers[i].value();
+                if (headerValue == null) {
+                    headerValueRefs[i] = NULL_HEADER_VALUE;
+                    size += ByteUtils.sizeOfVarint(NULL_HEADER_VALUE);
+                    continue;
+                }
+
+                Integer headerValueRef = headerValues.get(ByteBuffer.wrap(headerValue));
+                if (headerValueRef == null) {
+                    headerValueRefs[i] = LITERAL_HEADER_VALUE;
+                    size += ByteUtils.sizeOfVarint(LITERAL_HEADER_VALUE) + ByteUtils.sizeOfVarint(headerValue.length) +
+                        headerValue.length;
+                    // copy the value since the caller may reuse its array
+                    if (headerValues.size() < MAX_DICTIONARY_SIZE)
+                        headerValues.put(ByteBuffer.wrap(headerValue.clone()), headerValues.size());
+                } else {
+                    headerValueRefs[i] = headerValueRef;
+                    size += ByteUtils.sizeOfVarint(headerValueRef);
+                }
+            }
+            return size;
+        }
+
+        private int sharedPrefixSize(ByteBuffer key) {
+            int maxSize = Math.min(previousKeySize, key.remaining());
+            int position = key.position();
+            int size = 0;
+            while (size < maxSize && previousKey[size] == key.get(position + size))
+                size++;
+            return size;
+        }
+
+        private void setPreviousKey(ByteBuffer key) {
+            int keySize = key.remaining();
+            if (previousKey.length < keySize)
+                previousKey = new byte[keySize];
+            key.duplicate().get(previousKey, 0, keySize);
+            previousKeySize = keySize;
+        }
+    }
+
+    /**
+     * Reads the records of a batch. The records have to be read in offset order.
+     */
+    static final class Decoder {
+        private final List<String> headerKeys = new ArrayList<>();
+        private final List<ByteBuffer> headerValues = new ArrayList<>();
+        private ByteBuffer previousKey = ByteBuffer.allocate(0);
+
+        ByteBuffer readKey(ByteBuffer buffer) {
+            int keySize = ByteUtils.readVarint(buffer);
+            if (keySize < 0)
+                return null;
+
+            int keyPrefixSize = ByteUtils.readVarint(buffer);
+            if (keyPrefixSize < 0 || keyPrefixSize > keySize || keyPrefixSize > previousKey.remaining())
+                throw new InvalidRecordException("Invalid key prefix size " + keyPrefixSize + " of key with size " +
+                    keySize + " following a key with size " + previousKey.remaining());
+
+            int keySuffixSize = keySize - keyPrefixSize;
+            ByteBuffer keySuffix = buffer.slice();
+            keySuffix.limit(keySuffixSize);
+            buffer.position(buffer.position() + keySuffixSize);
+
+            final ByteBuffer key;
+            if (keyPrefixSize == 0) {
+                key = keySuffix;
+            } else {
+                key = ByteBuffer.allocate(keySize);
+                ByteBuffer keyPrefix = previousKey.duplicate();
+                keyPrefix.limit(keyPrefix.position() + keyPrefixSize);
+                key.put(keyPrefix).put(keySuffix);
+                key.flip();
+            }
+            previousKey = key.duplicate();
+            return key;
+        }
+
+        Header[] readHeaders(ByteBuffer buffer, int numHeaders) {
+            Header[] headers = new Header[numHeaders];
+            for (int i = 0; i < numHeaders; i++) {
+                final String headerKey;
+                int headerKeyRef = ByteUtils.readVarint(buffer);
+                if (headerKeyRef == LITERAL_HEADER_KEY) {
+                    int headerKeySize = ByteUtils.readVarint(buffer);
+                    if (headerKeySize < 0)
+                        throw new InvalidRecordException("Invalid negative header key size " + headerKeySize);
+
+                    headerKey = Utils.utf8(buffer, headerKeySize);
+                    buffer.position(buffer.position() + headerKeySize);
+                    if (headerKeys.size() < MAX_DICTIONARY_SIZE)
+                        headerKeys.add(headerKey);
+                } else {
+                    headerKey = lookup(headerKeys, headerKeyRef, "key");
+                }
+
+                ByteBuffer headerValue = null;
+                int headerValueRef = ByteUtils.readVarint(buffer);
+                if (headerValueRef == LITERAL_HEADER_VALUE) {
+                    int headerValueSize = ByteUtils.readVarint(buffer);
+                    if (headerValueSize < 0)
+                        throw new InvalidRecordException("Invalid negative header value size " + headerValueSize);
+
+                    headerValue = buffer.slice();
+                    headerValue.limit(headerValueSize);
+                    buffer.position(buffer.position() + headerValueSize);
+                    if (headerValues.size() < MAX_DICTIONARY_SIZE)
+                        headerValues.add(headerValue.duplicate());
+                } else if (headerValueRef != NULL_HEADER_VALUE) {
+                    headerValue = lookup(headerValues, headerValueRef, "value").duplicate();
+                }
+
+                headers[i] = new RecordHeader(headerKey, headerValue);
+            }
+
+            return headers;
+        }
+
+        private static <T> T lookup(List<T> dictionary, int index, String name) {
+            if (index < 0 || index >= dictionary.size())
+                throw new InvalidRecordException("Invalid header " + name + " index " + index + " in a dictionary of " +
+                    dictionary.size() + " entries");
+            return dictionary.get(index);
+        }
+    }
+}
@@ -157,6 +157,11 @@ public class FileLogInputStream implements LogInputStream<FileLogInputStream.Fil
             return loadFullBatch().streamingIterator(bufferSupplier);
         }
 
+        @Override
+        public CloseableIterator<Record> streamingIterator(BufferSupplier bufferSupplier, ZstdDictionaries zstdDictionaries) {
+            return loadFullBatch().streamingIterator(bufferSupplier, zstdDictionaries);
+        }
+
         @Override
         public boolean isValid() {
             return loadFullBatch().isValid();
@@ -36,24 +36,36 @@ public class LazyDownConversionRecords implements BaseRecords {
     private ConvertedRecords firstConvertedBatch;
     private final int sizeInBytes;
     private final Time time;
+    private final ZstdDictionaries zstdDictionaries;
 
     /**
      * @param topicPartition The topic-partition to which records belong
      * @param records Records to lazily down-convert
      * @param toMagic Magic version to down-convert to
      * @param firstOffset The starting offset for down-converted records. This only impacts some cases. See
-     *                    {@link RecordsUtil#downConvert(Iterable, byte, long, Time)} for an explanation.
+     *                    {@link RecordsUtil#downConvert(Iterable, byte, long, Time, ZstdDictionaries)} for an explanation.
      * @param time The time instance to use
      *
      * @throws org.apache.kafka.common.errors.UnsupportedCompressionTypeException If the first batch to down-convert
      *    has a compression type which we do not support down-conversion for.
      */
     public LazyDownConversionRecords(TopicPartition topicPartition, Records records, byte toMagic, long firstOffset, Time time) {
+        this(topicPartition, records, toMagic, firstOffset, time, ZstdDictionaries.EMPTY);
+    }
+
+    /**
+     * @param zstdDictionaries The zstd dictionaries the records may be compressed with
+     *
+     * @see #LazyDownConversionRecords(TopicPartition, Records, byte, long, Time)
+     */
+    public LazyDownConversionRecords(TopicPartition topicPartition, Records records, byte toMagic, long firstOffset,
+                                     Time time, ZstdDictionaries zstdDictionaries) {
         this.topicPartition = Objects.requireNonNull(topicPartition);
         this.records = Objects.requireNonNull(records);
         this.toMagic = toMagic;
         this.firstOffset = firstOffset;
         this.time = Objects.requireNonNull(time);
+        this.zstdDictionaries = Objects.requireNonNull(zstdDictionaries);
 
         // Kafka consumers expect at least one full batch of messages for every topic-partition. To guarantee this, we
         // need to make sure that we are able to accommodate one full batch of down-converted messages. The way we achieve
@@ -175,7 +187,8 @@ public class LazyDownConversionRecords implements BaseRecords {
                     isFirstBatch = false;
                 }
 
-                ConvertedRecords convertedRecords = RecordsUtil.downConvert(batches, toMagic, firstOffset, time);
+                ConvertedRecords convertedRecords = RecordsUtil.downConvert(batches, toMagic, firstOffset, time,
+                    zstdDictionaries);
                 // During conversion, it is possible that we drop certain batches because they do not have an equivalent
                 // representation in the message format we want to convert to. For example, V0 and V1 message formats
                 // have no notion of transaction markers which were introduced in V2 so they get dropped during conversion.
@@ -109,7 +109,7 @@ public class MemoryRecords extends AbstractRecords {
 
     @Override
     public ConvertedRecords<MemoryRecords> downConvert(byte toMagic, long firstOffset, Time time) {
-        return RecordsUtil.downConvert(batches(), toMagic, firstOffset, time);
+        return RecordsUtil.downConvert(batches(), toMagic, firstOffset, time, ZstdDictionaries.EMPTY);
     }
 
     @Override
@@ -147,12 +147,25 @@ public class MemoryRecords extends AbstractRecords {
      */
     public FilterResult filterTo(TopicPartition partition, RecordFilter filter, ByteBuffer destinationBuffer,
                                  int maxRecordBatchSize, BufferSupplier decompressionBufferSupplier) {
-        return filterTo(partition, batches(), filter, destinationBuffer, maxRecordBatchSize, decompressionBufferSupplier);
+        return filterTo(partition, filter, destinationBuffer, maxRecordBatchSize, decompressionBufferSupplier,
+            ZstdDictionaries.EMPTY);
+    }
+
+    /**
+     * Filter the records into the provided ByteBuffer like {@link #filterTo(TopicPartition, RecordFilter, ByteBuffer,
+     * int, BufferSupplier)}, reading the batches compressed with one of the given zstd dictionaries. The batches which
+     * are rebuilt are compressed without a dictionary.
+     */
+    public FilterResult filterTo(TopicPartition partition, RecordFilter filter, ByteBuffer destinationBuffer,
+                                 int maxRecordBatchSize, BufferSupplier decompressionBufferSupplier,
+                                 ZstdDictionaries zstdDictionaries) {
+        return filterTo(partition, batches(), filter, destinationBuffer, maxRecordBatchSize, decompressionBufferSupplier,
+            zstdDictionaries);
     }
 
     private static FilterResult filterTo(TopicPartition partition, Iterable<MutableRecordBatch> batches,
                                          RecordFilter filter, ByteBuffer destinationBuffer, int maxRecordBatchSize,
-                                         BufferSupplier decompressionBufferSupplier) {
+                                         BufferSupplier decompressionBufferSupplier, ZstdDictionaries zstdDictionaries) {
         FilterResult filterResult = new FilterResult(destinationBuffer);
         ByteBufferOutputStream bufferOutputStream = new ByteBufferOutputStream(destinationBuffer);
 
@@ -173,7 +186,8 @@ public class MemoryRecords extends AbstractRecords {
             boolean writeOriginalBatch = true;
             List<Record> retainedRecords = new ArrayList<>();
 
-            try (final CloseableIterator<Record> iterator = batch.streamingIterator(decompressionBufferSupplier)) {
+            try (final CloseableIterator<Record> iterator = batch.streamingIterator(decompressionBufferSupplier,
+                    zstdDictionaries)) {
                 while (iterator.hasNext()) {
                     Record record = iterator.next();
                     filterResult.messagesRead += 1;
@@ -439,6 +453,26 @@ public class MemoryRecords extends AbstractRecords {
                 RecordBatch.NO_PARTITION_LEADER_EPOCH);
     }
 
+    /**
+     * Get a builder of a batch whose records are dictionary encoded if `dictionaryEncoded` is true, which requires
+     * magic v2 (see {@link DictionaryEncoding}), and which is compressed with `zstdDictionary` if it is not null,
+     * which requires magic v2 and zstd compression.
+     */
+    public static MemoryRecordsBuilder builder(ByteBuffer buffer,
+                                               byte magic,
+                                               CompressionType compressionType,
+                                               TimestampType timestampType,
+                                               long baseOffset,
+                                               boolean dictionaryEncoded,
+                                               ZstdDictionary zstdDictionary) {
+        long logAppendTime = RecordBatch.NO_TIMESTAMP;
+        if (timestampType == TimestampType.LOG_APPEND_TIME)
+            logAppendTime = System.currentTimeMillis();
+        return new MemoryRecordsBuilder(buffer, magic, compressionType, timestampType, baseOffset, logAppendTime,
+                RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
+                RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.remaining(), dictionaryEncoded, zstdDictionary);
+    }
+
     public static MemoryRecordsBuilder builder(ByteBuffer buffer,
                                                byte magic,
                                                CompressionType compressionType,
@@ -60,6 +60,8 @@ public class MemoryRecordsBuilder implements AutoCloseable {
     private final int partitionLeaderEpoch;
     private final int writeLimit;
     private final int batchHeaderSizeInBytes;
+    private final DictionaryEncoding.Encoder dictionaryEncoder;
+    private final ZstdDictionary zstdDictionary;
 
     // Use a conservative estimate of the compression ratio. The producer overrides this using statistics
     // from previous batches before appending any records.
@@ -95,6 +97,43 @@ public class MemoryRecordsBuilder implements AutoCloseable {
                                 boolean isControlBatch,
                                 int partitionLeaderEpoch,
                                 int writeLimit) {
+        this(bufferStream, magic, compressionType, timestampType, baseOffset, logAppendTime, producerId, producerEpoch,
+                baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch, writeLimit, false);
+    }
+
+    public MemoryRecordsBuilder(ByteBufferOutputStream bufferStream,
+                                byte magic,
+                                CompressionType compressionType,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit,
+                                boolean dictionaryEncoded) {
+        this(bufferStream, magic, compressionType, timestampType, baseOffset, logAppendTime, producerId, producerEpoch,
+                baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch, writeLimit, dictionaryEncoded, null);
+    }
+
+    public MemoryRecordsBuilder(ByteBufferOutputStream bufferStream,
+                                byte magic,
+                                CompressionType compressionType,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit,
+                                boolean dictionaryEncoded,
+                                ZstdDictionary zstdDictionary) {
         if (magic > RecordBatch.MAGIC_VALUE_V0 && timestampType == TimestampType.NO_TIMESTAMP_TYPE)
             throw new IllegalArgumentException("TimestampType must be set for magic >= 0");
         if (magic < RecordBatch.MAGIC_VALUE_V2) {
@@ -104,7 +143,15 @@ public class MemoryRecordsBuilder implements AutoCloseable {
                 throw new IllegalArgumentException("Control records are not supported for magic " + magic);
             if (compressionType == CompressionType.ZSTD)
                 throw new IllegalArgumentException("ZStandard compression is not supported for magic " + magic);
+            if (dictionaryEncoded)
+                throw new IllegalArgumentException("Dictionary encoding is not supported for magic " + magic);
         }
+        if (isControlBatch && dictionaryEncoded)
+            throw new IllegalArgumentException("Control records cannot be dictionary encoded");
+        if (zstdDictionary != null && compressionType != CompressionType.ZSTD)
+            throw new IllegalArgumentException("A zstd dictionary cannot be used with compression type " + compressionType);
+        if (zstdDictionary != null && magic < RecordBatch.MAGIC_VALUE_V2)
+            throw new IllegalArgumentException("A zstd dictionary cannot be used with magic " + magic);
 
         this.magic = magic;
         this.timestampType = timestampType;
@@ -124,10 +171,15 @@ public class MemoryRecordsBuilder implements AutoCloseable {
         this.writeLimit = writeLimit;
         this.initialPosition = bufferStream.position();
         this.batchHeaderSizeInBytes = AbstractRecords.recordBatchHeaderSizeInBytes(magic, compressionType);
+        this.dictionaryEncoder = dictionaryEncoded ? new DictionaryEncoding.Encoder() : null;
+        this.zstdDictionary = zstdDictionary;
 
         bufferStream.position(initialPosition + batchHeaderSizeInBytes);
         this.bufferStream = bufferStream;
-        this.appendStream = new DataOutputStream(compressionType.wrapForOutput(this.bufferStream, magic));
+        if (zstdDictionary != null)
+            this.appendStream = new DataOutputStream(CompressionType.wrapForZstdOutput(this.bufferStream, zstdDictionary));
+        else
+            this.appendStream = new DataOutputStream(compressionType.wrapForOutput(this.bufferStream, magic));
     }
 
     /**
@@ -168,6 +220,54 @@ public class MemoryRecordsBuilder implements AutoCloseable {
                 writeLimit);
     }
 
+    /**
+     * Construct a new builder, which writes the records with the dictionary encoding if `dictionaryEncoded` is true.
+     * The encoding requires magic v2 and is not supported for control batches. See the constructor above for the
+     * other parameters.
+     */
+    public MemoryRecordsBuilder(ByteBuffer buffer,
+                                byte magic,
+                                CompressionType compressionType,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit,
+                                boolean dictionaryEncoded) {
+        this(new ByteBufferOutputStream(buffer), magic, compressionType, timestampType, baseOffset, logAppendTime,
+                producerId, producerEpoch, baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch,
+                writeLimit, dictionaryEncoded, null);
+    }
+
+    /**
+     * Construct a new builder, which compresses the records with the given zstd dictionary if it is not null. The
+     * dictionary requires zstd compression. See the constructors above for the other parameters.
+     */
+    public MemoryRecordsBuilder(ByteBuffer buffer,
+                                byte magic,
+                                CompressionType compressionType,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit,
+                                boolean dictionaryEncoded,
+                                ZstdDictionary zstdDictionary) {
+        this(new ByteBufferOutputStream(buffer), magic, compressionType, timestampType, baseOffset, logAppendTime,
+                producerId, producerEpoch, baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch,
+                writeLimit, dictionaryEncoded, zstdDictionary);
+    }
+
     public ByteBuffer buffer() {
         return bufferStream.buffer();
     }
@@ -192,6 +292,14 @@ public class MemoryRecordsBuilder implements AutoCloseable {
         return isTransactional;
     }
 
+    public boolean isDictionaryEncoded() {
+        return dictionaryEncoder != null;
+    }
+
+    public ZstdDictionary zstdDictionary() {
+        return zstdDictionary;
+    }
+
     /**
      * Close this builder and return the resulting buffer.
      * @return The built log buffer
@@ -365,7 +473,7 @@ public class MemoryRecordsBuilder implements AutoCloseable {
 
         DefaultRecordBatch.writeHeader(buffer, baseOffset, offsetDelta, size, magic, compressionType, timestampType,
                 firstTimestamp, maxTimestamp, producerId, producerEpoch, baseSequence, isTransactional, isControlBatch,
-                partitionLeaderEpoch, numRecords);
+                dictionaryEncoder != null, zstdDictionary != null, partitionLeaderEpoch, numRecords);
 
         buffer.position(pos);
         return writtenCompressed;
@@ -398,21 +506,7 @@ public class MemoryRecordsBuilder implements AutoCloseable {
     private Long appendWithOffset(long offset, boolean isControlRecord, long timestamp, ByteBuffer key,
                                   ByteBuffer value, Header[] headers) {
         try {
-            if (isControlRecord != isControlBatch)
-                throw new IllegalArgumentException("Control records can only be appended to control batches");
-
-            if (lastOffset != null && offset <= lastOffset)
-                throw new IllegalArgumentException(String.format("Illegal offset %s following previous offset %s " +
-                        "(Offsets must increase monotonically).", offset, lastOffset));
-
-            if (timestamp < 0 && timestamp != RecordBatch.NO_TIMESTAMP)
-                throw new IllegalArgumentException("Invalid negative timestamp " + timestamp);
-
-            if (magic < RecordBatch.MAGIC_VALUE_V2 && headers != null && headers.length > 0)
-                throw new IllegalArgumentException("Magic v" + magic + " does not support record headers");
-
-            if (firstTimestamp == null)
-                firstTimestamp = timestamp;
+            validateAppend(offset, isControlRecord, timestamp, headers);
 
             if (magic > RecordBatch.MAGIC_VALUE_V1) {
                 appendDefaultRecord(offset, timestamp, key, value, headers);
@@ -425,6 +519,24 @@ public class MemoryRecordsBuilder implements AutoCloseable {
         }
     }
 
+    private void validateAppend(long offset, boolean isControlRecord, long timestamp, Header[] headers) {
+        if (isControlRecord != isControlBatch)
+            throw new IllegalArgumentException("Control records can only be appended to control batches");
+
+        if (lastOffset != null && offset <= lastOffset)
+            throw new IllegalArgumentException(String.format("Illegal offset %s following previous offset %s " +
+                    "(Offsets must increase monotonically).", offset, lastOffset));
+
+        if (timestamp < 0 && timestamp != RecordBatch.NO_TIMESTAMP)
+            throw new IllegalArgumentException("Invalid negative timestamp " + timestamp);
+
+        if (magic < RecordBatch.MAGIC_VALUE_V2 && headers != null && headers.length > 0)
+            throw new IllegalArgumentException("Magic v" + magic + " does not support record headers");
+
+        if (firstTimestamp == null)
+            firstTimestamp = timestamp;
+    }
+
     /**
      * Append a new record at the given offset.
      * @param offset The absolute offset of the record in the log buffer
@@ -508,6 +620,37 @@ public class MemoryRecordsBuilder implements AutoCloseable {
         return appendWithOffset(nextSequentialOffset(), timestamp, key, value, headers);
     }
 
+    /**
+     * Append a new record at the next sequential offset, whose value writes itself into the batch. The value is only
+     * written directly into the underlying buffer if the batch is neither compressed, dictionary encoded nor of message
+     * format v0 or v1, otherwise it is first written into a temporary buffer. If writing the value fails, the record is not appended.
+     * @param timestamp The record timestamp
+     * @param key The record key
+     * @param value The record value
+     * @param headers The record headers if there are any
+     * @return CRC of the record or null if record-level CRC is not supported for the message format
+     */
+    public Long append(long timestamp, ByteBuffer key, RecordFieldWriter value, Header[] headers) {
+        if (compressionType != CompressionType.NONE || magic < RecordBatch.MAGIC_VALUE_V2 || dictionaryEncoder != null) {
+            ByteBuffer valueBuffer = ByteBuffer.allocate(value.sizeInBytes());
+            value.writeTo(valueBuffer);
+            if (valueBuffer.hasRemaining())
+                throw new IllegalStateException("The value wrote " + valueBuffer.position() + " bytes, but its size is " +
+                    value.sizeInBytes() + " bytes");
+            valueBuffer.flip();
+            return append(timestamp, key, valueBuffer, headers);
+        }
+
+        long offset = nextSequentialOffset();
+        validateAppend(offset, false, timestamp, headers);
+        ensureOpenForRecordAppend();
+        int offsetDelta = (int) (offset - baseOffset);
+        long timestampDelta = timestamp - firstTimestamp;
+        int sizeInBytes = DefaultRecord.writeTo(bufferStream, offsetDelta, timestampDelta, key, value, headers);
+        recordWritten(offset, timestamp, sizeInBytes);
+        return null;
+    }
+
     /**
      * Append a new record at the next sequential offset.
      * @param timestamp The record timestamp
@@ -628,7 +771,11 @@ public class MemoryRecordsBuilder implements AutoCloseable {
         ensureOpenForRecordAppend();
         int offsetDelta = (int) (offset - baseOffset);
         long timestampDelta = timestamp - firstTimestamp;
-        int sizeInBytes = DefaultRecord.writeTo(appendStream, offsetDelta, timestampDelta, key, value, headers);
+        final int sizeInBytes;
+        if (dictionaryEncoder != null)
+            sizeInBytes = dictionaryEncoder.writeTo(appendStream, offsetDelta, timestampDelta, key, value, headers);
+        else
+            sizeInBytes = DefaultRecord.writeTo(appendStream, offsetDelta, timestampDelta, key, value, headers);
         recordWritten(offset, timestamp, sizeInBytes);
     }
 
@@ -708,7 +855,7 @@ public class MemoryRecordsBuilder implements AutoCloseable {
      * appended, then this returns true.
      */
     public boolean hasRoomFor(long timestamp, byte[] key, byte[] value, Header[] headers) {
-        return hasRoomFor(timestamp, wrapNullable(key), wrapNullable(value), headers);
+        return hasRoomFor(timestamp, key == null ? -1 : key.length, value == null ? -1 : value.length, headers);
     }
 
     /**
@@ -720,6 +867,18 @@ public class MemoryRecordsBuilder implements AutoCloseable {
      * re-allocation in the underlying byte buffer stream.
      */
     public boolean hasRoomFor(long timestamp, ByteBuffer key, ByteBuffer value, Header[] headers) {
+        return hasRoomFor(timestamp, key == null ? -1 : key.remaining(), value == null ? -1 : value.remaining(), headers);
+    }
+
+    /**
+     * Check if we have room for a new record containing the given key and a value which writes itself into the batch.
+     * If no records have been appended, then this returns true.
+     */
+    public boolean hasRoomFor(long timestamp, byte[] key, RecordFieldWriter value, Header[] headers) {
+        return hasRoomFor(timestamp, key == null ? -1 : key.length, value.sizeInBytes(), headers);
+    }
+
+    private boolean hasRoomFor(long timestamp, int keySize, int valueSize, Header[] headers) {
         if (isFull())
             return false;
 
@@ -729,11 +888,15 @@ public class MemoryRecordsBuilder implements AutoCloseable {
 
         final int recordSize;
         if (magic < RecordBatch.MAGIC_VALUE_V2) {
-            recordSize = Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, key, value);
+            recordSize = Records.LOG_OVERHEAD + LegacyRecord.recordSize(magic, Math.max(0, keySize), Math.max(0, valueSize));
         } else {
             int nextOffsetDelta = lastOffset == null ? 0 : (int) (lastOffset - baseOffset + 1);
             long timestampDelta = firstTimestamp == null ? 0 : timestamp - firstTimestamp;
-            recordSize = DefaultRecord.sizeInBytes(nextOffsetDelta, timestampDelta, key, value, headers);
+            int plainRecordSize = DefaultRecord.sizeInBytes(nextOffsetDelta, timestampDelta, keySize, valueSize, headers);
+            // the dictionary encoding is usually smaller, but the size of a record which shares nothing with the
+            // previous records is only known when it is written
+            recordSize = dictionaryEncoder == null ? plainRecordSize :
+                plainRecordSize + DictionaryEncoding.maxOverheadInBytes(headers);
         }
 
         // Be conservative and not take compression of the new record into consideration.
@@ -64,4 +64,12 @@ public interface MutableRecordBatch extends RecordBatch {
      * @return The closeable iterator
      */
     CloseableIterator<Record> skipKeyValueIterator(BufferSupplier bufferSupplier);
+
+    /**
+     * Return an iterator like {@link #skipKeyValueIterator(BufferSupplier)}, which also reads the records of batches
+     * compressed with one of the given zstd dictionaries.
+     *
+     * @return The closeable iterator
+     */
+    CloseableIterator<Record> skipKeyValueIterator(BufferSupplier bufferSupplier, ZstdDictionaries zstdDictionaries);
 }
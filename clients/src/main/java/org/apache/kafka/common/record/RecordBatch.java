@@ -227,9 +227,21 @@ public interface RecordBatch extends Iterable<Record> {
      *                                    batch. As such, a supplier that reuses buffers will have a significant
      *                                    performance impact.
      * @return The closeable iterator
+     * @throws org.apache.kafka.common.InvalidRecordException If the batch is compressed with a zstd dictionary, whose
+     *         records can only be read with {@link #streamingIterator(BufferSupplier, ZstdDictionaries)}
      */
     CloseableIterator<Record> streamingIterator(BufferSupplier decompressionBufferSupplier);
 
+    /**
+     * Return a streaming iterator like {@link #streamingIterator(BufferSupplier)}, which also reads the records of
+     * batches compressed with one of the given zstd dictionaries.
+     *
+     * @param decompressionBufferSupplier The supplier of ByteBuffer(s) used for decompression if supported
+     * @param zstdDictionaries The zstd dictionaries the batch may be compressed with
+     * @return The closeable iterator
+     */
+    CloseableIterator<Record> streamingIterator(BufferSupplier decompressionBufferSupplier, ZstdDictionaries zstdDictionaries);
+
     /**
      * Check whether this is a control batch (i.e. whether the control bit is set in the batch attributes).
      * For magic versions prior to 2, this is always false.
@@ -237,4 +249,20 @@ public interface RecordBatch extends Iterable<Record> {
      * @return Whether this is a batch containing control records
      */
     boolean isControlBatch();
+
+    /**
+     * Check whether the records of this batch are dictionary encoded (i.e. whether the dictionary encoding bit is set in
+     * the batch attributes). For magic versions prior to 2, this is always false.
+     *
+     * @return Whether the header keys, header values and key prefixes of the records are shared within the batch
+     */
+    boolean isDictionaryEncoded();
+
+    /**
+     * Check whether the records of this batch are compressed with a zstd dictionary (i.e. whether the zstd dictionary
+     * bit is set in the batch attributes). For magic versions prior to 2, this is always false.
+     *
+     * @return Whether the records can only be decompressed with the {@link ZstdDictionary} they were compressed with
+     */
+    boolean usesZstdDictionary();
 }
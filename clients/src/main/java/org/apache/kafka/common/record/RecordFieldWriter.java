@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A record field which writes itself into the buffer of a record batch rather than being copied from a buffer or an
+ * array, such as a value which is serialized directly into the batch. Its size must be known before it is written, and
+ * since it may be written while the batch is locked, writing it should only copy bytes which are already in memory.
+ */
+public interface RecordFieldWriter {
+
+    /**
+     * The number of bytes written by {@link #writeTo(ByteBuffer)}
+     */
+    int sizeInBytes();
+
+    /**
+     * Write the field into the given buffer, from its position to its limit, which is {@link #sizeInBytes()} bytes
+     * after its position.
+     */
+    void writeTo(ByteBuffer buffer);
+}
@@ -17,6 +17,7 @@
 package org.apache.kafka.common.record;
 
 import org.apache.kafka.common.errors.UnsupportedCompressionTypeException;
+import org.apache.kafka.common.utils.CloseableIterator;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 
@@ -34,13 +35,18 @@ public class RecordsUtil {
      * need to drop records from the batch during the conversion. Some versions of librdkafka rely on this for
      * correctness.
      *
+     * Dictionary encoded batches are converted to the plain encoding, and batches compressed with a zstd dictionary are
+     * recompressed without it, even if they already have the provided message format version, since they are only down
+     * converted for clients which do not support them. They are read with the given zstd dictionaries.
+     *
      * The temporaryMemoryBytes computation assumes that the batches are not loaded into the heap
      * (via classes like FileChannelRecordBatch) before this method is called. This is the case in the broker (we
      * only load records into the heap when down converting), but it's not for the producer. However, down converting
      * in the producer is very uncommon and the extra complexity to handle that case is not worth it.
      */
     protected static ConvertedRecords<MemoryRecords> downConvert(Iterable<? extends RecordBatch> batches, byte toMagic,
-                                                                 long firstOffset, Time time) {
+                                                                 long firstOffset, Time time,
+                                                                 ZstdDictionaries zstdDictionaries) {
         // maintain the batch along with the decompressed records to avoid the need to decompress again
         List<RecordBatchAndRecords> recordBatchAndRecordsList = new ArrayList<>();
         int totalSizeEstimate = 0;
@@ -56,18 +62,30 @@ public class RecordsUtil {
                         "is not supported");
             }
 
-            if (batch.magic() <= toMagic) {
+            // dictionary encoded batches and batches compressed with a zstd dictionary are converted even if the
+            // magic is the same
+            if (batch.magic() <= toMagic && !batch.isDictionaryEncoded() && !batch.usesZstdDictionary()) {
                 totalSizeEstimate += batch.sizeInBytes();
                 recordBatchAndRecordsList.add(new RecordBatchAndRecords(batch, null, null));
             } else {
                 List<Record> records = new ArrayList<>();
-                for (Record record : batch) {
-                    // See the method javadoc for an explanation
-                    if (toMagic > RecordBatch.MAGIC_VALUE_V1 || batch.isCompressed() || record.offset() >= firstOffset)
-                        records.add(record);
+                try (CloseableIterator<Record> iterator = batch.streamingIterator(BufferSupplier.NO_CACHING,
+                        zstdDictionaries)) {
+                    while (iterator.hasNext()) {
+                        Record record = iterator.next();
+                        // See the method javadoc for an explanation
+                        if (toMagic > RecordBatch.MAGIC_VALUE_V1 || batch.isCompressed() || record.offset() >= firstOffset)
+                            records.add(record);
+                    }
                 }
-                if (records.isEmpty())
+                if (records.isEmpty()) {
+                    // an empty batch has no records to encode, but it may still retain the state of its producer
+                    if (batch.magic() <= toMagic) {
+                        totalSizeEstimate += batch.sizeInBytes();
+                        recordBatchAndRecordsList.add(new RecordBatchAndRecords(batch, null, null));
+                    }
                     continue;
+                }
                 final long baseOffset;
                 if (batch.magic() >= RecordBatch.MAGIC_VALUE_V2 && toMagic >= RecordBatch.MAGIC_VALUE_V2)
                     baseOffset = batch.baseOffset();
@@ -84,7 +102,7 @@ public class RecordsUtil {
 
         for (RecordBatchAndRecords recordBatchAndRecords : recordBatchAndRecordsList) {
             temporaryMemoryBytes += recordBatchAndRecords.batch.sizeInBytes();
-            if (recordBatchAndRecords.batch.magic() <= toMagic) {
+            if (recordBatchAndRecords.records == null) {
                 buffer = Utils.ensureCapacity(buffer, buffer.position() + recordBatchAndRecords.batch.sizeInBytes());
                 recordBatchAndRecords.batch.writeTo(buffer);
             } else {
@@ -110,8 +128,16 @@ public class RecordsUtil {
         final TimestampType timestampType = batch.timestampType();
         long logAppendTime = timestampType == TimestampType.LOG_APPEND_TIME ? batch.maxTimestamp() : RecordBatch.NO_TIMESTAMP;
 
-        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic, batch.compressionType(),
-                timestampType, recordBatchAndRecords.baseOffset, logAppendTime);
+        // a batch converted without its dictionary encoding or zstd dictionary keeps its producer state and last offset
+        boolean sameMagic = batch.magic() == magic;
+        MemoryRecordsBuilder builder;
+        if (sameMagic)
+            builder = MemoryRecords.builder(buffer, magic, batch.compressionType(), timestampType,
+                    recordBatchAndRecords.baseOffset, logAppendTime, batch.producerId(), batch.producerEpoch(),
+                    batch.baseSequence(), batch.isTransactional(), batch.partitionLeaderEpoch());
+        else
+            builder = MemoryRecords.builder(buffer, magic, batch.compressionType(),
+                    timestampType, recordBatchAndRecords.baseOffset, logAppendTime);
         for (Record record : recordBatchAndRecords.records) {
             // Down-convert this record. Ignore headers when down-converting to V0 and V1 since they are not supported
             if (magic > RecordBatch.MAGIC_VALUE_V1)
@@ -119,6 +145,8 @@ public class RecordsUtil {
             else
                 builder.appendWithOffset(record.offset(), record.timestamp(), record.key(), record.value());
         }
+        if (sameMagic)
+            builder.overrideLastOffset(batch.lastOffset());
 
         builder.close();
         return builder;
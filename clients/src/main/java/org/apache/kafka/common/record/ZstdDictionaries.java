@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.InvalidRecordException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The zstd dictionaries which the batches read by a client or from a log may be compressed with, by id. The records of
+ * a batch compressed with a dictionary can only be read with the dictionaries it may be compressed with, see
+ * {@link RecordBatch#streamingIterator(BufferSupplier, ZstdDictionaries)}.
+ */
+public final class ZstdDictionaries {
+
+    public static final ZstdDictionaries EMPTY = new ZstdDictionaries(Collections.emptyMap());
+
+    private final Map<Integer, ZstdDictionary> dictionaries;
+
+    private ZstdDictionaries(Map<Integer, ZstdDictionary> dictionaries) {
+        this.dictionaries = dictionaries;
+    }
+
+    /**
+     * @throws IllegalArgumentException If more than one of the dictionaries has the same id
+     */
+    public static ZstdDictionaries of(Collection<ZstdDictionary> dictionaries) {
+        if (dictionaries.isEmpty())
+            return EMPTY;
+        Map<Integer, ZstdDictionary> byId = new HashMap<>();
+        for (ZstdDictionary dictionary : dictionaries) {
+            if (byId.put(dictionary.id(), dictionary) != null)
+                throw new IllegalArgumentException("There is more than one zstd dictionary with id " + dictionary.id());
+        }
+        return new ZstdDictionaries(byId);
+    }
+
+    /**
+     * @throws IllegalArgumentException If more than one of the dictionaries has the same id
+     */
+    public static ZstdDictionaries of(ZstdDictionary... dictionaries) {
+        return of(Arrays.asList(dictionaries));
+    }
+
+    /**
+     * Get the dictionary with the given id, or null if there is none
+     */
+    public ZstdDictionary get(int id) {
+        return dictionaries.get(id);
+    }
+
+    public Collection<ZstdDictionary> all() {
+        return Collections.unmodifiableCollection(dictionaries.values());
+    }
+
+    public boolean isEmpty() {
+        return dictionaries.isEmpty();
+    }
+
+    /**
+     * Find the dictionary a zstd frame was compressed with
+     *
+     * @param buffer The buffer with the frame at its current position, which is not changed
+     * @throws InvalidRecordException If the frame header is invalid or the dictionary is not one of these
+     */
+    ZstdDictionary forFrame(ByteBuffer buffer) {
+        int id = ZstdDictionary.frameDictionaryId(buffer);
+        ZstdDictionary dictionary = dictionaries.get(id);
+        if (dictionary == null)
+            throw new InvalidRecordException("The batch is compressed with the unknown zstd dictionary " + id +
+                ". The dictionary has to be configured before batches compressed with it can be read.");
+        return dictionary;
+    }
+
+    @Override
+    public String toString() {
+        return "ZstdDictionaries(ids=" + dictionaries.keySet() + ")";
+    }
+}
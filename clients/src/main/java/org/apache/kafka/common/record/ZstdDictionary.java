@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.InvalidRecordException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+/**
+ * A zstd dictionary trained on sample records of a topic, which improves the compression ratio of small batches a lot.
+ * The id of a dictionary is the one in its header. Zstd writes it to the header of the frames compressed with the
+ * dictionary, so that readers know which dictionary to decompress the frames with.
+ *
+ * Batches compressed with a dictionary can only be read with a {@link ZstdDictionaries} which has it. Clients read
+ * them with the dictionaries configured for the topic, and the broker with the dictionaries of the log, which keeps
+ * the dictionaries as long as it may have batches compressed with them.
+ */
+public final class ZstdDictionary {
+
+    private static final int DICTIONARY_MAGIC = 0xEC30A437;
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+    private static final int FRAME_HEADER_DESCRIPTOR_OFFSET = 4;
+    private static final int[] FRAME_DICTIONARY_ID_SIZES = {0, 1, 2, 4};
+
+    private final int id;
+    private final byte[] bytes;
+
+    private ZstdDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Create a dictionary from the output of the zstd dictionary trainer
+     *
+     * @throws IllegalArgumentException If the bytes are not a zstd dictionary with an id
+     */
+    public static ZstdDictionary fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < 8 || buffer.getInt(0) != DICTIONARY_MAGIC)
+            throw new IllegalArgumentException("Invalid zstd dictionary: the magic number is missing");
+        int id = buffer.getInt(4);
+        if (id == 0)
+            throw new IllegalArgumentException("Invalid zstd dictionary: the dictionary does not have an id");
+        return new ZstdDictionary(id, bytes);
+    }
+
+    /**
+     * Create a dictionary from its base64 encoding, as it is stored in topic configs
+     *
+     * @throws IllegalArgumentException If the string is not the base64 encoding of a zstd dictionary with an id
+     */
+    public static ZstdDictionary fromBase64(String encoded) {
+        return fromBytes(Base64.getDecoder().decode(encoded.trim()));
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public String toBase64() {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    /**
+     * Get the id of the dictionary a zstd frame was compressed with
+     *
+     * @param buffer The buffer with the frame at its current position, which is not changed
+     */
+    static int frameDictionaryId(ByteBuffer buffer) {
+        ByteBuffer frame = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int position = frame.position();
+        if (frame.remaining() < FRAME_HEADER_DESCRIPTOR_OFFSET + 1 || frame.getInt(position) != FRAME_MAGIC)
+            throw new InvalidRecordException("The zstd frame header of the batch is invalid");
+
+        int descriptor = frame.get(position + FRAME_HEADER_DESCRIPTOR_OFFSET) & 0xff;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        int idSize = FRAME_DICTIONARY_ID_SIZES[descriptor & 0x03];
+        // the window descriptor is only present in frames which are not single segment
+        int idOffset = position + FRAME_HEADER_DESCRIPTOR_OFFSET + 1 + (singleSegment ? 0 : 1);
+        if (idSize == 0 || frame.limit() < idOffset + idSize)
+            throw new InvalidRecordException("The zstd frame header of the batch does not have a dictionary id");
+
+        switch (idSize) {
+            case 1:
+                return frame.get(idOffset) & 0xff;
+            case 2:
+                return frame.getShort(idOffset) & 0xffff;
+            default:
+                return frame.getInt(idOffset);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZstdDictionary(id=" + id + ", size=" + bytes.length + ")";
+    }
+}
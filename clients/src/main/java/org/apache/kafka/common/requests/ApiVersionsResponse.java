@@ -120,6 +120,20 @@ public class ApiVersionsResponse extends AbstractResponse {
         return createApiVersionsResponse(throttleTimeMs, maxMagic);
     }
 
+    /**
+     * Create the response of a broker which retains the given number of batches of each producer to detect duplicates
+     */
+    public static ApiVersionsResponse apiVersionsResponse(int throttleTimeMs, byte maxMagic, int producerStateRetainedBatches) {
+        ApiVersionsResponse response = apiVersionsResponse(throttleTimeMs, maxMagic);
+        if (response.data.producerStateRetainedBatches() == producerStateRetainedBatches)
+            return response;
+        // the default response is shared, so it must not be modified
+        if (response == DEFAULT_API_VERSIONS_RESPONSE)
+            response = createApiVersionsResponse(throttleTimeMs, maxMagic);
+        response.data.setProducerStateRetainedBatches(producerStateRetainedBatches);
+        return response;
+    }
+
     public static ApiVersionsResponse createApiVersionsResponse(int throttleTimeMs, final byte minMagic) {
         ApiVersionsResponseKeyCollection apiKeys = new ApiVersionsResponseKeyCollection();
         for (ApiKeys apiKey : ApiKeys.values()) {
@@ -216,12 +216,17 @@ public class FetchResponse<T extends BaseRecords> extends AbstractResponse {
             SESSION_ID,
             new Field(RESPONSES_KEY_NAME, new ArrayOf(FETCH_RESPONSE_TOPIC_V6)));
 
+    // V12 bumped up to indicate dictionary encoded record batch capability.
+    private static final Schema FETCH_RESPONSE_V12 = FETCH_RESPONSE_V11;
+
+    // V13 bumped up to indicate the capability of record batches compressed with zstd dictionaries.
+    private static final Schema FETCH_RESPONSE_V13 = FETCH_RESPONSE_V12;
 
     public static Schema[] schemaVersions() {
         return new Schema[] {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2,
             FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5, FETCH_RESPONSE_V6,
             FETCH_RESPONSE_V7, FETCH_RESPONSE_V8, FETCH_RESPONSE_V9, FETCH_RESPONSE_V10,
-            FETCH_RESPONSE_V11};
+            FETCH_RESPONSE_V11, FETCH_RESPONSE_V12, FETCH_RESPONSE_V13};
     }
 
     public static final long INVALID_HIGHWATERMARK = -1L;
@@ -19,6 +19,7 @@ package org.apache.kafka.common.requests;
 import org.apache.kafka.common.InvalidRecordException;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.UnsupportedCompressionTypeException;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.CommonFields;
 import org.apache.kafka.common.protocol.Errors;
@@ -126,9 +127,20 @@ public class ProduceRequest extends AbstractRequest {
      */
     private static final Schema PRODUCE_REQUEST_V8 = PRODUCE_REQUEST_V7;
 
+    /**
+     * V9 bumped up to indicate dictionary encoded record batch capability.
+     */
+    private static final Schema PRODUCE_REQUEST_V9 = PRODUCE_REQUEST_V8;
+
+    /**
+     * V10 bumped up to indicate the capability of record batches compressed with zstd dictionaries.
+     */
+    private static final Schema PRODUCE_REQUEST_V10 = PRODUCE_REQUEST_V9;
+
     public static Schema[] schemaVersions() {
         return new Schema[] {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2, PRODUCE_REQUEST_V3,
-            PRODUCE_REQUEST_V4, PRODUCE_REQUEST_V5, PRODUCE_REQUEST_V6, PRODUCE_REQUEST_V7, PRODUCE_REQUEST_V8};
+            PRODUCE_REQUEST_V4, PRODUCE_REQUEST_V5, PRODUCE_REQUEST_V6, PRODUCE_REQUEST_V7, PRODUCE_REQUEST_V8,
+            PRODUCE_REQUEST_V9, PRODUCE_REQUEST_V10};
     }
 
     public static class Builder extends AbstractRequest.Builder<ProduceRequest> {
@@ -397,6 +409,14 @@ public class ProduceRequest extends AbstractRequest {
                 throw new UnsupportedCompressionTypeException("Produce requests with version " + version + " are not allowed to " +
                     "use ZStandard compression");
             }
+            if (version < 9 && entry.isDictionaryEncoded()) {
+                throw new UnsupportedVersionException("Produce requests with version " + version + " are not allowed to " +
+                    "contain dictionary encoded record batches");
+            }
+            if (version < 10 && entry.usesZstdDictionary()) {
+                throw new UnsupportedVersionException("Produce requests with version " + version + " are not allowed to " +
+                    "contain record batches compressed with zstd dictionaries");
+            }
 
             if (iterator.hasNext())
                 throw new InvalidRecordException("Produce requests with version " + version + " are only allowed to " +
@@ -427,6 +447,8 @@ public class ProduceRequest extends AbstractRequest {
             case 6:
             case 7:
             case 8:
+            case 9:
+            case 10:
                 return RecordBatch.MAGIC_VALUE_V2;
 
             default:
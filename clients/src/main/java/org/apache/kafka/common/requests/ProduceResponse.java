@@ -182,9 +182,20 @@ public class ProduceResponse extends AbstractResponse {
                             ERROR_MESSAGE_FIELD)))))),
             THROTTLE_TIME_MS);
 
+    /**
+     * V9 bumped up to indicate dictionary encoded record batch capability.
+     */
+    private static final Schema PRODUCE_RESPONSE_V9 = PRODUCE_RESPONSE_V8;
+
+    /**
+     * V10 bumped up to indicate the capability of record batches compressed with zstd dictionaries.
+     */
+    private static final Schema PRODUCE_RESPONSE_V10 = PRODUCE_RESPONSE_V9;
+
     public static Schema[] schemaVersions() {
         return new Schema[]{PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2, PRODUCE_RESPONSE_V3,
-            PRODUCE_RESPONSE_V4, PRODUCE_RESPONSE_V5, PRODUCE_RESPONSE_V6, PRODUCE_RESPONSE_V7, PRODUCE_RESPONSE_V8};
+            PRODUCE_RESPONSE_V4, PRODUCE_RESPONSE_V5, PRODUCE_RESPONSE_V6, PRODUCE_RESPONSE_V7, PRODUCE_RESPONSE_V8,
+            PRODUCE_RESPONSE_V9, PRODUCE_RESPONSE_V10};
     }
 
     private final Map<TopicPartition, PartitionResponse> responses;
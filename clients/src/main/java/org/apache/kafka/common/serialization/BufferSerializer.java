@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.serialization;
+
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Serializer} which can write {@code data} directly into a buffer, such as the buffer of a record batch,
+ * rather than into a new byte array which is then copied.
+ * <p>
+ * The producer calls {@link #serializedSize(String, Headers, Object)} first, and only calls
+ * {@link #serialize(String, Headers, Object, ByteBuffer)} later if {@code data} is not null. Both must be consistent
+ * with {@link #serialize(String, Headers, Object)}.
+ * <p>
+ * Since the value is written while the batch it is appended to is locked, the producer only serializes values directly
+ * into its batches with the built-in {@link StringSerializer} and {@link ByteBufferSerializer}, whose serialization
+ * only copies the value, and only if {@link #serializesInPlace()}.
+ *
+ * @param <T> Type to be serialized from.
+ */
+public interface BufferSerializer<T> extends Serializer<T> {
+
+    /**
+     * Get the exact number of bytes {@code data} is serialized into.
+     *
+     * @param topic topic associated with data
+     * @param headers headers associated with the record
+     * @param data typed data
+     * @return the size of the serialized bytes, or -1 if data is null
+     */
+    int serializedSize(String topic, Headers headers, T data);
+
+    /**
+     * Write {@code data}, which is not null, into the given buffer, from its position to its limit. The buffer has
+     * exactly the number of remaining bytes returned by {@link #serializedSize(String, Headers, Object)}.
+     *
+     * @param topic topic associated with data
+     * @param headers headers associated with the record
+     * @param data typed data
+     * @param buffer the buffer to write the serialized bytes to
+     */
+    void serialize(String topic, Headers headers, T data, ByteBuffer buffer);
+
+    /**
+     * Whether {@code data} is written into the buffer without being serialized into an intermediate array, and its
+     * size computed without serializing it. Otherwise, serializing {@code data} into a buffer is no cheaper than
+     * serializing it into an array.
+     *
+     * @return true by default
+     */
+    default boolean serializesInPlace() {
+        return true;
+    }
+}
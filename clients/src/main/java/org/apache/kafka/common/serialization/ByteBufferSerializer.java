@@ -16,9 +16,11 @@
  */
 package org.apache.kafka.common.serialization;
 
+import org.apache.kafka.common.header.Headers;
+
 import java.nio.ByteBuffer;
 
-public class ByteBufferSerializer implements Serializer<ByteBuffer> {
+public class ByteBufferSerializer implements BufferSerializer<ByteBuffer> {
     public byte[] serialize(String topic, ByteBuffer data) {
         if (data == null)
             return null;
@@ -37,4 +39,19 @@ public class ByteBufferSerializer implements Serializer<ByteBuffer> {
         data.rewind();
         return ret;
     }
+
+    @Override
+    public int serializedSize(String topic, Headers headers, ByteBuffer data) {
+        if (data == null)
+            return -1;
+        // like serialize, the whole buffer up to its limit is serialized regardless of its position
+        return data.limit();
+    }
+
+    @Override
+    public void serialize(String topic, Headers headers, ByteBuffer data, ByteBuffer buffer) {
+        ByteBuffer source = data.duplicate();
+        source.rewind();
+        buffer.put(source);
+    }
 }
@@ -17,16 +17,24 @@
 package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 /**
  *  String encoding defaults to UTF8 and can be customized by setting the property key.serializer.encoding,
  *  value.serializer.encoding or serializer.encoding. The first two take precedence over the last.
+ *  <p>
+ *  UTF8 strings are encoded directly into the buffer when serialized into a buffer. Strings of other encodings are
+ *  serialized into an array first, and to compute their size too, so they are not serialized in place.
  */
-public class StringSerializer implements Serializer<String> {
+public class StringSerializer implements BufferSerializer<String> {
     private String encoding = "UTF8";
+    private boolean utf8 = true;
 
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
@@ -34,8 +42,15 @@ public class StringSerializer implements Serializer<String> {
         Object encodingValue = configs.get(propertyName);
         if (encodingValue == null)
             encodingValue = configs.get("serializer.encoding");
-        if (encodingValue instanceof String)
+        if (encodingValue instanceof String) {
             encoding = (String) encodingValue;
+            try {
+                utf8 = Charset.forName(encoding).equals(StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                // unsupported encodings fail when serializing
+                utf8 = false;
+            }
+        }
     }
 
     @Override
@@ -49,4 +64,75 @@ public class StringSerializer implements Serializer<String> {
             throw new SerializationException("Error when serializing string to byte[] due to unsupported encoding " + encoding);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public int serializedSize(String topic, Headers headers, String data) {
+        if (data == null)
+            return -1;
+        if (!utf8)
+            return serialize(topic, data).length;
+
+        int size = 0;
+        for (int i = 0, length = data.length(); i < length; i++) {
+            char ch = data.charAt(i);
+            if (ch < 0x80) {
+                size += 1;
+            } else if (ch < 0x800) {
+                size += 2;
+            } else if (Character.isSurrogate(ch)) {
+                if (isSurrogatePair(data, i)) {
+                    size += 4;
+                    i++;
+                } else {
+                    // like String.getBytes, a malformed surrogate is replaced by '?'
+                    size += 1;
+                }
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void serialize(String topic, Headers headers, String data, ByteBuffer buffer) {
+        if (!utf8) {
+            buffer.put(serialize(topic, data));
+            return;
+        }
+
+        for (int i = 0, length = data.length(); i < length; i++) {
+            char ch = data.charAt(i);
+            if (ch < 0x80) {
+                buffer.put((byte) ch);
+            } else if (ch < 0x800) {
+                buffer.put((byte) (0xC0 | (ch >> 6)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            } else if (Character.isSurrogate(ch)) {
+                if (isSurrogatePair(data, i)) {
+                    int codePoint = Character.toCodePoint(ch, data.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (ch >> 12)));
+                buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            }
+        }
+    }
+
+    @Override
+    public boolean serializesInPlace() {
+        return utf8;
+    }
+
+    private static boolean isSurrogatePair(String data, int index) {
+        return Character.isHighSurrogate(data.charAt(index)) && index + 1 < data.length()
+            && Character.isLowSurrogate(data.charAt(index + 1));
+    }
+}
@@ -150,6 +150,23 @@ public class KafkaProducerTest {
         new KafkaProducer<>(producerProps, new ByteArraySerializer(), new ByteArraySerializer()).close();
     }
 
+    @Test
+    public void testIdempotenceMaxInFlightRequests() {
+        Properties props = new Properties();
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9999");
+        props.setProperty(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+        props.setProperty(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "16");
+        try {
+            new KafkaProducer<>(props, new StringSerializer(), new StringSerializer()).close();
+            fail("The idempotent producer should not have more requests in flight than batches the brokers retain");
+        } catch (KafkaException e) {
+            assertTrue(e.getCause() instanceof ConfigException);
+        }
+
+        props.setProperty(ProducerConfig.PRODUCER_STATE_RETAINED_BATCHES_CONFIG, "16");
+        new KafkaProducer<>(props, new StringSerializer(), new StringSerializer()).close();
+    }
+
     @Test(expected = ConfigException.class)
     public void testNoSerializerProvided() {
         Properties producerProps = new Properties();
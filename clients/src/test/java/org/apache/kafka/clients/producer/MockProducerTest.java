@@ -118,6 +118,31 @@ public class MockProducerTest {
         assertTrue("Requests should be completed.", md3.isDone() && md4.isDone());
     }
 
+    @Test
+    public void testSendBatch() throws Exception {
+        buildMockProducer(false);
+        Future<Void> future = producer.sendBatch(asList(record1, record2));
+        assertFalse("Send shouldn't have completed", future.isDone());
+        assertEquals(asList(record1, record2), producer.history());
+        assertTrue("Complete the first record", producer.completeNext());
+        assertFalse("The second record is still incomplete", future.isDone());
+        IllegalArgumentException e = new IllegalArgumentException("blah");
+        assertTrue("Complete the second record with an error", producer.errorNext(e));
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("Expected error to be thrown");
+        } catch (ExecutionException err) {
+            assertEquals(e, err.getCause());
+        }
+
+        buildMockProducer(true);
+        future = producer.sendBatch(asList(record1, record2));
+        assertTrue("Send should be immediately complete", future.isDone());
+        future.get();
+        assertEquals(asList(record1, record2), producer.history());
+    }
+
     @Test
     public void shouldInitTransactions() {
         buildMockProducer(true);
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AdaptiveBatchingTest {
+    private final MockTime time = new MockTime();
+    private final Metrics metrics = new Metrics(time);
+    private final String metricGroup = "TestMetrics";
+    private final long maxLingerMs = 50;
+    private final int maxBatchSize = 16384;
+    private final int maxInFlightRequests = 5;
+    private final AdaptiveBatching batching = new AdaptiveBatching(maxLingerMs, maxBatchSize, maxInFlightRequests,
+        metrics, metricGroup);
+
+    @After
+    public void teardown() {
+        this.metrics.close();
+    }
+
+    @Test
+    public void testUnknownBrokerUsesConfiguredValues() {
+        assertEquals(maxLingerMs, batching.lingerMs(0));
+        assertEquals(maxBatchSize, batching.batchSize(0));
+    }
+
+    @Test
+    public void testLingerScalesWithRequestsInFlight() {
+        batching.onResponse(0, 20, 0, time.milliseconds());
+        assertEquals("Batches should not linger without requests in flight", 0, batching.lingerMs(0));
+
+        batching.onResponse(0, 20, maxInFlightRequests, time.milliseconds());
+        assertEquals(20, batching.lingerMs(0));
+
+        batching.onResponse(0, 20, 1, time.milliseconds());
+        assertEquals(4, batching.lingerMs(0));
+
+        // other brokers are not affected
+        assertEquals(maxLingerMs, batching.lingerMs(1));
+    }
+
+    @Test
+    public void testLingerIsBoundedByConfiguredLinger() {
+        batching.onResponse(0, 1000, maxInFlightRequests, time.milliseconds());
+        assertEquals(maxLingerMs, batching.lingerMs(0));
+    }
+
+    @Test
+    public void testBatchSizeFollowsSendRate() {
+        batching.onRequestSent(0, 1000, 1, time.milliseconds());
+        batching.onResponse(0, 10, maxInFlightRequests, time.milliseconds());
+        assertEquals("Batch size should not change until a rate is observed", maxBatchSize, batching.batchSize(0));
+
+        // 1000 bytes in 10 ms lingering for 10 ms
+        time.sleep(10);
+        batching.onRequestSent(0, 1000, maxInFlightRequests, time.milliseconds());
+        assertEquals(10, batching.lingerMs(0));
+        assertEquals(Math.round(0.2 * 200 * 10), batching.batchSize(0));
+
+        // the batch size is bounded by the configured batch size
+        for (int i = 0; i < 100; i++) {
+            time.sleep(1);
+            batching.onRequestSent(0, 1024 * 1024, maxInFlightRequests, time.milliseconds());
+        }
+        assertEquals(maxBatchSize, batching.batchSize(0));
+    }
+
+    @Test
+    public void testMetrics() {
+        batching.onResponse(0, 20, maxInFlightRequests, time.milliseconds());
+        MetricName lingerMetric = metrics.metricName("effective-linger-ms", metricGroup,
+            Collections.singletonMap("node-id", "node-0"));
+        MetricName batchSizeMetric = metrics.metricName("effective-batch-size", metricGroup,
+            Collections.singletonMap("node-id", "node-0"));
+        assertEquals(20.0, metrics.metric(lingerMetric).metricValue());
+        assertEquals((double) maxBatchSize, metrics.metric(batchSizeMetric).metricValue());
+
+        batching.onResponse(0, 20, 0, time.milliseconds());
+        assertEquals(0.0, metrics.metric(lingerMetric).metricValue());
+    }
+
+    @Test
+    public void testMetricsOfBrokersWhichLeftAreRemoved() {
+        batching.onResponse(0, 20, maxInFlightRequests, time.milliseconds());
+        batching.onResponse(1, 20, maxInFlightRequests, time.milliseconds());
+
+        batching.retainNodes(new Cluster(null, Collections.singletonList(new Node(1, "localhost", 9092)),
+            Collections.emptyList(), Collections.emptySet(), Collections.emptySet()));
+        assertNull(metrics.metric(metrics.metricName("effective-linger-ms", metricGroup,
+            Collections.singletonMap("node-id", "node-0"))));
+        assertNull(metrics.metric(metrics.metricName("effective-batch-size", metricGroup,
+            Collections.singletonMap("node-id", "node-0"))));
+        assertEquals("The broker which left should use the configured linger time again", maxLingerMs,
+            batching.lingerMs(0));
+        assertNotNull(metrics.metric(metrics.metricName("effective-linger-ms", metricGroup,
+            Collections.singletonMap("node-id", "node-1"))));
+        assertEquals(20, batching.lingerMs(1));
+
+        batching.close();
+        assertNull(metrics.metric(metrics.metricName("effective-linger-ms", metricGroup,
+            Collections.singletonMap("node-id", "node-1"))));
+        assertNull(metrics.metric(metrics.metricName("effective-batch-size", metricGroup,
+            Collections.singletonMap("node-id", "node-1"))));
+    }
+}
@@ -26,9 +26,12 @@ import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.LegacyRecord;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.ProducerIdAndEpoch;
+import org.apache.kafka.test.TestUtils;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
@@ -43,6 +46,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -138,6 +142,74 @@ public class ProducerBatchTest {
         assertEquals(10L, recordMetadata.timestamp());
     }
 
+    @Test
+    public void testUntrackedRecordsCompleteSendBatchFutureOnce() throws Exception {
+        ProducerBatch batch = new ProducerBatch(new TopicPartition("topic", 1), memoryRecordsBuilder, now);
+        SendBatchFuture sendBatchFuture = new SendBatchFuture();
+        MockCallback callback = new MockCallback();
+        assertTrue(batch.tryAppendUntracked(now, null, new byte[10], Record.EMPTY_HEADERS, sendBatchFuture, now));
+        FutureRecordMetadata future = batch.tryAppend(now, null, new byte[10], Record.EMPTY_HEADERS, callback, now);
+        assertTrue(batch.tryAppendUntracked(now, null, new byte[10], Record.EMPTY_HEADERS, sendBatchFuture, now));
+        assertEquals(3, batch.recordCount);
+        sendBatchFuture.sent();
+        assertFalse(sendBatchFuture.isDone());
+
+        batch.done(500L, 10L, null);
+        assertTrue(sendBatchFuture.isDone());
+        assertNull(sendBatchFuture.get());
+        assertEquals(1, callback.invocations);
+        assertEquals(501L, future.get().offset());
+    }
+
+    @Test
+    public void testUntrackedRecordsFailSendBatchFuture() throws Exception {
+        ProducerBatch batch = new ProducerBatch(new TopicPartition("topic", 1), memoryRecordsBuilder, now);
+        SendBatchFuture sendBatchFuture = new SendBatchFuture();
+        assertTrue(batch.tryAppendUntracked(now, null, new byte[10], Record.EMPTY_HEADERS, sendBatchFuture, now));
+        sendBatchFuture.sent();
+
+        KafkaException exception = new KafkaException();
+        batch.abort(exception);
+        assertTrue(sendBatchFuture.isDone());
+        try {
+            sendBatchFuture.get();
+            fail("Future should have thrown");
+        } catch (ExecutionException e) {
+            assertEquals(exception, e.getCause());
+        }
+    }
+
+    @Test
+    public void testSplitWithUntrackedRecords() throws Exception {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), MAGIC_VALUE_V2,
+                CompressionType.GZIP, TimestampType.CREATE_TIME, 0L);
+        ProducerBatch batch = new ProducerBatch(new TopicPartition("topic", 1), builder, now);
+        SendBatchFuture sendBatchFuture = new SendBatchFuture();
+        FutureRecordMetadata trackedFuture = batch.tryAppend(now, "hi".getBytes(), "there".getBytes(),
+                Record.EMPTY_HEADERS, null, now);
+        while (batch.tryAppendUntracked(now, "hi".getBytes(), "there".getBytes(), Record.EMPTY_HEADERS,
+                sendBatchFuture, now)) {
+        }
+        sendBatchFuture.sent();
+        int recordCount = batch.recordCount;
+
+        Deque<ProducerBatch> batches = batch.split(512);
+        assertTrue(batches.size() >= 2);
+        assertFalse("The future should wait for the split batches", sendBatchFuture.isDone());
+
+        int splitRecordCount = 0;
+        long baseOffset = 0L;
+        for (ProducerBatch splitBatch : batches) {
+            splitRecordCount += splitBatch.recordCount;
+            splitBatch.done(baseOffset, 10L, null);
+            baseOffset += splitBatch.recordCount;
+        }
+        assertEquals(recordCount, splitRecordCount);
+        assertTrue(sendBatchFuture.isDone());
+        assertNull(sendBatchFuture.get());
+        assertEquals(0L, trackedFuture.get().offset());
+    }
+
     @Test
     public void testAppendedChecksumMagicV0AndV1() {
         for (byte magic : Arrays.asList(MAGIC_VALUE_V0, MAGIC_VALUE_V1)) {
@@ -228,6 +300,73 @@ public class ProducerBatchTest {
         }
     }
 
+    @Test
+    public void testDeferredCompressionWhenProducerStateIsReset() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, CompressionType.NONE, TimestampType.CREATE_TIME, 0L);
+        ProducerBatch batch = new ProducerBatch(new TopicPartition("topic", 1), builder, now, CompressionType.LZ4, null);
+        for (int i = 0; i < 50; i++)
+            assertNotNull(batch.tryAppend(now + i, "hi".getBytes(), "there".getBytes(), Record.EMPTY_HEADERS, null, now));
+        assertTrue(batch.isCompressed());
+        assertFalse("Only closed batches are compressed", batch.needsCompression());
+
+        batch.setProducerState(new ProducerIdAndEpoch(5L, (short) 1), 10, false);
+        batch.close();
+        assertTrue(batch.needsCompression());
+        batch.compressRecords();
+        assertFalse(batch.needsCompression());
+        assertFalse(batch.isIncompressible());
+        assertNull(batch.compressionException());
+        assertSame("The compressed records should replace the uncompressed ones in the buffer of the batch", buffer.array(),
+                batch.records().buffer().array());
+        assertCompressedRecords(batch, 5L, 10);
+
+        batch.resetProducerState(new ProducerIdAndEpoch(6L, (short) 1), 20, true);
+        batch.close();
+        assertFalse("The header of the compressed records should be rewritten instead", batch.needsCompression());
+        assertEquals(6L, batch.producerId());
+        assertEquals(20, batch.baseSequence());
+        assertTrue(batch.isTransactional());
+        assertCompressedRecords(batch, 6L, 20);
+    }
+
+    @Test
+    public void testDeferredCompressionOfIncompressibleRecords() {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.NONE,
+                TimestampType.CREATE_TIME, 0L);
+        ProducerBatch batch = new ProducerBatch(new TopicPartition("topic", 1), builder, now, CompressionType.GZIP, null);
+        assertNotNull(batch.tryAppend(now, null, TestUtils.randomBytes(500), Record.EMPTY_HEADERS, null, now));
+        batch.close();
+        int uncompressedSize = batch.estimatedSizeInBytes();
+        batch.compressRecords();
+
+        assertTrue(batch.isIncompressible());
+        assertNull(batch.compressionException());
+        assertFalse(batch.needsCompression());
+        assertTrue("The records should be sent with the configured compression type", batch.isCompressed());
+        RecordBatch recordBatch = batch.records().batches().iterator().next();
+        recordBatch.ensureValid();
+        assertEquals(CompressionType.GZIP, recordBatch.compressionType());
+        assertEquals(recordBatch.sizeInBytes(), batch.estimatedSizeInBytes());
+        assertTrue(batch.estimatedSizeInBytes() > uncompressedSize);
+    }
+
+    private void assertCompressedRecords(ProducerBatch batch, long producerId, int baseSequence) {
+        MutableRecordBatch recordBatch = batch.records().batches().iterator().next();
+        recordBatch.ensureValid();
+        assertEquals(CompressionType.LZ4, recordBatch.compressionType());
+        assertEquals(producerId, recordBatch.producerId());
+        assertEquals(baseSequence, recordBatch.baseSequence());
+        long offset = 0;
+        for (Record record : recordBatch) {
+            assertEquals(offset, record.offset());
+            assertEquals(now + offset, record.timestamp());
+            assertEquals(ByteBuffer.wrap("there".getBytes()), record.value());
+            offset++;
+        }
+        assertEquals(10, offset);
+    }
+
     /**
      * A {@link ProducerBatch} configured using a timestamp preceding its create time is interpreted correctly
      * as not expired by {@link ProducerBatch#hasReachedDeliveryTimeout(long, long)}.
@@ -37,7 +37,9 @@ import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.MutableRecordBatch;
 import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.kafka.common.utils.LogContext;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.Time;
@@ -46,10 +48,12 @@ import org.junit.After;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +67,8 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -138,6 +144,144 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testAppendSerializingValueWriter() throws Exception {
+        StringSerializer serializer = new StringSerializer();
+        for (CompressionType compressionType : Arrays.asList(CompressionType.NONE, CompressionType.GZIP)) {
+            RecordAccumulator accum = createTestRecordAccumulator(1024, 10 * 1024, compressionType, 10);
+            for (String value : Arrays.asList("value", "\u20ac\ud83d\ude00")) {
+                SerializingValueWriter<String> valueWriter = new SerializingValueWriter<>(serializer, topic, null, value,
+                    serializer.serializedSize(topic, null, value));
+                accum.append(tp1, 0L, key, valueWriter, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false,
+                    time.milliseconds());
+            }
+
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+            assertEquals(1, batches.size());
+            Iterator<Record> iter = batches.get(0).records().records().iterator();
+            for (String value : Arrays.asList("value", "\u20ac\ud83d\ude00")) {
+                Record record = iter.next();
+                assertEquals("Keys should match", ByteBuffer.wrap(key), record.key());
+                assertEquals("Values should match", ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)), record.value());
+            }
+            assertFalse("No more records", iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testDeferredCompression() throws Exception {
+        CompressionRatioEstimator.resetEstimation(topic);
+        try (BatchCompressor compressor = new BatchCompressor(2, "test")) {
+            RecordAccumulator accum = createTestRecordAccumulator(3200, 1024, 10 * 1024, CompressionType.GZIP, 10, 1,
+                compressor);
+            byte[] compressible = new byte[100];
+            for (TopicPartition tp : Arrays.asList(tp1, tp2)) {
+                for (int i = 0; i < 5; i++)
+                    accum.append(tp, 0L, key, compressible, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+            }
+
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+            assertEquals(2, batches.size());
+            for (ProducerBatch batch : batches) {
+                assertFalse("Drained batches should be compressed", batch.needsCompression());
+                assertTrue(batch.compressionRatio() < 1.0);
+                List<MutableRecordBatch> recordBatches = TestUtils.toList(batch.records().batches());
+                assertEquals(1, recordBatches.size());
+                assertEquals(CompressionType.GZIP, recordBatches.get(0).compressionType());
+                long offset = 0;
+                for (Record record : recordBatches.get(0)) {
+                    assertEquals(offset++, record.offset());
+                    assertEquals(ByteBuffer.wrap(key), record.key());
+                    assertEquals(ByteBuffer.wrap(compressible), record.value());
+                }
+                assertEquals(5, offset);
+            }
+            assertTrue("The compression ratio estimation should be updated",
+                CompressionRatioEstimator.estimation(topic, CompressionType.GZIP) < CompressionType.GZIP.rate);
+        } finally {
+            CompressionRatioEstimator.resetEstimation(topic);
+        }
+    }
+
+    @Test
+    public void testDeferredCompressionPutsBackBatchesWhichDoNotFit() throws Exception {
+        CompressionRatioEstimator.setEstimation(topic, CompressionType.GZIP, 0.5f);
+        try (BatchCompressor compressor = new BatchCompressor(1, "test")) {
+            RecordAccumulator accum = createTestRecordAccumulator(3200, 1024, 10 * 1024, CompressionType.GZIP, 10, 1,
+                compressor);
+            byte[] incompressible = TestUtils.randomBytes(300);
+            accum.append(tp1, 0L, null, incompressible, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+            accum.append(tp2, 0L, null, incompressible, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+
+            // both batches fit by their estimated size, but only one does once their records could not be compressed
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), 500, 0).get(node1.id());
+            assertEquals(1, batches.size());
+            assertTrue(batches.get(0).isIncompressible());
+            TopicPartition putBack = batches.get(0).topicPartition.equals(tp1) ? tp2 : tp1;
+            ProducerBatch batch = accum.batches().get(putBack).peekFirst();
+            assertNotNull("The batch which does not fit should be put back", batch);
+
+            assertEquals(Collections.singletonList(batch),
+                accum.drain(cluster, Collections.singleton(node1), 500, 0).get(node1.id()));
+            assertEquals(CompressionType.GZIP, batch.records().batches().iterator().next().compressionType());
+            assertEquals(ByteBuffer.wrap(incompressible), batch.records().records().iterator().next().value());
+        } finally {
+            CompressionRatioEstimator.resetEstimation(topic);
+        }
+    }
+
+    @Test
+    public void testDeferredCompressionSplitsBatchesWhichCouldNotBeCompressed() throws Exception {
+        int batchSize = 1024;
+        CompressionRatioEstimator.setEstimation(topic, CompressionType.GZIP, 0.25f);
+        try (BatchCompressor compressor = new BatchCompressor(1, "test")) {
+            RecordAccumulator accum = createTestRecordAccumulator(3200, batchSize, 10 * batchSize, CompressionType.GZIP,
+                10, 1, compressor);
+            for (int i = 0; i < 10; i++)
+                accum.append(tp1, 0L, null, TestUtils.randomBytes(200), Record.EMPTY_HEADERS, null, maxBlockTimeMs,
+                    false, time.milliseconds());
+            assertEquals(1, accum.batches().get(tp1).size());
+
+            List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+            assertTrue("The batch should be split rather than sent", batches.isEmpty());
+            Deque<ProducerBatch> split = accum.batches().get(tp1);
+            assertTrue(split.size() > 1);
+            int recordCount = 0;
+            for (ProducerBatch batch : split) {
+                assertTrue("The split batches should be compressed with the configured compression type",
+                    batch.isCompressed());
+                assertTrue(batch.estimatedSizeInBytes() <= batchSize);
+                recordCount += batch.recordCount;
+            }
+            assertEquals(10, recordCount);
+            assertTrue("The batches should no longer be expected to compress",
+                CompressionRatioEstimator.estimation(topic, CompressionType.GZIP) >= 1.0f);
+        } finally {
+            CompressionRatioEstimator.resetEstimation(topic);
+        }
+    }
+
+    @Test
+    public void testDeferredCompressionFillsBatchesByEstimatedRatio() throws Exception {
+        int batchSize = 1024;
+        CompressionRatioEstimator.setEstimation(topic, CompressionType.GZIP, 0.5f);
+        try (BatchCompressor compressor = new BatchCompressor(1, "test")) {
+            RecordAccumulator accum = createTestRecordAccumulator(3200, batchSize, 10 * batchSize, CompressionType.GZIP,
+                10, 1, compressor);
+            do {
+                accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+            } while (accum.batches().get(tp1).size() < 2);
+
+            ProducerBatch batch = accum.batches().get(tp1).peekFirst();
+            assertTrue("The uncompressed batch should be filled beyond the batch size",
+                batch.recordCount > expectedNumAppends(batchSize));
+            assertTrue("The uncompressed batch should be filled up to the batch size divided by the estimated ratio",
+                batch.recordCount <= expectedNumAppends(2 * batchSize));
+        } finally {
+            CompressionRatioEstimator.resetEstimation(topic);
+        }
+    }
+
     @Test
     public void testAppendLargeCompressed() throws Exception {
         testAppendLarge(CompressionType.GZIP);
@@ -230,6 +374,104 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testAdaptiveLinger() throws Exception {
+        int lingerMs = 50;
+        AdaptiveBatching adaptiveBatching = new AdaptiveBatching(lingerMs, 1024, 5, metrics, "producer-node-metrics");
+        RecordAccumulator accum = createTestRecordAccumulator(3200, 1024, 10 * 1024, CompressionType.NONE, lingerMs,
+            1, null, adaptiveBatching);
+        // node1 has all its requests in flight with a latency of 10 ms, node2 has not been sent any request yet
+        accum.onProduceResponse(node1.id(), 10, 5, time.milliseconds());
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        accum.append(tp3, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        RecordAccumulator.ReadyCheckResult result = accum.ready(cluster, time.milliseconds());
+        assertEquals("No partitions should be ready", 0, result.readyNodes.size());
+        assertEquals(10, result.nextReadyCheckDelayMs);
+
+        time.sleep(10);
+        assertEquals("Only the leader with the shorter linger time should be ready", Collections.singleton(node1),
+            accum.ready(cluster, time.milliseconds()).readyNodes);
+
+        // without requests in flight, batches are sent immediately
+        accum.onProduceResponse(node2.id(), 10, 0, time.milliseconds());
+        assertEquals(new HashSet<>(asList(node1, node2)), accum.ready(cluster, time.milliseconds()).readyNodes);
+    }
+
+    @Test
+    public void testNodeLoad() throws Exception {
+        NodeLoadStats loadStats = new NodeLoadStats(metrics, "producer-node-metrics");
+        RecordAccumulator accum = createTestRecordAccumulator(3200, 1024, 10 * 1024, CompressionType.NONE, 10, 1, null,
+            null, loadStats);
+        // the leaders of the partitions are known once the sender checks for ready batches
+        accum.ready(cluster, time.milliseconds());
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        accum.append(tp2, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        accum.append(tp3, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        int batchBytes = accum.batches().get(tp3).peekFirst().estimatedSizeInBytes();
+        assertEquals(2 * batchBytes, loadStats.load(node1.id()));
+        assertEquals(batchBytes, loadStats.load(node2.id()));
+
+        // appended records are added to the load
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        int largerBatchBytes = accum.batches().get(tp1).peekFirst().estimatedSizeInBytes();
+        assertTrue(largerBatchBytes > batchBytes);
+        assertEquals(largerBatchBytes + batchBytes, loadStats.load(node1.id()));
+
+        // drained batches are counted while in flight, until they are reenqueued or deallocated
+        List<ProducerBatch> drained = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+            time.milliseconds()).get(node1.id());
+        assertEquals(2, drained.size());
+        assertEquals(drained.get(0).estimatedSizeInBytes() + drained.get(1).estimatedSizeInBytes(),
+            loadStats.load(node1.id()));
+        accum.reenqueue(drained.get(0), time.milliseconds());
+        accum.deallocate(drained.get(1));
+        assertEquals(drained.get(0).estimatedSizeInBytes(), loadStats.load(node1.id()));
+        assertEquals(batchBytes, loadStats.load(node2.id()));
+
+        // the reenqueued batch is drained once it has backed off
+        drained = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+            time.milliseconds() + 101).get(node1.id());
+        assertEquals(1, drained.size());
+        accum.deallocate(drained.get(0));
+        assertEquals(0, loadStats.load(node1.id()));
+    }
+
+    @Test
+    public void testAppendUntracked() throws Exception {
+        int batchSize = 1024;
+        RecordAccumulator accum = createTestRecordAccumulator(batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD,
+                10 * batchSize, CompressionType.NONE, 10);
+        SendBatchFuture future = new SendBatchFuture();
+        RecordAccumulator.RecordAppendResult result = accum.appendUntracked(tp1, 0L, key, value,
+                Record.EMPTY_HEADERS, future, maxBlockTimeMs, false, time.milliseconds());
+        assertNull(result.future);
+        assertTrue(result.newBatchCreated);
+        assertFalse(result.batchIsFull);
+
+        result = accum.appendUntracked(tp1, 0L, key, value, Record.EMPTY_HEADERS, future, maxBlockTimeMs, false,
+                time.milliseconds());
+        assertFalse(result.newBatchCreated);
+        assertSame("Results without a future should not be allocated for each record", result,
+                accum.appendUntracked(tp1, 0L, key, value, Record.EMPTY_HEADERS, future, maxBlockTimeMs, false,
+                        time.milliseconds()));
+        accum.appendUntracked(tp3, 0L, key, value, Record.EMPTY_HEADERS, future, maxBlockTimeMs, false,
+                time.milliseconds());
+        future.sent();
+
+        List<ProducerBatch> node1Batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+                time.milliseconds()).get(node1.id());
+        assertEquals(1, node1Batches.size());
+        assertEquals(3, node1Batches.get(0).recordCount);
+        node1Batches.get(0).done(0L, RecordBatch.NO_TIMESTAMP, null);
+        assertFalse("The batch of the other partition is not complete yet", future.isDone());
+
+        List<ProducerBatch> node2Batches = accum.drain(cluster, Collections.singleton(node2), Integer.MAX_VALUE,
+                time.milliseconds()).get(node2.id());
+        node2Batches.get(0).done(0L, RecordBatch.NO_TIMESTAMP, null);
+        assertTrue(future.isDone());
+        assertNull(future.get());
+    }
+
     @Test
     public void testPartialDrain() throws Exception {
         RecordAccumulator accum = createTestRecordAccumulator(
@@ -288,6 +530,85 @@ public class RecordAccumulatorTest {
             t.join();
     }
 
+    @Test
+    public void testAppendLanesPreserveOrderOfEachThread() throws Exception {
+        final int numThreads = 8;
+        final int msgs = 5000;
+        final RecordAccumulator accum = createTestRecordAccumulator(3200,
+            1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 64 * 1024, CompressionType.NONE, 0, 4);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            final int thread = i;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < msgs; i++) {
+                        byte[] value = ByteBuffer.allocate(8).putInt(thread).putInt(i).array();
+                        try {
+                            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        int[] nextSequence = new int[numThreads];
+        int read = 0;
+        while (read < numThreads * msgs) {
+            Set<Node> nodes = accum.ready(cluster, time.milliseconds()).readyNodes;
+            List<ProducerBatch> batches = accum.drain(cluster, nodes, Integer.MAX_VALUE, 0).get(node1.id());
+            if (batches != null) {
+                for (ProducerBatch batch : batches) {
+                    for (Record record : batch.records().records()) {
+                        ByteBuffer value = record.value();
+                        int thread = value.getInt();
+                        assertEquals("Records of a thread should be drained in order", nextSequence[thread], value.getInt());
+                        nextSequence[thread]++;
+                        read++;
+                    }
+                    accum.deallocate(batch);
+                }
+            }
+        }
+
+        for (Thread t : threads)
+            t.join();
+        assertFalse(accum.hasUndrained());
+    }
+
+    @Test
+    public void testAppendToLastBatchReportsFullDeque() throws Exception {
+        RecordAccumulator accum = createTestRecordAccumulator(1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD,
+            10 * 1024, CompressionType.NONE, 10);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        ProducerBatch drained = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id()).get(0);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        accum.reenqueue(drained, time.milliseconds());
+
+        // the reenqueued batch is ahead of the open batch, which is not full itself
+        RecordAccumulator.RecordAppendResult result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null,
+            maxBlockTimeMs, false, time.milliseconds());
+        assertFalse(result.newBatchCreated);
+        assertTrue("The batch should be reported full since the deque has more than one batch", result.batchIsFull);
+    }
+
+    @Test
+    public void testDrainedBatchIsNotAppendedTo() throws Exception {
+        RecordAccumulator accum = createTestRecordAccumulator(3200,
+            1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024, CompressionType.NONE, 0, 2);
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+        assertEquals(1, batches.size());
+
+        RecordAccumulator.RecordAppendResult result = accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null,
+            maxBlockTimeMs, false, time.milliseconds());
+        assertTrue("The drained batch should not be appended to", result.newBatchCreated);
+        assertEquals(1, batches.get(0).recordCount);
+        assertEquals(1, accum.batches().get(tp1).size());
+    }
+
 
     @Test
     public void testNextReadyCheckDelay() throws Exception {
@@ -1088,6 +1409,28 @@ public class RecordAccumulatorTest {
      * Return a test RecordAccumulator instance
      */
     private RecordAccumulator createTestRecordAccumulator(int deliveryTimeoutMs, int batchSize, long totalSize, CompressionType type, int lingerMs) {
+        return createTestRecordAccumulator(deliveryTimeoutMs, batchSize, totalSize, type, lingerMs, 1);
+    }
+
+    private RecordAccumulator createTestRecordAccumulator(int deliveryTimeoutMs, int batchSize, long totalSize, CompressionType type, int lingerMs,
+                                                          int appendLanes) {
+        return createTestRecordAccumulator(deliveryTimeoutMs, batchSize, totalSize, type, lingerMs, appendLanes, null);
+    }
+
+    private RecordAccumulator createTestRecordAccumulator(int deliveryTimeoutMs, int batchSize, long totalSize, CompressionType type, int lingerMs,
+                                                          int appendLanes, BatchCompressor compressor) {
+        return createTestRecordAccumulator(deliveryTimeoutMs, batchSize, totalSize, type, lingerMs, appendLanes, compressor, null);
+    }
+
+    private RecordAccumulator createTestRecordAccumulator(int deliveryTimeoutMs, int batchSize, long totalSize, CompressionType type, int lingerMs,
+                                                          int appendLanes, BatchCompressor compressor, AdaptiveBatching adaptiveBatching) {
+        return createTestRecordAccumulator(deliveryTimeoutMs, batchSize, totalSize, type, lingerMs, appendLanes, compressor,
+            adaptiveBatching, null);
+    }
+
+    private RecordAccumulator createTestRecordAccumulator(int deliveryTimeoutMs, int batchSize, long totalSize, CompressionType type, int lingerMs,
+                                                          int appendLanes, BatchCompressor compressor, AdaptiveBatching adaptiveBatching,
+                                                          NodeLoadStats loadStats) {
         long retryBackoffMs = 100L;
         String metricGrpName = "producer-metrics";
 
@@ -1103,6 +1446,12 @@ public class RecordAccumulatorTest {
             time,
             new ApiVersions(),
             null,
-            new BufferPool(totalSize, batchSize, metrics, time, metricGrpName));
+            new BufferPool(totalSize, batchSize, metrics, time, metricGrpName),
+            appendLanes,
+            compressor,
+            adaptiveBatching,
+            loadStats,
+            false,
+            Collections.emptyMap());
     }
 }
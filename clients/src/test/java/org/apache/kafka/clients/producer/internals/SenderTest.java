@@ -629,6 +629,38 @@ public class SenderTest {
         assertEquals(1, request2.get().offset());
     }
 
+    @Test
+    public void testIdempotenceInflightsBoundedByBrokerRetainedBatches() throws Exception {
+        final long producerId = 343434L;
+        TransactionManager transactionManager = new TransactionManager();
+        setupWithTransactionState(transactionManager);
+        prepareAndReceiveInitProducerId(producerId, Errors.NONE);
+        assertTrue(transactionManager.hasProducerId());
+
+        Future<RecordMetadata> request1 = appendToAccumulator(tp0);
+        sender.runOnce();
+        String nodeId = client.requests().peek().destination();
+        assertEquals(1, client.inFlightRequestCount());
+
+        // the broker only retains one batch of each producer, so no other request is sent until the first completes
+        apiVersions.update(nodeId, new NodeApiVersions(ApiVersionsResponse.DEFAULT_API_VERSIONS_RESPONSE.data.apiKeys(), 1));
+        Future<RecordMetadata> request2 = appendToAccumulator(tp0);
+        sender.runOnce();
+        assertEquals(1, client.inFlightRequestCount());
+        assertEquals(1, transactionManager.sequenceNumber(tp0).longValue());
+
+        sendIdempotentProducerResponse(0, tp0, Errors.NONE, 0L);
+        sender.runOnce(); // receive response 0
+        assertTrue(request1.isDone());
+        sender.runOnce(); // send request 1
+        assertEquals(1, client.inFlightRequestCount());
+        assertEquals(2, transactionManager.sequenceNumber(tp0).longValue());
+
+        sendIdempotentProducerResponse(1, tp0, Errors.NONE, 1L);
+        sender.runOnce(); // receive response 1
+        assertTrue(request2.isDone());
+        assertEquals(1, request2.get().offset());
+    }
 
     @Test
     public void testIdempotenceWithMultipleInflightsRetriedInOrder() throws Exception {
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlabBufferPoolTest {
+    private final MockTime time = new MockTime();
+    private final Metrics metrics = new Metrics(time);
+    private final long maxBlockTimeMs = 2000;
+    private final String metricGroup = "TestMetrics";
+
+    @After
+    public void teardown() {
+        this.metrics.close();
+    }
+
+    @Test
+    public void testSizeClasses() {
+        SlabBufferPool pool = new SlabBufferPool(64 * 1024 * 1024, 1024, metrics, time, metricGroup);
+        int[] expected = new int[SlabBufferPool.MAX_SIZE_CLASSES];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = 1024 << i;
+        assertArrayEquals(expected, pool.classSizes());
+
+        // size classes are limited by the total memory
+        try (Metrics otherMetrics = new Metrics(time)) {
+            pool = new SlabBufferPool(4 * 1024, 1024, otherMetrics, time, metricGroup);
+            assertArrayEquals(new int[] {1024, 2048, 4096}, pool.classSizes());
+        }
+    }
+
+    @Test
+    public void testSimple() throws Exception {
+        long totalMemory = 64 * 1024;
+        int size = 1024;
+        SlabBufferPool pool = new SlabBufferPool(totalMemory, size, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(size, maxBlockTimeMs);
+        assertTrue(buffer.isDirect());
+        assertEquals("Buffer size should equal requested size.", size, buffer.limit());
+        assertEquals("Unallocated memory should have shrunk", totalMemory - size, pool.unallocatedMemory());
+        assertEquals("Available memory should have shrunk", totalMemory - size, pool.availableMemory());
+        buffer.putInt(1);
+        pool.deallocate(buffer);
+        assertEquals("All memory should be available", totalMemory, pool.availableMemory());
+        assertEquals("But now some is on the free list", totalMemory - size, pool.unallocatedMemory());
+
+        ByteBuffer recycled = pool.allocate(size, maxBlockTimeMs);
+        assertSame(buffer, recycled);
+        assertEquals("Recycled buffer should be cleared.", 0, recycled.position());
+        assertEquals("Recycled buffer should be cleared.", size, recycled.limit());
+        pool.deallocate(recycled);
+        assertEquals("All memory should be available", totalMemory, pool.availableMemory());
+    }
+
+    @Test
+    public void testAllocateFromLargerSizeClass() throws Exception {
+        long totalMemory = 64 * 1024;
+        SlabBufferPool pool = new SlabBufferPool(totalMemory, 1024, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(3000, maxBlockTimeMs);
+        assertTrue(buffer.isDirect());
+        assertEquals(4096, buffer.capacity());
+        assertEquals("Buffer should be limited to the requested size", 3000, buffer.limit());
+        assertEquals("The whole size class should be allocated", totalMemory - 4096, pool.availableMemory());
+        pool.deallocate(buffer);
+        assertEquals(totalMemory - 4096, pool.unallocatedMemory());
+
+        ByteBuffer recycled = pool.allocate(2500, maxBlockTimeMs);
+        assertSame(buffer, recycled);
+        assertEquals(2500, recycled.limit());
+        pool.deallocate(recycled);
+        assertEquals(totalMemory, pool.availableMemory());
+    }
+
+    @Test
+    public void testAllocateLargerThanSizeClasses() throws Exception {
+        long totalMemory = 1024 * 1024;
+        SlabBufferPool pool = new SlabBufferPool(totalMemory, 1024, metrics, time, metricGroup);
+        int largest = pool.classSizes()[pool.classSizes().length - 1];
+        ByteBuffer buffer = pool.allocate(largest + 1, maxBlockTimeMs);
+        assertFalse("Buffers larger than the size classes should be on the heap", buffer.isDirect());
+        assertEquals(largest + 1, buffer.capacity());
+        assertEquals(totalMemory - largest - 1, pool.availableMemory());
+        pool.deallocate(buffer);
+        assertEquals("Buffers larger than the size classes should not be pooled", totalMemory, pool.unallocatedMemory());
+    }
+
+    @Test
+    public void testReclaimPooledBuffersOfOtherSizeClasses() throws Exception {
+        SlabBufferPool pool = new SlabBufferPool(4 * 1024, 1024, metrics, time, metricGroup);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            buffers.add(pool.allocate(1024, maxBlockTimeMs));
+        for (ByteBuffer buffer : buffers)
+            pool.deallocate(buffer);
+        assertEquals(0, pool.unallocatedMemory());
+
+        ByteBuffer buffer = pool.allocate(4096, maxBlockTimeMs);
+        assertEquals(4096, buffer.capacity());
+        assertEquals(0, pool.availableMemory());
+        assertEquals(4.0, metrics.metric(metrics.metricName("bufferpool-reclaimed-total", metricGroup)).metricValue());
+        pool.deallocate(buffer);
+        assertEquals(4096, pool.availableMemory());
+    }
+
+    @Test
+    public void testDelayedAllocation() throws Exception {
+        final SlabBufferPool pool = new SlabBufferPool(4 * 1024, 1024, metrics, time, metricGroup);
+        final ByteBuffer buffer = pool.allocate(1024, maxBlockTimeMs);
+        final CountDownLatch allocation = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    pool.allocate(4 * 1024, maxBlockTimeMs);
+                    allocation.countDown();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+        assertFalse("Allocation shouldn't have happened yet, waiting on memory.", allocation.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.queued());
+        pool.deallocate(buffer);
+        assertTrue("Allocation should succeed soon after de-allocation", allocation.await(1, TimeUnit.SECONDS));
+        thread.join();
+        assertEquals(0, pool.queued());
+    }
+
+    @Test
+    public void testBlockTimeout() throws Exception {
+        SlabBufferPool pool = new SlabBufferPool(2 * 1024, 1024, metrics, time, metricGroup);
+        pool.allocate(1024, maxBlockTimeMs);
+        try {
+            pool.allocate(2 * 1024, 10);
+            fail("The buffer allocated more memory than its maximum value");
+        } catch (TimeoutException e) {
+            // this is good
+        }
+        assertEquals(0, pool.queued());
+        assertEquals(1024, pool.availableMemory());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCantAllocateMoreMemoryThanWeHave() throws Exception {
+        SlabBufferPool pool = new SlabBufferPool(1024, 512, metrics, time, metricGroup);
+        pool.allocate(1025, maxBlockTimeMs);
+    }
+
+    @Test
+    public void testStressfulSituation() throws Exception {
+        int numThreads = 10;
+        final int iterations = 50000;
+        final int poolableSize = 1024;
+        final long totalMemory = numThreads / 2 * poolableSize;
+        final SlabBufferPool pool = new SlabBufferPool(totalMemory, poolableSize, metrics, time, metricGroup);
+        List<BufferPoolTest.StressTestThread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++)
+            threads.add(new BufferPoolTest.StressTestThread(pool, iterations));
+        for (BufferPoolTest.StressTestThread thread : threads)
+            thread.start();
+        for (BufferPoolTest.StressTestThread thread : threads)
+            thread.join();
+        for (BufferPoolTest.StressTestThread thread : threads)
+            assertTrue("Thread should have completed all iterations successfully.", thread.success.get());
+        assertEquals(totalMemory, pool.availableMemory());
+    }
+}
@@ -17,16 +17,26 @@
 package org.apache.kafka.clients.producer.internals;
 
 import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.TimestampType;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class StickyPartitionCacheTest {
     private final static Node[] NODES = new Node[] {
@@ -71,6 +81,52 @@ public class StickyPartitionCacheTest {
         assertEquals(changedPartB, stickyPartitionCache.partition(TOPIC_B, testCluster));
     }
     
+    @Test
+    public void loadAwarePartitionsTest() {
+        List<PartitionInfo> allPartitions = asList(new PartitionInfo(TOPIC_A, 0, NODES[0], NODES, NODES),
+            new PartitionInfo(TOPIC_A, 1, NODES[1], NODES, NODES),
+            new PartitionInfo(TOPIC_A, 2, NODES[2], NODES, NODES)
+        );
+        Cluster testCluster = new Cluster("clusterId", asList(NODES), allPartitions,
+            Collections.emptySet(), Collections.emptySet());
+        try (Metrics metrics = new Metrics()) {
+            NodeLoadStats loadStats = new NodeLoadStats(metrics, "producer-node-metrics");
+            ProducerBatch batch = new ProducerBatch(new TopicPartition(TOPIC_A, 1), MemoryRecords.builder(
+                ByteBuffer.allocate(1024), CompressionType.NONE, TimestampType.CREATE_TIME, 0L), 0L);
+            batch.tryAppend(0L, null, new byte[100], Record.EMPTY_HEADERS, null, 0L);
+            loadStats.countInFlight(batch, NODES[1].id());
+            StickyPartitionCache stickyPartitionCache = new StickyPartitionCache(loadStats);
+
+            // Partition 1 is chosen less often because its leader is more loaded, but at least half as often as the
+            // others since their leaders are idle.
+            int[] chosen = new int[3];
+            int partA = stickyPartitionCache.partition(TOPIC_A, testCluster);
+            chosen[partA]++;
+            for (int aPartitions = 0; aPartitions < 1000; aPartitions++) {
+                int nextPartA = stickyPartitionCache.nextPartition(TOPIC_A, testCluster, partA);
+                assertNotEquals(partA, nextPartA);
+                partA = nextPartA;
+                chosen[partA]++;
+            }
+            assertTrue(chosen[1] > 0);
+            assertTrue(chosen[1] < chosen[0]);
+            assertTrue(chosen[1] < chosen[2]);
+            // with weights of 2 * max load - load + 1, partition 1 is chosen two thirds as often as the others
+            assertTrue(2 * chosen[1] > chosen[0]);
+            assertTrue(2 * chosen[1] > chosen[2]);
+
+            assertEquals(chosen[1], stickyPartitions(metrics, NODES[1]), 0.0);
+            assertEquals(chosen[0] + chosen[2], stickyPartitions(metrics, NODES[0]) + stickyPartitions(metrics, NODES[2]), 0.0);
+        }
+    }
+
+    private double stickyPartitions(Metrics metrics, Node node) {
+        MetricName metricName = metrics.metricName("partitioner-sticky-partition-total", "producer-node-metrics",
+            Collections.singletonMap("node-id", "node-" + node.id()));
+        KafkaMetric metric = metrics.metric(metricName);
+        return metric == null ? 0.0 : (double) metric.metricValue();
+    }
+
     @Test
     public void unavailablePartitionsTest() {
         // Partition 1 in topic A and partition 0 in topic B are unavailable partitions.
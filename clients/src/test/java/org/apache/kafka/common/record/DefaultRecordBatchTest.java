@@ -30,6 +30,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.apache.kafka.common.record.DefaultRecordBatch.RECORDS_COUNT_OFFSET;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -299,6 +300,25 @@ public class DefaultRecordBatchTest {
         assertEquals(leaderEpoch, recordBatches.get(0).partitionLeaderEpoch());
     }
 
+    @Test
+    public void testSetProducerState() {
+        MemoryRecords records = MemoryRecords.withRecords(RecordBatch.MAGIC_VALUE_V2, 0L,
+                CompressionType.GZIP, TimestampType.CREATE_TIME,
+                new SimpleRecord(1L, "a".getBytes(), "1".getBytes()),
+                new SimpleRecord(2L, "b".getBytes(), "2".getBytes()));
+
+        DefaultRecordBatch batch = new DefaultRecordBatch(records.buffer());
+        batch.setProducerState(5L, (short) 2, 10, true);
+        assertEquals(5L, batch.producerId());
+        assertEquals(2, batch.producerEpoch());
+        assertEquals(10, batch.baseSequence());
+        assertTrue(batch.isTransactional());
+        assertEquals(CompressionType.GZIP, batch.compressionType());
+        assertEquals(TimestampType.CREATE_TIME, batch.timestampType());
+        assertTrue(batch.isValid());
+        assertEquals(2, Utils.toList(batch.iterator()).size());
+    }
+
     @Test
     public void testSetLogAppendTime() {
         MemoryRecords records = MemoryRecords.withRecords(RecordBatch.MAGIC_VALUE_V2, 0L,
@@ -324,6 +344,34 @@ public class DefaultRecordBatchTest {
             assertEquals(logAppendTime, record.timestamp());
     }
 
+    @Test
+    public void testSetLogAppendTimeDictionaryEncoded() {
+        Header[] headers = {new RecordHeader("k1", "v1".getBytes())};
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, RecordBatch.MAGIC_VALUE_V2, CompressionType.NONE,
+                TimestampType.CREATE_TIME, 0L, 0L, RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH,
+                RecordBatch.NO_SEQUENCE, false, false, RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity(), true);
+        builder.append(1L, "key-a".getBytes(), "1".getBytes(), headers);
+        builder.append(2L, "key-b".getBytes(), "2".getBytes(), headers);
+        MemoryRecords records = builder.build();
+
+        long logAppendTime = 15L;
+
+        DefaultRecordBatch batch = new DefaultRecordBatch(records.buffer());
+        assertTrue(batch.isDictionaryEncoded());
+        batch.setMaxTimestamp(TimestampType.LOG_APPEND_TIME, logAppendTime);
+        assertTrue(batch.isDictionaryEncoded());
+        assertEquals(TimestampType.LOG_APPEND_TIME, batch.timestampType());
+        assertTrue(batch.isValid());
+
+        List<Record> logRecords = Utils.toList(batch.iterator());
+        assertEquals(2, logRecords.size());
+        assertEquals(ByteBuffer.wrap("key-b".getBytes()), logRecords.get(1).key());
+        assertArrayEquals(headers, logRecords.get(1).headers());
+        for (Record record : logRecords)
+            assertEquals(logAppendTime, record.timestamp());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testSetNoTimestampTypeNotAllowed() {
         MemoryRecords records = MemoryRecords.withRecords(RecordBatch.MAGIC_VALUE_V2, 0L,
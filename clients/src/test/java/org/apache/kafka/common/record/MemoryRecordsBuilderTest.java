@@ -17,6 +17,9 @@
 package org.apache.kafka.common.record;
 
 import org.apache.kafka.common.errors.UnsupportedCompressionTypeException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.utils.CloseableIterator;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.apache.kafka.test.TestUtils;
@@ -34,6 +37,7 @@ import java.util.Random;
 
 import static org.apache.kafka.common.record.RecordBatch.MAGIC_VALUE_V2;
 import static org.apache.kafka.common.utils.Utils.utf8;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -424,6 +428,66 @@ public class MemoryRecordsBuilderTest {
         assertEquals(ByteBuffer.wrap(value), record.value());
     }
 
+    @Test
+    public void testAppendWithValueWriter() {
+        for (byte magic : Arrays.asList(RecordBatch.MAGIC_VALUE_V1, RecordBatch.MAGIC_VALUE_V2)) {
+            if (compressionType == CompressionType.ZSTD && magic < MAGIC_VALUE_V2)
+                continue;
+
+            ByteBuffer buffer = ByteBuffer.allocate(512);
+            buffer.position(bufferOffset);
+            MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, magic, compressionType,
+                    TimestampType.CREATE_TIME, 0L, LegacyRecord.NO_TIMESTAMP, RecordBatch.NO_PRODUCER_ID,
+                    RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
+                    RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity());
+
+            ByteBuffer key = ByteBuffer.wrap("foo".getBytes());
+            byte[] value = "bar".getBytes();
+            assertTrue(builder.hasRoomFor(0L, "foo".getBytes(), new ArrayValueWriter(value), Record.EMPTY_HEADERS));
+            builder.append(0L, key, new ArrayValueWriter(value), Record.EMPTY_HEADERS);
+            builder.append(1L, null, new ArrayValueWriter(new byte[0]), Record.EMPTY_HEADERS);
+
+            List<Record> records = TestUtils.toList(builder.build().records());
+            assertEquals(2, records.size());
+            assertEquals(key, records.get(0).key());
+            assertEquals(ByteBuffer.wrap(value), records.get(0).value());
+            assertEquals(0L, records.get(0).offset());
+            assertFalse(records.get(1).hasKey());
+            assertEquals(0, records.get(1).valueSize());
+            assertEquals(1L, records.get(1).offset());
+        }
+    }
+
+    @Test
+    public void testValueWriterWhichWritesTooFewBytesIsNotAppended() {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.position(bufferOffset);
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, MAGIC_VALUE_V2, compressionType,
+                TimestampType.CREATE_TIME, 0L, LegacyRecord.NO_TIMESTAMP, RecordBatch.NO_PRODUCER_ID,
+                RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
+                RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity());
+
+        RecordFieldWriter shortValue = new RecordFieldWriter() {
+            @Override
+            public int sizeInBytes() {
+                return 4;
+            }
+
+            @Override
+            public void writeTo(ByteBuffer buffer) {
+                buffer.put("bar".getBytes());
+            }
+        };
+        assertThrows(IllegalStateException.class, () -> builder.append(0L, null, shortValue, Record.EMPTY_HEADERS));
+        builder.append(1L, "foo".getBytes(), "bar".getBytes());
+
+        List<Record> records = TestUtils.toList(builder.build().records());
+        assertEquals(1, records.size());
+        assertEquals(0L, records.get(0).offset());
+        assertEquals(1L, records.get(0).timestamp());
+        assertEquals(ByteBuffer.wrap("bar".getBytes()), records.get(0).value());
+    }
+
     @Test
     public void writePastLimit() {
         byte magic = RecordBatch.MAGIC_VALUE_V1;
@@ -724,6 +788,107 @@ public class MemoryRecordsBuilderTest {
         assertTrue("Memory usage too high: " + memUsed, iterations < 100);
     }
 
+    @Test
+    public void testDictionaryEncodedRecordSet() {
+        List<SimpleRecord> simpleRecords = recordsWithRepeatedHeaders(300);
+        MemoryRecords plain = buildRecordsWithHeaders(simpleRecords, false);
+        MemoryRecords encoded = buildRecordsWithHeaders(simpleRecords, true);
+
+        MutableRecordBatch batch = Utils.toList(encoded.batches().iterator()).get(0);
+        assertTrue(batch.isDictionaryEncoded());
+        batch.ensureValid();
+        if (compressionType == CompressionType.NONE)
+            assertTrue(encoded.sizeInBytes() < plain.sizeInBytes());
+
+        List<Record> records = Utils.toList(plain.records().iterator());
+        assertSameRecordContents(records, Utils.toList(encoded.records().iterator()), true);
+        try (CloseableIterator<Record> iterator = batch.streamingIterator(BufferSupplier.NO_CACHING)) {
+            assertSameRecordContents(records, Utils.toList(iterator), true);
+        }
+        try (CloseableIterator<Record> iterator = batch.skipKeyValueIterator(BufferSupplier.NO_CACHING)) {
+            assertSameRecordContents(records, Utils.toList(iterator), false);
+        }
+    }
+
+    @Test
+    public void convertDictionaryEncodedToPlainV2() {
+        List<SimpleRecord> simpleRecords = recordsWithRepeatedHeaders(50);
+        MemoryRecords encoded = buildRecordsWithHeaders(simpleRecords, true);
+
+        ConvertedRecords<MemoryRecords> convertedRecords = encoded.downConvert(RecordBatch.MAGIC_VALUE_V2, 0, time);
+        List<MutableRecordBatch> batches = Utils.toList(convertedRecords.records().batches().iterator());
+        assertEquals(1, batches.size());
+        MutableRecordBatch batch = batches.get(0);
+        assertFalse(batch.isDictionaryEncoded());
+        assertEquals(compressionType, batch.compressionType());
+        assertEquals(9809L, batch.producerId());
+        assertEquals((short) 15, batch.producerEpoch());
+        assertEquals(2342, batch.baseSequence());
+        assertTrue(batch.isTransactional());
+        assertEquals(5, batch.partitionLeaderEpoch());
+        assertEquals(0L, batch.baseOffset());
+        assertEquals(49L, batch.lastOffset());
+        assertEquals(simpleRecords.size(), convertedRecords.recordConversionStats().numRecordsConverted());
+        TestUtils.checkEquals(buildRecordsWithHeaders(simpleRecords, false).records().iterator(),
+            convertedRecords.records().records().iterator());
+
+        // batches which are not dictionary encoded are not converted
+        MemoryRecords plain = buildRecordsWithHeaders(simpleRecords, false);
+        assertEquals(plain, plain.downConvert(RecordBatch.MAGIC_VALUE_V2, 0, time).records());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDictionaryEncodingNotAllowedMagicV1() {
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        buffer.position(bufferOffset);
+        new MemoryRecordsBuilder(buffer, RecordBatch.MAGIC_VALUE_V1, compressionType, TimestampType.CREATE_TIME,
+            0L, 0L, RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
+            RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity(), true);
+    }
+
+    private static List<SimpleRecord> recordsWithRepeatedHeaders(int count) {
+        List<SimpleRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] key = i % 7 == 0 ? null : utf8("user-" + (i / 3) + "-" + i);
+            Header[] headers = new Header[] {
+                new RecordHeader("trace-id", utf8("trace-" + i)),
+                new RecordHeader("content-type", utf8("application/json")),
+                new RecordHeader("retry", i % 2 == 0 ? null : utf8("true"))
+            };
+            records.add(new SimpleRecord(1000L + i, key, utf8("value-" + i), headers));
+        }
+        return records;
+    }
+
+    // the records of dictionary encoded batches are smaller, so they are not equal to the plain ones
+    private static void assertSameRecordContents(List<Record> expected, List<Record> actual, boolean compareContents) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Record expectedRecord = expected.get(i);
+            Record actualRecord = actual.get(i);
+            assertEquals(expectedRecord.offset(), actualRecord.offset());
+            assertEquals(expectedRecord.timestamp(), actualRecord.timestamp());
+            assertEquals(expectedRecord.keySize(), actualRecord.keySize());
+            assertEquals(expectedRecord.valueSize(), actualRecord.valueSize());
+            if (compareContents) {
+                assertEquals(expectedRecord.key(), actualRecord.key());
+                assertEquals(expectedRecord.value(), actualRecord.value());
+                assertArrayEquals(expectedRecord.headers(), actualRecord.headers());
+            }
+        }
+    }
+
+    private MemoryRecords buildRecordsWithHeaders(List<SimpleRecord> records, boolean dictionaryEncoded) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        buffer.position(bufferOffset);
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, RecordBatch.MAGIC_VALUE_V2, compressionType,
+            TimestampType.CREATE_TIME, 0L, 0L, 9809L, (short) 15, 2342, true, false, 5, buffer.capacity(),
+            dictionaryEncoded);
+        for (SimpleRecord record : records)
+            builder.append(record);
+        return builder.build();
+    }
+
     private void verifyRecordsProcessingStats(RecordConversionStats processingStats, int numRecords,
                                               int numRecordsConverted, long finalBytes, long preConvertedBytes) {
         assertNotNull("Records processing info is null", processingStats);
@@ -748,6 +913,24 @@ public class MemoryRecordsBuilderTest {
         }
     }
 
+    private static class ArrayValueWriter implements RecordFieldWriter {
+        private final byte[] value;
+
+        ArrayValueWriter(byte[] value) {
+            this.value = value;
+        }
+
+        @Override
+        public int sizeInBytes() {
+            return value.length;
+        }
+
+        @Override
+        public void writeTo(ByteBuffer buffer) {
+            buffer.put(value);
+        }
+    }
+
     private void assumeAtLeastV2OrNotZstd(byte magic) {
         assumeTrue(compressionType != CompressionType.ZSTD || magic >= MAGIC_VALUE_V2);
     }
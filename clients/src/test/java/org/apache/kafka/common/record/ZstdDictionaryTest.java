@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.apache.kafka.common.InvalidRecordException;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.apache.kafka.common.utils.Time;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.apache.kafka.common.utils.Utils.utf8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ZstdDictionaryTest {
+
+    @Test
+    public void testFromBytesRejectsInvalidDictionaries() {
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.fromBytes(new byte[4]));
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.fromBytes(utf8("not a zstd dictionary")));
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.fromBase64("not_a_number"));
+    }
+
+    @Test
+    public void testBase64RoundTrip() {
+        ZstdDictionary dictionary = trainDictionary(0);
+        ZstdDictionary decoded = ZstdDictionary.fromBase64(dictionary.toBase64());
+        assertEquals(dictionary.id(), decoded.id());
+        assertArrayEquals(dictionary.bytes(), decoded.bytes());
+    }
+
+    @Test
+    public void testDictionariesRejectDuplicateIds() {
+        ZstdDictionary dictionary = trainDictionary(1);
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionaries.of(dictionary,
+            ZstdDictionary.fromBytes(dictionary.bytes().clone())));
+
+        ZstdDictionary other = trainDictionary(6);
+        ZstdDictionaries dictionaries = ZstdDictionaries.of(dictionary, other);
+        assertEquals(dictionary, dictionaries.get(dictionary.id()));
+        assertEquals(other, dictionaries.get(other.id()));
+        assertNull(ZstdDictionaries.EMPTY.get(dictionary.id()));
+    }
+
+    @Test
+    public void testCompressWithDictionary() {
+        ZstdDictionary dictionary = trainDictionary(2);
+        List<SimpleRecord> records = sampleRecords(new Random(42), 10);
+
+        MemoryRecords withDictionary = build(records, dictionary);
+        MemoryRecords withoutDictionary = build(records, null);
+        assertTrue("Expected " + withDictionary.sizeInBytes() + " to be less than " + withoutDictionary.sizeInBytes(),
+            withDictionary.sizeInBytes() < withoutDictionary.sizeInBytes());
+
+        MutableRecordBatch batch = withDictionary.batches().iterator().next();
+        assertTrue(batch.usesZstdDictionary());
+        assertEquals(CompressionType.ZSTD, batch.compressionType());
+        assertEquals(dictionary.id(), ((DefaultRecordBatch) batch).zstdDictionaryId());
+        batch.ensureValid();
+        assertRecords(records, withDictionary, ZstdDictionaries.of(dictionary));
+        assertFalse(withoutDictionary.batches().iterator().next().usesZstdDictionary());
+    }
+
+    @Test
+    public void testUnknownDictionary() {
+        ZstdDictionary dictionary = trainDictionary(3);
+        MemoryRecords records = build(sampleRecords(new Random(42), 10), dictionary);
+        RecordBatch batch = records.batches().iterator().next();
+        assertThrows(InvalidRecordException.class, () -> batch.streamingIterator(BufferSupplier.NO_CACHING,
+            ZstdDictionaries.of(trainDictionary(7))));
+    }
+
+    @Test
+    public void testReadWithoutDictionaries() {
+        ZstdDictionary dictionary = trainDictionary(8);
+        MemoryRecords records = build(sampleRecords(new Random(42), 10), dictionary);
+        MutableRecordBatch batch = records.batches().iterator().next();
+        assertThrows(InvalidRecordException.class, () -> batch.iterator().next());
+        assertThrows(InvalidRecordException.class, () -> batch.streamingIterator(BufferSupplier.NO_CACHING));
+        assertThrows(InvalidRecordException.class, () -> batch.skipKeyValueIterator(BufferSupplier.NO_CACHING));
+        assertThrows(InvalidRecordException.class, () -> batch.streamingIterator(BufferSupplier.NO_CACHING,
+            ZstdDictionaries.EMPTY));
+    }
+
+    @Test
+    public void testDictionaryRequiresZstd() {
+        ZstdDictionary dictionary = trainDictionary(4);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        assertThrows(IllegalArgumentException.class, () -> MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2,
+            CompressionType.GZIP, TimestampType.CREATE_TIME, 0L, false, dictionary));
+    }
+
+    @Test
+    public void testConvertToBatchWithoutDictionary() {
+        ZstdDictionary dictionary = trainDictionary(5);
+        List<SimpleRecord> records = sampleRecords(new Random(42), 10);
+
+        ConvertedRecords<MemoryRecords> converted = RecordsUtil.downConvert(build(records, dictionary).batches(),
+            RecordBatch.MAGIC_VALUE_V2, 0L, Time.SYSTEM, ZstdDictionaries.of(dictionary));
+        MutableRecordBatch batch = converted.records().batches().iterator().next();
+        assertFalse(batch.usesZstdDictionary());
+        assertEquals(CompressionType.ZSTD, batch.compressionType());
+        assertEquals(RecordBatch.MAGIC_VALUE_V2, batch.magic());
+        assertRecords(records, converted.records(), ZstdDictionaries.EMPTY);
+    }
+
+    /**
+     * Train a dictionary on records like the ones of {@link #sampleRecords(Random, int)}. The seed changes the samples,
+     * and so the id of the dictionary.
+     */
+    public static ZstdDictionary trainDictionary(long seed) {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(1024 * 1024, 4096);
+        for (SimpleRecord record : sampleRecords(new Random(seed), 2000))
+            trainer.addSample(record.value().array());
+        return ZstdDictionary.fromBytes(trainer.trainSamples());
+    }
+
+    private static List<SimpleRecord> sampleRecords(Random random, int count) {
+        String[] statuses = {"pending", "shipped", "delivered", "cancelled"};
+        List<SimpleRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String value = "{\"orderId\":" + random.nextInt(1000000) + ",\"customerId\":\"customer-" +
+                random.nextInt(10000) + "\",\"status\":\"" + statuses[random.nextInt(statuses.length)] +
+                "\",\"amount\":" + random.nextInt(100000) / 100.0 + ",\"currency\":\"EUR\"}";
+            records.add(new SimpleRecord(i, null, utf8(value)));
+        }
+        return records;
+    }
+
+    private static MemoryRecords build(List<SimpleRecord> records, ZstdDictionary dictionary) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, CompressionType.ZSTD,
+            TimestampType.CREATE_TIME, 0L, false, dictionary);
+        for (SimpleRecord record : records)
+            builder.append(record);
+        return builder.build();
+    }
+
+    private static void assertRecords(List<SimpleRecord> expected, MemoryRecords records,
+                                      ZstdDictionaries dictionaries) {
+        int i = 0;
+        for (RecordBatch batch : records.batches()) {
+            try (CloseableIterator<Record> iterator = batch.streamingIterator(BufferSupplier.NO_CACHING, dictionaries)) {
+                while (iterator.hasNext()) {
+                    Record record = iterator.next();
+                    assertEquals(i, record.offset());
+                    assertEquals(expected.get(i).timestamp(), record.timestamp());
+                    assertEquals(expected.get(i).value(), record.value());
+                    i++;
+                }
+            }
+        }
+        assertEquals(expected.size(), i);
+    }
+}
@@ -42,6 +42,20 @@ public class ApiVersionsResponseTest {
         assertEquals(10, response.throttleTimeMs());
     }
 
+    @Test
+    public void shouldCarryProducerStateRetainedBatchesFromVersion3() {
+        ApiVersionsResponse response = ApiVersionsResponse.apiVersionsResponse(AbstractResponse.DEFAULT_THROTTLE_TIME,
+            RecordBatch.CURRENT_MAGIC_VALUE, 32);
+        assertEquals(32, response.data.producerStateRetainedBatches());
+        assertEquals("The default response should not be modified", 5,
+            ApiVersionsResponse.DEFAULT_API_VERSIONS_RESPONSE.data.producerStateRetainedBatches());
+
+        assertEquals(32, ApiVersionsResponse.fromStruct(response.toStruct((short) 3), (short) 3)
+            .data.producerStateRetainedBatches());
+        assertEquals("Older versions should fall back to the default", 5,
+            ApiVersionsResponse.fromStruct(response.toStruct((short) 2), (short) 2).data.producerStateRetainedBatches());
+    }
+
     @Test
     public void shouldCreateApiResponseThatHasAllApiKeysSupportedByBroker() {
         assertEquals(apiKeysInResponse(ApiVersionsResponse.DEFAULT_API_VERSIONS_RESPONSE), Utils.mkSet(ApiKeys.values()));
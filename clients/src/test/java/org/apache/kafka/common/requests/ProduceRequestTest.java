@@ -19,6 +19,7 @@ package org.apache.kafka.common.requests;
 
 import org.apache.kafka.common.InvalidRecordException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
@@ -27,6 +28,7 @@ import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.common.record.RecordVersion;
 import org.apache.kafka.common.record.SimpleRecord;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.record.ZstdDictionaryTest;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
@@ -37,6 +39,7 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -180,6 +183,47 @@ public class ProduceRequestTest {
         ProduceRequest.Builder.forCurrentMagic((short) 1, 5000, produceData);
     }
 
+    @Test
+    public void testV8AndBelowCannotUseDictionaryEncoding() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, RecordBatch.MAGIC_VALUE_V2, CompressionType.NONE,
+            TimestampType.CREATE_TIME, 0L, 0L, RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH,
+            RecordBatch.NO_SEQUENCE, false, false, RecordBatch.NO_PARTITION_LEADER_EPOCH, buffer.capacity(), true);
+        builder.append(10L, null, "a".getBytes());
+
+        Map<TopicPartition, MemoryRecords> produceData = new HashMap<>();
+        produceData.put(new TopicPartition("test", 0), builder.build());
+
+        // Can't create ProduceRequest instance with version within [3, 9)
+        for (short version = 3; version < 9; version++) {
+            ProduceRequest.Builder requestBuilder = new ProduceRequest.Builder(version, version, (short) 1, 5000, produceData, null);
+            assertThrows(UnsupportedVersionException.class, () -> requestBuilder.build().toStruct());
+        }
+
+        // Works fine with current version (>= 9)
+        ProduceRequest.Builder.forCurrentMagic((short) 1, 5000, produceData).build();
+    }
+
+    @Test
+    public void testV9AndBelowCannotUseZstdDictionaries() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, RecordBatch.MAGIC_VALUE_V2, CompressionType.ZSTD,
+            TimestampType.CREATE_TIME, 0L, false, ZstdDictionaryTest.trainDictionary(0));
+        builder.append(10L, null, "a".getBytes());
+
+        Map<TopicPartition, MemoryRecords> produceData = new HashMap<>();
+        produceData.put(new TopicPartition("test", 0), builder.build());
+
+        // Can't create ProduceRequest instance with version within [7, 10)
+        for (short version = 7; version < 10; version++) {
+            ProduceRequest.Builder requestBuilder = new ProduceRequest.Builder(version, version, (short) 1, 5000, produceData, null);
+            assertThrows(UnsupportedVersionException.class, () -> requestBuilder.build().toStruct());
+        }
+
+        // Works fine with current version (>= 10)
+        ProduceRequest.Builder.forCurrentMagic((short) 1, 5000, produceData).build();
+    }
+
     @Test
     public void testMixedTransactionalData() {
         final long producerId = 15L;
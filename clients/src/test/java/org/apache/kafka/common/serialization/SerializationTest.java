@@ -30,6 +30,7 @@ import java.util.UUID;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class SerializationTest {
@@ -107,6 +108,47 @@ public class SerializationTest {
         }
     }
 
+    @Test
+    public void stringSerializerShouldSerializeIntoBufferLikeIntoArray() {
+        List<String> strings = Arrays.asList("", "my string", "\u00e9t\u00e9", "\u20ac100", "\ud83d\ude00",
+            "unpaired \ud83d surrogate", "unpaired \ude00 surrogate", "trailing \ud83d");
+        List<String> encodings = Arrays.asList("UTF8", "UTF-16");
+
+        for (String encoding : encodings) {
+            try (Serde<String> serde = getStringSerde(encoding)) {
+                BufferSerializer<String> serializer = (BufferSerializer<String>) serde.serializer();
+                assertEquals("Only UTF8 strings should be serialized in place", encoding.equals("UTF8"),
+                    serializer.serializesInPlace());
+                for (String str : strings) {
+                    byte[] expected = serializer.serialize(topic, str);
+                    int size = serializer.serializedSize(topic, null, str);
+                    assertEquals("Unexpected size of " + str + " with encoding " + encoding, expected.length, size);
+                    ByteBuffer buffer = ByteBuffer.allocate(size);
+                    serializer.serialize(topic, null, str, buffer);
+                    assertEquals(0, buffer.remaining());
+                    assertArrayEquals("Unexpected bytes of " + str + " with encoding " + encoding, expected, buffer.array());
+                }
+                assertEquals(-1, serializer.serializedSize(topic, null, null));
+            }
+        }
+    }
+
+    @Test
+    public void byteBufferSerializerShouldSerializeIntoBufferLikeIntoArray() {
+        ByteBufferSerializer serializer = new ByteBufferSerializer();
+        ByteBuffer data = ByteBuffer.allocate(10).put("my string".getBytes());
+        byte[] expected = serializer.serialize(topic, data);
+        data.position(3);
+
+        int size = serializer.serializedSize(topic, null, data);
+        assertEquals(expected.length, size);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        serializer.serialize(topic, null, data, buffer);
+        assertArrayEquals(expected, buffer.array());
+        assertEquals("The position of the serialized buffer should not change", 3, data.position());
+        assertEquals(-1, serializer.serializedSize(topic, null, null));
+    }
+
     @Test(expected = SerializationException.class)
     public void floatDeserializerShouldThrowSerializationExceptionOnZeroBytes() {
         try (Serde<Float> serde = Serdes.Float()) {
@@ -17,8 +17,8 @@
 
 package kafka.controller
 
-import java.util.concurrent.atomic.AtomicBoolean
-import java.util.concurrent.{CountDownLatch, LinkedBlockingQueue}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
+import java.util.concurrent.{CountDownLatch, LinkedBlockingQueue, TimeUnit}
 import java.util.concurrent.locks.ReentrantLock
 
 import kafka.metrics.{KafkaMetricsGroup, KafkaTimer}
@@ -33,6 +33,8 @@ object ControllerEventManager {
   val ControllerEventThreadName = "controller-event-thread"
   val EventQueueTimeMetricName = "EventQueueTimeMs"
   val EventQueueSizeMetricName = "EventQueueSize"
+  val EventBatchSizeMetricName = "EventBatchSize"
+  val CoalescedEventRateMetricName = "CoalescedEventsPerSec"
 }
 
 trait ControllerEventProcessor {
@@ -44,6 +46,8 @@ class QueuedEvent(val event: ControllerEvent,
                   val enqueueTimeMs: Long) {
   val processingStarted = new CountDownLatch(1)
   val spent = new AtomicBoolean(false)
+  // The number of equal events which were coalesced into this one while it was waiting in the queue
+  val coalescedCount = new AtomicInteger(0)
 
   def process(processor: ControllerEventProcessor): Unit = {
     if (spent.getAndSet(true))
@@ -76,10 +80,14 @@ class ControllerEventManager(controllerId: Int,
   @volatile private var _state: ControllerState = ControllerState.Idle
   private val putLock = new ReentrantLock()
   private val queue = new LinkedBlockingQueue[QueuedEvent]
+  // Coalescable events which are waiting in the queue and have not been dequeued yet. Guarded by putLock.
+  private val pendingCoalescableEvents = mutable.HashMap.empty[ControllerEvent, QueuedEvent]
   // Visible for test
   private[controller] val thread = new ControllerEventThread(ControllerEventThreadName)
 
   private val eventQueueTimeHist = newHistogram(EventQueueTimeMetricName)
+  private val eventBatchSizeHist = newHistogram(EventBatchSizeMetricName)
+  private val coalescedEventRate = newMeter(CoalescedEventRateMetricName, "events", TimeUnit.SECONDS)
 
   newGauge(EventQueueSizeMetricName, () => queue.size)
 
@@ -95,10 +103,33 @@ class ControllerEventManager(controllerId: Int,
     } finally {
       removeMetric(EventQueueTimeMetricName)
       removeMetric(EventQueueSizeMetricName)
+      removeMetric(EventBatchSizeMetricName)
+      removeMetric(CoalescedEventRateMetricName)
     }
   }
 
+  /**
+    * Add an event to the queue. If the event is coalescable and an equal event is already waiting in the queue,
+    * the queued event is returned instead and the new event is not added.
+    */
   def put(event: ControllerEvent): QueuedEvent = inLock(putLock) {
+    event match {
+      case coalescable: CoalescableControllerEvent =>
+        pendingCoalescableEvents.get(coalescable) match {
+          case Some(pending) =>
+            pending.coalescedCount.incrementAndGet()
+            coalescedEventRate.mark()
+            pending
+          case None =>
+            val queuedEvent = enqueue(event)
+            pendingCoalescableEvents.put(coalescable, queuedEvent)
+            queuedEvent
+        }
+      case _ => enqueue(event)
+    }
+  }
+
+  private def enqueue(event: ControllerEvent): QueuedEvent = {
     val queuedEvent = new QueuedEvent(event, time.milliseconds())
     queue.put(queuedEvent)
     queuedEvent
@@ -107,6 +138,7 @@ class ControllerEventManager(controllerId: Int,
   def clearAndPut(event: ControllerEvent): QueuedEvent = inLock(putLock) {
     queue.asScala.foreach(_.preempt(processor))
     queue.clear()
+    pendingCoalescableEvents.clear()
     put(event)
   }
 
@@ -122,7 +154,16 @@ class ControllerEventManager(controllerId: Int,
         case controllerEvent =>
           _state = controllerEvent.state
 
+          // Events put from now on must not be coalesced into this one, since they may reflect
+          // changes which happen after we start processing it
+          if (controllerEvent.isInstanceOf[CoalescableControllerEvent]) {
+            inLock(putLock) {
+              pendingCoalescableEvents.remove(controllerEvent)
+            }
+          }
+
           eventQueueTimeHist.update(time.milliseconds() - dequeued.enqueueTimeMs)
+          eventBatchSizeHist.update(1 + dequeued.coalescedCount.get)
 
           try {
             def process(): Unit = dequeued.process(processor)
@@ -1122,6 +1122,7 @@ class KafkaController(val config: KafkaConfig,
     }
 
     info(s"Shutting down broker $id")
+    val startTimeMs = time.milliseconds
 
     if (!controllerContext.liveOrShuttingDownBrokerIds.contains(id))
       throw new BrokerNotAvailableException(s"Broker id $id does not exist.")
@@ -1152,6 +1153,8 @@ class KafkaController(val config: KafkaConfig,
     // If the broker is a follower, updates the isr in ZK and notifies the current leader
     replicaStateMachine.handleStateChanges(partitionsFollowedByBroker.map(partition =>
       PartitionAndReplica(partition, id)).toSeq, OfflineReplica)
+    info(s"Moved leadership of ${partitionsLedByBroker.size} partitions and took ${partitionsFollowedByBroker.size} " +
+      s"follower replicas offline for broker $id in ${time.milliseconds - startTimeMs} ms")
     def replicatedPartitionsBrokerLeads() = {
       trace(s"All leaders = ${controllerContext.partitionLeadershipInfo.mkString(",")}")
       controllerContext.partitionLeadershipInfo.filter {
@@ -1994,6 +1997,13 @@ sealed trait ControllerEvent {
   def state: ControllerState
 }
 
+/**
+  * An event whose processing only depends on the latest state in ZooKeeper and in the controller context,
+  * rather than on anything captured when the event was created. Any number of equal events of this kind
+  * which are waiting in the event queue are coalesced and processed once.
+  */
+sealed trait CoalescableControllerEvent extends ControllerEvent
+
 case object ControllerChange extends ControllerEvent {
   override def state = ControllerState.ControllerChange
 }
@@ -2018,11 +2028,11 @@ case object AutoPreferredReplicaLeaderElection extends ControllerEvent {
   def state = ControllerState.AutoLeaderBalance
 }
 
-case object UncleanLeaderElectionEnable extends ControllerEvent {
+case object UncleanLeaderElectionEnable extends CoalescableControllerEvent {
   def state = ControllerState.UncleanLeaderElectionEnable
 }
 
-case class TopicUncleanLeaderElectionEnable(topic: String) extends ControllerEvent {
+case class TopicUncleanLeaderElectionEnable(topic: String) extends CoalescableControllerEvent {
   def state = ControllerState.TopicUncleanLeaderElectionEnable
 }
 
@@ -2048,31 +2058,31 @@ case object Startup extends ControllerEvent {
   def state = ControllerState.ControllerChange
 }
 
-case object BrokerChange extends ControllerEvent {
+case object BrokerChange extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.BrokerChange
 }
 
-case class BrokerModifications(brokerId: Int) extends ControllerEvent {
+case class BrokerModifications(brokerId: Int) extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.BrokerChange
 }
 
-case object TopicChange extends ControllerEvent {
+case object TopicChange extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.TopicChange
 }
 
-case object LogDirEventNotification extends ControllerEvent {
+case object LogDirEventNotification extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.LogDirChange
 }
 
-case class PartitionModifications(topic: String) extends ControllerEvent {
+case class PartitionModifications(topic: String) extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.TopicChange
 }
 
-case object TopicDeletion extends ControllerEvent {
+case object TopicDeletion extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.TopicDeletion
 }
 
-case object ZkPartitionReassignment extends ControllerEvent {
+case object ZkPartitionReassignment extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.AlterPartitionReassignment
 }
 
@@ -2081,11 +2091,11 @@ case class ApiPartitionReassignment(reassignments: Map[TopicPartition, Option[Se
   override def state: ControllerState = ControllerState.AlterPartitionReassignment
 }
 
-case class PartitionReassignmentIsrChange(partition: TopicPartition) extends ControllerEvent {
+case class PartitionReassignmentIsrChange(partition: TopicPartition) extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.AlterPartitionReassignment
 }
 
-case object IsrChangeNotification extends ControllerEvent {
+case object IsrChangeNotification extends CoalescableControllerEvent {
   override def state: ControllerState = ControllerState.IsrChange
 }
 
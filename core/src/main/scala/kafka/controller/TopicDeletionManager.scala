@@ -34,6 +34,7 @@ class ControllerDeletionClient(controller: KafkaController, zkClient: KafkaZkCli
   override def deleteTopic(topic: String, epochZkVersion: Int): Unit = {
     zkClient.deleteTopicZNode(topic, epochZkVersion)
     zkClient.deleteTopicConfigs(Seq(topic), epochZkVersion)
+    zkClient.deleteZstdDictionaries(Seq(topic), epochZkVersion)
     zkClient.deleteTopicDeletions(Seq(topic), epochZkVersion)
   }
 
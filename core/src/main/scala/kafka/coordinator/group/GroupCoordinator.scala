@@ -752,6 +752,8 @@ class GroupCoordinator(val brokerId: Int,
         }
       }
     }
+    // commits are queued while holding the group lock and appended to the log once it has been released
+    groupManager.appendQueuedOffsetCommits()
   }
 
   def handleFetchOffsets(groupId: String, partitions: Option[Seq[TopicPartition]] = None):
@@ -1188,6 +1190,7 @@ object GroupCoordinator {
   private[group] def offsetConfig(config: KafkaConfig) = OffsetConfig(
     maxMetadataSize = config.offsetMetadataMaxSize,
     loadBufferSize = config.offsetsLoadBufferSize,
+    loadThreads = config.offsetsLoadThreads,
     offsetsRetentionMs = config.offsetsRetentionMinutes * 60L * 1000L,
     offsetsRetentionCheckIntervalMs = config.offsetsRetentionCheckIntervalMs,
     offsetsTopicNumPartitions = config.offsetsTopicPartitions,
@@ -1195,7 +1198,8 @@ object GroupCoordinator {
     offsetsTopicReplicationFactor = config.offsetsTopicReplicationFactor,
     offsetsTopicCompressionCodec = config.offsetsTopicCompressionCodec,
     offsetCommitTimeoutMs = config.offsetCommitTimeoutMs,
-    offsetCommitRequiredAcks = config.offsetCommitRequiredAcks
+    offsetCommitRequiredAcks = config.offsetCommitRequiredAcks,
+    offsetCommitAppendBatchBytes = config.offsetCommitAppendBatchBytes
   )
 
   def apply(config: KafkaConfig,
@@ -21,14 +21,14 @@ import java.io.PrintStream
 import java.nio.ByteBuffer
 import java.nio.charset.StandardCharsets
 import java.util.Optional
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit}
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.locks.ReentrantLock
 
 import com.yammer.metrics.core.Gauge
 import kafka.api.{ApiVersion, KAFKA_0_10_1_IV0, KAFKA_2_1_IV0, KAFKA_2_1_IV1, KAFKA_2_3_IV0}
 import kafka.common.{MessageFormatter, OffsetAndMetadata}
-import kafka.log.AppendOrigin
+import kafka.log.{AppendOrigin, Log}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{FetchLogEnd, ReplicaManager}
 import kafka.utils.CoreUtils.inLock
@@ -37,7 +37,7 @@ import kafka.zk.KafkaZkClient
 import org.apache.kafka.clients.consumer.ConsumerRecord
 import org.apache.kafka.clients.consumer.internals.ConsumerProtocol
 import org.apache.kafka.common.internals.Topic
-import org.apache.kafka.common.metrics.Metrics
+import org.apache.kafka.common.metrics.{Measurable, Metrics}
 import org.apache.kafka.common.metrics.stats.{Avg, Max, Meter}
 import org.apache.kafka.common.protocol.Errors
 import org.apache.kafka.common.protocol.types.Type._
@@ -79,8 +79,24 @@ class GroupMetadataManager(brokerId: Int,
   /* number of partitions for the consumer metadata topic */
   private val groupMetadataTopicPartitionCount = getGroupMetadataTopicPartitionCount
 
-  /* single-thread scheduler to handle offset/group metadata cache loading and unloading */
-  private val scheduler = new KafkaScheduler(threads = 1, threadNamePrefix = "group-metadata-manager-")
+  /* single-thread schedulers to handle offset/group metadata cache loading and unloading. A partition of the offsets
+   * topic is always handled by the same scheduler so that its loads, unloads and transaction completions are applied
+   * in order, while different partitions can be loaded in parallel */
+  private val schedulers = (0 until config.loadThreads).map { i =>
+    val threadNamePrefix =
+      if (config.loadThreads == 1) "group-metadata-manager-"
+      else s"group-metadata-manager-$i-"
+    new KafkaScheduler(threads = 1, threadNamePrefix = threadNamePrefix)
+  }
+
+  /* time it took to load each offsets topic partition owned by this broker, exposed as a metric per partition */
+  private val partitionLoadTimes = new ConcurrentHashMap[Int, java.lang.Long]()
+
+  /* offset commits waiting for the thread holding the offset commit append lock */
+  private val queuedOffsetCommits = new ConcurrentLinkedQueue[QueuedOffsetCommit]()
+
+  /* lock held by the thread appending the queued offset commits of all groups to the log */
+  private val offsetCommitAppendLock = new ReentrantLock()
 
   /* The groups with open transactional offsets commits per producer. We need this because when the commit or abort
    * marker comes in for a transaction, it is for a particular partition on the offsets topic and a particular producerId.
@@ -107,6 +123,15 @@ class GroupMetadataManager(brokerId: Int,
       "group-coordinator-metrics",
       "The total number of committed offsets")))
 
+  val offsetCommitAppendBatchSizeSensor = metrics.sensor("OffsetCommitAppendBatchSize")
+
+  offsetCommitAppendBatchSizeSensor.add(metrics.metricName("offset-commit-append-batch-size-max",
+    "group-coordinator-metrics",
+    "The max number of offset commits appended to the offsets topic at once in the last 30sec"), new Max())
+  offsetCommitAppendBatchSizeSensor.add(metrics.metricName("offset-commit-append-batch-size-avg",
+    "group-coordinator-metrics",
+    "The avg number of offset commits appended to the offsets topic at once in the last 30sec"), new Avg())
+
   val offsetExpiredSensor = metrics.sensor("OffsetExpired")
 
   offsetExpiredSensor.add(new Meter(
@@ -119,6 +144,28 @@ class GroupMetadataManager(brokerId: Int,
 
   this.logIdent = s"[GroupMetadataManager brokerId=$brokerId] "
 
+  private def schedulerFor(offsetsPartition: Int): KafkaScheduler = schedulers(offsetsPartition % schedulers.size)
+
+  private def partitionLoadTimeMetricName(offsetsPartition: Int) = metrics.metricName("partition-load-time",
+    "group-coordinator-metrics",
+    "The time it took to load the offsets and group metadata of the partition",
+    Map("partition" -> offsetsPartition.toString).asJava)
+
+  private def recordPartitionLoadTime(offsetsPartition: Int, timeMs: Long): Unit = {
+    if (partitionLoadTimes.put(offsetsPartition, timeMs) == null) {
+      val loadTime: Measurable = (_, _) => {
+        val timeMs = partitionLoadTimes.get(offsetsPartition)
+        if (timeMs == null) Double.NaN else timeMs.doubleValue
+      }
+      metrics.addMetric(partitionLoadTimeMetricName(offsetsPartition), loadTime)
+    }
+  }
+
+  private def removePartitionLoadTime(offsetsPartition: Int): Unit = {
+    if (partitionLoadTimes.remove(offsetsPartition) != null)
+      metrics.removeMetric(partitionLoadTimeMetricName(offsetsPartition))
+  }
+
   private def recreateGauge[T](name: String, gauge: Gauge[T]): Gauge[T] = {
     removeMetric(name)
     newGauge(name, gauge)
@@ -170,9 +217,9 @@ class GroupMetadataManager(brokerId: Int,
     })
 
   def startup(enableMetadataExpiration: Boolean): Unit = {
-    scheduler.startup()
+    schedulers.foreach(_.startup())
     if (enableMetadataExpiration) {
-      scheduler.schedule(name = "delete-expired-group-metadata",
+      schedulers.head.schedule(name = "delete-expired-group-metadata",
         fun = () => cleanupGroupMetadata,
         period = config.offsetsRetentionCheckIntervalMs,
         unit = TimeUnit.MILLISECONDS)
@@ -322,6 +369,11 @@ class GroupMetadataManager(brokerId: Int,
 
   /**
    * Store offsets by appending it to the replicated log and then inserting to cache
+   *
+   * Offset commits which are not transactional are queued and appended to the log together with the commits queued
+   * by other threads for the same offsets topic partition, see [[appendQueuedOffsetCommits]]. If the caller holds the
+   * lock of the group, the commit is only queued and the caller must call [[appendQueuedOffsetCommits]] once it has
+   * released the lock, so that the log append is not done while holding the lock.
    */
   def storeOffsets(group: GroupMetadata,
                    consumerId: String,
@@ -359,104 +411,50 @@ class GroupMetadataManager(brokerId: Int,
             val key = GroupMetadataManager.offsetCommitKey(group.groupId, topicPartition)
             val value = GroupMetadataManager.offsetCommitValue(offsetAndMetadata, interBrokerProtocolVersion)
             new SimpleRecord(timestamp, key, value)
-          }
+          }.toSeq
           val offsetTopicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, partitionFor(group.groupId))
-          val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magicValue, compressionType, records.asJava))
-
-          if (isTxnOffsetCommit && magicValue < RecordBatch.MAGIC_VALUE_V2)
-            throw Errors.UNSUPPORTED_FOR_MESSAGE_FORMAT.exception("Attempting to make a transaction offset commit with an invalid magic: " + magicValue)
-
-          val builder = MemoryRecords.builder(buffer, magicValue, compressionType, timestampType, 0L, time.milliseconds(),
-            producerId, producerEpoch, 0, isTxnOffsetCommit, RecordBatch.NO_PARTITION_LEADER_EPOCH)
-
-          records.foreach(builder.append)
-          val entries = Map(offsetTopicPartition -> builder.build())
-
-          // set the callback function to insert offsets into cache after log append completed
-          def putCacheCallback(responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
-            // the append response should only contain the topics partition
-            if (responseStatus.size != 1 || !responseStatus.contains(offsetTopicPartition))
-              throw new IllegalStateException("Append status %s should only have one partition %s"
-                .format(responseStatus, offsetTopicPartition))
-
-            // record the number of offsets committed to the log
-            offsetCommitsSensor.record(records.size)
-
-            // construct the commit response status and insert
-            // the offset and metadata to cache if the append status has no error
-            val status = responseStatus(offsetTopicPartition)
-
-            val responseError = group.inLock {
-              if (status.error == Errors.NONE) {
-                if (!group.is(Dead)) {
-                  filteredOffsetMetadata.foreach { case (topicPartition, offsetAndMetadata) =>
-                    if (isTxnOffsetCommit)
-                      group.onTxnOffsetCommitAppend(producerId, topicPartition, CommitRecordMetadataAndOffset(Some(status.baseOffset), offsetAndMetadata))
-                    else
-                      group.onOffsetCommitAppend(topicPartition, CommitRecordMetadataAndOffset(Some(status.baseOffset), offsetAndMetadata))
-                  }
-                }
-                Errors.NONE
-              } else {
-                if (!group.is(Dead)) {
-                  if (!group.hasPendingOffsetCommitsFromProducer(producerId))
-                    removeProducerGroup(producerId, group.groupId)
-                  filteredOffsetMetadata.foreach { case (topicPartition, offsetAndMetadata) =>
-                    if (isTxnOffsetCommit)
-                      group.failPendingTxnOffsetCommit(producerId, topicPartition)
-                    else
-                      group.failPendingOffsetWrite(topicPartition, offsetAndMetadata)
-                  }
-                }
+          val commit = QueuedOffsetCommit(group, consumerId, offsetTopicPartition, offsetMetadata, filteredOffsetMetadata,
+            records, responseCallback)
 
-                debug(s"Offset commit $filteredOffsetMetadata from group ${group.groupId}, consumer $consumerId " +
-                  s"with generation ${group.generationId} failed when appending to log due to ${status.error.exceptionName}")
+          if (isTxnOffsetCommit) {
+            val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magicValue, compressionType, records.asJava))
 
-                // transform the log append error code to the corresponding the commit status error code
-                status.error match {
-                  case Errors.UNKNOWN_TOPIC_OR_PARTITION
-                       | Errors.NOT_ENOUGH_REPLICAS
-                       | Errors.NOT_ENOUGH_REPLICAS_AFTER_APPEND =>
-                    Errors.COORDINATOR_NOT_AVAILABLE
+            if (magicValue < RecordBatch.MAGIC_VALUE_V2)
+              throw Errors.UNSUPPORTED_FOR_MESSAGE_FORMAT.exception("Attempting to make a transaction offset commit with an invalid magic: " + magicValue)
 
-                  case Errors.NOT_LEADER_FOR_PARTITION
-                       | Errors.KAFKA_STORAGE_ERROR =>
-                    Errors.NOT_COORDINATOR
+            val builder = MemoryRecords.builder(buffer, magicValue, compressionType, timestampType, 0L, time.milliseconds(),
+              producerId, producerEpoch, 0, isTxnOffsetCommit, RecordBatch.NO_PARTITION_LEADER_EPOCH)
 
-                  case Errors.MESSAGE_TOO_LARGE
-                       | Errors.RECORD_LIST_TOO_LARGE
-                       | Errors.INVALID_FETCH_SIZE =>
-                    Errors.INVALID_COMMIT_OFFSET_SIZE
+            records.foreach(builder.append)
+            val entries = Map(offsetTopicPartition -> builder.build())
 
-                  case other => other
-                }
-              }
-            }
+            // set the callback function to insert offsets into cache after log append completed
+            def putCacheCallback(responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
+              // the append response should only contain the topics partition
+              if (responseStatus.size != 1 || !responseStatus.contains(offsetTopicPartition))
+                throw new IllegalStateException("Append status %s should only have one partition %s"
+                  .format(responseStatus, offsetTopicPartition))
 
-            // compute the final error codes for the commit response
-            val commitStatus = offsetMetadata.map { case (topicPartition, offsetAndMetadata) =>
-              if (validateOffsetMetadataLength(offsetAndMetadata.metadata))
-                (topicPartition, responseError)
-              else
-                (topicPartition, Errors.OFFSET_METADATA_TOO_LARGE)
+              completeOffsetCommit(commit, responseStatus(offsetTopicPartition), 0, producerId)
             }
 
-            // finally trigger the callback logic passed from the API layer
-            responseCallback(commitStatus)
-          }
-
-          if (isTxnOffsetCommit) {
             group.inLock {
               addProducerGroup(producerId, group.groupId)
               group.prepareTxnOffsetCommit(producerId, offsetMetadata)
             }
+
+            appendForGroup(group, entries, putCacheCallback)
           } else {
+            // the commit is queued while holding the lock so that the commits of a group are appended in the order
+            // in which they were accepted
             group.inLock {
               group.prepareOffsetCommit(offsetMetadata)
+              queuedOffsetCommits.add(commit)
             }
-          }
 
-          appendForGroup(group, entries, putCacheCallback)
+            if (!group.lock.isHeldByCurrentThread)
+              appendQueuedOffsetCommits()
+          }
 
         case None =>
           val commitStatus = offsetMetadata.map { case (topicPartition, _) =>
@@ -468,6 +466,201 @@ class GroupMetadataManager(brokerId: Int,
     }
   }
 
+  /**
+   * Appends the offset commits queued by all threads to the log. The thread that gets to append appends the commits
+   * queued by all threads while the others return immediately, and the commits for the same offsets topic partition
+   * are written in one batch. Each log append takes the queued commits until the batch of one partition would exceed
+   * `offsetCommitAppendBatchBytes`, so the appending thread does several bounded appends if many commits are queued.
+   * This neither requires nor should be called while holding the lock of any group.
+   */
+  def appendQueuedOffsetCommits(): Unit = {
+    // the queue is checked again after releasing the lock since other threads may have queued commits
+    // which they left to this thread while it was holding the lock
+    while (!queuedOffsetCommits.isEmpty && offsetCommitAppendLock.tryLock()) {
+      try {
+        appendOffsetCommits(pollQueuedOffsetCommits())
+      } finally {
+        offsetCommitAppendLock.unlock()
+      }
+    }
+  }
+
+  /**
+   * Takes the queued commits in order until the records of one offsets topic partition would exceed
+   * `offsetCommitAppendBatchBytes`. The first commit of a partition is always taken, and commits are never split.
+   * This must be called while holding `offsetCommitAppendLock`, so that no other thread polls the queue between
+   * `peek` and `poll`.
+   */
+  private def pollQueuedOffsetCommits(): Seq[QueuedOffsetCommit] = {
+    val polled = ArrayBuffer[QueuedOffsetCommit]()
+    val batchSizes = mutable.Map[TopicPartition, Int]()
+    var batchFull = false
+    var commit = queuedOffsetCommits.peek()
+    while (commit != null && !batchFull) {
+      val commitSize = commit.records.map(record => record.key.remaining + record.value.remaining).sum
+      val batchSize = batchSizes.getOrElse(commit.offsetTopicPartition, 0)
+      if (batchSize > 0 && batchSize + commitSize > config.offsetCommitAppendBatchBytes) {
+        batchFull = true
+      } else {
+        queuedOffsetCommits.poll()
+        polled += commit
+        batchSizes.put(commit.offsetTopicPartition, batchSize + commitSize)
+        commit = queuedOffsetCommits.peek()
+      }
+    }
+    polled
+  }
+
+  /**
+   * Appends one batch of commits to each offsets topic partition. If all the commits are for the same group, the
+   * group lock is the lock of the delayed produce, as it is for the commits of a single group. Otherwise the
+   * commits are completed without blocking on the group locks, see `completeOffsetCommitWithoutBlocking`.
+   */
+  private def appendOffsetCommits(commits: Seq[QueuedOffsetCommit]): Unit = {
+    val batches = mutable.Map[TopicPartition, (Byte, Seq[QueuedOffsetCommit])]()
+    commits.groupBy(_.offsetTopicPartition).foreach { case (offsetTopicPartition, partitionCommits) =>
+      getMagic(offsetTopicPartition.partition) match {
+        case Some(magicValue) =>
+          batches.put(offsetTopicPartition, (magicValue, partitionCommits))
+        case None =>
+          partitionCommits.foreach(completeOffsetCommitWithoutBlocking(_, new PartitionResponse(Errors.NOT_LEADER_FOR_PARTITION), 0))
+      }
+    }
+
+    if (batches.nonEmpty) {
+      val recordsPerPartition = batches.map { case (offsetTopicPartition, (magicValue, batch)) =>
+        val records = batch.flatMap(_.records)
+        val buffer = ByteBuffer.allocate(AbstractRecords.estimateSizeInBytes(magicValue, compressionType, records.asJava))
+        val builder = MemoryRecords.builder(buffer, magicValue, compressionType, TimestampType.CREATE_TIME, 0L)
+        records.foreach(builder.append)
+        offsetTopicPartition -> builder.build()
+      }
+      offsetCommitAppendBatchSizeSensor.record(batches.values.map(_._2.size).sum)
+
+      // set the callback function to insert offsets into cache after log append completed
+      def putCacheCallback(responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
+        // the append response should contain the partitions of the batches
+        if (responseStatus.keySet != batches.keySet)
+          throw new IllegalStateException(s"Append status $responseStatus should only have partitions ${batches.keySet}")
+
+        batches.foreach { case (offsetTopicPartition, (_, batch)) =>
+          val status = responseStatus(offsetTopicPartition)
+          var recordIndex = 0
+          batch.foreach { commit =>
+            completeOffsetCommitWithoutBlocking(commit, status, recordIndex)
+            recordIndex += commit.records.size
+          }
+        }
+      }
+
+      val groups = batches.values.flatMap(_._2.map(_.group)).toSet
+      replicaManager.appendRecords(
+        timeout = config.offsetCommitTimeoutMs.toLong,
+        requiredAcks = config.offsetCommitRequiredAcks,
+        internalTopicsAllowed = true,
+        origin = AppendOrigin.Coordinator,
+        entriesPerPartition = recordsPerPartition,
+        delayedProduceLock = if (groups.size == 1) Some(groups.head.lock) else None,
+        responseCallback = putCacheCallback)
+    }
+  }
+
+  /**
+   * The append of a batch of commits may be completed by a thread holding the lock of another group, so the commits
+   * of groups whose lock cannot be acquired immediately are completed by the scheduler of the offsets topic partition.
+   */
+  private def completeOffsetCommitWithoutBlocking(commit: QueuedOffsetCommit,
+                                                  status: PartitionResponse,
+                                                  recordIndex: Int): Unit = {
+    val group = commit.group
+    if (group.lock.tryLock()) {
+      try {
+        completeOffsetCommit(commit, status, recordIndex, RecordBatch.NO_PRODUCER_ID)
+      } finally {
+        group.lock.unlock()
+      }
+    } else {
+      schedulerFor(commit.offsetTopicPartition.partition).schedule(s"complete-offset-commit-${group.groupId}", () =>
+        completeOffsetCommit(commit, status, recordIndex, RecordBatch.NO_PRODUCER_ID))
+    }
+  }
+
+  /**
+   * Inserts the committed offsets into the cache if they were appended to the log and invokes the response callback.
+   * The records of the commit start `recordIndex` records after the base offset of the appended batch.
+   */
+  private def completeOffsetCommit(commit: QueuedOffsetCommit,
+                                   status: PartitionResponse,
+                                   recordIndex: Int,
+                                   producerId: Long): Unit = {
+    val group = commit.group
+    val isTxnOffsetCommit = producerId != RecordBatch.NO_PRODUCER_ID
+
+    // record the number of offsets committed to the log
+    offsetCommitsSensor.record(commit.records.size)
+
+    // construct the commit response status and insert
+    // the offset and metadata to cache if the append status has no error
+    val responseError = group.inLock {
+      if (status.error == Errors.NONE) {
+        if (!group.is(Dead)) {
+          val appendedOffset = status.baseOffset + recordIndex
+          commit.filteredOffsetMetadata.foreach { case (topicPartition, offsetAndMetadata) =>
+            if (isTxnOffsetCommit)
+              group.onTxnOffsetCommitAppend(producerId, topicPartition, CommitRecordMetadataAndOffset(Some(appendedOffset), offsetAndMetadata))
+            else
+              group.onOffsetCommitAppend(topicPartition, CommitRecordMetadataAndOffset(Some(appendedOffset), offsetAndMetadata))
+          }
+        }
+        Errors.NONE
+      } else {
+        if (!group.is(Dead)) {
+          if (!group.hasPendingOffsetCommitsFromProducer(producerId))
+            removeProducerGroup(producerId, group.groupId)
+          commit.filteredOffsetMetadata.foreach { case (topicPartition, offsetAndMetadata) =>
+            if (isTxnOffsetCommit)
+              group.failPendingTxnOffsetCommit(producerId, topicPartition)
+            else
+              group.failPendingOffsetWrite(topicPartition, offsetAndMetadata)
+          }
+        }
+
+        debug(s"Offset commit ${commit.filteredOffsetMetadata} from group ${group.groupId}, consumer ${commit.consumerId} " +
+          s"with generation ${group.generationId} failed when appending to log due to ${status.error.exceptionName}")
+
+        // transform the log append error code to the corresponding the commit status error code
+        status.error match {
+          case Errors.UNKNOWN_TOPIC_OR_PARTITION
+               | Errors.NOT_ENOUGH_REPLICAS
+               | Errors.NOT_ENOUGH_REPLICAS_AFTER_APPEND =>
+            Errors.COORDINATOR_NOT_AVAILABLE
+
+          case Errors.NOT_LEADER_FOR_PARTITION
+               | Errors.KAFKA_STORAGE_ERROR =>
+            Errors.NOT_COORDINATOR
+
+          case Errors.MESSAGE_TOO_LARGE
+               | Errors.RECORD_LIST_TOO_LARGE
+               | Errors.INVALID_FETCH_SIZE =>
+            Errors.INVALID_COMMIT_OFFSET_SIZE
+
+          case other => other
+        }
+      }
+    }
+
+    // compute the final error codes for the commit response
+    val commitStatus = commit.offsetMetadata.map { case (topicPartition, offsetAndMetadata) =>
+      if (validateOffsetMetadataLength(offsetAndMetadata.metadata))
+        (topicPartition, responseError)
+      else
+        (topicPartition, Errors.OFFSET_METADATA_TOO_LARGE)
+    }
+
+    // finally trigger the callback logic passed from the API layer
+    commit.responseCallback(commitStatus)
+  }
+
   /**
    * The most important guarantee that this API provides is that it should never return a stale offset. i.e., it either
    * returns the current offset or it begins to sync the cache from the log (and returns an error code).
@@ -524,7 +717,7 @@ class GroupMetadataManager(brokerId: Int,
     val topicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, offsetsPartition)
     if (addLoadingPartition(offsetsPartition)) {
       info(s"Scheduling loading of offsets and group metadata from $topicPartition")
-      scheduler.schedule(topicPartition.toString, () => loadGroupsAndOffsets(topicPartition, onGroupLoaded))
+      schedulerFor(offsetsPartition).schedule(topicPartition.toString, () => loadGroupsAndOffsets(topicPartition, onGroupLoaded))
     } else {
       info(s"Already loading offsets and group metadata from $topicPartition")
     }
@@ -537,6 +730,7 @@ class GroupMetadataManager(brokerId: Int,
       val endMs = time.milliseconds()
       val timeLapse = endMs - startMs
       partitionLoadSensor.record(timeLapse, endMs, false)
+      recordPartitionLoadTime(topicPartition.partition, timeLapse)
       info(s"Finished loading offsets and group metadata from $topicPartition in $timeLapse milliseconds.")
     } catch {
       case t: Throwable => error(s"Error loading offsets from $topicPartition", t)
@@ -618,7 +812,7 @@ class GroupMetadataManager(brokerId: Int,
               }
             } else {
               var batchBaseOffset: Option[Long] = None
-              for (record <- batch.asScala) {
+              for (record <- Log.readRecords(batch, log.zstdDictionaries)) {
                 require(record.hasKey, "Group metadata/offset entry key should not be null")
                 if (batchBaseOffset.isEmpty)
                   batchBaseOffset = Some(record.offset)
@@ -738,7 +932,7 @@ class GroupMetadataManager(brokerId: Int,
                                onGroupUnloaded: GroupMetadata => Unit): Unit = {
     val topicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, offsetsPartition)
     info(s"Scheduling unloading of offsets and group metadata from $topicPartition")
-    scheduler.schedule(topicPartition.toString, () => removeGroupsAndOffsets)
+    schedulerFor(offsetsPartition).schedule(topicPartition.toString, () => removeGroupsAndOffsets)
 
     def removeGroupsAndOffsets(): Unit = {
       var numOffsetsRemoved = 0
@@ -759,6 +953,7 @@ class GroupMetadataManager(brokerId: Int,
           }
         }
       }
+      removePartitionLoadTime(offsetsPartition)
 
       info(s"Finished unloading $topicPartition. Removed $numOffsetsRemoved cached offsets " +
         s"and $numGroupsRemoved cached groups.")
@@ -857,11 +1052,14 @@ class GroupMetadataManager(brokerId: Int,
    * to the log. It may be invoked when a group lock is held by the caller, for instance when delayed
    * operations are completed while appending offsets for a group. Since we need to acquire one or
    * more group metadata locks to handle transaction completion, this operation is scheduled on
-   * the scheduler thread to avoid deadlocks.
+   * the scheduler threads to avoid deadlocks. The partitions are handled by the scheduler which loads
+   * them so that completion is never applied before a pending load of the partition.
    */
   def scheduleHandleTxnCompletion(producerId: Long, completedPartitions: Set[Int], isCommit: Boolean): Unit = {
-    scheduler.schedule(s"handleTxnCompletion-$producerId", () =>
-      handleTxnCompletion(producerId, completedPartitions, isCommit))
+    completedPartitions.groupBy(schedulerFor).foreach { case (scheduler, partitions) =>
+      scheduler.schedule(s"handleTxnCompletion-$producerId", () =>
+        handleTxnCompletion(producerId, partitions, isCommit))
+    }
   }
 
   private[group] def handleTxnCompletion(producerId: Long, completedPartitions: Set[Int], isCommit: Boolean): Unit = {
@@ -913,8 +1111,10 @@ class GroupMetadataManager(brokerId: Int,
 
   def shutdown(): Unit = {
     shuttingDown.set(true)
-    if (scheduler.isStarted)
-      scheduler.shutdown()
+    schedulers.foreach { scheduler =>
+      if (scheduler.isStarted)
+        scheduler.shutdown()
+    }
 
     // TODO: clear the caches
   }
@@ -1550,6 +1750,14 @@ object GroupMetadataManager {
 
 }
 
+private[group] case class QueuedOffsetCommit(group: GroupMetadata,
+                                            consumerId: String,
+                                            offsetTopicPartition: TopicPartition,
+                                            offsetMetadata: immutable.Map[TopicPartition, OffsetAndMetadata],
+                                            filteredOffsetMetadata: immutable.Map[TopicPartition, OffsetAndMetadata],
+                                            records: Seq[SimpleRecord],
+                                            responseCallback: immutable.Map[TopicPartition, Errors] => Unit)
+
 case class GroupTopicPartition(group: String, topicPartition: TopicPartition) {
 
   def this(group: String, topic: String, partition: Int) =
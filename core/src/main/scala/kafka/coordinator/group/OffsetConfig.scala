@@ -23,6 +23,8 @@ import kafka.message.{CompressionCodec, NoCompressionCodec}
  * Configuration settings for in-built offset management
  * @param maxMetadataSize The maximum allowed metadata for any offset commit.
  * @param loadBufferSize Batch size for reading from the offsets segments when loading offsets into the cache.
+ * @param loadThreads Number of threads used to load and unload offsets topic partitions. Each partition is always
+ *                    handled by the same thread so that loads and unloads of a partition are applied in order.
  * @param offsetsRetentionMs After a consumer group loses all its consumers (i.e. becomes empty) its offsets will be kept for this retention period before getting discarded.
  *                           For standalone consumers (using manual assignment), offsets will be expired after the time of last commit plus this retention period.
  * @param offsetsRetentionCheckIntervalMs Frequency at which to check for expired offsets.
@@ -36,9 +38,12 @@ import kafka.message.{CompressionCodec, NoCompressionCodec}
  *                              commit or this timeout is reached. (Similar to the producer request timeout.)
  * @param offsetCommitRequiredAcks The required acks before the commit can be accepted. In general, the default (-1)
  *                                 should not be overridden.
+ * @param offsetCommitAppendBatchBytes Soft limit on the size of the records of the offset commits appended together to
+ *                                     a partition of the offsets topic.
  */
 case class OffsetConfig(maxMetadataSize: Int = OffsetConfig.DefaultMaxMetadataSize,
                         loadBufferSize: Int = OffsetConfig.DefaultLoadBufferSize,
+                        loadThreads: Int = OffsetConfig.DefaultLoadThreads,
                         offsetsRetentionMs: Long = OffsetConfig.DefaultOffsetRetentionMs,
                         offsetsRetentionCheckIntervalMs: Long = OffsetConfig.DefaultOffsetsRetentionCheckIntervalMs,
                         offsetsTopicNumPartitions: Int = OffsetConfig.DefaultOffsetsTopicNumPartitions,
@@ -46,11 +51,13 @@ case class OffsetConfig(maxMetadataSize: Int = OffsetConfig.DefaultMaxMetadataSi
                         offsetsTopicReplicationFactor: Short = OffsetConfig.DefaultOffsetsTopicReplicationFactor,
                         offsetsTopicCompressionCodec: CompressionCodec = OffsetConfig.DefaultOffsetsTopicCompressionCodec,
                         offsetCommitTimeoutMs: Int = OffsetConfig.DefaultOffsetCommitTimeoutMs,
-                        offsetCommitRequiredAcks: Short = OffsetConfig.DefaultOffsetCommitRequiredAcks)
+                        offsetCommitRequiredAcks: Short = OffsetConfig.DefaultOffsetCommitRequiredAcks,
+                        offsetCommitAppendBatchBytes: Int = OffsetConfig.DefaultOffsetCommitAppendBatchBytes)
 
 object OffsetConfig {
   val DefaultMaxMetadataSize = 4096
   val DefaultLoadBufferSize = 5*1024*1024
+  val DefaultLoadThreads = 1
   val DefaultOffsetRetentionMs = 24*60*60*1000L
   val DefaultOffsetsRetentionCheckIntervalMs = 600000L
   val DefaultOffsetsTopicNumPartitions = 50
@@ -59,4 +66,5 @@ object OffsetConfig {
   val DefaultOffsetsTopicCompressionCodec = NoCompressionCodec
   val DefaultOffsetCommitTimeoutMs = 5000
   val DefaultOffsetCommitRequiredAcks = (-1).toShort
+  val DefaultOffsetCommitAppendBatchBytes = 64*1024
 }
\ No newline at end of file
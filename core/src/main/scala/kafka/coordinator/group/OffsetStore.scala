@@ -0,0 +1,327 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.coordinator.group
+
+import java.lang.ref.WeakReference
+import java.util
+import java.util.Optional
+
+import kafka.common.OffsetAndMetadata
+import kafka.utils.nonthreadsafe
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.RecordBatch
+import org.apache.kafka.common.requests.OffsetCommitRequest
+
+import scala.collection.{immutable, mutable}
+
+/**
+ * Compact store of the committed offsets of a group.
+ *
+ * The offsets are kept in an open addressing hash table with linear probing whose key is the partition and the id of
+ * the topic in this store. A topic gets an id when its first offset is stored, and its id is released for reuse when
+ * its last offset is removed. The fields of the commits are stored in primitive columns aligned with the table, and
+ * absent optional fields are stored as -1. Metadata strings are deduplicated across groups. A committed
+ * offset therefore takes a few dozen bytes instead of the several objects of a map entry of `TopicPartition` to
+ * `CommitRecordMetadataAndOffset`, and offsets are only materialized when they are read.
+ */
+@nonthreadsafe
+private[group] class OffsetStore {
+  import OffsetStore._
+
+  private var keys: Array[Long] = Array.emptyLongArray
+  private var offsets: Array[Long] = Array.emptyLongArray
+  private var leaderEpochs: Array[Int] = Array.emptyIntArray
+  private var commitTimestamps: Array[Long] = Array.emptyLongArray
+  private var expireTimestamps: Array[Long] = Array.emptyLongArray
+  private var appendedBatchOffsets: Array[Long] = Array.emptyLongArray
+  private var metadata: Array[String] = Array.empty[String]
+  private var numOffsets = 0
+
+  // the topics with offsets in this store by id, and the number of offsets of each topic
+  private val topicIds = new util.HashMap[String, Integer]
+  private var topics: Array[String] = Array.empty[String]
+  private var topicOffsetCounts: Array[Int] = Array.emptyIntArray
+  private val freeTopicIds = new mutable.ArrayBuffer[Int]
+
+  def size: Int = numOffsets
+
+  def isEmpty: Boolean = numOffsets == 0
+
+  def nonEmpty: Boolean = numOffsets != 0
+
+  def contains(topicPartition: TopicPartition): Boolean = indexOf(topicPartition) >= 0
+
+  def get(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = {
+    val index = indexOf(topicPartition)
+    if (index < 0) None else Some(commitAt(index))
+  }
+
+  def put(topicPartition: TopicPartition, commit: CommitRecordMetadataAndOffset): Unit = {
+    val topicId = assignTopicId(topicPartition.topic)
+    val key = keyOf(topicId, topicPartition.partition)
+    if ((numOffsets + 1) * 4 > keys.length * 3)
+      resize(math.max(MinCapacity, keys.length * 2))
+
+    var index = slotOf(key)
+    while (keys(index) != EmptyKey && keys(index) != key)
+      index = (index + 1) & (keys.length - 1)
+    if (keys(index) == EmptyKey) {
+      keys(index) = key
+      numOffsets += 1
+      topicOffsetCounts(topicId) += 1
+    }
+
+    val offsetAndMetadata = commit.offsetAndMetadata
+    offsets(index) = offsetAndMetadata.offset
+    leaderEpochs(index) = offsetAndMetadata.leaderEpoch.orElse(RecordBatch.NO_PARTITION_LEADER_EPOCH)
+    commitTimestamps(index) = offsetAndMetadata.commitTimestamp
+    expireTimestamps(index) = offsetAndMetadata.expireTimestamp.getOrElse(OffsetCommitRequest.DEFAULT_TIMESTAMP)
+    appendedBatchOffsets(index) = commit.appendedBatchOffset.getOrElse(NoAppendedBatchOffset)
+    metadata(index) = internMetadata(offsetAndMetadata.metadata)
+  }
+
+  def remove(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = {
+    val index = indexOf(topicPartition)
+    if (index < 0) {
+      None
+    } else {
+      val commit = commitAt(index)
+      removeAt(index)
+      Some(commit)
+    }
+  }
+
+  def topicPartitions: Seq[TopicPartition] = {
+    val topicPartitions = new mutable.ArrayBuffer[TopicPartition](numOffsets)
+    for (index <- keys.indices if keys(index) != EmptyKey)
+      topicPartitions += topicPartitionAt(index)
+    topicPartitions
+  }
+
+  def offsetsAndMetadata: immutable.Map[TopicPartition, OffsetAndMetadata] = {
+    val builder = immutable.Map.newBuilder[TopicPartition, OffsetAndMetadata]
+    for (index <- keys.indices if keys(index) != EmptyKey)
+      builder += topicPartitionAt(index) -> offsetAndMetadataAt(index)
+    builder.result()
+  }
+
+  /**
+   * Returns the offsets which have expired at `currentTimestamp`, without materializing the other offsets. Offsets
+   * with an explicit expire timestamp expire at that time. Other offsets expire `offsetRetentionMs` after
+   * `stateTimestamp`, or after their commit if it is not defined. Offsets of `retainedTopics` never expire.
+   */
+  def expiredOffsets(currentTimestamp: Long,
+                     offsetRetentionMs: Long,
+                     stateTimestamp: Option[Long],
+                     retainedTopics: collection.Set[String]): immutable.Map[TopicPartition, OffsetAndMetadata] = {
+    val expiredOffsets = immutable.Map.newBuilder[TopicPartition, OffsetAndMetadata]
+    for (index <- keys.indices if keys(index) != EmptyKey) {
+      val expired = if (expireTimestamps(index) == OffsetCommitRequest.DEFAULT_TIMESTAMP)
+        // current version with no per partition retention
+        currentTimestamp - stateTimestamp.getOrElse(commitTimestamps(index)) >= offsetRetentionMs
+      else
+        // older versions with explicit expire_timestamp field => old expiration semantics is used
+        currentTimestamp >= expireTimestamps(index)
+      if (expired && !retainedTopics.contains(topics(topicIdOf(keys(index)))))
+        expiredOffsets += topicPartitionAt(index) -> offsetAndMetadataAt(index)
+    }
+    expiredOffsets.result()
+  }
+
+  /**
+   * The number of topics with offsets in this store
+   */
+  private[group] def numTopics: Int = topicIds.size
+
+  /**
+   * Returns the id of the topic, assigning one if the topic has no offsets in this store yet
+   */
+  private def assignTopicId(topic: String): Int = {
+    val id = existingTopicId(topic)
+    if (id >= 0) {
+      id
+    } else {
+      val newId = if (freeTopicIds.nonEmpty) {
+        freeTopicIds.remove(freeTopicIds.size - 1)
+      } else {
+        val newId = topics.length
+        topics = util.Arrays.copyOf(topics, math.max(MinCapacity, topics.length * 2))
+        topicOffsetCounts = util.Arrays.copyOf(topicOffsetCounts, topics.length)
+        freeTopicIds ++= (topics.length - 1 until newId by -1)
+        newId
+      }
+      topics(newId) = topic
+      topicIds.put(topic, newId)
+      newId
+    }
+  }
+
+  private def existingTopicId(topic: String): Int = {
+    val id = topicIds.get(topic)
+    if (id == null) -1 else id
+  }
+
+  /**
+   * Releases the id of a topic whose last offset has been removed
+   */
+  private def releaseTopicId(topicId: Int): Unit = {
+    topicIds.remove(topics(topicId))
+    topics(topicId) = null
+    freeTopicIds += topicId
+  }
+
+  private def indexOf(topicPartition: TopicPartition): Int = {
+    if (numOffsets == 0) {
+      -1
+    } else {
+      val id = existingTopicId(topicPartition.topic)
+      if (id < 0) {
+        -1
+      } else {
+        val key = keyOf(id, topicPartition.partition)
+        var index = slotOf(key)
+        while (keys(index) != EmptyKey && keys(index) != key)
+          index = (index + 1) & (keys.length - 1)
+        if (keys(index) == EmptyKey) -1 else index
+      }
+    }
+  }
+
+  private def slotOf(key: Long): Int = {
+    val hash = key * 0x9E3779B97F4A7C15L
+    (hash ^ (hash >>> 32)).toInt & (keys.length - 1)
+  }
+
+  private def topicPartitionAt(index: Int): TopicPartition =
+    new TopicPartition(topics(topicIdOf(keys(index))), partitionOf(keys(index)))
+
+  private def offsetAndMetadataAt(index: Int): OffsetAndMetadata = {
+    val leaderEpoch: Optional[Integer] =
+      if (leaderEpochs(index) < 0) Optional.empty() else Optional.of[Integer](leaderEpochs(index))
+    val expireTimestamp =
+      if (expireTimestamps(index) == OffsetCommitRequest.DEFAULT_TIMESTAMP) None else Some(expireTimestamps(index))
+    OffsetAndMetadata(offsets(index), leaderEpoch, metadata(index), commitTimestamps(index), expireTimestamp)
+  }
+
+  private def commitAt(index: Int): CommitRecordMetadataAndOffset = {
+    val appendedBatchOffset =
+      if (appendedBatchOffsets(index) == NoAppendedBatchOffset) None else Some(appendedBatchOffsets(index))
+    CommitRecordMetadataAndOffset(appendedBatchOffset, offsetAndMetadataAt(index))
+  }
+
+  /**
+   * Removes the entry at `index` and shifts back the entries following it which would otherwise no longer be reachable
+   * from their slot.
+   */
+  private def removeAt(index: Int): Unit = {
+    val topicId = topicIdOf(keys(index))
+    topicOffsetCounts(topicId) -= 1
+    if (topicOffsetCounts(topicId) == 0)
+      releaseTopicId(topicId)
+
+    val mask = keys.length - 1
+    var hole = index
+    var next = (index + 1) & mask
+    while (keys(next) != EmptyKey) {
+      val slot = slotOf(keys(next))
+      if (((next - slot) & mask) >= ((next - hole) & mask)) {
+        moveEntry(next, hole)
+        hole = next
+      }
+      next = (next + 1) & mask
+    }
+    keys(hole) = EmptyKey
+    metadata(hole) = null
+    numOffsets -= 1
+  }
+
+  private def moveEntry(from: Int, to: Int): Unit = {
+    keys(to) = keys(from)
+    offsets(to) = offsets(from)
+    leaderEpochs(to) = leaderEpochs(from)
+    commitTimestamps(to) = commitTimestamps(from)
+    expireTimestamps(to) = expireTimestamps(from)
+    appendedBatchOffsets(to) = appendedBatchOffsets(from)
+    metadata(to) = metadata(from)
+  }
+
+  private def resize(capacity: Int): Unit = {
+    val oldKeys = keys
+    val oldOffsets = offsets
+    val oldLeaderEpochs = leaderEpochs
+    val oldCommitTimestamps = commitTimestamps
+    val oldExpireTimestamps = expireTimestamps
+    val oldAppendedBatchOffsets = appendedBatchOffsets
+    val oldMetadata = metadata
+
+    keys = Array.fill(capacity)(EmptyKey)
+    offsets = new Array[Long](capacity)
+    leaderEpochs = new Array[Int](capacity)
+    commitTimestamps = new Array[Long](capacity)
+    expireTimestamps = new Array[Long](capacity)
+    appendedBatchOffsets = new Array[Long](capacity)
+    metadata = new Array[String](capacity)
+
+    for (oldIndex <- oldKeys.indices if oldKeys(oldIndex) != EmptyKey) {
+      var index = slotOf(oldKeys(oldIndex))
+      while (keys(index) != EmptyKey)
+        index = (index + 1) & (capacity - 1)
+      keys(index) = oldKeys(oldIndex)
+      offsets(index) = oldOffsets(oldIndex)
+      leaderEpochs(index) = oldLeaderEpochs(oldIndex)
+      commitTimestamps(index) = oldCommitTimestamps(oldIndex)
+      expireTimestamps(index) = oldExpireTimestamps(oldIndex)
+      appendedBatchOffsets(index) = oldAppendedBatchOffsets(oldIndex)
+      metadata(index) = oldMetadata(oldIndex)
+    }
+  }
+}
+
+private[group] object OffsetStore {
+  private val EmptyKey = -1L
+  private val NoAppendedBatchOffset = -1L
+  private val MinCapacity = 2
+
+  private val internedMetadata = new util.WeakHashMap[String, WeakReference[String]]
+
+  private def keyOf(topicId: Int, partition: Int): Long = (topicId.toLong << 32) | (partition & 0xFFFFFFFFL)
+
+  private def topicIdOf(key: Long): Int = (key >>> 32).toInt
+
+  private def partitionOf(key: Long): Int = key.toInt
+
+  /**
+   * Returns a canonical instance of the metadata string. Most commits have no metadata, and the commits that do
+   * usually repeat the same metadata for every partition.
+   */
+  def internMetadata(metadata: String): String = {
+    if (metadata == null || metadata.isEmpty) {
+      OffsetAndMetadata.NoMetadata
+    } else {
+      internedMetadata.synchronized {
+        val ref = internedMetadata.get(metadata)
+        val interned = if (ref == null) null else ref.get
+        if (interned != null) {
+          interned
+        } else {
+          internedMetadata.put(metadata, new WeakReference(metadata))
+          metadata
+        }
+      }
+    }
+  }
+}
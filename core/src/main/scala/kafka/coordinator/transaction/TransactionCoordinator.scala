@@ -46,6 +46,8 @@ object TransactionCoordinator {
       config.transactionTopicReplicationFactor,
       config.transactionTopicSegmentBytes,
       config.transactionsLoadBufferSize,
+      config.transactionsLoadThreads,
+      config.transactionsAppendBatchBytes,
       config.transactionTopicMinISR,
       config.transactionAbortTimedOutTransactionCleanupIntervalMs,
       config.transactionRemoveExpiredTransactionalIdCleanupIntervalMs,
@@ -535,6 +537,7 @@ class TransactionCoordinator(brokerId: Int,
   def startup(enableTransactionalIdExpiration: Boolean = true): Unit = {
     info("Starting up.")
     scheduler.startup()
+    txnManager.startup()
     scheduler.schedule("transaction-abort",
       () => abortTimedOutTransactions,
       txnConfig.abortTimedOutTransactionsIntervalMs,
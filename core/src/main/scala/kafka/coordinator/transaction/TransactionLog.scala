@@ -45,6 +45,7 @@ object TransactionLog {
   val DefaultReplicationFactor: Short = 3.toShort
   val DefaultMinInSyncReplicas: Int = 2
   val DefaultLoadBufferSize: Int = 5 * 1024 * 1024
+  val DefaultLoadThreads: Int = 1
 
   // enforce always using
   //  1. cleanup policy = compact
@@ -54,6 +55,9 @@ object TransactionLog {
   val EnforcedCompressionType: CompressionType = CompressionType.NONE
   val EnforcedRequiredAcks: Short = (-1).toShort
 
+  // the default soft limit on the size of the records appended to a partition at once when coalescing appends
+  val DefaultAppendBatchBytes: Int = 64 * 1024
+
   // log message formats
 
   private object KeySchema {
@@ -204,7 +208,18 @@ object TransactionLog {
     *
     * @return a transaction metadata object from the message
     */
-  def readTxnRecordValue(transactionalId: String, buffer: ByteBuffer): Option[TransactionMetadata] = {
+  def readTxnRecordValue(transactionalId: String, buffer: ByteBuffer): Option[TransactionMetadata] =
+    readTxnRecordValue(transactionalId, buffer, identity)
+
+  /**
+    * Decodes the transaction log message value for the given transactional id. The partitions of the transaction
+    * are passed through `internTopicPartition` so that transactions loaded together can share their partition instances.
+    *
+    * @return None if the value is a tombstone
+    */
+  def readTxnRecordValue(transactionalId: String,
+                         buffer: ByteBuffer,
+                         internTopicPartition: TopicPartition => TopicPartition): Option[TransactionMetadata] = {
     if (buffer == null) { // tombstone
       None
     } else {
@@ -236,7 +251,7 @@ object TransactionLog {
 
             val topicPartitions = partitionIdArray.map { partitionIdObj =>
               val partitionId = partitionIdObj.asInstanceOf[Integer]
-              new TopicPartition(topic, partitionId)
+              internTopicPartition(new TopicPartition(topic, partitionId))
             }
 
             transactionMetadata.addPartitions(topicPartitions.toSet)
@@ -141,11 +141,21 @@ class TransactionMarkerChannelManager(config: KafkaConfig,
 
   private val txnLogAppendRetryQueue = new LinkedBlockingQueue[TxnLogAppend]()
 
+  // completed transactions whose markers have been written, they are appended to the transaction log together
+  private val pendingTxnLogAppends = new LinkedBlockingQueue[TxnLogAppend]()
+
+  // the brokers with a marker request in flight, markers for these brokers are queued until the request completes
+  // so that the next request carries all the markers queued in the meantime
+  private val brokersWithInFlightRequest = ConcurrentHashMap.newKeySet[Int]()
+
   override val requestTimeoutMs: Int = config.requestTimeoutMs
 
   newGauge("UnknownDestinationQueueSize", () => markersQueueForUnknownBroker.totalNumMarkers)
   newGauge("LogAppendRetryQueueSize", () => txnLogAppendRetryQueue.size)
 
+  private val markersPerRequestHist = newHistogram("MarkersPerRequest")
+  private val transactionCompletionTimeHist = newHistogram("TransactionCompletionTimeMs")
+
   override def generateRequests() = drainQueuedTransactionMarkers()
 
   override def shutdown(): Unit = {
@@ -176,12 +186,19 @@ class TransactionMarkerChannelManager(config: KafkaConfig,
   }
 
   def retryLogAppends(): Unit = {
-    val txnLogAppendRetries: java.util.List[TxnLogAppend] = new util.ArrayList[TxnLogAppend]()
-    txnLogAppendRetryQueue.drainTo(txnLogAppendRetries)
-    txnLogAppendRetries.asScala.foreach { txnLogAppend =>
+    val txnLogAppends: java.util.List[TxnLogAppend] = new util.ArrayList[TxnLogAppend]()
+    txnLogAppendRetryQueue.drainTo(txnLogAppends)
+    txnLogAppends.asScala.foreach { txnLogAppend =>
       debug(s"Retry appending $txnLogAppend transaction log")
-      tryAppendToLog(txnLogAppend)
     }
+    pendingTxnLogAppends.drainTo(txnLogAppends)
+    if (!txnLogAppends.isEmpty)
+      tryAppendToLog(txnLogAppends.asScala)
+  }
+
+  private[transaction] def completeRequestToBroker(brokerId: Int): Unit = {
+    brokersWithInFlightRequest.remove(brokerId)
+    wakeup()
   }
 
   private[transaction] def drainQueuedTransactionMarkers(): Iterable[RequestAndCompletionHandler] = {
@@ -202,7 +219,9 @@ class TransactionMarkerChannelManager(config: KafkaConfig,
       addTxnMarkersToBrokerQueue(transactionalId, producerId, producerEpoch, txnResult, coordinatorEpoch, topicPartitions)
     }
 
-    markersQueuePerBroker.values.map { brokerRequestQueue =>
+    markersQueuePerBroker.values.filter { brokerRequestQueue =>
+      !brokersWithInFlightRequest.contains(brokerRequestQueue.destination.id)
+    }.map { brokerRequestQueue =>
       val txnIdAndMarkerEntries = new util.ArrayList[TxnIdAndMarkerEntry]()
       brokerRequestQueue.forEachTxnTopicPartition { case (_, queue) =>
         queue.drainTo(txnIdAndMarkerEntries)
@@ -211,6 +230,8 @@ class TransactionMarkerChannelManager(config: KafkaConfig,
     }.filter { case (_, entries) => !entries.isEmpty }.map { case (node, entries) =>
       val markersToSend = entries.asScala.map(_.txnMarkerEntry).asJava
       val requestCompletionHandler = new TransactionMarkerRequestCompletionHandler(node.id, txnStateManager, this, entries)
+      brokersWithInFlightRequest.add(node.id)
+      markersPerRequestHist.update(entries.size)
       RequestAndCompletionHandler(node, new WriteTxnMarkersRequest.Builder(markersToSend), requestCompletionHandler)
     }
   }
@@ -241,7 +262,9 @@ class TransactionMarkerChannelManager(config: KafkaConfig,
               if (epochAndMetadata.coordinatorEpoch == coordinatorEpoch) {
                 debug(s"Sending $transactionalId's transaction markers for $txnMetadata with coordinator epoch $coordinatorEpoch succeeded, trying to append complete transaction log now")
 
-                tryAppendToLog(TxnLogAppend(transactionalId, coordinatorEpoch, txnMetadata, newMetadata))
+                // the completed transactions are appended to the transaction log together by the sender thread
+                pendingTxnLogAppends.add(TxnLogAppend(transactionalId, coordinatorEpoch, txnMetadata, newMetadata))
+                wakeup()
               } else {
                 info(s"The cached metadata $txnMetadata has changed to $epochAndMetadata after completed sending the markers with coordinator " +
                   s"epoch $coordinatorEpoch; abort transiting the metadata to $newMetadata as it may have been updated by another process")
@@ -267,12 +290,13 @@ class TransactionMarkerChannelManager(config: KafkaConfig,
     addTxnMarkersToBrokerQueue(transactionalId, txnMetadata.producerId, txnMetadata.producerEpoch, txnResult, coordinatorEpoch, txnMetadata.topicPartitions.toSet)
   }
 
-  private def tryAppendToLog(txnLogAppend: TxnLogAppend) = {
+  private def tryAppendToLog(txnLogAppends: Iterable[TxnLogAppend]): Unit = {
     // try to append to the transaction log
-    def appendCallback(error: Errors): Unit =
+    def appendCallback(txnLogAppend: TxnLogAppend)(error: Errors): Unit =
       error match {
         case Errors.NONE =>
           trace(s"Completed transaction for ${txnLogAppend.transactionalId} with coordinator epoch ${txnLogAppend.coordinatorEpoch}, final state after commit: ${txnLogAppend.txnMetadata.state}")
+          transactionCompletionTimeHist.update(time.milliseconds() - txnLogAppend.newMetadata.txnLastUpdateTimestamp)
 
         case Errors.NOT_COORDINATOR =>
           info(s"No longer the coordinator for transactionalId: ${txnLogAppend.transactionalId} while trying to append to transaction log, skip writing to transaction log")
@@ -294,8 +318,10 @@ class TransactionMarkerChannelManager(config: KafkaConfig,
           throw new IllegalStateException(errorMsg)
       }
 
-    txnStateManager.appendTransactionToLog(txnLogAppend.transactionalId, txnLogAppend.coordinatorEpoch, txnLogAppend.newMetadata, appendCallback,
-      _ == Errors.COORDINATOR_NOT_AVAILABLE)
+    txnStateManager.appendTransactionsToLog(txnLogAppends.map { txnLogAppend =>
+      TransactionLogAppend(txnLogAppend.transactionalId, txnLogAppend.coordinatorEpoch, txnLogAppend.newMetadata,
+        appendCallback(txnLogAppend), _ == Errors.COORDINATOR_NOT_AVAILABLE)
+    })
   }
 
   def addTxnMarkersToBrokerQueue(transactionalId: String, producerId: Long, producerEpoch: Short,
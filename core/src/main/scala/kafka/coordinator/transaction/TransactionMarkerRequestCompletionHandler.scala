@@ -36,6 +36,9 @@ class TransactionMarkerRequestCompletionHandler(brokerId: Int,
   override def onComplete(response: ClientResponse): Unit = {
     val requestHeader = response.requestHeader
     val correlationId = requestHeader.correlationId
+    // markers queued for the broker in the meantime can be sent now
+    txnMarkerChannelManager.completeRequestToBroker(brokerId)
+
     if (response.wasDisconnected) {
       trace(s"Cancelled request with header $requestHeader due to node ${response.destination} being disconnected")
 
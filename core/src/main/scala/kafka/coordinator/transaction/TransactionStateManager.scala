@@ -18,19 +18,19 @@ package kafka.coordinator.transaction
 
 import java.nio.ByteBuffer
 import java.util.Properties
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, TimeUnit}
 import java.util.concurrent.atomic.AtomicBoolean
-import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.concurrent.locks.{ReentrantLock, ReentrantReadWriteLock}
 
 import kafka.api.ApiVersion
-import kafka.log.{AppendOrigin, LogConfig}
+import kafka.log.{AppendOrigin, Log, LogConfig}
 import kafka.message.UncompressedCodec
 import kafka.server.{Defaults, FetchLogEnd, ReplicaManager}
 import kafka.utils.CoreUtils.{inReadLock, inWriteLock}
-import kafka.utils.{Logging, Pool, Scheduler}
+import kafka.utils.{KafkaScheduler, Logging, Pool, Scheduler}
 import kafka.zk.KafkaZkClient
 import org.apache.kafka.common.internals.Topic
-import org.apache.kafka.common.metrics.Metrics
+import org.apache.kafka.common.metrics.{Measurable, Metrics}
 import org.apache.kafka.common.metrics.stats.{Avg, Max}
 import org.apache.kafka.common.protocol.Errors
 import org.apache.kafka.common.record.{FileRecords, MemoryRecords, SimpleRecord}
@@ -99,6 +99,18 @@ class TransactionStateManager(brokerId: Int,
   /** number of partitions for the transaction log topic */
   private val transactionTopicPartitionCount = getTransactionTopicPartitionCount
 
+  /** schedulers loading and unloading transaction topic partitions. A partition is always handled by the same
+   * scheduler so that its loads and unloads are applied in order, while different partitions can be loaded in
+   * parallel. With a single load thread, partitions are loaded by the scheduler of the coordinator */
+  private val loadSchedulers: Seq[Scheduler] =
+    if (config.transactionLogLoadThreads == 1) Seq(scheduler)
+    else (0 until config.transactionLogLoadThreads).map { i =>
+      new KafkaScheduler(threads = 1, threadNamePrefix = s"transaction-log-loader-$i-")
+    }
+
+  /** time it took to load each transaction topic partition owned by this broker, exposed as a metric per partition */
+  private val partitionLoadTimes = new ConcurrentHashMap[Int, java.lang.Long]()
+
   /** setup metrics*/
   private val partitionLoadSensor = metrics.sensor("PartitionLoadTime")
 
@@ -109,6 +121,21 @@ class TransactionStateManager(brokerId: Int,
     "transaction-coordinator-metrics",
     "The avg time it took to load the partitions in the last 30sec"), new Avg())
 
+  private val logAppendBatchSizeSensor = metrics.sensor("TransactionLogAppendBatchSize")
+
+  logAppendBatchSizeSensor.add(metrics.metricName("transaction-log-append-batch-size-max",
+    "transaction-coordinator-metrics",
+    "The max number of transactions appended to the transaction log at once in the last 30sec"), new Max())
+  logAppendBatchSizeSensor.add(metrics.metricName("transaction-log-append-batch-size-avg",
+    "transaction-coordinator-metrics",
+    "The avg number of transactions appended to the transaction log at once in the last 30sec"), new Avg())
+
+  /** transaction log appends waiting for the thread holding the append lock */
+  private val pendingLogAppends = new ConcurrentLinkedQueue[TransactionLogAppend]()
+
+  /** lock held by the thread appending to the transaction log for all queued appends */
+  private val logAppendLock = new ReentrantLock()
+
   // visible for testing only
   private[transaction] def addLoadingPartition(partitionId: Int, coordinatorEpoch: Int): Unit = {
     val partitionAndLeaderEpoch = TransactionPartitionAndLeaderEpoch(partitionId, coordinatorEpoch)
@@ -120,6 +147,37 @@ class TransactionStateManager(brokerId: Int,
   }
   private[transaction] def stateReadLock = stateLock.readLock
 
+  private def loadSchedulerFor(txnTopicPartition: Int): Scheduler = loadSchedulers(txnTopicPartition % loadSchedulers.size)
+
+  private def partitionLoadTimeMetricName(txnTopicPartition: Int) = metrics.metricName("partition-load-time",
+    "transaction-coordinator-metrics",
+    "The time it took to load the transaction metadata of the partition",
+    Map("partition" -> txnTopicPartition.toString).asJava)
+
+  private def recordPartitionLoadTime(txnTopicPartition: Int, timeMs: Long): Unit = {
+    if (partitionLoadTimes.put(txnTopicPartition, timeMs) == null) {
+      val loadTime: Measurable = (_, _) => {
+        val timeMs = partitionLoadTimes.get(txnTopicPartition)
+        if (timeMs == null) Double.NaN else timeMs.doubleValue
+      }
+      metrics.addMetric(partitionLoadTimeMetricName(txnTopicPartition), loadTime)
+    }
+  }
+
+  private def removePartitionLoadTime(txnTopicPartition: Int): Unit = {
+    if (partitionLoadTimes.remove(txnTopicPartition) != null)
+      metrics.removeMetric(partitionLoadTimeMetricName(txnTopicPartition))
+  }
+
+  /**
+   * Starts the schedulers loading transaction topic partitions, unless partitions are loaded by the scheduler
+   * of the coordinator
+   */
+  def startup(): Unit = {
+    if (config.transactionLogLoadThreads > 1)
+      loadSchedulers.foreach(_.startup())
+  }
+
   // this is best-effort expiration of an ongoing transaction which has been open for more than its
   // txn timeout value, we do not need to grab the lock on the metadata object upon checking its state
   // since the timestamp is volatile and we will get the lock when actually trying to transit the transaction
@@ -298,8 +356,10 @@ class TransactionStateManager(brokerId: Int,
   private def loadTransactionMetadata(topicPartition: TopicPartition, coordinatorEpoch: Int): Pool[String, TransactionMetadata] =  {
     def logEndOffset = replicaManager.getLogEndOffset(topicPartition).getOrElse(-1L)
 
-    val startMs = time.milliseconds()
     val loadedTransactions = new Pool[String, TransactionMetadata]
+    // the transactions of a partition usually write to the same partitions, so share their instances
+    val topicPartitions = mutable.Map.empty[TopicPartition, TopicPartition]
+    val internTopicPartition = (topicPartition: TopicPartition) => topicPartitions.getOrElseUpdate(topicPartition, topicPartition)
 
     replicaManager.getLog(topicPartition) match {
       case None =>
@@ -348,12 +408,12 @@ class TransactionStateManager(brokerId: Int,
             }
 
             memRecords.batches.asScala.foreach { batch =>
-              for (record <- batch.asScala) {
+              for (record <- Log.readRecords(batch, log.zstdDictionaries)) {
                 require(record.hasKey, "Transaction state log's key should not be null")
                 val txnKey = TransactionLog.readTxnRecordKey(record.key)
                 // load transaction metadata along with transaction state
                 val transactionalId = txnKey.transactionalId
-                TransactionLog.readTxnRecordValue(transactionalId, record.value) match {
+                TransactionLog.readTxnRecordValue(transactionalId, record.value, internTopicPartition) match {
                   case None =>
                     loadedTransactions.remove(transactionalId)
                   case Some(txnMetadata) =>
@@ -362,10 +422,6 @@ class TransactionStateManager(brokerId: Int,
                 currOffset = batch.nextOffset
               }
             }
-            val endMs = time.milliseconds()
-            val timeLapse = endMs - startMs
-            partitionLoadSensor.record(timeLapse, endMs, false)
-            info(s"Finished loading ${loadedTransactions.size} transaction metadata from $topicPartition in $timeLapse milliseconds")
           }
         } catch {
           case t: Throwable => error(s"Error loading transactions from transaction log $topicPartition", t)
@@ -408,11 +464,17 @@ class TransactionStateManager(brokerId: Int,
       info(s"Loading transaction metadata from $topicPartition at epoch $coordinatorEpoch")
       validateTransactionTopicPartitionCountIsStable()
 
+      val startMs = time.milliseconds()
       val loadedTransactions = loadTransactionMetadata(topicPartition, coordinatorEpoch)
+      val endMs = time.milliseconds()
+      val timeLapse = endMs - startMs
+      partitionLoadSensor.record(timeLapse, endMs, false)
+      info(s"Finished loading ${loadedTransactions.size} transaction metadata from $topicPartition in $timeLapse milliseconds")
 
       inWriteLock(stateLock) {
         if (loadingPartitions.contains(partitionAndLeaderEpoch)) {
           addLoadedTransactionsToCache(topicPartition.partition, coordinatorEpoch, loadedTransactions)
+          recordPartitionLoadTime(partitionId, timeLapse)
 
           val transactionsPendingForCompletion = new mutable.ListBuffer[TransactionalIdCoordinatorEpochAndTransitMetadata]
           loadedTransactions.foreach {
@@ -446,7 +508,7 @@ class TransactionStateManager(brokerId: Int,
       info(s"Completed loading transaction metadata from $topicPartition for coordinator epoch $coordinatorEpoch")
     }
 
-    scheduler.schedule(s"load-txns-for-partition-$topicPartition", () => loadTransactions)
+    loadSchedulerFor(partitionId).schedule(s"load-txns-for-partition-$topicPartition", () => loadTransactions)
   }
 
   /**
@@ -473,12 +535,13 @@ class TransactionStateManager(brokerId: Int,
               info(s"No cached transaction metadata found for $topicPartition during become-follower transition")
           }
 
+          removePartitionLoadTime(partitionId)
           leavingPartitions.remove(partitionAndLeaderEpoch)
         }
       }
     }
 
-    scheduler.schedule(s"remove-txns-for-partition-$topicPartition", () => removeTransactions)
+    loadSchedulerFor(partitionId).schedule(s"remove-txns-for-partition-$topicPartition", () => removeTransactions)
   }
 
   private def validateTransactionTopicPartitionCountIsStable(): Unit = {
@@ -492,169 +555,245 @@ class TransactionStateManager(brokerId: Int,
                              newMetadata: TxnTransitMetadata,
                              responseCallback: Errors => Unit,
                              retryOnError: Errors => Boolean = _ => false): Unit = {
+    appendTransactionsToLog(Seq(TransactionLogAppend(transactionalId, coordinatorEpoch, newMetadata, responseCallback, retryOnError)))
+  }
 
-    // generate the message for this transaction metadata
-    val keyBytes = TransactionLog.keyToBytes(transactionalId)
-    val valueBytes = TransactionLog.valueToBytes(newMetadata)
-    val timestamp = time.milliseconds()
-
-    val records = MemoryRecords.withRecords(TransactionLog.EnforcedCompressionType, new SimpleRecord(timestamp, keyBytes, valueBytes))
-    val topicPartition = new TopicPartition(Topic.TRANSACTION_STATE_TOPIC_NAME, partitionFor(transactionalId))
-    val recordsPerPartition = Map(topicPartition -> records)
-
-    // set the callback function to update transaction status in cache after log append completed
-    def updateCacheCallback(responseStatus: collection.Map[TopicPartition, PartitionResponse]): Unit = {
-      // the append response should only contain the topics partition
-      if (responseStatus.size != 1 || !responseStatus.contains(topicPartition))
-        throw new IllegalStateException("Append status %s should only have one partition %s"
-          .format(responseStatus, topicPartition))
-
-      val status = responseStatus(topicPartition)
+  /**
+   * Appends the new metadata of several transactions to the transaction log. The records of the transactions in the
+   * same transaction topic partition are written in one batch, and one log append is done for all partitions.
+   *
+   * Appends requested concurrently by other threads are coalesced as well: appends are queued, and the thread that
+   * gets to append to the log appends the transactions queued by all threads while the others return immediately.
+   * Each log append takes the queued transactions until the batch of one partition would exceed
+   * `transactionLogAppendBatchBytes`, so the appending thread does several bounded appends if many are queued.
+   * The response callback of every transaction is invoked once its own record has been appended or failed.
+   */
+  def appendTransactionsToLog(appends: Iterable[TransactionLogAppend]): Unit = {
+    appends.foreach(pendingLogAppends.add)
+    // the queue is checked again after releasing the lock since other threads may have queued appends
+    // which they left to this thread while it was holding the lock
+    while (!pendingLogAppends.isEmpty && logAppendLock.tryLock()) {
+      try {
+        appendToLog(pollPendingAppends())
+      } finally {
+        logAppendLock.unlock()
+      }
+    }
+  }
 
-      var responseError = if (status.error == Errors.NONE) {
-        Errors.NONE
+  /**
+   * Takes the queued appends in order until the records of one transaction topic partition would exceed
+   * `transactionLogAppendBatchBytes`. The first record of a partition is always taken. This must be called while
+   * holding `logAppendLock`, so that no other thread polls the queue between `peek` and `poll`.
+   */
+  private def pollPendingAppends(): Seq[(TransactionLogAppend, SimpleRecord)] = {
+    val timestamp = time.milliseconds()
+    val polled = mutable.ArrayBuffer[(TransactionLogAppend, SimpleRecord)]()
+    val batchSizes = mutable.Map[Int, Int]()
+    var batchFull = false
+    var append = pendingLogAppends.peek()
+    while (append != null && !batchFull) {
+      val record = new SimpleRecord(timestamp, TransactionLog.keyToBytes(append.transactionalId),
+        TransactionLog.valueToBytes(append.newMetadata))
+      val recordSize = record.key.remaining + record.value.remaining
+      val partitionId = partitionFor(append.transactionalId)
+      val batchSize = batchSizes.getOrElse(partitionId, 0)
+      if (batchSize > 0 && batchSize + recordSize > config.transactionLogAppendBatchBytes) {
+        batchFull = true
       } else {
-        debug(s"Appending $transactionalId's new metadata $newMetadata failed due to ${status.error.exceptionName}")
-
-        // transform the log append error code to the corresponding coordinator error code
-        status.error match {
-          case Errors.UNKNOWN_TOPIC_OR_PARTITION
-               | Errors.NOT_ENOUGH_REPLICAS
-               | Errors.NOT_ENOUGH_REPLICAS_AFTER_APPEND
-               | Errors.REQUEST_TIMED_OUT => // note that for timed out request we return NOT_AVAILABLE error code to let client retry
-            Errors.COORDINATOR_NOT_AVAILABLE
-
-          case Errors.NOT_LEADER_FOR_PARTITION
-               | Errors.KAFKA_STORAGE_ERROR =>
-            Errors.NOT_COORDINATOR
-
-          case Errors.MESSAGE_TOO_LARGE
-               | Errors.RECORD_LIST_TOO_LARGE =>
-            Errors.UNKNOWN_SERVER_ERROR
-
-          case other =>
-            other
-        }
+        pendingLogAppends.poll()
+        polled += append -> record
+        batchSizes.put(partitionId, batchSize + recordSize)
+        append = pendingLogAppends.peek()
       }
+    }
+    polled
+  }
 
-      if (responseError == Errors.NONE) {
-        // now try to update the cache: we need to update the status in-place instead of
-        // overwriting the whole object to ensure synchronization
-        getTransactionState(transactionalId) match {
-
+  private def appendToLog(appends: Seq[(TransactionLogAppend, SimpleRecord)]): Unit = {
+    inReadLock(stateLock) {
+      // we need to hold the read lock on the transaction metadata cache until appending to local log returns;
+      // this is to avoid the case where an emigration followed by an immigration could have completed after the check
+      // returns and before appendRecords() is called, since otherwise entries with a high coordinator epoch could have
+      // been appended to the log in between these two events, and therefore appendRecords() would append entries with
+      // an old coordinator epoch that can still be successfully replicated on followers and make the log in a bad state.
+      val validAppends = appends.filter { case (append, _) =>
+        getTransactionState(append.transactionalId) match {
           case Left(err) =>
-            info(s"Accessing the cached transaction metadata for $transactionalId returns $err error; " +
-              s"aborting transition to the new metadata and setting the error in the callback")
-            responseError = err
+            append.responseCallback(err)
+            false
+
+          case Right(None) =>
+            // the coordinator metadata has been removed, reply to client immediately with NOT_COORDINATOR
+            append.responseCallback(Errors.NOT_COORDINATOR)
+            false
+
           case Right(Some(epochAndMetadata)) =>
             val metadata = epochAndMetadata.transactionMetadata
 
             metadata.inLock {
-              if (epochAndMetadata.coordinatorEpoch != coordinatorEpoch) {
-                // the cache may have been changed due to txn topic partition emigration and immigration,
-                // in this case directly return NOT_COORDINATOR to client and let it to re-discover the transaction coordinator
-                info(s"The cached coordinator epoch for $transactionalId has changed to ${epochAndMetadata.coordinatorEpoch} after appended its new metadata $newMetadata " +
-                  s"to the transaction log (txn topic partition ${partitionFor(transactionalId)}) while it was $coordinatorEpoch before appending; " +
-                  s"aborting transition to the new metadata and returning ${Errors.NOT_COORDINATOR} in the callback")
-                responseError = Errors.NOT_COORDINATOR
+              if (epochAndMetadata.coordinatorEpoch != append.coordinatorEpoch) {
+                // the coordinator epoch has changed, reply to client immediately with NOT_COORDINATOR
+                append.responseCallback(Errors.NOT_COORDINATOR)
+                false
               } else {
-                metadata.completeTransitionTo(newMetadata)
-                debug(s"Updating $transactionalId's transaction state to $newMetadata with coordinator epoch $coordinatorEpoch for $transactionalId succeeded")
+                // do not need to check the metadata object itself since no concurrent thread should be able to modify it
+                // under the same coordinator epoch, so directly append to txn log now
+                true
               }
             }
+        }
+      }
 
-          case Right(None) =>
-            // this transactional id no longer exists, maybe the corresponding partition has already been migrated out.
-            // return NOT_COORDINATOR to let the client re-discover the transaction coordinator
-            info(s"The cached coordinator metadata does not exist in the cache anymore for $transactionalId after appended its new metadata $newMetadata " +
-              s"to the transaction log (txn topic partition ${partitionFor(transactionalId)}) while it was $coordinatorEpoch before appending; " +
-              s"aborting transition to the new metadata and returning ${Errors.NOT_COORDINATOR} in the callback")
-            responseError = Errors.NOT_COORDINATOR
+      if (validAppends.nonEmpty) {
+        val batches = validAppends.groupBy { case (append, _) => partitionFor(append.transactionalId) }.map { case (partitionId, batch) =>
+          new TopicPartition(Topic.TRANSACTION_STATE_TOPIC_NAME, partitionId) -> batch
+        }
+        val recordsPerPartition = batches.map { case (topicPartition, batch) =>
+          topicPartition -> MemoryRecords.withRecords(TransactionLog.EnforcedCompressionType, batch.map(_._2): _*)
         }
-      } else {
-        // Reset the pending state when returning an error, since there is no active transaction for the transactional id at this point.
-        getTransactionState(transactionalId) match {
-          case Right(Some(epochAndTxnMetadata)) =>
-            val metadata = epochAndTxnMetadata.transactionMetadata
-            metadata.inLock {
-              if (epochAndTxnMetadata.coordinatorEpoch == coordinatorEpoch) {
-                if (retryOnError(responseError)) {
-                  info(s"TransactionalId ${metadata.transactionalId} append transaction log for $newMetadata transition failed due to $responseError, " +
-                    s"not resetting pending state ${metadata.pendingState} but just returning the error in the callback to let the caller retry")
-                } else {
-                  info(s"TransactionalId ${metadata.transactionalId} append transaction log for $newMetadata transition failed due to $responseError, " +
-                    s"resetting pending state from ${metadata.pendingState}, aborting state transition and returning $responseError in the callback")
 
-                  metadata.pendingState = None
-                }
-              } else {
-                info(s"TransactionalId ${metadata.transactionalId} append transaction log for $newMetadata transition failed due to $responseError, " +
-                  s"aborting state transition and returning the error in the callback since the coordinator epoch has changed from ${epochAndTxnMetadata.coordinatorEpoch} to $coordinatorEpoch")
-              }
-            }
+        // set the callback function to update transaction status in cache after log append completed
+        def updateCacheCallback(responseStatus: collection.Map[TopicPartition, PartitionResponse]): Unit = {
+          // the append response should only contain the appended partitions
+          if (responseStatus.keySet != batches.keySet)
+            throw new IllegalStateException("Append status %s should only have partitions %s"
+              .format(responseStatus, batches.keySet))
 
-          case Right(None) =>
-            // Do nothing here, since we want to return the original append error to the user.
-            info(s"TransactionalId $transactionalId append transaction log for $newMetadata transition failed due to $responseError, " +
-              s"aborting state transition and returning the error in the callback since metadata is not available in the cache anymore")
-
-          case Left(error) =>
-            // Do nothing here, since we want to return the original append error to the user.
-            info(s"TransactionalId $transactionalId append transaction log for $newMetadata transition failed due to $responseError, " +
-              s"aborting state transition and returning the error in the callback since retrieving metadata returned $error")
+          batches.foreach { case (topicPartition, batch) =>
+            batch.foreach { case (append, _) => completeLogAppend(append, responseStatus(topicPartition)) }
+          }
         }
 
+        logAppendBatchSizeSensor.record(validAppends.size)
+        replicaManager.appendRecords(
+          validAppends.map(_._1.newMetadata.txnTimeoutMs).max.toLong,
+          TransactionLog.EnforcedRequiredAcks,
+          internalTopicsAllowed = true,
+          origin = AppendOrigin.Coordinator,
+          recordsPerPartition,
+          updateCacheCallback,
+          delayedProduceLock = Some(stateLock.readLock))
+
+        validAppends.foreach { case (append, _) =>
+          trace(s"Appending new metadata ${append.newMetadata} for transaction id ${append.transactionalId} with " +
+            s"coordinator epoch ${append.coordinatorEpoch} to the local transaction log")
+        }
       }
+    }
+  }
 
-      responseCallback(responseError)
+  private def completeLogAppend(append: TransactionLogAppend, status: PartitionResponse): Unit = {
+    val transactionalId = append.transactionalId
+    val coordinatorEpoch = append.coordinatorEpoch
+    val newMetadata = append.newMetadata
+
+    var responseError = if (status.error == Errors.NONE) {
+      Errors.NONE
+    } else {
+      debug(s"Appending $transactionalId's new metadata $newMetadata failed due to ${status.error.exceptionName}")
+
+      // transform the log append error code to the corresponding coordinator error code
+      status.error match {
+        case Errors.UNKNOWN_TOPIC_OR_PARTITION
+             | Errors.NOT_ENOUGH_REPLICAS
+             | Errors.NOT_ENOUGH_REPLICAS_AFTER_APPEND
+             | Errors.REQUEST_TIMED_OUT => // note that for timed out request we return NOT_AVAILABLE error code to let client retry
+          Errors.COORDINATOR_NOT_AVAILABLE
+
+        case Errors.NOT_LEADER_FOR_PARTITION
+             | Errors.KAFKA_STORAGE_ERROR =>
+          Errors.NOT_COORDINATOR
+
+        case Errors.MESSAGE_TOO_LARGE
+             | Errors.RECORD_LIST_TOO_LARGE =>
+          Errors.UNKNOWN_SERVER_ERROR
+
+        case other =>
+          other
+      }
     }
 
-    inReadLock(stateLock) {
-      // we need to hold the read lock on the transaction metadata cache until appending to local log returns;
-      // this is to avoid the case where an emigration followed by an immigration could have completed after the check
-      // returns and before appendRecords() is called, since otherwise entries with a high coordinator epoch could have
-      // been appended to the log in between these two events, and therefore appendRecords() would append entries with
-      // an old coordinator epoch that can still be successfully replicated on followers and make the log in a bad state.
+    if (responseError == Errors.NONE) {
+      // now try to update the cache: we need to update the status in-place instead of
+      // overwriting the whole object to ensure synchronization
       getTransactionState(transactionalId) match {
-        case Left(err) =>
-          responseCallback(err)
-
-        case Right(None) =>
-          // the coordinator metadata has been removed, reply to client immediately with NOT_COORDINATOR
-          responseCallback(Errors.NOT_COORDINATOR)
 
+        case Left(err) =>
+          info(s"Accessing the cached transaction metadata for $transactionalId returns $err error; " +
+            s"aborting transition to the new metadata and setting the error in the callback")
+          responseError = err
         case Right(Some(epochAndMetadata)) =>
           val metadata = epochAndMetadata.transactionMetadata
 
-          val append: Boolean = metadata.inLock {
+          metadata.inLock {
             if (epochAndMetadata.coordinatorEpoch != coordinatorEpoch) {
-              // the coordinator epoch has changed, reply to client immediately with NOT_COORDINATOR
-              responseCallback(Errors.NOT_COORDINATOR)
-              false
+              // the cache may have been changed due to txn topic partition emigration and immigration,
+              // in this case directly return NOT_COORDINATOR to client and let it to re-discover the transaction coordinator
+              info(s"The cached coordinator epoch for $transactionalId has changed to ${epochAndMetadata.coordinatorEpoch} after appended its new metadata $newMetadata " +
+                s"to the transaction log (txn topic partition ${partitionFor(transactionalId)}) while it was $coordinatorEpoch before appending; " +
+                s"aborting transition to the new metadata and returning ${Errors.NOT_COORDINATOR} in the callback")
+              responseError = Errors.NOT_COORDINATOR
             } else {
-              // do not need to check the metadata object itself since no concurrent thread should be able to modify it
-              // under the same coordinator epoch, so directly append to txn log now
-              true
+              metadata.completeTransitionTo(newMetadata)
+              debug(s"Updating $transactionalId's transaction state to $newMetadata with coordinator epoch $coordinatorEpoch for $transactionalId succeeded")
             }
           }
-          if (append) {
-            replicaManager.appendRecords(
-                newMetadata.txnTimeoutMs.toLong,
-                TransactionLog.EnforcedRequiredAcks,
-                internalTopicsAllowed = true,
-                origin = AppendOrigin.Coordinator,
-                recordsPerPartition,
-                updateCacheCallback,
-                delayedProduceLock = Some(stateLock.readLock))
-
-              trace(s"Appending new metadata $newMetadata for transaction id $transactionalId with coordinator epoch $coordinatorEpoch to the local transaction log")
+
+        case Right(None) =>
+          // this transactional id no longer exists, maybe the corresponding partition has already been migrated out.
+          // return NOT_COORDINATOR to let the client re-discover the transaction coordinator
+          info(s"The cached coordinator metadata does not exist in the cache anymore for $transactionalId after appended its new metadata $newMetadata " +
+            s"to the transaction log (txn topic partition ${partitionFor(transactionalId)}) while it was $coordinatorEpoch before appending; " +
+            s"aborting transition to the new metadata and returning ${Errors.NOT_COORDINATOR} in the callback")
+          responseError = Errors.NOT_COORDINATOR
+      }
+    } else {
+      // Reset the pending state when returning an error, since there is no active transaction for the transactional id at this point.
+      getTransactionState(transactionalId) match {
+        case Right(Some(epochAndTxnMetadata)) =>
+          val metadata = epochAndTxnMetadata.transactionMetadata
+          metadata.inLock {
+            if (epochAndTxnMetadata.coordinatorEpoch == coordinatorEpoch) {
+              if (append.retryOnError(responseError)) {
+                info(s"TransactionalId ${metadata.transactionalId} append transaction log for $newMetadata transition failed due to $responseError, " +
+                  s"not resetting pending state ${metadata.pendingState} but just returning the error in the callback to let the caller retry")
+              } else {
+                info(s"TransactionalId ${metadata.transactionalId} append transaction log for $newMetadata transition failed due to $responseError, " +
+                  s"resetting pending state from ${metadata.pendingState}, aborting state transition and returning $responseError in the callback")
+
+                metadata.pendingState = None
+              }
+            } else {
+              info(s"TransactionalId ${metadata.transactionalId} append transaction log for $newMetadata transition failed due to $responseError, " +
+                s"aborting state transition and returning the error in the callback since the coordinator epoch has changed from ${epochAndTxnMetadata.coordinatorEpoch} to $coordinatorEpoch")
+            }
           }
+
+        case Right(None) =>
+          // Do nothing here, since we want to return the original append error to the user.
+          info(s"TransactionalId $transactionalId append transaction log for $newMetadata transition failed due to $responseError, " +
+            s"aborting state transition and returning the error in the callback since metadata is not available in the cache anymore")
+
+        case Left(error) =>
+          // Do nothing here, since we want to return the original append error to the user.
+          info(s"TransactionalId $transactionalId append transaction log for $newMetadata transition failed due to $responseError, " +
+            s"aborting state transition and returning the error in the callback since retrieving metadata returned $error")
       }
+
     }
+
+    append.responseCallback(responseError)
   }
 
   def shutdown(): Unit = {
     shuttingDown.set(true)
+    if (config.transactionLogLoadThreads > 1) {
+      loadSchedulers.foreach { scheduler =>
+        if (scheduler.isStarted)
+          scheduler.shutdown()
+      }
+    }
     loadingPartitions.clear()
     transactionMetadataCache.clear()
 
@@ -679,11 +818,19 @@ private[transaction] case class TransactionConfig(transactionalIdExpirationMs: I
                                                   transactionLogReplicationFactor: Short = TransactionLog.DefaultReplicationFactor,
                                                   transactionLogSegmentBytes: Int = TransactionLog.DefaultSegmentBytes,
                                                   transactionLogLoadBufferSize: Int = TransactionLog.DefaultLoadBufferSize,
+                                                  transactionLogLoadThreads: Int = TransactionLog.DefaultLoadThreads,
+                                                  transactionLogAppendBatchBytes: Int = TransactionLog.DefaultAppendBatchBytes,
                                                   transactionLogMinInsyncReplicas: Int = TransactionLog.DefaultMinInSyncReplicas,
                                                   abortTimedOutTransactionsIntervalMs: Int = TransactionStateManager.DefaultAbortTimedOutTransactionsIntervalMs,
                                                   removeExpiredTransactionalIdsIntervalMs: Int = TransactionStateManager.DefaultRemoveExpiredTransactionalIdsIntervalMs,
                                                   requestTimeoutMs: Int = Defaults.RequestTimeoutMs)
 
+case class TransactionLogAppend(transactionalId: String,
+                                coordinatorEpoch: Int,
+                                newMetadata: TxnTransitMetadata,
+                                responseCallback: Errors => Unit,
+                                retryOnError: Errors => Boolean = _ => false)
+
 case class TransactionalIdAndProducerIdEpoch(transactionalId: String, producerId: Long, producerEpoch: Short)
 
 case class TransactionPartitionAndLeaderEpoch(txnPartitionId: Int, coordinatorEpoch: Int)
@@ -28,6 +28,8 @@ package kafka.log
  * @param backOffMs The amount of time to wait before rechecking if no logs are eligible for cleaning
  * @param enableCleaner Allows completely disabling the log cleaner
  * @param hashAlgorithm The hash algorithm to use in key comparison.
+ * @param keySummaryMaxBytes The maximum size of the key summary kept in memory for each cleaned segment, 0 to disable them
+ * @param recopyThreads The number of threads each cleaner thread recopies the segments of a log with
  */
 case class CleanerConfig(numThreads: Int = 1,
                          dedupeBufferSize: Long = 4*1024*1024L,
@@ -37,5 +39,7 @@ case class CleanerConfig(numThreads: Int = 1,
                          maxIoBytesPerSecond: Double = Double.MaxValue,
                          backOffMs: Long = 15 * 1000,
                          enableCleaner: Boolean = true,
-                         hashAlgorithm: String = "MD5") {
+                         hashAlgorithm: String = "MD5",
+                         keySummaryMaxBytes: Int = 0,
+                         recopyThreads: Int = 1) {
 }
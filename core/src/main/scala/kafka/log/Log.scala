@@ -31,7 +31,7 @@ import kafka.api.{ApiVersion, KAFKA_0_10_0_IV0}
 import kafka.common.{LogSegmentOffsetOverflowException, LongRef, OffsetsOutOfOrderException, UnexpectedAppendOffsetException}
 import kafka.message.{BrokerCompressionCodec, CompressionCodec, NoCompressionCodec}
 import kafka.metrics.KafkaMetricsGroup
-import kafka.server.checkpoints.LeaderEpochCheckpointFile
+import kafka.server.checkpoints.{LeaderEpochCheckpointFile, ZstdDictionaryCheckpointFile}
 import kafka.server.epoch.LeaderEpochFileCache
 import kafka.server.{BrokerTopicStats, FetchDataInfo, FetchHighWatermark, FetchIsolation, FetchLogEnd, FetchTxnCommitted, LogDirFailureChannel, LogOffsetMetadata, OffsetAndEpoch}
 import kafka.utils._
@@ -286,6 +286,14 @@ class Log(@volatile var dir: File,
   // Visible for testing
   @volatile var leaderEpochCache: Option[LeaderEpochFileCache] = None
 
+  @volatile private var zstdDictionaryCache: ZstdDictionaryCache = _
+
+  /* The last offsets of the batches which may be dictionary encoded, and of those which may be compressed with a zstd
+   * dictionary, so that fetches from later offsets do not look for them in the fetched batches. The batches of the log
+   * when it is loaded are not known, so any of them may be. */
+  @volatile private var lastDictionaryEncodedOffset: Long = -1L
+  @volatile private var lastZstdDictionaryOffset: Long = -1L
+
   locally {
     val startMs = time.milliseconds
 
@@ -293,11 +301,14 @@ class Log(@volatile var dir: File,
     Files.createDirectories(dir.toPath)
 
     initializeLeaderEpochCache()
+    initializeZstdDictionaryCache()
 
     val nextOffset = loadSegments()
 
     /* Calculate the offset of the next message */
     nextOffsetMetadata = LogOffsetMetadata(nextOffset, activeSegment.baseOffset, activeSegment.size)
+    lastDictionaryEncodedOffset = nextOffset - 1
+    lastZstdDictionaryOffset = nextOffset - 1
 
     leaderEpochCache.foreach(_.truncateFromEnd(nextOffsetMetadata.messageOffset))
 
@@ -306,6 +317,8 @@ class Log(@volatile var dir: File,
     // The earliest leader epoch may not be flushed during a hard failure. Recover it here.
     leaderEpochCache.foreach(_.truncateFromStart(logStartOffset))
 
+    zstdDictionaryCache.truncateFromStart(logStartOffset)
+
     // Any segment loading or recovery code must not use producerStateManager, so that we can build the full state here
     // from scratch.
     if (!producerStateManager.isEmpty)
@@ -504,6 +517,46 @@ class Log(@volatile var dir: File,
     }
   }
 
+  private def initializeZstdDictionaryCache(): Unit = lock synchronized {
+    val checkpointFile = new ZstdDictionaryCheckpointFile(ZstdDictionaryCheckpointFile.newFile(dir), logDirFailureChannel)
+    zstdDictionaryCache = new ZstdDictionaryCache(topicPartition, checkpointFile)
+  }
+
+  /**
+   * The zstd dictionaries the batches of this log may be compressed with, which include the ones which have been
+   * removed from the topic config while the log may still have batches compressed with them
+   */
+  def zstdDictionaries: ZstdDictionaries = zstdDictionaryCache.dictionaries
+
+  /**
+   * Update the zstd dictionaries registered for the topic. This has to happen before the topic config refers to a
+   * new dictionary, so that the batches compressed with it can be read.
+   */
+  def updateZstdDictionaries(registered: Seq[ZstdDictionary]): Unit = lock synchronized {
+    zstdDictionaryCache.update(registered, logEndOffset)
+  }
+
+  /**
+   * The zstd dictionaries of the topic config, in the order of the config
+   */
+  private def configuredZstdDictionaries: Seq[ZstdDictionary] = {
+    val dictionaries = zstdDictionaryCache.dictionaries
+    config.zstdDictionaryIds.flatMap(id => Option(dictionaries.get(id)))
+  }
+
+  /**
+   * Whether any batch of the log from the given offset may be dictionary encoded
+   */
+  def mayHaveDictionaryEncodedBatchesFrom(offset: Long): Boolean = offset <= lastDictionaryEncodedOffset
+
+  /**
+   * Whether any batch of the log from the given offset may be compressed with a zstd dictionary
+   */
+  def mayHaveZstdDictionaryBatchesFrom(offset: Long): Boolean = offset <= lastZstdDictionaryOffset
+
+  private def recordOffsets(records: MemoryRecords): Seq[Long] =
+    records.batches.asScala.iterator.flatMap(batch => Log.readRecords(batch, zstdDictionaries)).map(_.offset).toList
+
   /**
    * Removes any temporary files found in log directory, and creates a list of all .swap files which could be swapped
    * in place of existing segment(s). For log splitting, we know that any .swap file whose base offset is higher than
@@ -624,7 +677,8 @@ class Log(@volatile var dir: File,
    */
   private def recoverSegment(segment: LogSegment,
                              leaderEpochCache: Option[LeaderEpochFileCache] = None): Int = lock synchronized {
-    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs)
+    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs,
+      this.producerStateManager.numBatchesToRetain)
     rebuildProducerState(segment.baseOffset, reloadFromCleanShutdown = false, producerStateManager)
     val bytesTruncated = segment.recover(producerStateManager, leaderEpochCache)
     // once we have recovered the segment's data, take a snapshot to ensure that we won't
@@ -951,6 +1005,7 @@ class Log(@volatile var dir: File,
           // re-initialize leader epoch cache so that LeaderEpochCheckpointFile.checkpoint can correctly reference
           // the checkpoint file in renamed log directory
           initializeLeaderEpochCache()
+          initializeZstdDictionaryCache()
         }
       }
     }
@@ -1052,7 +1107,10 @@ class Log(@volatile var dir: File,
               leaderEpoch,
               origin,
               interBrokerProtocolVersion,
-              brokerTopicStats)
+              brokerTopicStats,
+              config.messageDictionaryEncodingEnable,
+              configuredZstdDictionaries,
+              zstdDictionaryCache.dictionaries)
           } catch {
             case e: IOException =>
               throw new KafkaException(s"Error validating messages while appending to log $name", e)
@@ -1083,7 +1141,7 @@ class Log(@volatile var dir: File,
           // we are taking the offsets we are given
           if (!appendInfo.offsetsMonotonic)
             throw new OffsetsOutOfOrderException(s"Out of order offsets found in append to $topicPartition: " +
-                                                 records.records.asScala.map(_.offset))
+                                                 recordOffsets(records))
 
           if (appendInfo.firstOrLastOffsetOfFirstBatch < nextOffsetMetadata.messageOffset) {
             // we may still be able to recover if the log is empty
@@ -1098,7 +1156,7 @@ class Log(@volatile var dir: File,
             throw new UnexpectedAppendOffsetException(
               s"Unexpected offset in append to $topicPartition. $firstOrLast " +
               s"${appendInfo.firstOrLastOffsetOfFirstBatch} is less than the next offset ${nextOffsetMetadata.messageOffset}. " +
-              s"First 10 offsets in append: ${records.records.asScala.take(10).map(_.offset)}, last offset in" +
+              s"First 10 offsets in append: ${recordOffsets(records).take(10)}, last offset in" +
               s" append: ${appendInfo.lastOffset}. Log start offset = $logStartOffset",
               firstOffset, appendInfo.lastOffset)
           }
@@ -1159,6 +1217,16 @@ class Log(@volatile var dir: File,
         // if the append to the transaction index fails.
         updateLogEndOffset(appendInfo.lastOffset + 1)
 
+        // batches compressed with a retired zstd dictionary, which the topic config may still have had when they
+        // were validated, or which the leader wrote, keep the dictionary
+        zstdDictionaryCache.onAppend(validRecords)
+        validRecords.batches.asScala.foreach { batch =>
+          if (batch.isDictionaryEncoded)
+            lastDictionaryEncodedOffset = batch.lastOffset
+          if (batch.usesZstdDictionary)
+            lastZstdDictionaryOffset = batch.lastOffset
+        }
+
         // update the producer state
         for (producerAppendInfo <- updatedProducers.values) {
           producerStateManager.update(producerAppendInfo)
@@ -1244,6 +1312,7 @@ class Log(@volatile var dir: File,
           info(s"Incrementing log start offset to $newLogStartOffset")
           logStartOffset = newLogStartOffset
           leaderEpochCache.foreach(_.truncateFromStart(logStartOffset))
+          zstdDictionaryCache.truncateFromStart(logStartOffset)
           producerStateManager.truncateHead(newLogStartOffset)
           maybeIncrementFirstUnstableOffset()
         }
@@ -1595,7 +1664,7 @@ class Log(@volatile var dir: File,
           None
       }
 
-      targetSeg.flatMap(_.findOffsetByTimestamp(targetTimestamp, logStartOffset))
+      targetSeg.flatMap(_.findOffsetByTimestamp(targetTimestamp, logStartOffset, zstdDictionaries))
     }
   }
 
@@ -2084,6 +2153,7 @@ class Log(@volatile var dir: File,
 
         this.recoveryPoint = math.min(newOffset, this.recoveryPoint)
         this.logStartOffset = newOffset
+        zstdDictionaryCache.truncateFromStart(newOffset)
       }
     }
   }
@@ -2440,13 +2510,25 @@ object Log {
             time: Time = Time.SYSTEM,
             maxProducerIdExpirationMs: Int,
             producerIdExpirationCheckIntervalMs: Int,
-            logDirFailureChannel: LogDirFailureChannel): Log = {
+            logDirFailureChannel: LogDirFailureChannel,
+            numProducerBatchesToRetain: Int = ProducerStateManager.DefaultRetainedBatches): Log = {
     val topicPartition = Log.parseTopicPartitionName(dir)
-    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs)
+    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs,
+      numProducerBatchesToRetain)
     new Log(dir, config, logStartOffset, recoveryPoint, scheduler, brokerTopicStats, time, maxProducerIdExpirationMs,
       producerIdExpirationCheckIntervalMs, topicPartition, producerStateManager, logDirFailureChannel)
   }
 
+  /**
+   * Read the records of a batch of a log, which may be compressed with one of the zstd dictionaries of the log. Like
+   * the iterator of the batch, this decompresses all the records at once.
+   */
+  def readRecords(batch: RecordBatch, zstdDictionaries: ZstdDictionaries): Seq[Record] = {
+    val iterator = batch.streamingIterator(BufferSupplier.NO_CACHING, zstdDictionaries)
+    try iterator.asScala.toList
+    finally iterator.close()
+  }
+
   /**
    * Make log segment file name from offset bytes. All this does is pad out the offset number with zeros
    * so that ls sorts the files numerically.
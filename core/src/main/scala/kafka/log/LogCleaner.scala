@@ -20,7 +20,8 @@ package kafka.log
 import java.io.{File, IOException}
 import java.nio._
 import java.util.Date
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{Callable, ExecutionException, ExecutorService, Executors, Future, LinkedBlockingQueue, TimeUnit}
 
 import kafka.common._
 import kafka.metrics.KafkaMetricsGroup
@@ -32,7 +33,7 @@ import org.apache.kafka.common.errors.{CorruptRecordException, KafkaStorageExcep
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter.BatchRetention
 import org.apache.kafka.common.record._
-import org.apache.kafka.common.utils.Time
+import org.apache.kafka.common.utils.{KafkaThread, Time}
 
 import scala.collection.JavaConverters._
 import scala.collection.{Iterable, Seq, Set, mutable}
@@ -55,6 +56,8 @@ import scala.util.control.ControlThrowable
  *
  * Once the key=>last_offset map is built, the log is cleaned by recopying each log segment but omitting any key that appears in the offset map with a
  * higher offset than what is found in the segment (i.e. messages with a key that appears in the dirty section of the log).
+ * With more than one recopy thread per cleaner thread, the groups of segments of a log are recopied concurrently and
+ * swapped into the log in order.
  *
  * To avoid segments shrinking to very small sizes with repeated cleanings we implement a rule by which if we will merge successive segments when
  * doing a cleaning if their log and index size are less than the maximum log and index size prior to the clean beginning.
@@ -122,9 +125,30 @@ class LogCleaner(initialConfig: CleanerConfig,
     (100 * recopyRate).toInt
   })
 
+  /* a metric to track the share of the clean segments that each thread's last cleaning did not need to recopy */
+  newGauge("cleaner-skip-percent", () => {
+    val stats = cleaners.map(_.lastStats)
+    val bytesSkipped = stats.iterator.map(_.bytesSkipped).sum
+    val skipRate = bytesSkipped.toDouble / math.max(stats.iterator.map(_.bytesRead).sum + bytesSkipped, 1)
+    (100 * skipRate).toInt
+  })
+
   /* a metric to track the maximum cleaning time for the last cleaning from each thread */
   newGauge("max-clean-time-secs", () => cleaners.iterator.map(_.lastStats.elapsedSecs).max.toInt)
 
+  /* metrics to track the throughput of the slowest offset map building and recopy phases of the last cleaning
+   * from each thread, so that the phase which dominates the cleaning time of large partitions can be identified */
+  newGauge("min-index-throughput-bytes-per-sec",
+    () => minPhaseThroughput(_.indexBytesPerSec))
+
+  newGauge("min-recopy-throughput-bytes-per-sec",
+    () => minPhaseThroughput(_.recopyBytesPerSec))
+
+  private def minPhaseThroughput(throughput: CleanerStats => Double): Long = {
+    val throughputs = cleaners.iterator.map(cleaner => throughput(cleaner.lastStats)).filter(_ > 0)
+    if (throughputs.hasNext) throughputs.min.toLong else 0L
+  }
+
   // a metric to track delay between the time when a log is required to be compacted
   // as determined by max compaction lag and the time of last cleaner run.
   newGauge("max-compaction-delay-secs",
@@ -276,14 +300,16 @@ class LogCleaner(initialConfig: CleanerConfig,
       warn("Cannot use more than 2G of cleaner buffer space per cleaner thread, ignoring excess buffer space...")
 
     val cleaner = new Cleaner(id = threadId,
-                              offsetMap = new SkimpyOffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
-                                                              hashAlgorithm = config.hashAlgorithm),
+                              offsetMap = OffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
+                                                    hashAlgorithm = config.hashAlgorithm),
                               ioBufferSize = config.ioBufferSize / config.numThreads / 2,
                               maxIoBufferSize = config.maxMessageSize,
                               dupBufferLoadFactor = config.dedupeBufferLoadFactor,
                               throttler = throttler,
                               time = time,
-                              checkDone = checkDone)
+                              checkDone = checkDone,
+                              keySummaryMaxBytes = config.keySummaryMaxBytes,
+                              recopyThreads = config.recopyThreads)
 
     @volatile var lastStats: CleanerStats = new CleanerStats()
     @volatile var lastPreCleanStats: PreCleanStats = new PreCleanStats()
@@ -294,6 +320,11 @@ class LogCleaner(initialConfig: CleanerConfig,
       cleanerManager.checkCleaningAborted(topicPartition)
     }
 
+    override def shutdown(): Unit = {
+      super.shutdown()
+      cleaner.shutdown()
+    }
+
     /**
      * The main loop for the cleaner thread
      * Clean a log if there is a dirty log available, otherwise sleep for a bit
@@ -391,6 +422,9 @@ class LogCleaner(initialConfig: CleanerConfig,
         "\tCleaned %,.1f MB in %.1f seconds (%,.1f Mb/sec, %.1f%% of total time)%n".format(mb(stats.bytesRead),
                                                                                            stats.elapsedSecs - stats.elapsedIndexSecs,
                                                                                            mb(stats.bytesRead)/(stats.elapsedSecs - stats.elapsedIndexSecs), 100 * (stats.elapsedSecs - stats.elapsedIndexSecs).toDouble/stats.elapsedSecs) +
+        "\tSwapped in cleaned segments in %.1f seconds (%.1f%% of total time)%n".format(stats.elapsedSwapSecs,
+                                                                                  100 * stats.elapsedSwapSecs/stats.elapsedSecs) +
+        "\tSkipped %,.1f MB of clean segments without superseded keys%n".format(mb(stats.bytesSkipped)) +
         "\tStart size: %,.1f MB (%,d messages)%n".format(mb(stats.bytesRead), stats.messagesRead) +
         "\tEnd size: %,.1f MB (%,d messages)%n".format(mb(stats.bytesWritten), stats.messagesWritten) +
         "\t%.1f%% size reduction (%.1f%% fewer messages)%n".format(100.0 * (1.0 - stats.bytesWritten.toDouble/stats.bytesRead),
@@ -426,7 +460,10 @@ object LogCleaner {
       maxMessageSize = config.messageMaxBytes,
       maxIoBytesPerSecond = config.logCleanerIoMaxBytesPerSecond,
       backOffMs = config.logCleanerBackoffMs,
-      enableCleaner = config.logCleanerEnable)
+      enableCleaner = config.logCleanerEnable,
+      hashAlgorithm = config.logCleanerDedupeHashAlgorithm,
+      keySummaryMaxBytes = config.logCleanerKeySummaryMaxBytes,
+      recopyThreads = config.logCleanerRecopyThreads)
 
   }
 
@@ -448,6 +485,9 @@ object LogCleaner {
  * @param throttler The throttler instance to use for limiting I/O rate.
  * @param time The time instance
  * @param checkDone Check if the cleaning for a partition is finished or aborted.
+ * @param keySummaryMaxBytes The maximum size of the key summary kept for each cleaned segment, 0 to disable them.
+ * @param recopyThreads The number of threads recopying the groups of segments of a log concurrently. Each of them has
+ *                      its own I/O buffers. The groups are only recopied concurrently if the offset map supports it.
  */
 private[log] class Cleaner(val id: Int,
                            val offsetMap: OffsetMap,
@@ -456,7 +496,9 @@ private[log] class Cleaner(val id: Int,
                            dupBufferLoadFactor: Double,
                            throttler: Throttler,
                            time: Time,
-                           checkDone: TopicPartition => Unit) extends Logging {
+                           checkDone: TopicPartition => Unit,
+                           keySummaryMaxBytes: Int = 0,
+                           recopyThreads: Int = 1) extends Logging {
 
   protected override def loggerName = classOf[LogCleaner].getName
 
@@ -470,6 +512,30 @@ private[log] class Cleaner(val id: Int,
 
   private val decompressionBufferSupplier = BufferSupplier.create();
 
+  /* buffer for the hash of the keys probed against the key summaries of the clean segments */
+  private val keyHash = new Array[Long](2)
+
+  /* set to stop the concurrent recopies of a cleaning once one of them failed */
+  @volatile private var recopyAborted = false
+
+  /* the threads recopying groups of segments concurrently and the cleaners, each with its own buffers, they use */
+  private val recopyExecutor: Option[ExecutorService] = if (recopyThreads > 1) {
+    val threadId = new AtomicInteger(0)
+    Some(Executors.newFixedThreadPool(recopyThreads, (runnable: Runnable) =>
+      KafkaThread.daemon(s"kafka-log-cleaner-thread-$id-recopy-${threadId.getAndIncrement()}", runnable)))
+  } else None
+  private val recopiers = new LinkedBlockingQueue[Cleaner]()
+  if (recopyExecutor.isDefined) {
+    (0 until recopyThreads).foreach { _ =>
+      recopiers.put(new Cleaner(id, offsetMap, ioBufferSize, maxIoBufferSize, dupBufferLoadFactor, throttler, time,
+        topicPartition => {
+          if (recopyAborted)
+            throw new LogCleaningAbortedException()
+          checkDone(topicPartition)
+        }, keySummaryMaxBytes))
+    }
+  }
+
   require(offsetMap.slots * dupBufferLoadFactor > 1, "offset map is too small to fit in even a single message, so log cleaning will never make progress. You can increase log.cleaner.dedupe.buffer.size or decrease log.cleaner.threads")
 
   /**
@@ -491,16 +557,21 @@ private[log] class Cleaner(val id: Int,
     doClean(cleanable, deleteHorizonMs)
   }
 
+  /**
+   * Stop the recopy threads. The cleaning they recopy segments for must be done.
+   */
+  def shutdown(): Unit = recopyExecutor.foreach(_.shutdown())
+
   private[log] def doClean(cleanable: LogToClean, deleteHorizonMs: Long): (Long, CleanerStats) = {
     info("Beginning cleaning of log %s.".format(cleanable.log.name))
 
     val log = cleanable.log
-    val stats = new CleanerStats()
+    val stats = new CleanerStats(time)
 
     // build the offset map
     info("Building offset map for %s...".format(cleanable.log.name))
     val upperBoundOffset = cleanable.firstUncleanableOffset
-    buildOffsetMap(log, cleanable.firstDirtyOffset, upperBoundOffset, offsetMap, stats)
+    val unaffectedSegments = buildOffsetMap(log, cleanable.firstDirtyOffset, upperBoundOffset, offsetMap, stats)
     val endOffset = offsetMap.latestOffset + 1
     stats.indexDone()
 
@@ -510,12 +581,24 @@ private[log] class Cleaner(val id: Int,
 
     // group the segments and clean the groups
     info("Cleaning log %s (cleaning prior to %s, discarding tombstones prior to %s)...".format(log.name, new Date(cleanableHorizonMs), new Date(deleteHorizonMs)))
-    val transactionMetadata = new CleanedTransactionMetadata
-
     val groupedSegments = groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize,
       log.config.maxIndexSize, cleanable.firstUncleanableOffset)
-    for (group <- groupedSegments)
-      cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    val recopiedGroups = groupedSegments.filter { group =>
+      val skipRecopy = canSkipRecopy(group, unaffectedSegments, deleteHorizonMs)
+      if (skipRecopy) {
+        debug(s"Skipping ${group.head} in log ${log.name}, its key summary shows no superseded keys.")
+        stats.skipSegment(group.head.size)
+      }
+      !skipRecopy
+    }
+    recopyExecutor match {
+      case Some(executor) if recopiedGroups.size > 1 && offsetMap.supportsConcurrentReads =>
+        cleanSegmentsConcurrently(log, recopiedGroups, offsetMap, deleteHorizonMs, stats, executor)
+      case _ =>
+        val transactionMetadata = new CleanedTransactionMetadata
+        for (group <- recopiedGroups)
+          cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    }
 
     // record buffer utilization
     stats.bufferUtilization = offsetMap.utilization
@@ -525,6 +608,18 @@ private[log] class Cleaner(val id: Int,
     (endOffset, stats)
   }
 
+  /**
+   * A group of segments can be left as is if it is a single clean segment whose key summary shows that it holds none
+   * of the keys in the offset map, and which has no transactional batches or tombstones that could now be removed.
+   * Transactional batches are excluded because the retention of transaction markers depends on the batches seen in
+   * the preceding segments.
+   */
+  private def canSkipRecopy(group: Seq[LogSegment], unaffectedSegments: Set[LogSegment], deleteHorizonMs: Long): Boolean = {
+    group.size == 1 && unaffectedSegments.contains(group.head) && group.head.keySummary.exists { summary =>
+      !summary.hasTransactionalBatches && (!summary.hasTombstones || group.head.lastModified > deleteHorizonMs)
+    }
+  }
+
   /**
    * Clean a group of segments into a single replacement segment
    *
@@ -542,22 +637,130 @@ private[log] class Cleaner(val id: Int,
                                  deleteHorizonMs: Long,
                                  stats: CleanerStats,
                                  transactionMetadata: CleanedTransactionMetadata): Unit = {
+    val cleaned = recopySegments(log, segments, map, deleteHorizonMs, stats, transactionMetadata)
+    swapSegments(log, segments, cleaned, stats)
+  }
+
+  /**
+   * Clean the groups of segments concurrently on the recopy threads, and swap the cleaned segments into the log in
+   * order on this thread. Each group is recopied with the transaction state that the cleaning of the preceding groups
+   * would leave, which is collected from their batches beforehand. If a group cannot be recopied, the groups after it
+   * are not swapped in and their cleaned segments are deleted.
+   *
+   * @param log The log being cleaned
+   * @param groups The groups of segments to clean, in order
+   * @param map The offset map to use for cleaning segments
+   * @param deleteHorizonMs The time to retain delete tombstones
+   * @param stats Collector for cleaning statistics
+   * @param executor The recopy threads
+   */
+  private def cleanSegmentsConcurrently(log: Log,
+                                        groups: Seq[Seq[LogSegment]],
+                                        map: OffsetMap,
+                                        deleteHorizonMs: Long,
+                                        stats: CleanerStats,
+                                        executor: ExecutorService): Unit = {
+    val transactionStates = transactionStatesAtGroups(log, groups, map)
+    recopyAborted = false
+    val recopies = groups.zip(transactionStates).map { case (group, transactionMetadata) =>
+      val groupStats = new CleanerStats(time)
+      val recopy = executor.submit(new Callable[LogSegment] {
+        override def call(): LogSegment = {
+          if (recopyAborted)
+            throw new LogCleaningAbortedException()
+          val recopier = recopiers.take()
+          try recopier.recopySegments(log, group, map, deleteHorizonMs, groupStats, transactionMetadata)
+          finally recopiers.put(recopier)
+        }
+      })
+      (group, groupStats, recopy)
+    }
+
+    var recopied = 0
+    try {
+      while (recopied < recopies.size) {
+        val (group, groupStats, recopy) = recopies(recopied)
+        val cleaned = awaitRecopy(recopy)
+        recopied += 1
+        stats.addRecopied(groupStats)
+        swapSegments(log, group, cleaned, stats)
+      }
+    } finally {
+      if (recopied < recopies.size) {
+        recopyAborted = true
+        recopies.drop(recopied).foreach { case (_, _, recopy) =>
+          try awaitRecopy(recopy).deleteIfExists()
+          catch {
+            // a recopy which was aborted has deleted its cleaned segment
+            case e: Exception => debug(s"Recopy of log ${log.name} did not complete: $e")
+          }
+        }
+      }
+    }
+  }
+
+  private def awaitRecopy(recopy: Future[LogSegment]): LogSegment = {
+    try recopy.get()
+    catch {
+      case e: ExecutionException => throw e.getCause
+    }
+  }
+
+  /**
+   * Collect the transaction state at the start of each of the given groups of segments, which is the state the
+   * sequential cleaning of the preceding groups leaves. Only the batch headers and the control records are read.
+   */
+  private def transactionStatesAtGroups(log: Log,
+                                        groups: Seq[Seq[LogSegment]],
+                                        map: OffsetMap): Seq[CleanedTransactionMetadata] = {
+    val transactionMetadata = new CleanedTransactionMetadata
+    val states = mutable.ArrayBuffer[CleanedTransactionMetadata]()
+    for (group <- groups) {
+      states += transactionMetadata.copy()
+      if (states.size < groups.size) {
+        for ((segment, upperBoundOffset) <- withUpperBoundOffsets(group, map)) {
+          checkDone(log.topicPartition)
+          transactionMetadata.addAbortedTransactions(log.collectAbortedTransactions(segment.baseOffset, upperBoundOffset))
+          for (batch <- segment.log.batches.asScala) {
+            if (batch.isControlBatch)
+              transactionMetadata.onControlBatchRead(batch)
+            else
+              transactionMetadata.onBatchRead(batch)
+          }
+        }
+      }
+    }
+    states
+  }
+
+  /**
+   * The segments of a group, each with the offset up to which the aborted transactions in it are collected
+   */
+  private def withUpperBoundOffsets(segments: Seq[LogSegment], map: OffsetMap): Seq[(LogSegment, Long)] =
+    segments.zip(segments.tail.map(_.baseOffset) :+ (map.latestOffset + 1))
+
+  /**
+   * Recopy a group of segments into a single cleaned segment, which is flushed but not yet swapped into the log
+   *
+   * @return The cleaned segment
+   */
+  private def recopySegments(log: Log,
+                             segments: Seq[LogSegment],
+                             map: OffsetMap,
+                             deleteHorizonMs: Long,
+                             stats: CleanerStats,
+                             transactionMetadata: CleanedTransactionMetadata): LogSegment = {
     // create a new segment with a suffix appended to the name of the log and indexes
     val cleaned = LogCleaner.createNewCleanedSegment(log, segments.head.baseOffset)
     transactionMetadata.cleanedIndex = Some(cleaned.txnIndex)
+    val keySummary = if (keySummaryMaxBytes > 0) Some(new SegmentKeySummary(keySummaryMaxBytes)) else None
 
     try {
       // clean segments into the new destination segment
-      val iter = segments.iterator
-      var currentSegmentOpt: Option[LogSegment] = Some(iter.next())
       val lastOffsetOfActiveProducers = log.lastRecordsOfActiveProducers
 
-      while (currentSegmentOpt.isDefined) {
-        val currentSegment = currentSegmentOpt.get
-        val nextSegmentOpt = if (iter.hasNext) Some(iter.next()) else None
-
+      for ((currentSegment, upperBoundOffset) <- withUpperBoundOffsets(segments, map)) {
         val startOffset = currentSegment.baseOffset
-        val upperBoundOffset = nextSegmentOpt.map(_.baseOffset).getOrElse(map.latestOffset + 1)
         val abortedTransactions = log.collectAbortedTransactions(startOffset, upperBoundOffset)
         transactionMetadata.addAbortedTransactions(abortedTransactions)
 
@@ -568,7 +771,7 @@ private[log] class Cleaner(val id: Int,
 
         try {
           cleanInto(log.topicPartition, currentSegment.log, cleaned, map, retainDeletesAndTxnMarkers, log.config.maxMessageSize,
-            transactionMetadata, lastOffsetOfActiveProducers, stats)
+            transactionMetadata, lastOffsetOfActiveProducers, stats, log.zstdDictionaries, keySummary)
         } catch {
           case e: LogSegmentOffsetOverflowException =>
             // Split the current segment. It's also safest to abort the current cleaning process, so that we retry from
@@ -577,9 +780,9 @@ private[log] class Cleaner(val id: Int,
             log.splitOverflowedSegment(currentSegment)
             throw new LogCleaningAbortedException()
         }
-        currentSegmentOpt = nextSegmentOpt
       }
 
+      val flushStartMs = time.milliseconds
       cleaned.onBecomeInactiveSegment()
       // flush new segment to disk before swap
       cleaned.flush()
@@ -587,10 +790,9 @@ private[log] class Cleaner(val id: Int,
       // update the modification date to retain the last modified date of the original files
       val modified = segments.last.lastModified
       cleaned.lastModified = modified
-
-      // swap in new segment
-      info(s"Swapping in cleaned segment $cleaned for segment(s) $segments in log $log")
-      log.replaceSegments(List(cleaned), segments)
+      cleaned.keySummary = keySummary.flatMap(_.complete())
+      stats.segmentsSwapped(time.milliseconds - flushStartMs)
+      cleaned
     } catch {
       case e: LogCleaningAbortedException =>
         try cleaned.deleteIfExists()
@@ -601,6 +803,13 @@ private[log] class Cleaner(val id: Int,
     }
   }
 
+  private def swapSegments(log: Log, segments: Seq[LogSegment], cleaned: LogSegment, stats: CleanerStats): Unit = {
+    val swapStartMs = time.milliseconds
+    info(s"Swapping in cleaned segment $cleaned for segment(s) $segments in log $log")
+    log.replaceSegments(List(cleaned), segments)
+    stats.segmentsSwapped(time.milliseconds - swapStartMs)
+  }
+
   /**
    * Clean the given source log segment into the destination segment using the key=>offset mapping
    * provided
@@ -612,6 +821,8 @@ private[log] class Cleaner(val id: Int,
    * @param retainDeletesAndTxnMarkers Should tombstones and markers be retained while cleaning this segment
    * @param maxLogMessageSize The maximum message size of the corresponding topic
    * @param stats Collector for cleaning statistics
+   * @param zstdDictionaries The zstd dictionaries the batches of the log may be compressed with
+   * @param keySummary The summary of the keys retained in the destination segment, if summaries are enabled
    */
   private[log] def cleanInto(topicPartition: TopicPartition,
                              sourceRecords: FileRecords,
@@ -621,7 +832,9 @@ private[log] class Cleaner(val id: Int,
                              maxLogMessageSize: Int,
                              transactionMetadata: CleanedTransactionMetadata,
                              lastRecordsOfActiveProducers: Map[Long, LastRecord],
-                             stats: CleanerStats): Unit = {
+                             stats: CleanerStats,
+                             zstdDictionaries: ZstdDictionaries,
+                             keySummary: Option[SegmentKeySummary] = None): Unit = {
     val logCleanerFilter: RecordFilter = new RecordFilter {
       var discardBatchRecords: Boolean = _
 
@@ -629,6 +842,8 @@ private[log] class Cleaner(val id: Int,
         // we piggy-back on the tombstone retention logic to delay deletion of transaction markers.
         // note that we will never delete a marker until all the records from that transaction are removed.
         discardBatchRecords = shouldDiscardBatch(batch, transactionMetadata, retainTxnMarkers = retainDeletesAndTxnMarkers)
+        if (batch.isTransactional || batch.isControlBatch)
+          keySummary.foreach(_.hasTransactionalBatches = true)
 
         def isBatchLastRecordOfProducer: Boolean = {
           // We retain the batch in order to preserve the state of active producers. There are three cases:
@@ -654,11 +869,20 @@ private[log] class Cleaner(val id: Int,
       }
 
       override def shouldRetainRecord(batch: RecordBatch, record: Record): Boolean = {
-        if (discardBatchRecords)
+        if (discardBatchRecords) {
           // The batch is only retained to preserve producer sequence information; the records can be removed
           false
-        else
-          Cleaner.this.shouldRetainRecord(map, retainDeletesAndTxnMarkers, batch, record, stats)
+        } else {
+          val retained = Cleaner.this.shouldRetainRecord(map, retainDeletesAndTxnMarkers, batch, record, stats)
+          if (retained && record.hasKey) {
+            keySummary.foreach { summary =>
+              summary.add(record.key)
+              if (!record.hasValue)
+                summary.hasTombstones = true
+            }
+          }
+          retained
+        }
       }
     }
 
@@ -672,7 +896,8 @@ private[log] class Cleaner(val id: Int,
       sourceRecords.readInto(readBuffer, position)
       val records = MemoryRecords.readableRecords(readBuffer)
       throttler.maybeThrottle(records.sizeInBytes)
-      val result = records.filterTo(topicPartition, logCleanerFilter, writeBuffer, maxLogMessageSize, decompressionBufferSupplier)
+      val result = records.filterTo(topicPartition, logCleanerFilter, writeBuffer, maxLogMessageSize, decompressionBufferSupplier,
+        zstdDictionaries)
       stats.readMessages(result.messagesRead, result.bytesRead)
       stats.recopyMessages(result.messagesRetained, result.bytesRetained)
 
@@ -700,7 +925,6 @@ private[log] class Cleaner(val id: Int,
     restoreBuffers()
   }
 
-
   /**
    * Grow buffers to process next batch of records from `sourceRecords.` Buffers are doubled in size
    * up to a maximum of `maxLogMessageSize`. In some scenarios, a record could be bigger than the
@@ -859,32 +1083,63 @@ private[log] class Cleaner(val id: Int,
    * @param end The ending offset for the map that is being built
    * @param map The map in which to store the mappings
    * @param stats Collector for cleaning statistics
+   *
+   * @return The clean segments whose key summary shows that they contain none of the keys added to the map
    */
   private[log] def buildOffsetMap(log: Log,
                                   start: Long,
                                   end: Long,
                                   map: OffsetMap,
-                                  stats: CleanerStats): Unit = {
+                                  stats: CleanerStats): Set[LogSegment] = {
     map.clear()
     val dirty = log.logSegments(start, end).toBuffer
     info("Building offset map for log %s for %d segments in offset range [%d, %d).".format(log.name, dirty.size, start, end))
 
+    val unaffectedSummaries = summarizedCleanSegments(log, start)
+
     val transactionMetadata = new CleanedTransactionMetadata
     val abortedTransactions = log.collectAbortedTransactions(start, end)
     transactionMetadata.addAbortedTransactions(abortedTransactions)
 
     // Add all the cleanable dirty segments. We must take at least map.slots * load_factor,
-    // but we may be able to fit more (if there is lots of duplication in the dirty section of the log)
+    // but we may be able to fit more (if there is lots of duplication in the dirty section of the log).
+    // Segments are mapped one after the other: the map must end at the first record which does not fit, and
+    // whether a batch is aborted depends on the transaction markers read before it.
     var full = false
     for (segment <- dirty if !full) {
       checkDone(log.topicPartition)
 
       full = buildOffsetMapForSegment(log.topicPartition, segment, map, start, log.config.maxMessageSize,
-        transactionMetadata, stats)
+        transactionMetadata, stats, unaffectedSummaries, log.zstdDictionaries)
       if (full)
         debug("Offset map is full, %d segments fully mapped, segment with base offset %d is partially mapped".format(dirty.indexOf(segment), segment.baseOffset))
     }
     info("Offset map for log %s complete.".format(log.name))
+    unaffectedSummaries.iterator.map { case (segment, _) => segment }.toSet
+  }
+
+  /**
+   * Collect the key summaries of the segments which lie entirely before the dirty section of the log
+   */
+  private def summarizedCleanSegments(log: Log, firstDirtyOffset: Long): mutable.ArrayBuffer[(LogSegment, SegmentKeySummary)] = {
+    val clean = mutable.ArrayBuffer(log.logSegments(0, firstDirtyOffset).toSeq: _*)
+    // the last of these segments also holds dirty records unless the dirty section starts with a new segment
+    if (clean.nonEmpty && !log.logSegments(firstDirtyOffset, firstDirtyOffset + 1).exists(_.baseOffset == firstDirtyOffset))
+      clean.remove(clean.size - 1)
+    clean.flatMap(segment => segment.keySummary.map(segment -> _))
+  }
+
+  /**
+   * Drop the summaries which may contain the given key, since their segments may hold records superseded by it
+   */
+  private def removeSummariesContaining(key: ByteBuffer, summaries: mutable.ArrayBuffer[(LogSegment, SegmentKeySummary)]): Unit = {
+    Murmur3OffsetMap.hash128(key, keyHash)
+    var i = summaries.size - 1
+    while (i >= 0) {
+      if (summaries(i)._2.mightContain(keyHash))
+        summaries.remove(i)
+      i -= 1
+    }
   }
 
   /**
@@ -893,6 +1148,8 @@ private[log] class Cleaner(val id: Int,
    * @param segment The segment to index
    * @param map The map in which to store the key=>offset mapping
    * @param stats Collector for cleaning statistics
+   * @param unaffectedSummaries The key summaries of clean segments which none of the mapped keys may be in so far
+   * @param zstdDictionaries The zstd dictionaries the batches of the log may be compressed with
    *
    * @return If the map was filled whilst loading from this segment
    */
@@ -902,7 +1159,9 @@ private[log] class Cleaner(val id: Int,
                                        startOffset: Long,
                                        maxLogMessageSize: Int,
                                        transactionMetadata: CleanedTransactionMetadata,
-                                       stats: CleanerStats): Boolean = {
+                                       stats: CleanerStats,
+                                       unaffectedSummaries: mutable.ArrayBuffer[(LogSegment, SegmentKeySummary)],
+                                       zstdDictionaries: ZstdDictionaries): Boolean = {
     var position = segment.offsetIndex.lookup(startOffset).position
     val maxDesiredMapSize = (map.slots * this.dupBufferLoadFactor).toInt
     while (position < segment.log.sizeInBytes) {
@@ -930,14 +1189,21 @@ private[log] class Cleaner(val id: Int,
             // Note that abort markers are supported in v2 and above, which means count is defined.
             stats.indexMessagesRead(batch.countOrNull)
           } else {
-            for (record <- batch.asScala) {
-              if (record.hasKey && record.offset >= startOffset) {
-                if (map.size < maxDesiredMapSize)
-                  map.put(record.key, record.offset)
-                else
-                  return true
+            val recordsIterator = batch.streamingIterator(decompressionBufferSupplier, zstdDictionaries)
+            try {
+              for (record <- recordsIterator.asScala) {
+                if (record.hasKey && record.offset >= startOffset) {
+                  if (map.size < maxDesiredMapSize && map.canPut(record.offset)) {
+                    map.put(record.key, record.offset)
+                    if (unaffectedSummaries.nonEmpty)
+                      removeSummariesContaining(record.key, unaffectedSummaries)
+                  } else
+                    return true
+                }
+                stats.indexMessagesRead(1)
               }
-              stats.indexMessagesRead(1)
+            } finally {
+              recordsIterator.close()
             }
           }
         }
@@ -991,6 +1257,8 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
   var messagesRead = 0L
   var invalidMessagesRead = 0L
   var messagesWritten = 0L
+  var swapTimeMs = 0L
+  var bytesSkipped = 0L
   var bufferUtilization = 0.0d
 
   def readMessages(messagesRead: Int, bytesRead: Int): Unit = {
@@ -1015,6 +1283,26 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
     mapBytesRead += size
   }
 
+  def skipSegment(size: Int): Unit = {
+    bytesSkipped += size
+  }
+
+  def segmentsSwapped(timeMs: Long): Unit = {
+    swapTimeMs += timeMs
+  }
+
+  /**
+   * Add the counts of a group of segments recopied concurrently for the same cleaning. The time spent flushing the
+   * recopied segment is part of the concurrent recopy, so it is not added to the swap time.
+   */
+  def addRecopied(recopyStats: CleanerStats): Unit = {
+    messagesRead += recopyStats.messagesRead
+    bytesRead += recopyStats.bytesRead
+    invalidMessagesRead += recopyStats.invalidMessagesRead
+    messagesWritten += recopyStats.messagesWritten
+    bytesWritten += recopyStats.bytesWritten
+  }
+
   def indexDone(): Unit = {
     mapCompleteTime = time.milliseconds
   }
@@ -1027,6 +1315,24 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
 
   def elapsedIndexSecs = (mapCompleteTime - startTime)/1000.0
 
+  def elapsedSwapSecs = swapTimeMs/1000.0
+
+  def isDone: Boolean = endTime >= 0
+
+  /**
+   * The rate at which the dirty section was read to build the offset map
+   */
+  def indexBytesPerSec: Double = bytesPerSec(mapBytesRead, mapCompleteTime - startTime)
+
+  /**
+   * The rate at which segments were read, filtered and written into their cleaned replacements, excluding
+   * the time spent flushing and swapping in the cleaned segments
+   */
+  def recopyBytesPerSec: Double = bytesPerSec(bytesRead, endTime - mapCompleteTime - swapTimeMs)
+
+  private def bytesPerSec(bytes: Long, elapsedMs: Long): Double =
+    if (!isDone || elapsedMs <= 0) 0.0 else bytes * 1000.0 / elapsedMs
+
 }
 
 /**
@@ -1066,6 +1372,21 @@ private[log] class CleanedTransactionMetadata {
     this.abortedTransactions ++= abortedTransactions
   }
 
+  /**
+   * Copy the transaction state, without the cleaned index, so that the following segments can be cleaned separately
+   */
+  def copy(): CleanedTransactionMetadata = {
+    val copy = new CleanedTransactionMetadata
+    copy.ongoingCommittedTxns ++= ongoingCommittedTxns
+    ongoingAbortedTxns.foreach { case (producerId, abortedTxnMetadata) =>
+      val copiedMetadata = new AbortedTransactionMetadata(abortedTxnMetadata.abortedTxn)
+      copiedMetadata.lastObservedBatchOffset = abortedTxnMetadata.lastObservedBatchOffset
+      copy.ongoingAbortedTxns.put(producerId, copiedMetadata)
+    }
+    copy.abortedTransactions ++= abortedTransactions
+    copy
+  }
+
   /**
    * Update the cleaned transaction state with a control batch that has just been traversed by the cleaner.
    * Return true if the control batch can be discarded.
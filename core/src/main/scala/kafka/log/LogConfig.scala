@@ -25,7 +25,7 @@ import kafka.message.BrokerCompressionCodec
 import kafka.server.{KafkaConfig, ThrottledReplicaListValidator}
 import kafka.utils.Implicits._
 import org.apache.kafka.common.errors.InvalidConfigurationException
-import org.apache.kafka.common.config.{AbstractConfig, ConfigDef, TopicConfig}
+import org.apache.kafka.common.config.{AbstractConfig, ConfigDef, ConfigException, TopicConfig}
 import org.apache.kafka.common.record.{LegacyRecord, TimestampType}
 import org.apache.kafka.common.utils.Utils
 
@@ -65,6 +65,8 @@ object Defaults {
   val FollowerReplicationThrottledReplicas = Collections.emptyList[String]()
   val MaxIdMapSnapshots = kafka.server.Defaults.MaxIdMapSnapshots
   val MessageDownConversionEnable = kafka.server.Defaults.MessageDownConversionEnable
+  val MessageDictionaryEncodingEnable = kafka.server.Defaults.MessageDictionaryEncodingEnable
+  val CompressionZstdDictionaries = Collections.emptyList[String]()
 }
 
 case class LogConfig(props: java.util.Map[_, _], overriddenConfigs: Set[String] = Set.empty)
@@ -100,6 +102,8 @@ case class LogConfig(props: java.util.Map[_, _], overriddenConfigs: Set[String]
   val LeaderReplicationThrottledReplicas = getList(LogConfig.LeaderReplicationThrottledReplicasProp)
   val FollowerReplicationThrottledReplicas = getList(LogConfig.FollowerReplicationThrottledReplicasProp)
   val messageDownConversionEnable = getBoolean(LogConfig.MessageDownConversionEnableProp)
+  val messageDictionaryEncodingEnable = getBoolean(LogConfig.MessageDictionaryEncodingEnableProp)
+  val zstdDictionaryIds = getList(LogConfig.CompressionZstdDictionariesProp).asScala.toList.map(_.trim.toInt)
 
   def randomSegmentJitter: Long =
     if (segmentJitterMs == 0) 0 else Utils.abs(scala.util.Random.nextInt()) % math.min(segmentJitterMs, segmentMs)
@@ -142,6 +146,8 @@ object LogConfig {
   val MessageTimestampTypeProp = TopicConfig.MESSAGE_TIMESTAMP_TYPE_CONFIG
   val MessageTimestampDifferenceMaxMsProp = TopicConfig.MESSAGE_TIMESTAMP_DIFFERENCE_MAX_MS_CONFIG
   val MessageDownConversionEnableProp = TopicConfig.MESSAGE_DOWNCONVERSION_ENABLE_CONFIG
+  val MessageDictionaryEncodingEnableProp = TopicConfig.MESSAGE_DICTIONARY_ENCODING_ENABLE_CONFIG
+  val CompressionZstdDictionariesProp = TopicConfig.COMPRESSION_ZSTD_DICTIONARIES_CONFIG
 
   // Leave these out of TopicConfig for now as they are replication quota configs
   val LeaderReplicationThrottledReplicasProp = "leader.replication.throttled.replicas"
@@ -171,6 +177,8 @@ object LogConfig {
   val MessageTimestampTypeDoc = TopicConfig.MESSAGE_TIMESTAMP_TYPE_DOC
   val MessageTimestampDifferenceMaxMsDoc = TopicConfig.MESSAGE_TIMESTAMP_DIFFERENCE_MAX_MS_DOC
   val MessageDownConversionEnableDoc = TopicConfig.MESSAGE_DOWNCONVERSION_ENABLE_DOC
+  val MessageDictionaryEncodingEnableDoc = TopicConfig.MESSAGE_DICTIONARY_ENCODING_ENABLE_DOC
+  val CompressionZstdDictionariesDoc = TopicConfig.COMPRESSION_ZSTD_DICTIONARIES_DOC
 
   val LeaderReplicationThrottledReplicasDoc = "A list of replicas for which log replication should be throttled on " +
     "the leader side. The list should describe a set of replicas in the form " +
@@ -183,6 +191,23 @@ object LogConfig {
 
   private[log] val ServerDefaultHeaderName = "Server Default Property"
 
+  private object ZstdDictionariesValidator extends Validator {
+    override def ensureValid(name: String, value: Any): Unit = {
+      val ids = mutable.Set[Int]()
+      value.asInstanceOf[java.util.List[_]].asScala.foreach { dictionary =>
+        val id = try dictionary.toString.trim.toInt
+        catch {
+          case _: NumberFormatException =>
+            throw new ConfigException(name, dictionary, s"$name must be a list of zstd dictionary ids")
+        }
+        if (!ids.add(id))
+          throw new ConfigException(name, dictionary, s"$name has the zstd dictionary id $id more than once")
+      }
+    }
+
+    override def toString: String = "[zstd dictionary id],..."
+  }
+
   // Package private for testing
   private[log] class LogConfigDef(base: ConfigDef) extends ConfigDef(base) {
     def this() = this(new ConfigDef)
@@ -291,6 +316,11 @@ object LogConfig {
         FollowerReplicationThrottledReplicasDoc, FollowerReplicationThrottledReplicasProp)
       .define(MessageDownConversionEnableProp, BOOLEAN, Defaults.MessageDownConversionEnable, LOW,
         MessageDownConversionEnableDoc, KafkaConfig.LogMessageDownConversionEnableProp)
+      .define(MessageDictionaryEncodingEnableProp, BOOLEAN, Defaults.MessageDictionaryEncodingEnable, LOW,
+        MessageDictionaryEncodingEnableDoc, KafkaConfig.LogMessageDictionaryEncodingEnableProp)
+      // dictionaries are trained for the records of a topic, so there is no broker default
+      .define(CompressionZstdDictionariesProp, LIST, Defaults.CompressionZstdDictionaries, ZstdDictionariesValidator, LOW,
+        CompressionZstdDictionariesDoc, CompressionZstdDictionariesProp)
   }
 
   def apply(): LogConfig = LogConfig(new Properties())
@@ -368,7 +398,8 @@ object LogConfig {
     MessageFormatVersionProp -> KafkaConfig.LogMessageFormatVersionProp,
     MessageTimestampTypeProp -> KafkaConfig.LogMessageTimestampTypeProp,
     MessageTimestampDifferenceMaxMsProp -> KafkaConfig.LogMessageTimestampDifferenceMaxMsProp,
-    MessageDownConversionEnableProp -> KafkaConfig.LogMessageDownConversionEnableProp
+    MessageDownConversionEnableProp -> KafkaConfig.LogMessageDownConversionEnableProp,
+    MessageDictionaryEncodingEnableProp -> KafkaConfig.LogMessageDictionaryEncodingEnableProp
   )
 
 }
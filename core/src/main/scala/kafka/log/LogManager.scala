@@ -61,7 +61,9 @@ class LogManager(logDirs: Seq[File],
                  val brokerState: BrokerState,
                  brokerTopicStats: BrokerTopicStats,
                  logDirFailureChannel: LogDirFailureChannel,
-                 time: Time) extends Logging with KafkaMetricsGroup {
+                 time: Time,
+                 val numProducerBatchesToRetain: Int = ProducerStateManager.DefaultRetainedBatches,
+                 zstdDictionaryRegistry: Option[ZstdDictionaryRegistry] = None) extends Logging with KafkaMetricsGroup {
 
   import LogManager._
 
@@ -269,11 +271,13 @@ class LogManager(logDirs: Seq[File],
       scheduler = scheduler,
       time = time,
       brokerTopicStats = brokerTopicStats,
-      logDirFailureChannel = logDirFailureChannel)
+      logDirFailureChannel = logDirFailureChannel,
+      numProducerBatchesToRetain = numProducerBatchesToRetain)
 
     if (logDir.getName.endsWith(Log.DeleteDirSuffix)) {
       addLogToBeDeleted(log)
     } else {
+      updateZstdDictionaries(log)
       val previous = {
         if (log.isFuture)
           this.futureLogs.put(topicPartition, log)
@@ -674,6 +678,19 @@ class LogManager(logDirs: Seq[File],
     partitionsInitializing.keys.filter(_.topic() == topic).foreach {
       topicPartition => partitionsInitializing.replace(topicPartition, false, true)
     }
+    // a zstd dictionary may have been registered for the topic, which has to be readable before the config refers to it
+    zstdDictionaryRegistry.foreach { registry =>
+      registry.invalidate(topic)
+      logsByTopic(topic).foreach(updateZstdDictionaries)
+    }
+  }
+
+  /**
+   * Give the log the zstd dictionaries registered for its topic. They are kept until the topic is deleted, so a log
+   * created after a dictionary is removed from the topic config can still read the batches compressed with it.
+   */
+  private def updateZstdDictionaries(log: Log): Unit = {
+    zstdDictionaryRegistry.foreach(registry => log.updateZstdDictionaries(registry.dictionaries(log.topicPartition.topic)))
   }
 
   /**
@@ -757,7 +774,9 @@ class LogManager(logDirs: Seq[File],
           scheduler = scheduler,
           time = time,
           brokerTopicStats = brokerTopicStats,
-          logDirFailureChannel = logDirFailureChannel)
+          logDirFailureChannel = logDirFailureChannel,
+          numProducerBatchesToRetain = numProducerBatchesToRetain)
+        updateZstdDictionaries(log)
 
         if (isFuture)
           futureLogs.put(topicPartition, log)
@@ -908,6 +927,8 @@ class LogManager(logDirs: Seq[File],
         currentLogs.remove(topicPartition)
     }
     if (removedLog != null) {
+      // the topic may be deleted, and a topic created with the same name has its own dictionaries
+      zstdDictionaryRegistry.foreach(_.invalidate(topicPartition.topic))
       //We need to wait until there is no more cleaning task on the log to be deleted before actually deleting it.
       if (cleaner != null && !isFuture) {
         cleaner.abortCleaning(topicPartition)
@@ -1081,6 +1102,8 @@ object LogManager {
       brokerState = brokerState,
       brokerTopicStats = brokerTopicStats,
       logDirFailureChannel = logDirFailureChannel,
-      time = time)
+      time = time,
+      numProducerBatchesToRetain = config.producerStateRetainedBatches,
+      zstdDictionaryRegistry = Some(new ZkZstdDictionaryRegistry(zkClient)))
   }
 }
@@ -117,6 +117,10 @@ class LogSegment private[log] (val log: FileRecords,
     _offsetOfMaxTimestampSoFar.get
   }
 
+  /* The summary of the keys retained in this segment if it was written by the log cleaner. It only lives in memory,
+   * so it is lost on restart and the segment is then recopied by the next cleaning of the log like any other */
+  @volatile private[log] var keySummary: Option[SegmentKeySummary] = None
+
   /* Return the size in bytes of this log segment */
   def size: Int = log.sizeInBytes()
 
@@ -570,15 +574,17 @@ class LogSegment private[log] (val log: FileRecords,
    *
    * @param timestamp The timestamp to search for.
    * @param startingOffset The starting offset to search.
+   * @param zstdDictionaries The zstd dictionaries the batches may be compressed with.
    * @return the timestamp and offset of the first message that meets the requirements. None will be returned if there is no such message.
    */
-  def findOffsetByTimestamp(timestamp: Long, startingOffset: Long = baseOffset): Option[TimestampAndOffset] = {
+  def findOffsetByTimestamp(timestamp: Long, startingOffset: Long = baseOffset,
+                            zstdDictionaries: ZstdDictionaries = ZstdDictionaries.EMPTY): Option[TimestampAndOffset] = {
     // Get the index entry with a timestamp less than or equal to the target timestamp
     val timestampOffset = timeIndex.lookup(timestamp)
     val position = offsetIndex.lookup(math.max(timestampOffset.offset, startingOffset)).position
 
     // Search the timestamp
-    Option(log.searchForTimestamp(timestamp, position, startingOffset))
+    Option(log.searchForTimestamp(timestamp, position, startingOffset, zstdDictionaries))
   }
 
   /**
@@ -18,13 +18,13 @@ package kafka.log
 
 import java.nio.ByteBuffer
 
-import kafka.api.{ApiVersion, KAFKA_2_1_IV0}
+import kafka.api.{ApiVersion, KAFKA_2_1_IV0, KAFKA_2_5_IV0}
 import kafka.common.{LongRef, RecordValidationException}
 import kafka.message.{CompressionCodec, NoCompressionCodec, ZStdCompressionCodec}
 import kafka.server.BrokerTopicStats
 import kafka.utils.Logging
 import org.apache.kafka.common.errors.{CorruptRecordException, InvalidTimestampException, UnsupportedCompressionTypeException, UnsupportedForMessageFormatException}
-import org.apache.kafka.common.record.{AbstractRecords, BufferSupplier, CompressionType, MemoryRecords, Record, RecordBatch, RecordConversionStats, TimestampType}
+import org.apache.kafka.common.record.{AbstractRecords, BufferSupplier, CompressionType, DefaultRecordBatch, MemoryRecords, MemoryRecordsBuilder, Record, RecordBatch, RecordConversionStats, TimestampType, ZstdDictionaries, ZstdDictionary}
 import org.apache.kafka.common.InvalidRecordException
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.protocol.Errors
@@ -70,9 +70,14 @@ private[log] object LogValidator extends Logging {
    * 3. When magic value >= 1, validate and maybe overwrite timestamps of messages.
    * 4. Declared count of records in DefaultRecordBatch must match number of valid records contained therein.
    *
-   * This method will convert messages as necessary to the topic's configured message format version. If no format
-   * conversion or value overwriting is required for messages, this method will perform in-place operations to
-   * avoid expensive re-compression.
+   * This method will convert messages as necessary to the topic's configured message format version, and dictionary
+   * encoded batches to the plain encoding unless the topic allows the dictionary encoding. Batches compressed with a
+   * zstd dictionary which is not one of the topic's are recompressed, and the first of the topic's zstd dictionaries is
+   * used whenever batches are compressed with zstd. Batches compressed with a zstd dictionary are read with the
+   * dictionaries of the log, which include the topic's. Until the inter.broker.protocol.version is 2.5 or higher, so
+   * that every replica can read them, neither dictionary encoded batches nor batches compressed with a zstd dictionary
+   * are written. If no format conversion or value overwriting is required for messages, this method will perform
+   * in-place operations to avoid expensive re-compression.
    *
    * Returns a ValidationAndOffsetAssignResult containing the validated message set, maximum timestamp, the offset
    * of the shallow message with the max timestamp and a boolean indicating whether the message sizes may have changed.
@@ -91,10 +96,17 @@ private[log] object LogValidator extends Logging {
                                                     partitionLeaderEpoch: Int,
                                                     origin: AppendOrigin,
                                                     interBrokerProtocolVersion: ApiVersion,
-                                                    brokerTopicStats: BrokerTopicStats): ValidationAndOffsetAssignResult = {
+                                                    brokerTopicStats: BrokerTopicStats,
+                                                    dictionaryEncodingEnabled: Boolean = false,
+                                                    zstdDictionaries: Seq[ZstdDictionary] = Seq.empty,
+                                                    readableZstdDictionaries: ZstdDictionaries = ZstdDictionaries.EMPTY): ValidationAndOffsetAssignResult = {
+    val dictionariesSupported = interBrokerProtocolVersion >= KAFKA_2_5_IV0
+    val encodingEnabled = dictionaryEncodingEnabled && dictionariesSupported
+    val topicZstdDictionaries = if (dictionariesSupported) zstdDictionaries else Seq.empty
+
     if (sourceCodec == NoCompressionCodec && targetCodec == NoCompressionCodec) {
-      // check the magic value
-      if (!records.hasMatchingMagic(magic))
+      // check the magic value and the encoding
+      if (!records.hasMatchingMagic(magic) || (!encodingEnabled && records.batches.asScala.exists(_.isDictionaryEncoded)))
         convertAndAssignOffsetsNonCompressed(records, topicPartition, offsetCounter, compactedTopic, time, now, timestampType,
           timestampDiffMaxMs, magic, partitionLeaderEpoch, origin, brokerTopicStats)
       else
@@ -103,7 +115,8 @@ private[log] object LogValidator extends Logging {
           partitionLeaderEpoch, origin, magic, brokerTopicStats)
     } else {
       validateMessagesAndAssignOffsetsCompressed(records, topicPartition, offsetCounter, time, now, sourceCodec, targetCodec, compactedTopic,
-        magic, timestampType, timestampDiffMaxMs, partitionLeaderEpoch, origin, interBrokerProtocolVersion, brokerTopicStats)
+        magic, timestampType, timestampDiffMaxMs, partitionLeaderEpoch, origin, interBrokerProtocolVersion, brokerTopicStats,
+        encodingEnabled, topicZstdDictionaries, readableZstdDictionaries)
     }
   }
 
@@ -126,6 +139,11 @@ private[log] object LogValidator extends Logging {
     batch
   }
 
+  private def usesOneOfZstdDictionaries(batch: RecordBatch, zstdDictionaries: Seq[ZstdDictionary]): Boolean = batch match {
+    case defaultBatch: DefaultRecordBatch => zstdDictionaries.exists(_.id == defaultBatch.zstdDictionaryId)
+    case _ => false
+  }
+
   private def validateBatch(topicPartition: TopicPartition,
                             firstBatch: RecordBatch,
                             batch: RecordBatch,
@@ -338,6 +356,8 @@ private[log] object LogValidator extends Logging {
    * 1. Source and target compression codec are different
    * 2. When the target magic is not equal to batches' magic, meaning format conversion is needed.
    * 3. When the target magic is equal to V0, meaning absolute offsets need to be re-assigned.
+   * 4. When the batch is dictionary encoded but the topic does not allow the encoding.
+   * 5. When the batch is compressed with a zstd dictionary which is not one of the topic's.
    */
   def validateMessagesAndAssignOffsetsCompressed(records: MemoryRecords,
                                                  topicPartition: TopicPartition,
@@ -353,7 +373,10 @@ private[log] object LogValidator extends Logging {
                                                  partitionLeaderEpoch: Int,
                                                  origin: AppendOrigin,
                                                  interBrokerProtocolVersion: ApiVersion,
-                                                 brokerTopicStats: BrokerTopicStats): ValidationAndOffsetAssignResult = {
+                                                 brokerTopicStats: BrokerTopicStats,
+                                                 dictionaryEncodingEnabled: Boolean = false,
+                                                 zstdDictionaries: Seq[ZstdDictionary] = Seq.empty,
+                                                 readableZstdDictionaries: ZstdDictionaries = ZstdDictionaries.EMPTY): ValidationAndOffsetAssignResult = {
 
     if (targetCodec == ZStdCompressionCodec && interBrokerProtocolVersion < KAFKA_2_1_IV0)
       throw new UnsupportedCompressionTypeException("Produce requests to inter.broker.protocol.version < 2.1 broker " +
@@ -396,6 +419,15 @@ private[log] object LogValidator extends Logging {
     if (firstBatch.magic != toMagic || toMagic == RecordBatch.MAGIC_VALUE_V0)
       inPlaceAssignment = false
 
+    // No in place assignment situation 4: the batch is dictionary encoded, but the topic does not allow the encoding
+    if (firstBatch.isDictionaryEncoded && !dictionaryEncodingEnabled)
+      inPlaceAssignment = false
+
+    // No in place assignment situation 5: the batch is compressed with a zstd dictionary which is not one of the
+    // topic's, which consumers may not have configured
+    if (firstBatch.usesZstdDictionary && !usesOneOfZstdDictionaries(firstBatch, zstdDictionaries))
+      inPlaceAssignment = false
+
     // Do not compress control records unless they are written compressed
     if (sourceCodec == NoCompressionCodec && firstBatch.isControlBatch)
       inPlaceAssignment = true
@@ -408,13 +440,13 @@ private[log] object LogValidator extends Logging {
       // if we are on version 2 and beyond, and we know we are going for in place assignment,
       // then we can optimize the iterator to skip key / value / headers since they would not be used at all
       val recordsIterator = if (inPlaceAssignment && firstBatch.magic >= RecordBatch.MAGIC_VALUE_V2)
-        batch.skipKeyValueIterator(BufferSupplier.NO_CACHING)
+        batch.skipKeyValueIterator(BufferSupplier.NO_CACHING, readableZstdDictionaries)
       else
-        batch.streamingIterator(BufferSupplier.NO_CACHING)
+        batch.streamingIterator(BufferSupplier.NO_CACHING, readableZstdDictionaries)
 
       try {
         val recordErrors = new ArrayBuffer[ApiRecordError](0)
-        for ((record, batchIndex) <- batch.asScala.view.zipWithIndex) {
+        for ((record, batchIndex) <- recordsIterator.asScala.zipWithIndex) {
           val expectedOffset = expectedInnerOffset.getAndIncrement()
           val recordError = validateRecordCompression(batchIndex, record).orElse {
             validateRecord(batch, topicPartition, record, batchIndex, now,
@@ -450,7 +482,7 @@ private[log] object LogValidator extends Logging {
       }
       buildRecordsAndAssignOffsets(toMagic, offsetCounter, time, timestampType, CompressionType.forId(targetCodec.codec),
         now, validatedRecords, producerId, producerEpoch, sequence, isTransactional, partitionLeaderEpoch,
-        uncompressedSizeInBytes)
+        uncompressedSizeInBytes, zstdDictionaries.headOption)
     } else {
       // we can update the batch only and write the compressed payload as is;
       // again we assume only one record batch within the compressed set
@@ -489,13 +521,21 @@ private[log] object LogValidator extends Logging {
                                            baseSequence: Int,
                                            isTransactional: Boolean,
                                            partitionLeaderEpoch: Int,
-                                           uncompressedSizeInBytes: Int): ValidationAndOffsetAssignResult = {
+                                           uncompressedSizeInBytes: Int,
+                                           zstdDictionary: Option[ZstdDictionary] = None): ValidationAndOffsetAssignResult = {
     val startNanos = time.nanoseconds
     val estimatedSize = AbstractRecords.estimateSizeInBytes(magic, offsetCounter.value, compressionType,
       validatedRecords.asJava)
     val buffer = ByteBuffer.allocate(estimatedSize)
-    val builder = MemoryRecords.builder(buffer, magic, compressionType, timestampType, offsetCounter.value,
-      logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch)
+    val builder = zstdDictionary.filter(_ => compressionType == CompressionType.ZSTD && magic >= RecordBatch.MAGIC_VALUE_V2) match {
+      case Some(dictionary) =>
+        new MemoryRecordsBuilder(buffer, magic, compressionType, timestampType, offsetCounter.value, logAppendTime,
+          producerId, producerEpoch, baseSequence, isTransactional, false, partitionLeaderEpoch, buffer.remaining, false,
+          dictionary)
+      case None =>
+        MemoryRecords.builder(buffer, magic, compressionType, timestampType, offsetCounter.value,
+          logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch)
+    }
 
     validatedRecords.foreach { record =>
       builder.appendWithOffset(offsetCounter.getAndIncrement(), record)
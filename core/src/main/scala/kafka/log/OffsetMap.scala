@@ -19,7 +19,7 @@ package kafka.log
 
 import java.util.Arrays
 import java.security.MessageDigest
-import java.nio.ByteBuffer
+import java.nio.{ByteBuffer, ByteOrder}
 import kafka.utils._
 import org.apache.kafka.common.utils.Utils
 
@@ -32,6 +32,34 @@ trait OffsetMap {
   def size: Int
   def utilization: Double = size.toDouble / slots
   def latestOffset: Long
+
+  /**
+   * Whether `get` may be called by several threads at once while no entries are put into the map
+   */
+  def supportsConcurrentReads: Boolean = false
+
+  /**
+   * Whether an entry with the given offset can be put into the map while it has free slots. Offsets are put in
+   * increasing order, and a map which cannot take the next one is full.
+   */
+  def canPut(offset: Long): Boolean = true
+}
+
+object OffsetMap {
+  /* the hash algorithm name which selects the Murmur3OffsetMap instead of a message digest */
+  val Murmur3HashAlgorithm = "MURMUR3"
+
+  /**
+   * Create the offset map used by the cleaner for the given hash algorithm
+   * @param memory The amount of memory the map can use
+   * @param hashAlgorithm MURMUR3 or the name of a message digest algorithm
+   */
+  def apply(memory: Int, hashAlgorithm: String): OffsetMap = {
+    if (hashAlgorithm == Murmur3HashAlgorithm)
+      new Murmur3OffsetMap(memory)
+    else
+      new SkimpyOffsetMap(memory, hashAlgorithm)
+  }
 }
 
 /**
@@ -199,3 +227,292 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
   }
   
 }
+
+/**
+ * A hash table used for deduplicating the log which, like [[SkimpyOffsetMap]], stores a hash of the key as a proxy for
+ * the key. The hash is computed with the non-cryptographic Murmur3 x64 128-bit function, which is much cheaper than a
+ * message digest, and the entries are kept off-heap. Each entry takes 16 bytes: the first 96 bits of the hash and the
+ * offset relative to the first offset put into the map since it was cleared. 96 bits keep a false match of a key
+ * against the entries of a full map astronomically unlikely even across billions of lookups, and an offset which is
+ * more than 2^32 - 1 past the first one cannot be put (see [[canPut]]), in which case the cleaner treats the map as
+ * full. Collisions are resolved by linear probing with Robin Hood displacement, which keeps probe sequences short so
+ * that lookups of missing keys terminate early even when the map is nearly full. This hash table does not support
+ * deletes.
+ * @param memory The amount of memory this map can use
+ */
+@nonthreadsafe
+class Murmur3OffsetMap(val memory: Int) extends OffsetMap {
+  private val bytes = ByteBuffer.allocateDirect(memory)
+
+  /* the hash of the last key put, kept in a field to avoid allocating on each put */
+  private val hash = new Array[Long](2)
+
+  /* the hash of the last key looked up by each thread, so that several threads can look keys up at once */
+  private val lookupHash = ThreadLocal.withInitial[Array[Long]](() => new Array[Long](2))
+
+  /* number of entries put into the map */
+  private var entries = 0
+
+  /* the offset the offsets of the entries are relative to, the first offset put since the map was cleared */
+  private var baseOffset = -1L
+
+  /* the latest offset written into the map */
+  private var lastOffset = -1L
+
+  /**
+   * The number of bytes of space each entry uses (a 12 byte hash plus a 4 byte relative offset)
+   */
+  val bytesPerEntry = 16
+
+  /**
+   * The maximum number of entries this map can contain
+   */
+  val slots: Int = memory / bytesPerEntry
+
+  /**
+   * Associate this offset to the given key. The offset must not be lower than the first offset put into the map.
+   * @param key The key
+   * @param offset The offset
+   */
+  override def put(key: ByteBuffer, offset: Long): Unit = {
+    require(entries < slots, "Attempt to add a new entry to a full offset map.")
+    require(canPut(offset), s"Attempt to add offset $offset out of the range of the offset map from $baseOffset.")
+    if (baseOffset < 0)
+      baseOffset = offset
+    Murmur3OffsetMap.hash128(key, hash)
+    lastOffset = offset
+
+    var high = hash(0)
+    var low = Murmur3OffsetMap.truncatedLow(hash)
+    var entryOffset = (offset - baseOffset).toInt
+    var slot = homeSlot(high)
+    var distance = 0
+    var displaced = false
+    while (!isEmpty(slot)) {
+      val pos = slot * bytesPerEntry
+      val slotHigh = bytes.getLong(pos)
+      val slotLow = bytes.getInt(pos + 8)
+      if (!displaced && slotHigh == high && slotLow == low) {
+        // we found an existing entry, overwrite it and return (size does not change)
+        bytes.putInt(pos + 12, entryOffset)
+        return
+      }
+      val slotDistance = probeDistance(slotHigh, slot)
+      if (slotDistance < distance) {
+        // the resident entry is closer to its home slot, so it gives its slot up and is moved further along instead
+        val slotOffset = bytes.getInt(pos + 12)
+        writeEntry(slot, high, low, entryOffset)
+        high = slotHigh
+        low = slotLow
+        entryOffset = slotOffset
+        distance = slotDistance
+        displaced = true
+      }
+      slot = nextSlot(slot)
+      distance += 1
+    }
+    // found an empty slot, update it--size grows by 1
+    writeEntry(slot, high, low, entryOffset)
+    entries += 1
+  }
+
+  /**
+   * Get the offset associated with this key.
+   * @param key The key
+   * @return The offset associated with this key or -1 if the key is not found
+   */
+  override def get(key: ByteBuffer): Long = {
+    val keyHash = lookupHash.get
+    Murmur3OffsetMap.hash128(key, keyHash)
+    val high = keyHash(0)
+    val low = Murmur3OffsetMap.truncatedLow(keyHash)
+    var slot = homeSlot(high)
+    var distance = 0
+    // an entry is never further from its home slot than the entries which precede it in its probe sequence,
+    // so the search can stop as soon as it reaches an entry which is closer to its own home slot
+    while (distance < slots && !isEmpty(slot)) {
+      val pos = slot * bytesPerEntry
+      val slotHigh = bytes.getLong(pos)
+      if (slotHigh == high && bytes.getInt(pos + 8) == low)
+        return baseOffset + Integer.toUnsignedLong(bytes.getInt(pos + 12))
+      if (probeDistance(slotHigh, slot) < distance)
+        return -1L
+      slot = nextSlot(slot)
+      distance += 1
+    }
+    -1L
+  }
+
+  /**
+   * Only offsets which are at most 2^32 - 1 past the first offset put since the map was cleared fit into an entry
+   */
+  override def canPut(offset: Long): Boolean =
+    baseOffset < 0 || (offset >= baseOffset && offset - baseOffset <= Murmur3OffsetMap.MaxRelativeOffset)
+
+  /**
+   * Remove all the entries from the map
+   */
+  override def clear(): Unit = {
+    this.entries = 0
+    this.baseOffset = -1L
+    this.lastOffset = -1L
+    var pos = 0
+    while (pos + 8 <= memory) {
+      bytes.putLong(pos, 0L)
+      pos += 8
+    }
+  }
+
+  /**
+   * The number of entries put into the map (note that not all may remain)
+   */
+  override def size: Int = entries
+
+  /**
+   * The latest offset put into the map
+   */
+  override def latestOffset: Long = lastOffset
+
+  override def updateLatestOffset(offset: Long): Unit = {
+    lastOffset = offset
+  }
+
+  /**
+   * Lookups only use absolute reads of the entries and their own hash buffer
+   */
+  override def supportsConcurrentReads: Boolean = true
+
+  /**
+   * Check that there is no entry in the given slot. The all-zero truncated hash is reserved to mark empty slots.
+   */
+  private def isEmpty(slot: Int): Boolean = {
+    val pos = slot * bytesPerEntry
+    bytes.getLong(pos) == 0 && bytes.getInt(pos + 8) == 0
+  }
+
+  private def writeEntry(slot: Int, high: Long, low: Int, relativeOffset: Int): Unit = {
+    val pos = slot * bytesPerEntry
+    bytes.putLong(pos, high)
+    bytes.putInt(pos + 8, low)
+    bytes.putInt(pos + 12, relativeOffset)
+  }
+
+  private def homeSlot(high: Long): Int = ((high >>> 1) % slots).toInt
+
+  private def nextSlot(slot: Int): Int = if (slot + 1 == slots) 0 else slot + 1
+
+  private def probeDistance(high: Long, slot: Int): Int = {
+    val home = homeSlot(high)
+    if (slot >= home) slot - home else slot + slots - home
+  }
+
+}
+
+private[log] object Murmur3OffsetMap {
+  private val C1 = 0x87c37b91114253d5L
+  private val C2 = 0x4cf5ad432745937fL
+
+  /* the largest offset, relative to the first one, which fits into the 32 bits of an entry */
+  private val MaxRelativeOffset = 0xffffffffL
+
+  /**
+   * The 32 bits of the second half of the hash which are kept in an entry. The truncated hash is never all-zero.
+   */
+  private def truncatedLow(hash: Array[Long]): Int = {
+    val low = (hash(1) >>> 32).toInt
+    if (hash(0) == 0 && low == 0) 1 else low
+  }
+
+  /**
+   * Compute the Murmur3 x64 128-bit hash of the remaining bytes of the key into the first two elements of `hash`
+   * without changing the position of the key. The all-zero hash is never returned.
+   */
+  private[log] def hash128(key: ByteBuffer, hash: Array[Long]): Unit = {
+    val start = key.position()
+    val length = key.remaining
+    val littleEndian = key.order == ByteOrder.LITTLE_ENDIAN
+    def blockAt(index: Int): Long = {
+      val block = key.getLong(index)
+      if (littleEndian) block else java.lang.Long.reverseBytes(block)
+    }
+
+    var h1 = 0L
+    var h2 = 0L
+    val numBlocks = length >> 4
+    var i = 0
+    while (i < numBlocks) {
+      var k1 = blockAt(start + i * 16)
+      var k2 = blockAt(start + i * 16 + 8)
+
+      k1 *= C1
+      k1 = java.lang.Long.rotateLeft(k1, 31)
+      k1 *= C2
+      h1 ^= k1
+      h1 = java.lang.Long.rotateLeft(h1, 27)
+      h1 += h2
+      h1 = h1 * 5 + 0x52dce729
+
+      k2 *= C2
+      k2 = java.lang.Long.rotateLeft(k2, 33)
+      k2 *= C1
+      h2 ^= k2
+      h2 = java.lang.Long.rotateLeft(h2, 31)
+      h2 += h1
+      h2 = h2 * 5 + 0x38495ab5
+      i += 1
+    }
+
+    // tail
+    val tailStart = start + (numBlocks << 4)
+    val tailLength = length & 15
+    var k1 = 0L
+    var k2 = 0L
+    var j = tailLength - 1
+    while (j >= 8) {
+      k2 ^= (key.get(tailStart + j) & 0xffL) << ((j - 8) * 8)
+      j -= 1
+    }
+    while (j >= 0) {
+      k1 ^= (key.get(tailStart + j) & 0xffL) << (j * 8)
+      j -= 1
+    }
+    if (tailLength > 8) {
+      k2 *= C2
+      k2 = java.lang.Long.rotateLeft(k2, 33)
+      k2 *= C1
+      h2 ^= k2
+    }
+    if (tailLength > 0) {
+      k1 *= C1
+      k1 = java.lang.Long.rotateLeft(k1, 31)
+      k1 *= C2
+      h1 ^= k1
+    }
+
+    // finalization
+    h1 ^= length
+    h2 ^= length
+    h1 += h2
+    h2 += h1
+    h1 = fmix64(h1)
+    h2 = fmix64(h2)
+    h1 += h2
+    h2 += h1
+
+    // the all-zero hash marks empty slots, so move the (astronomically unlikely) key hashing to it elsewhere
+    if (h1 == 0 && h2 == 0)
+      h2 = 1
+    hash(0) = h1
+    hash(1) = h2
+  }
+
+  private def fmix64(hash: Long): Long = {
+    var h = hash
+    h ^= (h >>> 33)
+    h *= 0xff51afd7ed558ccdL
+    h ^= (h >>> 33)
+    h *= 0xc4ceb9fe1a85ec53L
+    h ^= (h >>> 33)
+    h
+  }
+}
@@ -55,10 +55,8 @@ private[log] case class TxnMetadata(producerId: Long, var firstOffset: LogOffset
 }
 
 private[log] object ProducerStateEntry {
-  private[log] val NumBatchesToRetain = 5
-
-  def empty(producerId: Long) = new ProducerStateEntry(producerId,
-    batchMetadata = mutable.Queue[BatchMetadata](),
+  def empty(producerId: Long, numBatchesToRetain: Int = ProducerStateManager.DefaultRetainedBatches) = new ProducerStateEntry(producerId,
+    batchMetadata = new BatchMetadataWindow(numBatchesToRetain),
     producerEpoch = RecordBatch.NO_PRODUCER_EPOCH,
     coordinatorEpoch = -1,
     lastTimestamp = RecordBatch.NO_TIMESTAMP,
@@ -79,11 +77,125 @@ private[log] case class BatchMetadata(lastSeq: Int, lastOffset: Long, offsetDelt
   }
 }
 
-// the batchMetadata is ordered such that the batch with the lowest sequence is at the head of the queue while the
-// batch with the highest sequence is at the tail of the queue. We will retain at most ProducerStateEntry.NumBatchesToRetain
-// elements in the queue. When the queue is at capacity, we remove the first element to make space for the incoming batch.
+/**
+ * The metadata of the most recent batches of a producer, ordered such that the batch with the lowest sequence is at
+ * the front while the batch with the highest sequence is at the back. At most maxSize batches are retained: when the
+ * window is full, the first batch is removed to make space for the incoming batch.
+ *
+ * The fields of the batches are kept in primitive arrays used as a ring buffer rather than as BatchMetadata instances,
+ * so that a large window costs 24 bytes per batch. The arrays grow as batches are added, so producers which never
+ * have many batches in flight do not pay for the size of the window.
+ */
+@nonthreadsafe
+private[log] class BatchMetadataWindow(val maxSize: Int) {
+  private var lastSeqs = new Array[Int](1)
+  private var offsetDeltas = new Array[Int](1)
+  private var lastOffsets = new Array[Long](1)
+  private var timestamps = new Array[Long](1)
+  private var head = 0
+  private var count = 0
+
+  if (maxSize < 1)
+    throw new IllegalArgumentException(s"The window must retain at least one batch, but its size is $maxSize")
+
+  def size: Int = count
+
+  def isEmpty: Boolean = count == 0
+
+  def nonEmpty: Boolean = count > 0
+
+  def front: BatchMetadata = apply(0)
+
+  def last: BatchMetadata = apply(count - 1)
+
+  def headOption: Option[BatchMetadata] = if (isEmpty) None else Some(front)
+
+  def apply(index: Int): BatchMetadata = {
+    val i = slot(index)
+    BatchMetadata(lastSeqs(i), lastOffsets(i), offsetDeltas(i), timestamps(i))
+  }
+
+  def lastSeq(index: Int): Int = lastSeqs(slot(index))
+
+  def lastOffset(index: Int): Long = lastOffsets(slot(index))
+
+  def offsetDelta(index: Int): Int = offsetDeltas(slot(index))
+
+  def add(batch: BatchMetadata): Unit = add(batch.lastSeq, batch.lastOffset, batch.offsetDelta, batch.timestamp)
+
+  def add(lastSeq: Int, lastOffset: Long, offsetDelta: Int, timestamp: Long): Unit = {
+    if (count == maxSize)
+      removeFirst()
+    if (count == lastSeqs.length)
+      grow()
+    val i = (head + count) % lastSeqs.length
+    lastSeqs(i) = lastSeq
+    lastOffsets(i) = lastOffset
+    offsetDeltas(i) = offsetDelta
+    timestamps(i) = timestamp
+    count += 1
+  }
+
+  def removeFirst(): BatchMetadata = {
+    val first = front
+    head = (head + 1) % lastSeqs.length
+    count -= 1
+    first
+  }
+
+  def clear(): Unit = {
+    head = 0
+    count = 0
+  }
+
+  /**
+   * Find the batch with the exact sequence range, searching from the most recent batch since retried batches are
+   * usually among the last ones
+   */
+  def find(firstSeq: Int, lastSeq: Int): Option[BatchMetadata] = {
+    var index = count - 1
+    while (index >= 0) {
+      val i = slot(index)
+      if (lastSeqs(i) == lastSeq && DefaultRecordBatch.decrementSequence(lastSeq, offsetDeltas(i)) == firstSeq)
+        return Some(apply(index))
+      index -= 1
+    }
+    None
+  }
+
+  def toSeq: Seq[BatchMetadata] = (0 until count).map(apply)
+
+  private def slot(index: Int): Int = {
+    if (index < 0 || index >= count)
+      throw new IndexOutOfBoundsException(s"Index $index is out of the $count batches of the window")
+    (head + index) % lastSeqs.length
+  }
+
+  private def grow(): Unit = {
+    val capacity = math.min(maxSize, lastSeqs.length * 2)
+    val newLastSeqs = new Array[Int](capacity)
+    val newLastOffsets = new Array[Long](capacity)
+    val newOffsetDeltas = new Array[Int](capacity)
+    val newTimestamps = new Array[Long](capacity)
+    for (index <- 0 until count) {
+      val i = slot(index)
+      newLastSeqs(index) = lastSeqs(i)
+      newLastOffsets(index) = lastOffsets(i)
+      newOffsetDeltas(index) = offsetDeltas(i)
+      newTimestamps(index) = timestamps(i)
+    }
+    lastSeqs = newLastSeqs
+    lastOffsets = newLastOffsets
+    offsetDeltas = newOffsetDeltas
+    timestamps = newTimestamps
+    head = 0
+  }
+
+  override def toString: String = toSeq.mkString("[", ", ", "]")
+}
+
 private[log] class ProducerStateEntry(val producerId: Long,
-                                      val batchMetadata: mutable.Queue[BatchMetadata],
+                                      val batchMetadata: BatchMetadataWindow,
                                       var producerEpoch: Short,
                                       var coordinatorEpoch: Int,
                                       var lastTimestamp: Long,
@@ -93,17 +205,17 @@ private[log] class ProducerStateEntry(val producerId: Long,
 
   def firstDataOffset: Long = if (isEmpty) -1L else batchMetadata.front.firstOffset
 
-  def lastSeq: Int = if (isEmpty) RecordBatch.NO_SEQUENCE else batchMetadata.last.lastSeq
+  def lastSeq: Int = if (isEmpty) RecordBatch.NO_SEQUENCE else batchMetadata.lastSeq(batchMetadata.size - 1)
 
-  def lastDataOffset: Long = if (isEmpty) -1L else batchMetadata.last.lastOffset
+  def lastDataOffset: Long = if (isEmpty) -1L else batchMetadata.lastOffset(batchMetadata.size - 1)
 
-  def lastOffsetDelta : Int = if (isEmpty) 0 else batchMetadata.last.offsetDelta
+  def lastOffsetDelta : Int = if (isEmpty) 0 else batchMetadata.offsetDelta(batchMetadata.size - 1)
 
   def isEmpty: Boolean = batchMetadata.isEmpty
 
   def addBatch(producerEpoch: Short, lastSeq: Int, lastOffset: Long, offsetDelta: Int, timestamp: Long): Unit = {
     maybeUpdateProducerEpoch(producerEpoch)
-    addBatchMetadata(BatchMetadata(lastSeq, lastOffset, offsetDelta, timestamp))
+    batchMetadata.add(lastSeq, lastOffset, offsetDelta, timestamp)
     this.lastTimestamp = timestamp
   }
 
@@ -117,16 +229,10 @@ private[log] class ProducerStateEntry(val producerId: Long,
     }
   }
 
-  private def addBatchMetadata(batch: BatchMetadata): Unit = {
-    if (batchMetadata.size == ProducerStateEntry.NumBatchesToRetain)
-      batchMetadata.dequeue()
-    batchMetadata.enqueue(batch)
-  }
-
   def update(nextEntry: ProducerStateEntry): Unit = {
     maybeUpdateProducerEpoch(nextEntry.producerEpoch)
     while (nextEntry.batchMetadata.nonEmpty)
-      addBatchMetadata(nextEntry.batchMetadata.dequeue())
+      batchMetadata.add(nextEntry.batchMetadata.removeFirst())
     this.coordinatorEpoch = nextEntry.coordinatorEpoch
     this.currentTxnFirstOffset = nextEntry.currentTxnFirstOffset
     this.lastTimestamp = nextEntry.lastTimestamp
@@ -141,10 +247,7 @@ private[log] class ProducerStateEntry(val producerId: Long,
 
   // Return the batch metadata of the cached batch having the exact sequence range, if any.
   def batchWithSequenceRange(firstSeq: Int, lastSeq: Int): Option[BatchMetadata] = {
-    val duplicate = batchMetadata.filter { metadata =>
-      firstSeq == metadata.firstSeq && lastSeq == metadata.lastSeq
-    }
-    duplicate.headOption
+    batchMetadata.find(firstSeq, lastSeq)
   }
 
   override def toString: String = {
@@ -180,7 +283,7 @@ private[log] class ProducerAppendInfo(val topicPartition: TopicPartition,
                                       val origin: AppendOrigin) extends Logging {
 
   private val transactions = ListBuffer.empty[TxnMetadata]
-  private val updatedEntry = ProducerStateEntry.empty(producerId)
+  private val updatedEntry = ProducerStateEntry.empty(producerId, currentEntry.batchMetadata.maxSize)
 
   updatedEntry.producerEpoch = currentEntry.producerEpoch
   updatedEntry.coordinatorEpoch = currentEntry.coordinatorEpoch
@@ -337,6 +440,8 @@ private[log] class ProducerAppendInfo(val topicPartition: TopicPartition,
 }
 
 object ProducerStateManager {
+  val DefaultRetainedBatches = 5
+
   private val ProducerSnapshotVersion: Short = 1
   private val VersionField = "version"
   private val CrcField = "crc"
@@ -368,7 +473,7 @@ object ProducerStateManager {
     new Field(CrcField, Type.UNSIGNED_INT32, "CRC of the snapshot data"),
     new Field(ProducerEntriesField, new ArrayOf(ProducerSnapshotEntrySchema), "The entries in the producer table"))
 
-  def readSnapshot(file: File): Iterable[ProducerStateEntry] = {
+  def readSnapshot(file: File, numBatchesToRetain: Int = DefaultRetainedBatches): Iterable[ProducerStateEntry] = {
     try {
       val buffer = Files.readAllBytes(file.toPath)
       val struct = PidSnapshotMapSchema.read(ByteBuffer.wrap(buffer))
@@ -393,9 +498,9 @@ object ProducerStateManager {
         val offsetDelta = producerEntryStruct.getInt(OffsetDeltaField)
         val coordinatorEpoch = producerEntryStruct.getInt(CoordinatorEpochField)
         val currentTxnFirstOffset = producerEntryStruct.getLong(CurrentTxnFirstOffsetField)
-        val lastAppendedDataBatches = mutable.Queue.empty[BatchMetadata]
+        val lastAppendedDataBatches = new BatchMetadataWindow(numBatchesToRetain)
         if (offset >= 0)
-          lastAppendedDataBatches += BatchMetadata(seq, offset, offsetDelta, timestamp)
+          lastAppendedDataBatches.add(seq, offset, offsetDelta, timestamp)
 
         val newEntry = new ProducerStateEntry(producerId, lastAppendedDataBatches, producerEpoch,
           coordinatorEpoch, timestamp, if (currentTxnFirstOffset >= 0) Some(currentTxnFirstOffset) else None)
@@ -476,11 +581,16 @@ object ProducerStateManager {
  * age. This ensures that producer ids will not be expired until either the max expiration time has been reached,
  * or if the topic also is configured for deletion, the segment containing the last written offset has
  * been deleted.
+ *
+ * The metadata of the last numBatchesToRetain batches of each producer is retained to detect duplicates, which bounds
+ * the number of requests an idempotent producer may have in flight. Snapshots only contain the last batch of each
+ * producer, so fewer batches are retained after loading from a snapshot.
  */
 @nonthreadsafe
 class ProducerStateManager(val topicPartition: TopicPartition,
                            @volatile var logDir: File,
-                           val maxProducerIdExpirationMs: Int = 60 * 60 * 1000) extends Logging {
+                           val maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
+                           val numBatchesToRetain: Int = ProducerStateManager.DefaultRetainedBatches) extends Logging {
   import ProducerStateManager._
   import java.util
 
@@ -546,7 +656,7 @@ class ProducerStateManager(val topicPartition: TopicPartition,
         case Some(file) =>
           try {
             info(s"Loading producer state from snapshot file '$file'")
-            val loadedProducers = readSnapshot(file).filter { producerEntry => !isProducerExpired(currentTime, producerEntry) }
+            val loadedProducers = readSnapshot(file, numBatchesToRetain).filter { producerEntry => !isProducerExpired(currentTime, producerEntry) }
             loadedProducers.foreach(loadProducerEntry)
             lastSnapOffset = offsetFromFile(file)
             lastMapOffset = lastSnapOffset
@@ -613,7 +723,7 @@ class ProducerStateManager(val topicPartition: TopicPartition,
   }
 
   def prepareUpdate(producerId: Long, origin: AppendOrigin): ProducerAppendInfo = {
-    val currentEntry = lastEntry(producerId).getOrElse(ProducerStateEntry.empty(producerId))
+    val currentEntry = lastEntry(producerId).getOrElse(ProducerStateEntry.empty(producerId, numBatchesToRetain))
     new ProducerAppendInfo(topicPartition, producerId, currentEntry, origin)
   }
 
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.nio.ByteBuffer
+
+import kafka.utils.nonthreadsafe
+
+/**
+ * A Bloom filter of the keys retained in a segment written by the log cleaner, along with the properties of the
+ * segment which would require it to be recopied regardless of its keys. It lets later cleanings of the log skip
+ * recopying clean segments that certainly contain none of the keys in the offset map.
+ *
+ * The filter is sized to `maxBytes` while keys are added and is folded down to `BitsPerKey` bits per key once the
+ * segment is complete, so its size tracks the number of keys in the segment.
+ *
+ * @param maxBytes The maximum amount of memory used by the filter
+ */
+@nonthreadsafe
+private[log] class SegmentKeySummary(maxBytes: Int) {
+  import SegmentKeySummary._
+
+  /* the filter bits; the number of bits is a power of two so that the filter can be folded in half */
+  private var bits = new Array[Long](Integer.highestOneBit(math.max(maxBytes / 8, 1)))
+
+  private val hash = new Array[Long](2)
+
+  private var keys = 0L
+
+  /* whether the segment has transactional or control batches, whose retention depends on the other segments */
+  var hasTransactionalBatches = false
+
+  /* whether the segment retains tombstones, which become removable once the segment passes the delete horizon */
+  var hasTombstones = false
+
+  def numKeys: Long = keys
+
+  def sizeInBytes: Int = bits.length * 8
+
+  def add(key: ByteBuffer): Unit = {
+    Murmur3OffsetMap.hash128(key, hash)
+    add(hash)
+  }
+
+  /**
+   * Add a key given its Murmur3 128-bit hash
+   */
+  def add(hash: Array[Long]): Unit = {
+    val mask = bits.length * 64L - 1
+    var i = 0
+    while (i < NumHashes) {
+      val bit = (hash(0) + i * hash(1)) & mask
+      bits((bit >>> 6).toInt) |= 1L << bit
+      i += 1
+    }
+    keys += 1
+  }
+
+  /**
+   * Check whether the key with the given Murmur3 128-bit hash may have been added. False positives are possible,
+   * false negatives are not.
+   */
+  def mightContain(hash: Array[Long]): Boolean = {
+    val mask = bits.length * 64L - 1
+    var i = 0
+    while (i < NumHashes) {
+      val bit = (hash(0) + i * hash(1)) & mask
+      if ((bits((bit >>> 6).toInt) & (1L << bit)) == 0)
+        return false
+      i += 1
+    }
+    true
+  }
+
+  /**
+   * Shrink the filter to the number of keys which were added
+   *
+   * @return The summary, or None if the segment has too many keys to be summarized within `maxBytes`
+   */
+  def complete(): Option[SegmentKeySummary] = {
+    if (keys * BitsPerKey > bits.length * 64L) {
+      None
+    } else {
+      // folding the upper half of the filter onto the lower half keeps the bit of each key at its index modulo
+      // the new number of bits, since the number of bits is a power of two
+      while (bits.length > 1 && keys * BitsPerKey <= bits.length * 32L) {
+        val half = bits.length / 2
+        val folded = new Array[Long](half)
+        for (i <- 0 until half)
+          folded(i) = bits(i) | bits(i + half)
+        bits = folded
+      }
+      Some(this)
+    }
+  }
+
+  override def toString: String = s"SegmentKeySummary(keys=$keys, sizeInBytes=$sizeInBytes, " +
+    s"hasTransactionalBatches=$hasTransactionalBatches, hasTombstones=$hasTombstones)"
+}
+
+private[log] object SegmentKeySummary {
+  /* bits per key and number of hash functions for a false positive rate of about 1% */
+  val BitsPerKey = 10
+  val NumHashes = 7
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.log
+
+import java.util.Arrays
+
+import kafka.server.checkpoints.ZstdDictionaryCheckpoint
+import kafka.utils.Logging
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.{DefaultRecordBatch, MemoryRecords, ZstdDictionaries, ZstdDictionary}
+
+import scala.collection.JavaConverters._
+import scala.collection.{Seq, mutable}
+
+/**
+ * A zstd dictionary of a log, which is retired at the given offset once it is no longer registered for the topic.
+ */
+case class ZstdDictionaryEntry(dictionary: ZstdDictionary, retiredAtOffset: Long) {
+  def isRetired: Boolean = retiredAtOffset != ZstdDictionaryEntry.NotRetired
+}
+
+object ZstdDictionaryEntry {
+  val NotRetired = -1L
+}
+
+/**
+ * Keeps the zstd dictionaries which the batches of a log may be compressed with. These are the dictionaries registered
+ * for the topic, which the compression.zstd.dictionaries config of the topic refers to, and the ones which are no longer
+ * registered while the log may still have batches compressed with them. Dictionaries stay registered until the topic
+ * is deleted, so this only happens if the registration is lost. A dictionary which is no longer registered is retired
+ * at the log end offset, which is moved past the batches compressed with it which are appended later, and it is
+ * dropped once the log start offset reaches that offset. The dictionaries are checkpointed, so that they are kept
+ * across restarts, and so that the log can be read before the registered dictionaries are known.
+ *
+ * @param topicPartition the associated topic partition
+ * @param checkpoint the checkpoint file
+ */
+class ZstdDictionaryCache(topicPartition: TopicPartition, checkpoint: ZstdDictionaryCheckpoint) extends Logging {
+  this.logIdent = s"[ZstdDictionaryCache $topicPartition] "
+
+  private val lock = new Object
+  private val entries = mutable.LinkedHashMap[Int, ZstdDictionaryEntry]()
+  @volatile private var _dictionaries = ZstdDictionaries.EMPTY
+  @volatile private var hasRetired = false
+
+  lock synchronized {
+    checkpoint.read().foreach(entry => entries.put(entry.dictionary.id, entry))
+    refresh()
+  }
+
+  /**
+   * The dictionaries the batches of the log may be compressed with
+   */
+  def dictionaries: ZstdDictionaries = _dictionaries
+
+  def entriesSnapshot: Seq[ZstdDictionaryEntry] = lock synchronized { entries.values.toList }
+
+  /**
+   * Add the registered dictionaries, and retire the ones which are no longer registered at the log end offset
+   */
+  def update(registered: Seq[ZstdDictionary], logEndOffset: Long): Unit = lock synchronized {
+    var changed = false
+    registered.foreach { dictionary =>
+      entries.get(dictionary.id) match {
+        case Some(entry) if Arrays.equals(entry.dictionary.bytes, dictionary.bytes) =>
+          if (entry.isRetired) {
+            entries.put(dictionary.id, ZstdDictionaryEntry(entry.dictionary, ZstdDictionaryEntry.NotRetired))
+            changed = true
+          }
+        case existing =>
+          if (existing.isDefined)
+            warn(s"Replacing the zstd dictionary ${dictionary.id} with the registered dictionary with the same id. " +
+              "Batches compressed with the replaced dictionary can no longer be read.")
+          entries.put(dictionary.id, ZstdDictionaryEntry(dictionary, ZstdDictionaryEntry.NotRetired))
+          changed = true
+      }
+    }
+
+    val registeredIds = registered.map(_.id).toSet
+    entries.values.toList.foreach { entry =>
+      if (!entry.isRetired && !registeredIds.contains(entry.dictionary.id)) {
+        info(s"Retiring the zstd dictionary ${entry.dictionary.id} at offset $logEndOffset")
+        entries.put(entry.dictionary.id, entry.copy(retiredAtOffset = logEndOffset))
+        changed = true
+      }
+    }
+
+    if (changed)
+      flush()
+  }
+
+  /**
+   * Keep the retired dictionaries the appended batches are compressed with until the log start offset passes them
+   */
+  def onAppend(records: MemoryRecords): Unit = {
+    if (hasRetired) {
+      lock synchronized {
+        var changed = false
+        records.batches.asScala.foreach {
+          case batch: DefaultRecordBatch if batch.usesZstdDictionary =>
+            entries.get(batch.zstdDictionaryId).foreach { entry =>
+              if (entry.isRetired && entry.retiredAtOffset <= batch.lastOffset) {
+                entries.put(entry.dictionary.id, entry.copy(retiredAtOffset = batch.lastOffset + 1))
+                changed = true
+              }
+            }
+          case _ =>
+        }
+        if (changed)
+          flush()
+      }
+    }
+  }
+
+  /**
+   * Drop the retired dictionaries which no batch from the given log start offset may be compressed with
+   */
+  def truncateFromStart(logStartOffset: Long): Unit = {
+    if (hasRetired) {
+      lock synchronized {
+        val dropped = entries.values.filter(entry => entry.isRetired && entry.retiredAtOffset <= logStartOffset).toList
+        if (dropped.nonEmpty) {
+          dropped.foreach { entry =>
+            info(s"Dropping the retired zstd dictionary ${entry.dictionary.id} at log start offset $logStartOffset")
+            entries.remove(entry.dictionary.id)
+          }
+          flush()
+        }
+      }
+    }
+  }
+
+  private def refresh(): Unit = {
+    _dictionaries = ZstdDictionaries.of(entries.values.map(_.dictionary).toList.asJava)
+    hasRetired = entries.values.exists(_.isRetired)
+  }
+
+  private def flush(): Unit = {
+    refresh()
+    checkpoint.write(entries.values.toList)
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.log
+
+import kafka.zk.KafkaZkClient
+import org.apache.kafka.common.record.ZstdDictionary
+
+import scala.collection.{Seq, mutable}
+
+/**
+ * The zstd dictionaries registered for the topics. The compression.zstd.dictionaries config of a topic refers to
+ * them by id, and they stay registered until the topic is deleted.
+ */
+trait ZstdDictionaryRegistry {
+  def dictionaries(topic: String): Seq[ZstdDictionary]
+
+  /**
+   * Forget what is known about the dictionaries of the topic, so that they are read again
+   */
+  def invalidate(topic: String): Unit
+}
+
+/**
+ * Reads the dictionaries of a topic from its zstd dictionaries znode the first time they are needed, and keeps them
+ * until the topic config change notification of a registration invalidates them.
+ */
+class ZkZstdDictionaryRegistry(zkClient: KafkaZkClient) extends ZstdDictionaryRegistry {
+  private val cache = mutable.Map[String, Seq[ZstdDictionary]]()
+
+  // reading the znode under the lock makes sure that an invalidation is not overwritten by an older read
+  override def dictionaries(topic: String): Seq[ZstdDictionary] = synchronized {
+    cache.getOrElseUpdate(topic, zkClient.getZstdDictionaries(topic))
+  }
+
+  override def invalidate(topic: String): Unit = synchronized {
+    cache.remove(topic)
+  }
+}
@@ -48,6 +48,8 @@ case class ClientSensors(metricTags: Map[String, String], quotaSensor: Sensor, t
  *        dynamic defaults or user quotas are not set
  * @param numQuotaSamples The number of samples to retain in memory
  * @param quotaWindowSizeSeconds The time span of each sample
+ * @param tokenBucketEnabled Track quota usage with lock-free token buckets instead of quota sensors
+ * @param globalQuotaEnabled Enforce quotas across the cluster, with a share of each quota enforced locally
  *
  */
 case class ClientQuotaManagerConfig(quotaBytesPerSecondDefault: Long =
@@ -55,13 +57,21 @@ case class ClientQuotaManagerConfig(quotaBytesPerSecondDefault: Long =
                                     numQuotaSamples: Int =
                                         ClientQuotaManagerConfig.DefaultNumQuotaSamples,
                                     quotaWindowSizeSeconds: Int =
-                                        ClientQuotaManagerConfig.DefaultQuotaWindowSizeSeconds)
+                                        ClientQuotaManagerConfig.DefaultQuotaWindowSizeSeconds,
+                                    tokenBucketEnabled: Boolean =
+                                        ClientQuotaManagerConfig.DefaultTokenBucketEnabled,
+                                    globalQuotaEnabled: Boolean =
+                                        ClientQuotaManagerConfig.DefaultGlobalQuotaEnabled)
 
 object ClientQuotaManagerConfig {
   val QuotaBytesPerSecondDefault = Long.MaxValue
   // Always have 10 whole windows + 1 current window
   val DefaultNumQuotaSamples = 11
   val DefaultQuotaWindowSizeSeconds = 1
+  val DefaultTokenBucketEnabled = false
+  val DefaultGlobalQuotaEnabled = false
+  // The smallest share of a global quota enforced by a broker, as a fraction of an equal share
+  val MinGlobalQuotaShareFraction = 0.1
   // Purge sensors after 1 hour of inactivity
   val InactiveSensorExpirationTimeSeconds  = 3600
   val QuotaRequestPercentDefault = Int.MaxValue.toDouble
@@ -128,6 +138,14 @@ object ClientQuotaManager {
     val User = "user"
     val ClientId = "client-id"
   }
+
+  private[server] def globalQuotaShare(quota: Double, localUsage: Double, totalUsage: Double, numBrokers: Int): Double = {
+    val brokers = math.max(numBrokers, 1)
+    if (totalUsage <= quota)
+      localUsage + (quota - totalUsage) / brokers
+    else
+      math.max(quota * localUsage / totalUsage, quota / brokers * ClientQuotaManagerConfig.MinGlobalQuotaShareFraction)
+  }
 }
 
 /**
@@ -150,6 +168,13 @@ object ClientQuotaManager {
  * </ul>
  * Quota limits including defaults may be updated dynamically. The implementation is optimized for the case
  * where a single level of quotas is configured.
+ * <p/>
+ * With `tokenBucketEnabled` and the default quota callback, usage is tracked with a [[QuotaTokenBucket]] per quota
+ * entity instead of quota sensors. Requests of a client look up its bucket without locking and without creating
+ * metric names, and the rate metric of the entity is computed from the bucket when it is read.
+ * <p/>
+ * With `globalQuotaEnabled`, quotas apply to the usage of a client across the cluster. Each broker enforces a share
+ * of the quota which is updated from the usage of all brokers, see [[updateGlobalQuotaShares]].
  *
  * @param config @ClientQuotaManagerConfig quota configs
  * @param metrics @Metrics Metrics instance
@@ -176,6 +201,22 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
   private[server] val throttledChannelReaper = new ThrottledChannelReaper(delayQueue, threadNamePrefix)
   private val quotaCallback = clientQuotaCallback.getOrElse(new DefaultQuotaCallback)
 
+  // Token buckets are keyed by their quota metric tags, so that all the clients sharing a quota share its bucket.
+  // The cache maps the sanitized user and client-id of a request to its bucket. It is replaced when quotas
+  // change, since that may change the entity a client is mapped to.
+  private val tokenBucketsEnabled = config.tokenBucketEnabled && clientQuotaCallback.isEmpty
+  private val tokenBuckets = new ConcurrentHashMap[Map[String, String], QuotaTokenBucket]()
+  @volatile private var tokenBucketCache = new ConcurrentHashMap[String, ConcurrentHashMap[String, QuotaTokenBucket]]()
+  @volatile private var lastTokenBucketPurgeMs = time.milliseconds
+  // The share of each global quota enforced by this broker, and the number of brokers the quotas are shared by
+  @volatile private var globalQuotaShares = Map.empty[Map[String, String], Double]
+  @volatile private var numGlobalQuotaBrokers = 1
+  // The quota sensor and rate metric of each quota entity if quotas are enforced across the cluster, so that the usage
+  // can be read without going through all metrics. Entities are removed once their sensor has expired.
+  private val quotaRateMetrics = new ConcurrentHashMap[Map[String, String], (Sensor, KafkaMetric)]()
+  if (config.tokenBucketEnabled && clientQuotaCallback.nonEmpty)
+    warn(s"Token bucket quotas are not supported with custom quota callbacks, $quotaType quotas will use quota sensors")
+
   private val delayQueueSensor = metrics.sensor(quotaType + "-delayQueue")
   delayQueueSensor.add(metrics.metricName("queue-size",
     quotaType.toString,
@@ -193,6 +234,8 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
     s"${prefix}ThrottledChannelReaper-$quotaType", false) {
 
     override def doWork(): Unit = {
+      if (tokenBucketsEnabled)
+        maybePurgeTokenBuckets(time.milliseconds)
       val throttledChannel: ThrottledChannel = delayQueue.poll(1, TimeUnit.SECONDS)
       if (throttledChannel != null) {
         // Decrement the size of the delay queue
@@ -234,6 +277,20 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
   }
 
   def recordAndGetThrottleTimeMs(session: Session, clientId: String, value: Double, timeMs: Long): Int = {
+    if (tokenBucketsEnabled) {
+      val bucket = getOrCreateTokenBucket(session, clientId, timeMs)
+      val throttleTimeMs = bucket.record(value, timeMs)
+      if (throttleTimeMs > 0) {
+        val boundedThrottleTimeMs = math.min(throttleTimeMs, maxThrottleTimeMs).toInt
+        debug(s"Quota violated for ${bucket.metricTags}. Delay time: ($boundedThrottleTimeMs)")
+        boundedThrottleTimeMs
+      } else
+        0
+    } else
+      recordAndGetThrottleTimeMsWithSensors(session, clientId, value, timeMs)
+  }
+
+  private def recordAndGetThrottleTimeMsWithSensors(session: Session, clientId: String, value: Double, timeMs: Long): Int = {
     var throttleTimeMs = 0
     val clientSensors = getOrCreateQuotaSensors(session, clientId)
     try {
@@ -258,8 +315,12 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
     * overall sum back to the previous value.
     */
   def unrecordQuotaSensor(request: RequestChannel.Request, value: Double, timeMs: Long): Unit = {
-    val clientSensors = getOrCreateQuotaSensors(request.session, request.header.clientId)
-    clientSensors.quotaSensor.record(value * (-1), timeMs, false)
+    if (tokenBucketsEnabled)
+      getOrCreateTokenBucket(request.session, request.header.clientId, timeMs).unrecord(value, timeMs)
+    else {
+      val clientSensors = getOrCreateQuotaSensors(request.session, request.header.clientId)
+      clientSensors.quotaSensor.record(value * (-1), timeMs, false)
+    }
   }
 
   /**
@@ -271,12 +332,16 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
     */
   def throttle(request: RequestChannel.Request, throttleTimeMs: Int, channelThrottlingCallback: Response => Unit): Unit = {
     if (throttleTimeMs > 0) {
-      val clientSensors = getOrCreateQuotaSensors(request.session, request.header.clientId)
-      clientSensors.throttleTimeSensor.record(throttleTimeMs)
+      val throttleTimeSensor = if (tokenBucketsEnabled) {
+        val bucket = getOrCreateTokenBucket(request.session, request.header.clientId, time.milliseconds)
+        getOrCreateThrottleTimeSensor(bucket.metricTags)
+      } else
+        getOrCreateQuotaSensors(request.session, request.header.clientId).throttleTimeSensor
+      throttleTimeSensor.record(throttleTimeMs)
       val throttledChannel = new ThrottledChannel(request, time, throttleTimeMs, channelThrottlingCallback)
       delayQueue.add(throttledChannel)
       delayQueueSensor.record()
-      debug("Channel throttled for sensor (%s). Delay time: (%d)".format(clientSensors.quotaSensor.name(), throttleTimeMs))
+      debug("Channel throttled for sensor (%s). Delay time: (%d)".format(throttleTimeSensor.name(), throttleTimeMs))
     }
   }
 
@@ -289,6 +354,14 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
     clientSensors.quotaSensor.record(value, time.milliseconds(), false)
   }
 
+  def recordNoThrottle(session: Session, clientId: String, value: Double): Unit = {
+    if (tokenBucketsEnabled) {
+      val timeMs = time.milliseconds()
+      getOrCreateTokenBucket(session, clientId, timeMs).recordNoThrottle(value, timeMs)
+    } else
+      recordNoThrottle(getOrCreateQuotaSensors(session, clientId), value)
+  }
+
   /**
    * Returns the quota for the client with the specified (non-encoded) user principal and client-id.
    *
@@ -310,9 +383,101 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
   }
 
   private def quotaLimit(metricTags: util.Map[String, String]): Double = {
+    globalQuotaLimit(metricTags, configuredQuotaLimit(metricTags))
+  }
+
+  /**
+   * Returns the share of the quota `limit` enforced by this broker if quotas are enforced across the cluster
+   */
+  private def globalQuotaLimit(metricTags: util.Map[String, String], limit: Double): Double = {
+    if (config.globalQuotaEnabled && limit != Long.MaxValue)
+      globalQuotaShares.getOrElse(metricTags.asScala.toMap, limit / numGlobalQuotaBrokers)
+    else
+      limit
+  }
+
+  private def configuredQuotaLimit(metricTags: util.Map[String, String]): Double = {
     Option(quotaCallback.quotaLimit(clientQuotaType, metricTags)).map(_.toDouble).getOrElse(Long.MaxValue)
   }
 
+  /**
+   * Returns the quota limit of the entity with the given quota metric tags across the cluster, or `Long.MaxValue`
+   * if it has no quota
+   */
+  def configuredQuotaLimit(metricTags: Map[String, String]): Double = configuredQuotaLimit(metricTags.asJava)
+
+  /**
+   * Returns the rate used by each quota entity with a quota on this broker, for the entities that have used any.
+   * At most `maxEntities` entities are returned, the ones which use the largest part of their quota.
+   */
+  def localQuotaUsage(maxEntities: Int): Map[Map[String, String], Double] = {
+    val usage =
+      if (tokenBucketsEnabled) {
+        val nowMs = time.milliseconds
+        tokenBuckets.values.asScala.iterator.map(bucket => bucket.metricTags -> bucket.measure(metrics.config, nowMs))
+      } else {
+        quotaRateMetrics.asScala.iterator.flatMap { case (metricTags, tracked @ (quotaSensor, rateMetric)) =>
+          if (quotaSensor.hasExpired) {
+            quotaRateMetrics.remove(metricTags, tracked)
+            None
+          } else
+            Option(rateMetric).map(metric => metricTags -> metric.metricValue.asInstanceOf[Double])
+        }
+      }
+    mostUsedQuotas(usage.filter { case (_, rate) => rate > 0 }.toMap, maxEntities)
+  }
+
+  /**
+   * Returns the usage of the at most `maxEntities` entities with a quota which use the largest part of their quota
+   */
+  def mostUsedQuotas(usage: Map[Map[String, String], Double], maxEntities: Int): Map[Map[String, String], Double] = {
+    val usedQuotas = usage.iterator.map { case (tags, rate) => (tags, rate, configuredQuotaLimit(tags.asJava)) }
+      .filter { case (_, _, limit) => limit != Long.MaxValue }.toSeq
+    val mostUsed =
+      if (usedQuotas.size <= maxEntities) usedQuotas
+      else usedQuotas.sortBy { case (_, rate, limit) => -rate / limit }.take(maxEntities)
+    mostUsed.iterator.map { case (tags, rate, _) => tags -> rate }.toMap
+  }
+
+  /**
+   * Updates the share of each global quota enforced by this broker from the usage of all brokers sharing the quotas.
+   * While the total usage of an entity is within its quota, each broker gets its own usage and an equal part of the
+   * unused quota. Otherwise the quota is split in proportion to usage, with at least
+   * `MinGlobalQuotaShareFraction` of an equal share for every broker. Entities without any usage get an equal share.
+   *
+   * @param localUsage The usage of this broker, as returned by `localQuotaUsage`
+   * @param totalUsage The usage of all brokers, which may be older than the local usage and may leave out entities
+   * @param numBrokers The number of brokers the quotas are shared by, including this one
+   */
+  def updateGlobalQuotaShares(localUsage: Map[Map[String, String], Double],
+                              totalUsage: Map[Map[String, String], Double],
+                              numBrokers: Int): Unit = {
+    val shares = (localUsage.keySet ++ totalUsage.keySet).iterator.flatMap { tags =>
+      val limit = configuredQuotaLimit(tags.asJava)
+      if (limit == Long.MaxValue)
+        None
+      else {
+        val local = localUsage.getOrElse(tags, 0.0)
+        val total = math.max(totalUsage.getOrElse(tags, 0.0), local)
+        Some(tags -> ClientQuotaManager.globalQuotaShare(limit, local, total, numBrokers))
+      }
+    }.toMap
+
+    lock.writeLock().lock()
+    try {
+      globalQuotaShares = shares
+      numGlobalQuotaBrokers = math.max(numBrokers, 1)
+      updateQuotaMetricConfigs()
+    } finally {
+      lock.writeLock().unlock()
+    }
+  }
+
+  /**
+   * The upper bound of the throttle time returned for a quota violation
+   */
+  protected def maxThrottleTimeMs: Long = Long.MaxValue
+
   /*
    * This calculates the amount of time needed to bring the metric within quota
    * assuming that no new metrics are recorded.
@@ -366,11 +531,89 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
         new Avg
       )
     )
+    if (config.globalQuotaEnabled)
+      trackQuotaRateMetric(metricTags, sensors.quotaSensor)
     if (quotaCallback.quotaResetRequired(clientQuotaType))
       updateQuotaMetricConfigs()
     sensors
   }
 
+  /*
+   * Keeps the rate metric of the quota sensor of an entity, replacing the one of an expired sensor
+   */
+  private def trackQuotaRateMetric(metricTags: Map[String, String], quotaSensor: Sensor): Unit = {
+    val tracked = quotaRateMetrics.get(metricTags)
+    if (tracked == null || (tracked._1 ne quotaSensor))
+      quotaRateMetrics.put(metricTags, (quotaSensor, metrics.metric(clientRateMetricName(metricTags))))
+  }
+
+  /*
+   * This function returns the token bucket of the quota entity of a given client, creating it if it doesn't exist.
+   * Only the first request of a client after the bucket cache has been replaced takes the lock.
+   */
+  private def getOrCreateTokenBucket(session: Session, clientId: String, timeMs: Long): QuotaTokenBucket = {
+    val cache = tokenBucketCache
+    val userBuckets = cache.get(session.sanitizedUser)
+    val bucket = if (userBuckets == null) null else userBuckets.get(clientId)
+    if (bucket != null)
+      bucket
+    else {
+      // The read lock orders the creation of buckets with quota updates, which hold the write lock
+      // while they update the bounds of all buckets
+      lock.readLock().lock()
+      try {
+        val metricTags = quotaCallback.asInstanceOf[DefaultQuotaCallback].quotaMetricTags(session.sanitizedUser, clientId)
+        val bucket = tokenBuckets.computeIfAbsent(metricTags, _ => {
+          val bucket = new QuotaTokenBucket(metricTags, quotaLimit(metricTags.asJava),
+            burstMs = (config.numQuotaSamples - 1).toLong * config.quotaWindowSizeSeconds * 1000,
+            rateWindowMs = config.quotaWindowSizeSeconds * 1000L,
+            nowMs = timeMs)
+          metrics.addMetric(clientRateMetricName(metricTags), bucket)
+          bucket
+        })
+        cache.computeIfAbsent(session.sanitizedUser, _ => new ConcurrentHashMap[String, QuotaTokenBucket]())
+          .put(clientId, bucket)
+        bucket
+      } finally {
+        lock.readLock().unlock()
+      }
+    }
+  }
+
+  private def getOrCreateThrottleTimeSensor(metricTags: Map[String, String]): Sensor = {
+    sensorAccessor.getOrCreate(getThrottleTimeSensorName(metricTags),
+      ClientQuotaManagerConfig.InactiveSensorExpirationTimeSeconds,
+      throttleMetricName(metricTags),
+      None,
+      new Avg
+    )
+  }
+
+  /**
+   * Removes the token buckets and rate metrics of quota entities that have not been recorded for as long as
+   * quota sensors are kept for. This is checked at most once per quota window.
+   */
+  private[server] def maybePurgeTokenBuckets(nowMs: Long): Unit = {
+    if (nowMs - lastTokenBucketPurgeMs >= config.quotaWindowSizeSeconds * 1000L) {
+      lastTokenBucketPurgeMs = nowMs
+      val expirationMs = TimeUnit.SECONDS.toMillis(ClientQuotaManagerConfig.InactiveSensorExpirationTimeSeconds)
+      val expired = tokenBuckets.values.asScala.filter(bucket => nowMs - bucket.lastRecordTimeMs > expirationMs)
+      if (expired.nonEmpty) {
+        lock.writeLock().lock()
+        try {
+          expired.foreach { bucket =>
+            debug(s"Removing expired token bucket for ${bucket.metricTags}")
+            tokenBuckets.remove(bucket.metricTags)
+            metrics.removeMetric(clientRateMetricName(bucket.metricTags))
+          }
+          tokenBucketCache = new ConcurrentHashMap[String, ConcurrentHashMap[String, QuotaTokenBucket]]()
+        } finally {
+          lock.writeLock().unlock()
+        }
+      }
+    }
+  }
+
   private def metricTagsToSensorSuffix(metricTags: Map[String, String]): String =
     metricTags.values.mkString(":")
 
@@ -457,12 +700,20 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
    * Updates metrics configs. This is invoked when quota configs are updated in ZooKeeper
    * or when partitions leaders change and custom callbacks that implement partition-based quotas
    * have updated quotas.
+   * With token buckets, the bounds of the buckets are updated instead.
    * @param updatedQuotaEntity If set to one entity and quotas have only been enabled at one
    *    level, then an optimized update is performed with a single metric update. If None is provided,
    *    or if custom callbacks are used or if multi-level quotas have been enabled, all metric configs
    *    are checked and updated if required.
    */
   def updateQuotaMetricConfigs(updatedQuotaEntity: Option[KafkaQuotaEntity] = None): Unit = {
+    if (tokenBucketsEnabled)
+      updateTokenBuckets()
+    else
+      updateQuotaSensorConfigs(updatedQuotaEntity)
+  }
+
+  private def updateQuotaSensorConfigs(updatedQuotaEntity: Option[KafkaQuotaEntity]): Unit = {
     val allMetrics = metrics.metrics()
 
     // If using custom quota callbacks or if multiple-levels of quotas are defined or
@@ -483,7 +734,7 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
       // Change the underlying metric config if the sensor has been created
       val metric = allMetrics.get(quotaMetricName)
       if (metric != null) {
-        Option(quotaCallback.quotaLimit(clientQuotaType, metricTags.asJava)).foreach { newQuota =>
+        Option(quotaCallback.quotaLimit(clientQuotaType, metricTags.asJava)).map(globalQuotaLimit(metricTags.asJava, _)).foreach { newQuota =>
           info(s"Sensor for $quotaEntity already exists. Changing quota to $newQuota in MetricConfig")
           metric.config(getQuotaMetricConfig(newQuota))
         }
@@ -494,7 +745,7 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
         case (metricName, metric) =>
           val metricTags = metricName.tags
           Option(quotaCallback.quotaLimit(clientQuotaType, metricTags)).foreach { quota =>
-            val newQuota = quota.asInstanceOf[Double]
+            val newQuota = globalQuotaLimit(metricTags, quota.asInstanceOf[Double])
             if (newQuota != metric.config.quota.bound) {
               info(s"Sensor for quota-id $metricTags already exists. Setting quota to $newQuota in MetricConfig")
               metric.config(getQuotaMetricConfig(newQuota))
@@ -504,6 +755,21 @@ class ClientQuotaManager(private val config: ClientQuotaManagerConfig,
     }
   }
 
+  /**
+   * Updates the bounds of all token buckets and drops the cached mapping of clients to buckets, since
+   * the quota entity of a client depends on the quotas that are configured
+   */
+  private def updateTokenBuckets(): Unit = {
+    tokenBucketCache = new ConcurrentHashMap[String, ConcurrentHashMap[String, QuotaTokenBucket]]()
+    tokenBuckets.values.asScala.foreach { bucket =>
+      val newQuota = quotaLimit(bucket.metricTags.asJava)
+      if (newQuota != bucket.bound) {
+        info(s"Token bucket for quota-id ${bucket.metricTags} already exists. Setting quota to $newQuota")
+        bucket.updateBound(newQuota)
+      }
+    }
+  }
+
   protected def clientRateMetricName(quotaMetricTags: Map[String, String]): MetricName = {
     metrics.metricName("byte-rate", quotaType.toString,
       "Tracking byte-rate per user/client-id",
@@ -33,7 +33,7 @@ class ClientRequestQuotaManager(private val config: ClientQuotaManagerConfig,
                                 threadNamePrefix: String,
                                 quotaCallback: Option[ClientQuotaCallback])
                                 extends ClientQuotaManager(config, metrics, QuotaType.Request, time, threadNamePrefix, quotaCallback) {
-  val maxThrottleTimeMs = TimeUnit.SECONDS.toMillis(this.config.quotaWindowSizeSeconds)
+  override val maxThrottleTimeMs = TimeUnit.SECONDS.toMillis(this.config.quotaWindowSizeSeconds)
   def exemptSensor = getOrCreateSensor(exemptSensorName, exemptMetricName)
 
   def recordExempt(value: Double): Unit = {
@@ -54,7 +54,7 @@ class ClientRequestQuotaManager(private val config: ClientQuotaManagerConfig,
 
     if (quotasEnabled) {
       request.recordNetworkThreadTimeCallback = Some(timeNanos => recordNoThrottle(
-        getOrCreateQuotaSensors(request.session, request.header.clientId), nanosToPercentage(timeNanos)))
+        request.session, request.header.clientId, nanosToPercentage(timeNanos)))
       recordAndGetThrottleTimeMs(request.session, request.header.clientId,
         nanosToPercentage(request.requestThreadTimeNanos), time.milliseconds())
     } else {
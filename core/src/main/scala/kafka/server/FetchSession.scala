@@ -17,6 +17,7 @@
 
 package kafka.server
 
+import java.lang.ref.WeakReference
 import java.util
 import java.util.Optional
 import java.util.concurrent.{ThreadLocalRandom, TimeUnit}
@@ -45,6 +46,27 @@ object FetchSession {
   val INCREMENTAL_FETCH_SESSIONS_EVICTIONS_PER_SEC = "IncrementalFetchSessionEvictionsPerSec"
   val EVICTIONS = "evictions"
 
+  // Canonical topic name instances shared by the cached partitions of every session.  Weakly referenced so that
+  // topics which are no longer part of any session can be garbage collected.
+  private val internedTopics = new util.WeakHashMap[String, WeakReference[String]]
+
+  /**
+    * Return the canonical instance of a topic name.
+    *
+    * Each fetch request deserializes its own copy of every topic name, so without interning a broker with
+    * thousands of sessions fetching the same topics would retain one String per topic per session.
+    */
+  def internTopic(topic: String): String = internedTopics.synchronized {
+    val ref = internedTopics.get(topic)
+    val interned = if (ref == null) null else ref.get
+    if (interned != null) {
+      interned
+    } else {
+      internedTopics.put(topic, new WeakReference(topic))
+      topic
+    }
+  }
+
   def partitionsToLogString(partitions: util.Collection[TopicPartition], traceEnabled: Boolean): String = {
     if (traceEnabled) {
       "(" + Utils.join(partitions, ", ") + ")"
@@ -66,7 +88,9 @@ object FetchSession {
   * We store many of these objects, so it is important for them to be memory-efficient.
   * That is why we store topic and partition separately rather than storing a TopicPartition
   * object.  The TP object takes up more memory because it is a separate JVM object, and
-  * because it stores the cached hash code in memory.
+  * because it stores the cached hash code in memory.  Topic names are interned through
+  * FetchSession#internTopic when a partition is added to a session, so that all sessions
+  * share a single String per topic.
   *
   * Note that fetcherLogStartOffset is the LSO of the follower performing the fetch, whereas
   * localLogStartOffset is the log start offset of the partition on this broker.
@@ -107,6 +131,17 @@ class CachedPartition(val topic: String,
 
   def topicPartition = new TopicPartition(topic, partition)
 
+  /**
+    * Return a copy of this partition whose topic name is the canonical, interned instance.
+    * This should be used for partitions which will be retained in a session's partition map.
+    */
+  def interned: CachedPartition = {
+    val internedTopic = FetchSession.internTopic(topic)
+    if (internedTopic eq topic) this
+    else new CachedPartition(internedTopic, partition, maxBytes, fetchOffset, highWatermark,
+      fetcherLogStartOffset, localLogStartOffset)
+  }
+
   def reqData = new FetchRequest.PartitionData(fetchOffset, fetcherLogStartOffset, maxBytes, Optional.empty())
 
   def updateRequestParams(reqData: FetchRequest.PartitionData): Unit = {
@@ -231,6 +266,24 @@ case class FetchSession(val id: Int,
 
   type TL = util.ArrayList[TopicPartition]
 
+  /**
+    * Get the number of partitions this session would cache after an update with the given request.
+    */
+  def sizeAfterUpdate(fetchData: FetchSession.REQ_MAP,
+                      toForget: util.List[TopicPartition]): Int = synchronized {
+    val forgotten = toForget.asScala.toSet
+    var newSize = partitionMap.size
+    fetchData.keySet.iterator.asScala.foreach(topicPart => {
+      if (!forgotten.contains(topicPart) && partitionMap.find(new CachedPartition(topicPart)) == null)
+        newSize += 1
+    })
+    forgotten.foreach(topicPart => {
+      if (partitionMap.find(new CachedPartition(topicPart)) != null)
+        newSize -= 1
+    })
+    newSize
+  }
+
   // Update the cached partition data based on the request.
   def update(fetchData: FetchSession.REQ_MAP,
              toForget: util.List[TopicPartition],
@@ -244,7 +297,7 @@ case class FetchSession(val id: Int,
       val newCachedPart = new CachedPartition(topicPart, reqData)
       val cachedPart = partitionMap.find(newCachedPart)
       if (cachedPart == null) {
-        partitionMap.mustAdd(newCachedPart)
+        partitionMap.mustAdd(newCachedPart.interned)
         added.add(topicPart)
       } else {
         cachedPart.updateRequestParams(reqData)
@@ -377,7 +430,7 @@ class FullFetchContext(private val time: Time,
         val part = entry.getKey
         val respData = entry.getValue
         val reqData = fetchData.get(part)
-        cachedPartitions.mustAdd(new CachedPartition(part, reqData, respData))
+        cachedPartitions.mustAdd(new CachedPartition(part, reqData, respData).interned)
       })
       cachedPartitions
     }
@@ -524,11 +577,15 @@ case class EvictableKey(val privileged: Boolean,
   * FetchSessionCache lock.  In order to avoid deadlock, the FetchSessionCache lock
   * must never be acquired while an individual FetchSession lock is already held.
   *
-  * @param maxEntries The maximum number of entries that can be in the cache.
-  * @param evictionMs The minimum time that an entry must be unused in order to be evictable.
+  * @param maxEntries    The maximum number of entries that can be in the cache.
+  * @param evictionMs    The minimum time that an entry must be unused in order to be evictable.
+  * @param maxPartitions The maximum number of partitions that can be cached across all entries.  This bounds
+  *                      the memory used by the cache independently of the number of entries, so that the
+  *                      number of entries can be raised to accommodate many small sessions.
   */
 class FetchSessionCache(private val maxEntries: Int,
-                        private val evictionMs: Long) extends Logging with KafkaMetricsGroup {
+                        private val evictionMs: Long,
+                        private val maxPartitions: Int = Int.MaxValue) extends Logging with KafkaMetricsGroup {
   private var numPartitions: Long = 0
 
   // A map of session ID to FetchSession.
@@ -605,8 +662,9 @@ class FetchSessionCache(private val maxEntries: Int,
                          createPartitions: () => FetchSession.CACHE_MAP): Int =
   synchronized {
     // If there is room, create a new session entry.
-    if ((sessions.size < maxEntries) ||
-        tryEvict(privileged, EvictableKey(privileged, size, 0), now)) {
+    val key = EvictableKey(privileged, size, 0)
+    if (hasRoomForPartitions(privileged, key, now) &&
+        ((sessions.size < maxEntries) || tryEvict(privileged, key, now))) {
       val partitionMap = createPartitions()
       val session = new FetchSession(newSessionId(), privileged, partitionMap,
           now, now, JFetchMetadata.nextEpoch(INITIAL_EPOCH))
@@ -620,6 +678,79 @@ class FetchSessionCache(private val maxEntries: Int,
     }
   }
 
+  /**
+    * Make sure that an existing session can grow to the given number of cached partitions,
+    * evicting other entries as needed.
+    *
+    * @param session  The session.
+    * @param newSize  The number of partitions the session would cache.
+    * @param now      The current time in milliseconds.
+    * @return         True if the session may grow to the new size; false otherwise.
+    */
+  def hasRoomToGrow(session: FetchSession, newSize: Int, now: Long): Boolean = synchronized {
+    newSize <= session.cachedSize ||
+      hasRoomForPartitions(session.privileged, EvictableKey(session.privileged, newSize, session.id), now, Some(session))
+  }
+
+  /**
+    * Make sure that an entry of the given size fits within the cached partitions limit,
+    * evicting existing entries as needed.
+    *
+    * Entries are evicted following the same rules as tryEvict, so an entry is only evicted to
+    * make room for partitions if it is stale or less valuable than the proposed entry.  Nothing
+    * is evicted unless the evictable entries together make enough room.
+    *
+    * @param privileged True if the entry we would like to add is privileged.
+    * @param key        The EvictableKey for the entry we would like to add.
+    * @param now        The current time in milliseconds.
+    * @param growing    The existing session which would grow to the size of the key, if any.
+    *                   It is never evicted.
+    * @return           True if the entry fits in the cache; false otherwise.
+    */
+  private def hasRoomForPartitions(privileged: Boolean,
+                                   key: EvictableKey,
+                                   now: Long,
+                                   growing: Option[FetchSession] = None): Boolean = {
+    val excess = numPartitions - growing.map(_.cachedSize.toLong).getOrElse(0L) + key.size - maxPartitions
+    if (key.size > maxPartitions) {
+      trace(s"Can't cache ${key.size} partitions, which is more than the limit of $maxPartitions.")
+      false
+    } else if (excess <= 0) {
+      true
+    } else {
+      // Pick entries in the order tryEvict would evict them: stale entries first, then the least valuable ones.
+      val victims = new mutable.LinkedHashSet[FetchSession]
+      var freed = 0L
+      def pick(session: FetchSession): Unit = {
+        if (!growing.contains(session) && victims.add(session))
+          freed += session.cachedSize
+      }
+      val lastUsedIter = lastUsed.entrySet.iterator
+      var stale = true
+      while (freed < excess && stale && lastUsedIter.hasNext) {
+        val entry = lastUsedIter.next()
+        stale = now - entry.getKey.lastUsedMs > evictionMs
+        if (stale)
+          pick(entry.getValue)
+      }
+      val evictable = if (privileged) evictableByPrivileged else evictableByAll
+      val evictableIter = evictable.headMap(key, true).values.iterator
+      while (freed < excess && evictableIter.hasNext)
+        pick(evictableIter.next())
+      if (freed < excess) {
+        trace(s"Can't evict enough entries to cache ${key.size} partitions with ${key.toString}.")
+        false
+      } else {
+        victims.foreach(session => {
+          trace(s"Evicting FetchSession ${session.id} to make room for ${key.toString}.")
+          remove(session)
+          evictionsMeter.mark()
+        })
+        true
+      }
+    }
+  }
+
   /**
     * Try to evict an entry from the session cache.
     *
@@ -763,6 +894,12 @@ class FetchManager(private val time: Time,
               debug(s"Session error for ${reqMetadata.sessionId}: expected epoch " +
                 s"${session.epoch}, but got ${reqMetadata.epoch} instead.");
               new SessionErrorContext(Errors.INVALID_FETCH_SESSION_EPOCH, reqMetadata)
+            } else if (!cache.hasRoomToGrow(session, session.sizeAfterUpdate(fetchData, toForget), time.milliseconds())) {
+              debug(s"Created a new sessionless FetchContext and closing session id ${session.id}, " +
+                s"epoch ${session.epoch}: there is no room to cache the partitions added by " +
+                s"${partitionsToLogString(fetchData.keySet)}.")
+              cache.remove(session)
+              new SessionlessFetchContext(fetchData)
             } else {
               val (added, updated, removed) = session.update(fetchData, toForget, reqMetadata)
               if (session.isEmpty) {
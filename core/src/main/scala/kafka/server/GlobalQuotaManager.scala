@@ -0,0 +1,104 @@
+/**
+  * Licensed to the Apache Software Foundation (ASF) under one or more
+  * contributor license agreements.  See the NOTICE file distributed with
+  * this work for additional information regarding copyright ownership.
+  * The ASF licenses this file to You under the Apache License, Version 2.0
+  * (the "License"); you may not use this file except in compliance with
+  * the License.  You may obtain a copy of the License at
+  *
+  * http://www.apache.org/licenses/LICENSE-2.0
+  *
+  * Unless required by applicable law or agreed to in writing, software
+  * distributed under the License is distributed on an "AS IS" BASIS,
+  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  * See the License for the specific language governing permissions and
+  * limitations under the License.
+  */
+package kafka.server
+
+import java.util.concurrent.TimeUnit
+
+import kafka.utils.{Logging, Scheduler}
+import kafka.zk.KafkaZkClient
+
+import scala.collection.mutable
+
+/**
+ * Shares client quotas across the brokers of the cluster.
+ *
+ * Every `syncIntervalMs`, the broker publishes the usage of the quota entities which use the largest part of their
+ * quota to an ephemeral znode under `/quota_usage/brokers`. The active controller also sums up the usage published by
+ * all brokers into `/quota_usage/total`. Every broker reads the total usage and updates the share of each quota
+ * enforced by its quota managers. Each broker reads and writes a single znode per interval, plus the reads of the
+ * controller, and the data of each znode is bounded by `maxEntities` entities per quota type.
+ *
+ * Enforcement is approximate: usage is exchanged as rates measured over the quota window, the total usage can be one
+ * interval older than the local usage and shares are only updated once per interval, so the total usage of a client
+ * can exceed its quota until the next update. Brokers that have not published any usage yet are not counted, and
+ * entities left out of the published usage get an equal share of their quota on every broker.
+ *
+ * @param brokerId The id of this broker
+ * @param zkClient The client used to exchange quota usage
+ * @param quotaManagers The quota managers enforcing quotas across the cluster, by quota type
+ * @param scheduler The scheduler running the periodic sync
+ * @param syncIntervalMs The interval at which quota usage is exchanged
+ * @param maxEntities The maximum number of quota entities of each quota type whose usage is exchanged
+ * @param isController Whether this broker is the active controller, which aggregates the usage of all brokers
+ */
+class GlobalQuotaManager(brokerId: Int,
+                         zkClient: KafkaZkClient,
+                         quotaManagers: collection.Map[String, ClientQuotaManager],
+                         scheduler: Scheduler,
+                         syncIntervalMs: Long,
+                         maxEntities: Int,
+                         isController: () => Boolean) extends Logging {
+
+  this.logIdent = s"[GlobalQuotaManager brokerId=$brokerId] "
+
+  def startup(): Unit = {
+    scheduler.schedule("global-quota-sync", sync _, delay = 0L, period = syncIntervalMs, unit = TimeUnit.MILLISECONDS)
+  }
+
+  /**
+   * Publishes the quota usage of this broker and updates the quota shares from the usage of all brokers
+   */
+  def sync(): Unit = {
+    try {
+      val localUsage = quotaManagers.map { case (quotaType, quotaManager) =>
+        quotaType -> quotaManager.localQuotaUsage(maxEntities)
+      }
+      zkClient.setOrCreateQuotaUsage(brokerId, localUsage, quotaLimit)
+      if (isController())
+        aggregate()
+
+      // until the usage is aggregated, this broker only knows its own usage
+      val (numBrokers, totalUsage) = zkClient.getTotalQuotaUsage.getOrElse((1, Map.empty[String, Map[Map[String, String], Double]]))
+      quotaManagers.foreach { case (quotaType, quotaManager) =>
+        quotaManager.updateGlobalQuotaShares(localUsage(quotaType), totalUsage.getOrElse(quotaType, Map.empty).toMap,
+          numBrokers)
+      }
+      debug(s"Updated global quota shares from the usage of $numBrokers brokers")
+    } catch {
+      case e: Exception => warn("Failed to exchange quota usage with other brokers", e)
+    }
+  }
+
+  /**
+   * Sums up the quota usage published by all brokers, keeping the entities which use the largest part of their quota
+   */
+  private def aggregate(): Unit = {
+    val allUsage = zkClient.getAllQuotaUsage
+    val totalUsage = quotaManagers.map { case (quotaType, quotaManager) =>
+      val usage = mutable.Map[Map[String, String], Double]()
+      allUsage.values.foreach(_.getOrElse(quotaType, Map.empty).foreach { case (tags, rate) =>
+        usage(tags) = usage.getOrElse(tags, 0.0) + rate
+      })
+      quotaType -> quotaManager.mostUsedQuotas(usage.toMap, maxEntities)
+    }
+    zkClient.setOrCreateTotalQuotaUsage(allUsage.size, totalUsage, quotaLimit)
+    debug(s"Aggregated the quota usage of ${allUsage.size} brokers")
+  }
+
+  private def quotaLimit(quotaType: String, metricTags: Map[String, String]): Double =
+    quotaManagers(quotaType).configuredQuotaLimit(metricTags)
+}
@@ -69,6 +69,7 @@ import org.apache.kafka.common.requests.DeleteAclsResponse.{AclDeletionResult, A
 import org.apache.kafka.common.requests.DescribeLogDirsResponse.LogDirInfo
 import org.apache.kafka.common.requests.FindCoordinatorRequest.CoordinatorType
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
+import org.apache.kafka.common.requests.WriteTxnMarkersRequest.TxnMarkerEntry
 import org.apache.kafka.common.requests._
 import org.apache.kafka.common.resource.Resource.CLUSTER_NAME
 import org.apache.kafka.common.resource.ResourceType._
@@ -660,13 +661,29 @@ class KafkaApis(val requestChannel: RequestChannel,
         // know it must be supported. However, if the magic version is changed from a higher version back to a
         // lower version, this check will no longer be valid and we will fail to down-convert the messages
         // which were written in the new format prior to the version downgrade.
+        //
+        // Similarly, dictionary encoded batches are converted to the plain encoding of the same magic version for
+        // clients which do not support the encoding, whether or not the topic still allows it, since batches written
+        // while it was allowed stay in the log. Followers get them as they are. In the same way, batches compressed
+        // with a zstd dictionary are recompressed without it for clients which do not support zstd dictionaries, whether
+        // or not the dictionary is still one of the topic's, since the log keeps the dictionaries it has batches
+        // compressed with. The fetched batches are only looked at if the log may have such batches from the fetch offset.
         val unconvertedRecords = partitionData.records
+        lazy val fetchOffset = fetchContext.getFetchOffset(tp).get
         val downConvertMagic =
           logConfig.map(_.messageFormatVersion.recordVersion.value).flatMap { magic =>
             if (magic > RecordBatch.MAGIC_VALUE_V0 && versionId <= 1 && !unconvertedRecords.hasCompatibleMagic(RecordBatch.MAGIC_VALUE_V0))
               Some(RecordBatch.MAGIC_VALUE_V0)
             else if (magic > RecordBatch.MAGIC_VALUE_V1 && versionId <= 3 && !unconvertedRecords.hasCompatibleMagic(RecordBatch.MAGIC_VALUE_V1))
               Some(RecordBatch.MAGIC_VALUE_V1)
+            else if (magic >= RecordBatch.MAGIC_VALUE_V2 && versionId <= 11 && !fetchRequest.isFromFollower &&
+                replicaManager.mayHaveDictionaryEncodedBatches(tp, fetchOffset) &&
+                unconvertedRecords.batches.asScala.exists(_.isDictionaryEncoded))
+              Some(RecordBatch.MAGIC_VALUE_V2)
+            else if (magic >= RecordBatch.MAGIC_VALUE_V2 && versionId <= 12 && !fetchRequest.isFromFollower &&
+                replicaManager.mayHaveZstdDictionaryBatches(tp, fetchOffset) &&
+                unconvertedRecords.batches.asScala.exists(_.usesZstdDictionary))
+              Some(RecordBatch.MAGIC_VALUE_V2)
             else
               None
           }
@@ -687,7 +704,8 @@ class KafkaApis(val requestChannel: RequestChannel,
                 new FetchResponse.PartitionData[BaseRecords](partitionData.error, partitionData.highWatermark,
                   partitionData.lastStableOffset, partitionData.logStartOffset,
                   partitionData.preferredReadReplica, partitionData.abortedTransactions,
-                  new LazyDownConversionRecords(tp, unconvertedRecords, magic, fetchContext.getFetchOffset(tp).get, time))
+                  new LazyDownConversionRecords(tp, unconvertedRecords, magic, fetchOffset, time,
+                    replicaManager.getZstdDictionaries(tp)))
               } catch {
                 case e: UnsupportedCompressionTypeException =>
                   trace("Received unsupported compression type error during down-conversion", e)
@@ -1624,7 +1642,7 @@ class KafkaApis(val requestChannel: RequestChannel,
         apiVersionRequest.getErrorResponse(requestThrottleMs, Errors.INVALID_REQUEST.exception)
       else
         ApiVersionsResponse.apiVersionsResponse(requestThrottleMs,
-          config.interBrokerProtocolVersion.recordVersion.value)
+          config.interBrokerProtocolVersion.recordVersion.value, config.producerStateRetainedBatches)
     }
     sendResponseMaybeThrottle(request, createResponseCallback)
   }
@@ -1962,29 +1980,32 @@ class KafkaApis(val requestChannel: RequestChannel,
 
     /**
       * This is the call back invoked when a log append of transaction markers succeeds. This can be called multiple
-      * times when handling a single WriteTxnMarkersRequest because there is one append per TransactionMarker in the
-      * request, so there could be multiple appends of markers to the log. The final response will be sent only
-      * after all appends have returned.
+      * times when handling a single WriteTxnMarkersRequest because the markers are appended in several rounds, so
+      * there could be multiple appends of markers to the log. The final response will be sent only after all appends
+      * have returned.
       */
-    def maybeSendResponseCallback(producerId: Long, result: TransactionResult)(responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
-      trace(s"End transaction marker append for producer id $producerId completed with status: $responseStatus")
-      val currentErrors = new ConcurrentHashMap[TopicPartition, Errors](responseStatus.map { case (k, v) => k -> v.error }.asJava)
-      updateErrors(producerId, currentErrors)
-      val successfulOffsetsPartitions = responseStatus.filter { case (topicPartition, partitionResponse) =>
-        topicPartition.topic == GROUP_METADATA_TOPIC_NAME && partitionResponse.error == Errors.NONE
-      }.keys
-
-      if (successfulOffsetsPartitions.nonEmpty) {
-        // as soon as the end transaction marker has been written for a transactional offset commit,
-        // call to the group coordinator to materialize the offsets into the cache
-        try {
-          groupCoordinator.scheduleHandleTxnCompletion(producerId, successfulOffsetsPartitions, result)
-        } catch {
-          case e: Exception =>
-            error(s"Received an exception while trying to update the offsets cache on transaction marker append", e)
-            val updatedErrors = new ConcurrentHashMap[TopicPartition, Errors]()
-            successfulOffsetsPartitions.foreach(updatedErrors.put(_, Errors.UNKNOWN_SERVER_ERROR))
-            updateErrors(producerId, updatedErrors)
+    def maybeSendResponseCallback(markersPerPartition: Map[TopicPartition, TxnMarkerEntry])(responseStatus: Map[TopicPartition, PartitionResponse]): Unit = {
+      trace(s"End transaction marker append completed with status: $responseStatus")
+      responseStatus.groupBy { case (topicPartition, _) => markersPerPartition(topicPartition) }.foreach { case (marker, markerStatus) =>
+        val producerId = marker.producerId
+        val currentErrors = new ConcurrentHashMap[TopicPartition, Errors](markerStatus.map { case (k, v) => k -> v.error }.asJava)
+        updateErrors(producerId, currentErrors)
+        val successfulOffsetsPartitions = markerStatus.filter { case (topicPartition, partitionResponse) =>
+          topicPartition.topic == GROUP_METADATA_TOPIC_NAME && partitionResponse.error == Errors.NONE
+        }.keys
+
+        if (successfulOffsetsPartitions.nonEmpty) {
+          // as soon as the end transaction marker has been written for a transactional offset commit,
+          // call to the group coordinator to materialize the offsets into the cache
+          try {
+            groupCoordinator.scheduleHandleTxnCompletion(producerId, successfulOffsetsPartitions, marker.transactionResult)
+          } catch {
+            case e: Exception =>
+              error(s"Received an exception while trying to update the offsets cache on transaction marker append", e)
+              val updatedErrors = new ConcurrentHashMap[TopicPartition, Errors]()
+              successfulOffsetsPartitions.foreach(updatedErrors.put(_, Errors.UNKNOWN_SERVER_ERROR))
+              updateErrors(producerId, updatedErrors)
+          }
         }
       }
 
@@ -1992,15 +2013,12 @@ class KafkaApis(val requestChannel: RequestChannel,
         sendResponseExemptThrottle(request, new WriteTxnMarkersResponse(errors))
     }
 
-    // TODO: The current append API makes doing separate writes per producerId a little easier, but it would
-    // be nice to have only one append to the log. This requires pushing the building of the control records
-    // into Log so that we only append those having a valid producer epoch, and exposing a new appendControlRecord
-    // API in ReplicaManager. For now, we've done the simpler approach
-    var skippedMarkers = 0
+    // The markers of all producers are appended in rounds with at most one marker per partition, so that a single
+    // append writes the markers of many transactions while every control batch is still appended on its own and
+    // only fails for its own producer, e.g. if the producer epoch is fenced
+    val markersPerRound = mutable.ArrayBuffer[mutable.Map[TopicPartition, TxnMarkerEntry]]()
     for (marker <- markers.asScala) {
       val producerId = marker.producerId
-      val partitionsWithCompatibleMessageFormat = new mutable.ArrayBuffer[TopicPartition]
-
       val currentErrors = new ConcurrentHashMap[TopicPartition, Errors]()
       marker.partitions.asScala.foreach { partition =>
         replicaManager.getMagic(partition) match {
@@ -2008,7 +2026,10 @@ class KafkaApis(val requestChannel: RequestChannel,
             if (magic < RecordBatch.MAGIC_VALUE_V2)
               currentErrors.put(partition, Errors.UNSUPPORTED_FOR_MESSAGE_FORMAT)
             else
-              partitionsWithCompatibleMessageFormat += partition
+              markersPerRound.find(!_.contains(partition)) match {
+                case Some(round) => round(partition) = marker
+                case None => markersPerRound += mutable.Map(partition -> marker)
+              }
           case None =>
             currentErrors.put(partition, Errors.UNKNOWN_TOPIC_OR_PARTITION)
         }
@@ -2016,34 +2037,34 @@ class KafkaApis(val requestChannel: RequestChannel,
 
       if (!currentErrors.isEmpty)
         updateErrors(producerId, currentErrors)
-
-      if (partitionsWithCompatibleMessageFormat.isEmpty) {
-        numAppends.decrementAndGet()
-        skippedMarkers += 1
-      } else {
-        val controlRecords = partitionsWithCompatibleMessageFormat.map { partition =>
-          val controlRecordType = marker.transactionResult match {
-            case TransactionResult.COMMIT => ControlRecordType.COMMIT
-            case TransactionResult.ABORT => ControlRecordType.ABORT
-          }
-          val endTxnMarker = new EndTransactionMarker(controlRecordType, marker.coordinatorEpoch)
-          partition -> MemoryRecords.withEndTransactionMarker(producerId, marker.producerEpoch, endTxnMarker)
-        }.toMap
-
-        replicaManager.appendRecords(
-          timeout = config.requestTimeoutMs.toLong,
-          requiredAcks = -1,
-          internalTopicsAllowed = true,
-          origin = AppendOrigin.Coordinator,
-          entriesPerPartition = controlRecords,
-          responseCallback = maybeSendResponseCallback(producerId, marker.transactionResult))
-      }
     }
 
     // No log appends were written as all partitions had incorrect log format
     // so we need to send the error response
-    if (skippedMarkers == markers.size)
+    if (markersPerRound.isEmpty) {
       sendResponseExemptThrottle(request, new WriteTxnMarkersResponse(errors))
+      return
+    }
+
+    numAppends.set(markersPerRound.size)
+    for (markersPerPartition <- markersPerRound) {
+      val controlRecords = markersPerPartition.map { case (partition, marker) =>
+        val controlRecordType = marker.transactionResult match {
+          case TransactionResult.COMMIT => ControlRecordType.COMMIT
+          case TransactionResult.ABORT => ControlRecordType.ABORT
+        }
+        val endTxnMarker = new EndTransactionMarker(controlRecordType, marker.coordinatorEpoch)
+        partition -> MemoryRecords.withEndTransactionMarker(marker.producerId, marker.producerEpoch, endTxnMarker)
+      }.toMap
+
+      replicaManager.appendRecords(
+        timeout = config.requestTimeoutMs.toLong,
+        requiredAcks = -1,
+        internalTopicsAllowed = true,
+        origin = AppendOrigin.Coordinator,
+        entriesPerPartition = controlRecords,
+        responseCallback = maybeSendResponseCallback(markersPerPartition.toMap))
+    }
   }
 
   def ensureInterBrokerVersion(version: ApiVersion): Unit = {
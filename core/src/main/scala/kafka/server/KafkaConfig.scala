@@ -24,6 +24,7 @@ import kafka.api.{ApiVersion, ApiVersionValidator, KAFKA_0_10_0_IV1, KAFKA_2_1_I
 import kafka.cluster.EndPoint
 import kafka.coordinator.group.OffsetConfig
 import kafka.coordinator.transaction.{TransactionLog, TransactionStateManager}
+import kafka.log.{OffsetMap, ProducerStateManager}
 import kafka.message.{BrokerCompressionCodec, CompressionCodec, ZStdCompressionCodec}
 import kafka.security.authorizer.AuthorizerWrapper
 import kafka.utils.CoreUtils
@@ -101,6 +102,9 @@ object Defaults {
   val LogCleanerDedupeBufferSize = 128 * 1024 * 1024L
   val LogCleanerIoBufferSize = 512 * 1024
   val LogCleanerDedupeBufferLoadFactor = 0.9d
+  val LogCleanerDedupeHashAlgorithm = "MD5"
+  val LogCleanerKeySummaryMaxBytes = 0
+  val LogCleanerRecopyThreads = 1
   val LogCleanerBackoffMs = 15 * 1000
   val LogCleanerMinCleanRatio = 0.5d
   val LogCleanerEnable = true
@@ -123,6 +127,7 @@ object Defaults {
   val AutoCreateTopicsEnable = true
   val MinInSyncReplicas = 1
   val MessageDownConversionEnable = true
+  val MessageDictionaryEncodingEnable = false
 
   /** ********* Replication configuration ***********/
   val ControllerSocketTimeoutMs = RequestTimeoutMs
@@ -162,6 +167,7 @@ object Defaults {
   /** ********* Offset management configuration ***********/
   val OffsetMetadataMaxSize = OffsetConfig.DefaultMaxMetadataSize
   val OffsetsLoadBufferSize = OffsetConfig.DefaultLoadBufferSize
+  val OffsetsLoadThreads = OffsetConfig.DefaultLoadThreads
   val OffsetsTopicReplicationFactor = OffsetConfig.DefaultOffsetsTopicReplicationFactor
   val OffsetsTopicPartitions: Int = OffsetConfig.DefaultOffsetsTopicNumPartitions
   val OffsetsTopicSegmentBytes: Int = OffsetConfig.DefaultOffsetsTopicSegmentBytes
@@ -170,20 +176,25 @@ object Defaults {
   val OffsetsRetentionCheckIntervalMs: Long = OffsetConfig.DefaultOffsetsRetentionCheckIntervalMs
   val OffsetCommitTimeoutMs = OffsetConfig.DefaultOffsetCommitTimeoutMs
   val OffsetCommitRequiredAcks = OffsetConfig.DefaultOffsetCommitRequiredAcks
+  val OffsetCommitAppendBatchBytes = OffsetConfig.DefaultOffsetCommitAppendBatchBytes
 
   /** ********* Transaction management configuration ***********/
   val TransactionalIdExpirationMs = TransactionStateManager.DefaultTransactionalIdExpirationMs
   val TransactionsMaxTimeoutMs = TransactionStateManager.DefaultTransactionsMaxTimeoutMs
   val TransactionsTopicMinISR = TransactionLog.DefaultMinInSyncReplicas
   val TransactionsLoadBufferSize = TransactionLog.DefaultLoadBufferSize
+  val TransactionsLoadThreads = TransactionLog.DefaultLoadThreads
+  val TransactionsAppendBatchBytes = TransactionLog.DefaultAppendBatchBytes
   val TransactionsTopicReplicationFactor = TransactionLog.DefaultReplicationFactor
   val TransactionsTopicPartitions = TransactionLog.DefaultNumPartitions
   val TransactionsTopicSegmentBytes = TransactionLog.DefaultSegmentBytes
   val TransactionsAbortTimedOutTransactionsCleanupIntervalMS = TransactionStateManager.DefaultAbortTimedOutTransactionsIntervalMs
   val TransactionsRemoveExpiredTransactionsCleanupIntervalMS = TransactionStateManager.DefaultRemoveExpiredTransactionalIdsIntervalMs
+  val ProducerStateRetainedBatches = ProducerStateManager.DefaultRetainedBatches
 
   /** ********* Fetch Configuration **************/
   val MaxIncrementalFetchSessionCacheSlots = 1000
+  val MaxIncrementalFetchSessionCachePartitions = Int.MaxValue
   val FetchMaxBytes = 55 * 1024 * 1024
 
   /** ********* Quota Configuration ***********/
@@ -191,6 +202,10 @@ object Defaults {
   val ConsumerQuotaBytesPerSecondDefault = ClientQuotaManagerConfig.QuotaBytesPerSecondDefault
   val NumQuotaSamples: Int = ClientQuotaManagerConfig.DefaultNumQuotaSamples
   val QuotaWindowSizeSeconds: Int = ClientQuotaManagerConfig.DefaultQuotaWindowSizeSeconds
+  val ClientQuotaTokenBucketEnable: Boolean = ClientQuotaManagerConfig.DefaultTokenBucketEnabled
+  val ClientQuotaGlobalEnable: Boolean = ClientQuotaManagerConfig.DefaultGlobalQuotaEnabled
+  val ClientQuotaGlobalSyncIntervalMs = 10000L
+  val ClientQuotaGlobalMaxEntities = 1000
   val NumReplicationQuotaSamples: Int = ReplicationQuotaManagerConfig.DefaultNumQuotaSamples
   val ReplicationQuotaWindowSizeSeconds: Int = ReplicationQuotaManagerConfig.DefaultQuotaWindowSizeSeconds
   val NumAlterLogDirsReplicationQuotaSamples: Int = ReplicationQuotaManagerConfig.DefaultNumQuotaSamples
@@ -326,6 +341,9 @@ object KafkaConfig {
   val LogCleanerDedupeBufferSizeProp = "log.cleaner.dedupe.buffer.size"
   val LogCleanerIoBufferSizeProp = "log.cleaner.io.buffer.size"
   val LogCleanerDedupeBufferLoadFactorProp = "log.cleaner.io.buffer.load.factor"
+  val LogCleanerDedupeHashAlgorithmProp = "log.cleaner.dedupe.hash.algorithm"
+  val LogCleanerKeySummaryMaxBytesProp = "log.cleaner.key.summary.max.bytes"
+  val LogCleanerRecopyThreadsProp = "log.cleaner.recopy.threads"
   val LogCleanerBackoffMsProp = "log.cleaner.backoff.ms"
   val LogCleanerMinCleanRatioProp = "log.cleaner.min.cleanable.ratio"
   val LogCleanerEnableProp = "log.cleaner.enable"
@@ -351,6 +369,7 @@ object KafkaConfig {
   val CreateTopicPolicyClassNameProp = "create.topic.policy.class.name"
   val AlterConfigPolicyClassNameProp = "alter.config.policy.class.name"
   val LogMessageDownConversionEnableProp = LogConfigPrefix + "message.downconversion.enable"
+  val LogMessageDictionaryEncodingEnableProp = LogConfigPrefix + "message.dictionary.encoding.enable"
   /** ********* Replication configuration ***********/
   val ControllerSocketTimeoutMsProp = "controller.socket.timeout.ms"
   val DefaultReplicationFactorProp = "default.replication.factor"
@@ -387,6 +406,7 @@ object KafkaConfig {
   /** ********* Offset management configuration ***********/
   val OffsetMetadataMaxSizeProp = "offset.metadata.max.bytes"
   val OffsetsLoadBufferSizeProp = "offsets.load.buffer.size"
+  val OffsetsLoadThreadsProp = "offsets.load.threads"
   val OffsetsTopicReplicationFactorProp = "offsets.topic.replication.factor"
   val OffsetsTopicPartitionsProp = "offsets.topic.num.partitions"
   val OffsetsTopicSegmentBytesProp = "offsets.topic.segment.bytes"
@@ -395,19 +415,24 @@ object KafkaConfig {
   val OffsetsRetentionCheckIntervalMsProp = "offsets.retention.check.interval.ms"
   val OffsetCommitTimeoutMsProp = "offsets.commit.timeout.ms"
   val OffsetCommitRequiredAcksProp = "offsets.commit.required.acks"
+  val OffsetCommitAppendBatchBytesProp = "offsets.commit.append.batch.bytes"
   /** ********* Transaction management configuration ***********/
   val TransactionalIdExpirationMsProp = "transactional.id.expiration.ms"
   val TransactionsMaxTimeoutMsProp = "transaction.max.timeout.ms"
   val TransactionsTopicMinISRProp = "transaction.state.log.min.isr"
   val TransactionsLoadBufferSizeProp = "transaction.state.log.load.buffer.size"
+  val TransactionsLoadThreadsProp = "transaction.state.log.load.threads"
+  val TransactionsAppendBatchBytesProp = "transaction.state.log.append.batch.bytes"
   val TransactionsTopicPartitionsProp = "transaction.state.log.num.partitions"
   val TransactionsTopicSegmentBytesProp = "transaction.state.log.segment.bytes"
   val TransactionsTopicReplicationFactorProp = "transaction.state.log.replication.factor"
   val TransactionsAbortTimedOutTransactionCleanupIntervalMsProp = "transaction.abort.timed.out.transaction.cleanup.interval.ms"
   val TransactionsRemoveExpiredTransactionalIdCleanupIntervalMsProp = "transaction.remove.expired.transaction.cleanup.interval.ms"
+  val ProducerStateRetainedBatchesProp = "producer.state.retained.batches"
 
   /** ********* Fetch Configuration **************/
   val MaxIncrementalFetchSessionCacheSlots = "max.incremental.fetch.session.cache.slots"
+  val MaxIncrementalFetchSessionCachePartitions = "max.incremental.fetch.session.cache.partitions"
   val FetchMaxBytes = "fetch.max.bytes"
 
   /** ********* Quota Configuration ***********/
@@ -420,6 +445,10 @@ object KafkaConfig {
   val ReplicationQuotaWindowSizeSecondsProp = "replication.quota.window.size.seconds"
   val AlterLogDirsReplicationQuotaWindowSizeSecondsProp = "alter.log.dirs.replication.quota.window.size.seconds"
   val ClientQuotaCallbackClassProp = "client.quota.callback.class"
+  val ClientQuotaTokenBucketEnableProp = "client.quota.token.bucket.enable"
+  val ClientQuotaGlobalEnableProp = "client.quota.global.enable"
+  val ClientQuotaGlobalSyncIntervalMsProp = "client.quota.global.sync.interval.ms"
+  val ClientQuotaGlobalMaxEntitiesProp = "client.quota.global.max.entities"
 
   val DeleteTopicEnableProp = "delete.topic.enable"
   val CompressionTypeProp = "compression.type"
@@ -619,6 +648,16 @@ object KafkaConfig {
   val LogCleanerIoBufferSizeDoc = "The total memory used for log cleaner I/O buffers across all cleaner threads"
   val LogCleanerDedupeBufferLoadFactorDoc = "Log cleaner dedupe buffer load factor. The percentage full the dedupe buffer can become. A higher value " +
   "will allow more log to be cleaned at once but will lead to more hash collisions"
+  val LogCleanerDedupeHashAlgorithmDoc = "The 128-bit or larger hash of the record keys used by the log cleaner to deduplicate the log. " +
+    "MURMUR3 uses a non-cryptographic hash and an off-heap map, which is considerably cheaper than the message digests. " +
+    "Its entries take 16 bytes instead of the 24 bytes of MD5, so that half as many keys again fit into the dedupe buffer"
+  val LogCleanerKeySummaryMaxBytesDoc = "The maximum size of the summary of the keys kept in memory for each segment written by " +
+    "the log cleaner. Later cleanings do not recopy clean segments whose summary shows they contain none of the keys being " +
+    "deduplicated. Segments with too many keys to be summarized within this size are always recopied. 0 disables the summaries."
+  val LogCleanerRecopyThreadsDoc = "The number of threads each log cleaner thread uses to recopy the segments of the log it " +
+    "cleans. The groups of segments cleaned into one segment each are recopied concurrently and swapped into the log in order. " +
+    "Every recopy thread has I/O buffers of the same size as its cleaner thread. The segments are only recopied concurrently " +
+    "with the " + OffsetMap.Murmur3HashAlgorithm + " dedupe hash algorithm, whose offset map can be read by several threads at once."
   val LogCleanerBackoffMsDoc = "The amount of time to sleep when there are no logs to clean"
   val LogCleanerMinCleanRatioDoc = "The minimum ratio of dirty log to total log for a log to eligible for cleaning. " +
     "If the " + LogCleanerMaxCompactionLagMsProp + " or the " + LogCleanerMinCompactionLagMsProp +
@@ -668,6 +707,7 @@ object KafkaConfig {
   val AlterConfigPolicyClassNameDoc = "The alter configs policy class that should be used for validation. The class should " +
     "implement the <code>org.apache.kafka.server.policy.AlterConfigPolicy</code> interface."
   val LogMessageDownConversionEnableDoc = TopicConfig.MESSAGE_DOWNCONVERSION_ENABLE_DOC;
+  val LogMessageDictionaryEncodingEnableDoc = TopicConfig.MESSAGE_DICTIONARY_ENCODING_ENABLE_DOC
 
   /** ********* Replication configuration ***********/
   val ControllerSocketTimeoutMsDoc = "The socket timeout for controller-to-broker channels"
@@ -721,6 +761,9 @@ object KafkaConfig {
   /** ********* Offset management configuration ***********/
   val OffsetMetadataMaxSizeDoc = "The maximum size for a metadata entry associated with an offset commit"
   val OffsetsLoadBufferSizeDoc = "Batch size for reading from the offsets segments when loading offsets into the cache (soft-limit, overridden if records are too large)."
+  val OffsetsLoadThreadsDoc = "The number of threads used to load and unload offsets and group metadata when this broker becomes " +
+    "leader or follower for partitions of the offsets topic. Different partitions are loaded in parallel, while operations " +
+    "on the same partition are always executed in order by the same thread."
   val OffsetsTopicReplicationFactorDoc = "The replication factor for the offsets topic (set higher to ensure availability). " +
   "Internal topic creation will fail until the cluster size meets this replication factor requirement."
   val OffsetsTopicPartitionsDoc = "The number of partitions for the offset commit topic (should not change after deployment)"
@@ -732,6 +775,9 @@ object KafkaConfig {
   val OffsetCommitTimeoutMsDoc = "Offset commit will be delayed until all replicas for the offsets topic receive the commit " +
   "or this timeout is reached. This is similar to the producer request timeout."
   val OffsetCommitRequiredAcksDoc = "The required acks before the commit can be accepted. In general, the default (-1) should not be overridden"
+  val OffsetCommitAppendBatchBytesDoc = "Soft limit on the size of the records of offset commits appended together to a " +
+    "partition of the offsets topic. Offset commits queued by concurrent requests are appended together until the records " +
+    "of one partition reach this size, the rest is appended by the next append. A single commit is never split."
   /** ********* Transaction management configuration ***********/
   val TransactionalIdExpirationMsDoc = "The time in ms that the transaction coordinator will wait without receiving any transaction status updates " +
     "for the current transaction before expiring its transactional id. This setting also influences producer id expiration - producer ids are expired " + 
@@ -740,15 +786,31 @@ object KafkaConfig {
     "If a client’s requested transaction time exceed this, then the broker will return an error in InitProducerIdRequest. This prevents a client from too large of a timeout, which can stall consumers reading from topics included in the transaction."
   val TransactionsTopicMinISRDoc = "Overridden " + MinInSyncReplicasProp + " config for the transaction topic."
   val TransactionsLoadBufferSizeDoc = "Batch size for reading from the transaction log segments when loading producer ids and transactions into the cache (soft-limit, overridden if records are too large)."
+  val TransactionsLoadThreadsDoc = "The number of threads used to load and unload transaction metadata when this broker becomes " +
+    "leader or follower for partitions of the transaction topic. Different partitions are loaded in parallel, and the " +
+    "transactional ids of a partition are served as soon as that partition is loaded."
+  val TransactionsAppendBatchBytesDoc = "Soft limit on the size of the records of transactions appended together to a " +
+    "partition of the transaction topic. Transaction log appends queued by concurrent requests are appended together " +
+    "until the records of one partition reach this size, the rest is appended by the next append."
   val TransactionsTopicReplicationFactorDoc = "The replication factor for the transaction topic (set higher to ensure availability). " +
     "Internal topic creation will fail until the cluster size meets this replication factor requirement."
   val TransactionsTopicPartitionsDoc = "The number of partitions for the transaction topic (should not change after deployment)."
   val TransactionsTopicSegmentBytesDoc = "The transaction topic segment bytes should be kept relatively small in order to facilitate faster log compaction and cache loads"
   val TransactionsAbortTimedOutTransactionsIntervalMsDoc = "The interval at which to rollback transactions that have timed out"
   val TransactionsRemoveExpiredTransactionsIntervalMsDoc = "The interval at which to remove transactions that have expired due to <code>transactional.id.expiration.ms</code> passing"
+  val ProducerStateRetainedBatchesDoc = "The number of most recent batches of each idempotent producer which are retained " +
+    "for each partition to detect duplicate batches when the producer retries. An idempotent producer may have at most as many " +
+    "requests in flight per connection, so retaining more batches allows producers to pipeline more requests on high latency links, " +
+    "at the cost of some memory for each active producer. The broker reports this value to clients in its ApiVersions response, and " +
+    "idempotent producers never have more requests in flight to it, whatever their <code>max.in.flight.requests.per.connection</code>. " +
+    "The retained batches are not stored in producer state snapshots: after the broker restarts, only the last batch of each producer " +
+    "is retained until the producer sends more, so a retry of an earlier batch which was in flight across the restart fails with an " +
+    "<code>OutOfOrderSequenceException</code> instead of being detected as a duplicate."
 
   /** ********* Fetch Configuration **************/
   val MaxIncrementalFetchSessionCacheSlotsDoc = "The maximum number of incremental fetch sessions that we will maintain."
+  val MaxIncrementalFetchSessionCachePartitionsDoc = "The maximum number of partitions that we will cache across all incremental fetch sessions. " +
+    "When creating a new session would exceed this limit, stale or less valuable sessions are evicted to make room for it."
   val FetchMaxBytesDoc = "The maximum number of bytes we will return for a fetch request. Must be at least 1024."
 
   /** ********* Quota Configuration ***********/
@@ -766,6 +828,18 @@ object KafkaConfig {
     "which is used to determine quota limits applied to client requests. By default, <user, client-id>, <user> or <client-id> " +
     "quotas stored in ZooKeeper are applied. For any given request, the most specific quota that matches the user principal " +
     "of the session and the client-id of the request is applied."
+  val ClientQuotaTokenBucketEnableDoc = "Track the usage of client quotas with token buckets instead of sampled rate sensors. " +
+    "Token buckets are updated without locking and allow the same burst as a rate over <code>" + NumQuotaSamplesProp +
+    " - 1</code> samples. They are not used with a custom <code>" + ClientQuotaCallbackClassProp + "</code>."
+  val ClientQuotaGlobalEnableDoc = "Enforce produce, fetch and request quotas on the usage of a client across the cluster " +
+    "instead of on each broker. Brokers exchange their quota usage through ZooKeeper and each broker enforces a share of " +
+    "every quota that is updated from the usage of all brokers. Enforcement is approximate between updates. All brokers " +
+    "of the cluster should enable this config."
+  val ClientQuotaGlobalSyncIntervalMsDoc = "The interval at which brokers exchange quota usage when <code>" +
+    ClientQuotaGlobalEnableProp + "</code> is enabled."
+  val ClientQuotaGlobalMaxEntitiesDoc = "The maximum number of clients of each quota type whose usage a broker publishes " +
+    "when <code>" + ClientQuotaGlobalEnableProp + "</code> is enabled. The clients which use the largest part of their " +
+    "quota are published, the others get an equal share of their quota on every broker."
 
   val DeleteTopicEnableDoc = "Enables delete topic. Delete topic through the admin tool will have no effect if this config is turned off"
   val CompressionTypeDoc = "Specify the final compression type for a given topic. This configuration accepts the standard compression codecs " +
@@ -927,6 +1001,9 @@ object KafkaConfig {
       .define(LogCleanerDedupeBufferSizeProp, LONG, Defaults.LogCleanerDedupeBufferSize, MEDIUM, LogCleanerDedupeBufferSizeDoc)
       .define(LogCleanerIoBufferSizeProp, INT, Defaults.LogCleanerIoBufferSize, atLeast(0), MEDIUM, LogCleanerIoBufferSizeDoc)
       .define(LogCleanerDedupeBufferLoadFactorProp, DOUBLE, Defaults.LogCleanerDedupeBufferLoadFactor, MEDIUM, LogCleanerDedupeBufferLoadFactorDoc)
+      .define(LogCleanerKeySummaryMaxBytesProp, INT, Defaults.LogCleanerKeySummaryMaxBytes, atLeast(0), LOW, LogCleanerKeySummaryMaxBytesDoc)
+      .define(LogCleanerRecopyThreadsProp, INT, Defaults.LogCleanerRecopyThreads, atLeast(1), LOW, LogCleanerRecopyThreadsDoc)
+      .define(LogCleanerDedupeHashAlgorithmProp, STRING, Defaults.LogCleanerDedupeHashAlgorithm, in("MD5", "SHA-1", "SHA-256", OffsetMap.Murmur3HashAlgorithm), LOW, LogCleanerDedupeHashAlgorithmDoc)
       .define(LogCleanerBackoffMsProp, LONG, Defaults.LogCleanerBackoffMs, atLeast(0), MEDIUM, LogCleanerBackoffMsDoc)
       .define(LogCleanerMinCleanRatioProp, DOUBLE, Defaults.LogCleanerMinCleanRatio, MEDIUM, LogCleanerMinCleanRatioDoc)
       .define(LogCleanerEnableProp, BOOLEAN, Defaults.LogCleanerEnable, MEDIUM, LogCleanerEnableDoc)
@@ -951,6 +1028,7 @@ object KafkaConfig {
       .define(CreateTopicPolicyClassNameProp, CLASS, null, LOW, CreateTopicPolicyClassNameDoc)
       .define(AlterConfigPolicyClassNameProp, CLASS, null, LOW, AlterConfigPolicyClassNameDoc)
       .define(LogMessageDownConversionEnableProp, BOOLEAN, Defaults.MessageDownConversionEnable, LOW, LogMessageDownConversionEnableDoc)
+      .define(LogMessageDictionaryEncodingEnableProp, BOOLEAN, Defaults.MessageDictionaryEncodingEnable, LOW, LogMessageDictionaryEncodingEnableDoc)
 
       /** ********* Replication configuration ***********/
       .define(ControllerSocketTimeoutMsProp, INT, Defaults.ControllerSocketTimeoutMs, MEDIUM, ControllerSocketTimeoutMsDoc)
@@ -991,6 +1069,7 @@ object KafkaConfig {
       /** ********* Offset management configuration ***********/
       .define(OffsetMetadataMaxSizeProp, INT, Defaults.OffsetMetadataMaxSize, HIGH, OffsetMetadataMaxSizeDoc)
       .define(OffsetsLoadBufferSizeProp, INT, Defaults.OffsetsLoadBufferSize, atLeast(1), HIGH, OffsetsLoadBufferSizeDoc)
+      .define(OffsetsLoadThreadsProp, INT, Defaults.OffsetsLoadThreads, atLeast(1), MEDIUM, OffsetsLoadThreadsDoc)
       .define(OffsetsTopicReplicationFactorProp, SHORT, Defaults.OffsetsTopicReplicationFactor, atLeast(1), HIGH, OffsetsTopicReplicationFactorDoc)
       .define(OffsetsTopicPartitionsProp, INT, Defaults.OffsetsTopicPartitions, atLeast(1), HIGH, OffsetsTopicPartitionsDoc)
       .define(OffsetsTopicSegmentBytesProp, INT, Defaults.OffsetsTopicSegmentBytes, atLeast(1), HIGH, OffsetsTopicSegmentBytesDoc)
@@ -999,6 +1078,7 @@ object KafkaConfig {
       .define(OffsetsRetentionCheckIntervalMsProp, LONG, Defaults.OffsetsRetentionCheckIntervalMs, atLeast(1), HIGH, OffsetsRetentionCheckIntervalMsDoc)
       .define(OffsetCommitTimeoutMsProp, INT, Defaults.OffsetCommitTimeoutMs, atLeast(1), HIGH, OffsetCommitTimeoutMsDoc)
       .define(OffsetCommitRequiredAcksProp, SHORT, Defaults.OffsetCommitRequiredAcks, HIGH, OffsetCommitRequiredAcksDoc)
+      .define(OffsetCommitAppendBatchBytesProp, INT, Defaults.OffsetCommitAppendBatchBytes, atLeast(1), LOW, OffsetCommitAppendBatchBytesDoc)
       .define(DeleteTopicEnableProp, BOOLEAN, Defaults.DeleteTopicEnable, HIGH, DeleteTopicEnableDoc)
       .define(CompressionTypeProp, STRING, Defaults.CompressionType, HIGH, CompressionTypeDoc)
 
@@ -1007,14 +1087,18 @@ object KafkaConfig {
       .define(TransactionsMaxTimeoutMsProp, INT, Defaults.TransactionsMaxTimeoutMs, atLeast(1), HIGH, TransactionsMaxTimeoutMsDoc)
       .define(TransactionsTopicMinISRProp, INT, Defaults.TransactionsTopicMinISR, atLeast(1), HIGH, TransactionsTopicMinISRDoc)
       .define(TransactionsLoadBufferSizeProp, INT, Defaults.TransactionsLoadBufferSize, atLeast(1), HIGH, TransactionsLoadBufferSizeDoc)
+      .define(TransactionsLoadThreadsProp, INT, Defaults.TransactionsLoadThreads, atLeast(1), MEDIUM, TransactionsLoadThreadsDoc)
+      .define(TransactionsAppendBatchBytesProp, INT, Defaults.TransactionsAppendBatchBytes, atLeast(1), LOW, TransactionsAppendBatchBytesDoc)
       .define(TransactionsTopicReplicationFactorProp, SHORT, Defaults.TransactionsTopicReplicationFactor, atLeast(1), HIGH, TransactionsTopicReplicationFactorDoc)
       .define(TransactionsTopicPartitionsProp, INT, Defaults.TransactionsTopicPartitions, atLeast(1), HIGH, TransactionsTopicPartitionsDoc)
       .define(TransactionsTopicSegmentBytesProp, INT, Defaults.TransactionsTopicSegmentBytes, atLeast(1), HIGH, TransactionsTopicSegmentBytesDoc)
       .define(TransactionsAbortTimedOutTransactionCleanupIntervalMsProp, INT, Defaults.TransactionsAbortTimedOutTransactionsCleanupIntervalMS, atLeast(1), LOW, TransactionsAbortTimedOutTransactionsIntervalMsDoc)
       .define(TransactionsRemoveExpiredTransactionalIdCleanupIntervalMsProp, INT, Defaults.TransactionsRemoveExpiredTransactionsCleanupIntervalMS, atLeast(1), LOW, TransactionsRemoveExpiredTransactionsIntervalMsDoc)
+      .define(ProducerStateRetainedBatchesProp, INT, Defaults.ProducerStateRetainedBatches, atLeast(Defaults.ProducerStateRetainedBatches), MEDIUM, ProducerStateRetainedBatchesDoc)
 
       /** ********* Fetch Configuration **************/
       .define(MaxIncrementalFetchSessionCacheSlots, INT, Defaults.MaxIncrementalFetchSessionCacheSlots, atLeast(0), MEDIUM, MaxIncrementalFetchSessionCacheSlotsDoc)
+      .define(MaxIncrementalFetchSessionCachePartitions, INT, Defaults.MaxIncrementalFetchSessionCachePartitions, atLeast(1), MEDIUM, MaxIncrementalFetchSessionCachePartitionsDoc)
       .define(FetchMaxBytes, INT, Defaults.FetchMaxBytes, atLeast(1024), MEDIUM, FetchMaxBytesDoc)
 
       /** ********* Kafka Metrics Configuration ***********/
@@ -1037,6 +1121,10 @@ object KafkaConfig {
       .define(ReplicationQuotaWindowSizeSecondsProp, INT, Defaults.ReplicationQuotaWindowSizeSeconds, atLeast(1), LOW, ReplicationQuotaWindowSizeSecondsDoc)
       .define(AlterLogDirsReplicationQuotaWindowSizeSecondsProp, INT, Defaults.AlterLogDirsReplicationQuotaWindowSizeSeconds, atLeast(1), LOW, AlterLogDirsReplicationQuotaWindowSizeSecondsDoc)
       .define(ClientQuotaCallbackClassProp, CLASS, null, LOW, ClientQuotaCallbackClassDoc)
+      .define(ClientQuotaTokenBucketEnableProp, BOOLEAN, Defaults.ClientQuotaTokenBucketEnable, LOW, ClientQuotaTokenBucketEnableDoc)
+      .define(ClientQuotaGlobalEnableProp, BOOLEAN, Defaults.ClientQuotaGlobalEnable, LOW, ClientQuotaGlobalEnableDoc)
+      .define(ClientQuotaGlobalSyncIntervalMsProp, LONG, Defaults.ClientQuotaGlobalSyncIntervalMs, atLeast(1), LOW, ClientQuotaGlobalSyncIntervalMsDoc)
+      .define(ClientQuotaGlobalMaxEntitiesProp, INT, Defaults.ClientQuotaGlobalMaxEntities, atLeast(0), LOW, ClientQuotaGlobalMaxEntitiesDoc)
 
       /** ********* General Security Configuration ****************/
       .define(ConnectionsMaxReauthMsProp, LONG, Defaults.ConnectionsMaxReauthMsDefault, MEDIUM, ConnectionsMaxReauthMsDoc)
@@ -1230,6 +1318,9 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   def logRetentionBytes = getLong(KafkaConfig.LogRetentionBytesProp)
   val logCleanerDedupeBufferSize = getLong(KafkaConfig.LogCleanerDedupeBufferSizeProp)
   val logCleanerDedupeBufferLoadFactor = getDouble(KafkaConfig.LogCleanerDedupeBufferLoadFactorProp)
+  val logCleanerDedupeHashAlgorithm = getString(KafkaConfig.LogCleanerDedupeHashAlgorithmProp)
+  val logCleanerKeySummaryMaxBytes = getInt(KafkaConfig.LogCleanerKeySummaryMaxBytesProp)
+  val logCleanerRecopyThreads = getInt(KafkaConfig.LogCleanerRecopyThreadsProp)
   val logCleanerIoBufferSize = getInt(KafkaConfig.LogCleanerIoBufferSizeProp)
   val logCleanerIoMaxBytesPerSecond = getDouble(KafkaConfig.LogCleanerIoMaxBytesPerSecondProp)
   def logCleanerDeleteRetentionMs = getLong(KafkaConfig.LogCleanerDeleteRetentionMsProp)
@@ -1253,6 +1344,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   def logMessageTimestampType = TimestampType.forName(getString(KafkaConfig.LogMessageTimestampTypeProp))
   def logMessageTimestampDifferenceMaxMs: Long = getLong(KafkaConfig.LogMessageTimestampDifferenceMaxMsProp)
   def logMessageDownConversionEnable: Boolean = getBoolean(KafkaConfig.LogMessageDownConversionEnableProp)
+  def logMessageDictionaryEncodingEnable: Boolean = getBoolean(KafkaConfig.LogMessageDictionaryEncodingEnableProp)
 
   /** ********* Replication configuration ***********/
   val controllerSocketTimeoutMs: Int = getInt(KafkaConfig.ControllerSocketTimeoutMsProp)
@@ -1294,10 +1386,12 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   /** ********* Offset management configuration ***********/
   val offsetMetadataMaxSize = getInt(KafkaConfig.OffsetMetadataMaxSizeProp)
   val offsetsLoadBufferSize = getInt(KafkaConfig.OffsetsLoadBufferSizeProp)
+  val offsetsLoadThreads = getInt(KafkaConfig.OffsetsLoadThreadsProp)
   val offsetsTopicReplicationFactor = getShort(KafkaConfig.OffsetsTopicReplicationFactorProp)
   val offsetsTopicPartitions = getInt(KafkaConfig.OffsetsTopicPartitionsProp)
   val offsetCommitTimeoutMs = getInt(KafkaConfig.OffsetCommitTimeoutMsProp)
   val offsetCommitRequiredAcks = getShort(KafkaConfig.OffsetCommitRequiredAcksProp)
+  val offsetCommitAppendBatchBytes = getInt(KafkaConfig.OffsetCommitAppendBatchBytesProp)
   val offsetsTopicSegmentBytes = getInt(KafkaConfig.OffsetsTopicSegmentBytesProp)
   val offsetsTopicCompressionCodec = Option(getInt(KafkaConfig.OffsetsTopicCompressionCodecProp)).map(value => CompressionCodec.getCompressionCodec(value)).orNull
 
@@ -1306,9 +1400,12 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   val transactionMaxTimeoutMs = getInt(KafkaConfig.TransactionsMaxTimeoutMsProp)
   val transactionTopicMinISR = getInt(KafkaConfig.TransactionsTopicMinISRProp)
   val transactionsLoadBufferSize = getInt(KafkaConfig.TransactionsLoadBufferSizeProp)
+  val transactionsLoadThreads = getInt(KafkaConfig.TransactionsLoadThreadsProp)
+  val transactionsAppendBatchBytes = getInt(KafkaConfig.TransactionsAppendBatchBytesProp)
   val transactionTopicReplicationFactor = getShort(KafkaConfig.TransactionsTopicReplicationFactorProp)
   val transactionTopicPartitions = getInt(KafkaConfig.TransactionsTopicPartitionsProp)
   val transactionTopicSegmentBytes = getInt(KafkaConfig.TransactionsTopicSegmentBytesProp)
+  val producerStateRetainedBatches = getInt(KafkaConfig.ProducerStateRetainedBatchesProp)
   val transactionAbortTimedOutTransactionCleanupIntervalMs = getInt(KafkaConfig.TransactionsAbortTimedOutTransactionCleanupIntervalMsProp)
   val transactionRemoveExpiredTransactionalIdCleanupIntervalMs = getInt(KafkaConfig.TransactionsRemoveExpiredTransactionalIdCleanupIntervalMsProp)
 
@@ -1357,6 +1454,10 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   val consumerQuotaBytesPerSecondDefault = getLong(KafkaConfig.ConsumerQuotaBytesPerSecondDefaultProp)
   val numQuotaSamples = getInt(KafkaConfig.NumQuotaSamplesProp)
   val quotaWindowSizeSeconds = getInt(KafkaConfig.QuotaWindowSizeSecondsProp)
+  val clientQuotaTokenBucketEnable = getBoolean(KafkaConfig.ClientQuotaTokenBucketEnableProp)
+  val clientQuotaGlobalEnable = getBoolean(KafkaConfig.ClientQuotaGlobalEnableProp)
+  val clientQuotaGlobalSyncIntervalMs = getLong(KafkaConfig.ClientQuotaGlobalSyncIntervalMsProp)
+  val clientQuotaGlobalMaxEntities = getInt(KafkaConfig.ClientQuotaGlobalMaxEntitiesProp)
   val numReplicationQuotaSamples = getInt(KafkaConfig.NumReplicationQuotaSamplesProp)
   val replicationQuotaWindowSizeSeconds = getInt(KafkaConfig.ReplicationQuotaWindowSizeSecondsProp)
   val numAlterLogDirsReplicationQuotaSamples = getInt(KafkaConfig.NumAlterLogDirsReplicationQuotaSamplesProp)
@@ -1364,6 +1465,7 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
 
   /** ********* Fetch Configuration **************/
   val maxIncrementalFetchSessionCacheSlots = getInt(KafkaConfig.MaxIncrementalFetchSessionCacheSlots)
+  val maxIncrementalFetchSessionCachePartitions = getInt(KafkaConfig.MaxIncrementalFetchSessionCachePartitions)
   val fetchMaxBytes = getInt(KafkaConfig.FetchMaxBytes)
 
   val deleteTopicEnable = getBoolean(KafkaConfig.DeleteTopicEnableProp)
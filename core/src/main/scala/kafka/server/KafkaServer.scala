@@ -81,6 +81,7 @@ object KafkaServer {
     logProps.put(LogConfig.MessageTimestampTypeProp, kafkaConfig.logMessageTimestampType.name)
     logProps.put(LogConfig.MessageTimestampDifferenceMaxMsProp, kafkaConfig.logMessageTimestampDifferenceMaxMs: java.lang.Long)
     logProps.put(LogConfig.MessageDownConversionEnableProp, kafkaConfig.logMessageDownConversionEnable: java.lang.Boolean)
+    logProps.put(LogConfig.MessageDictionaryEncodingEnableProp, kafkaConfig.logMessageDictionaryEncodingEnable: java.lang.Boolean)
     logProps
   }
 
@@ -144,6 +145,7 @@ class KafkaServer(val config: KafkaConfig, time: Time = Time.SYSTEM, threadNameP
 
   var metadataCache: MetadataCache = null
   var quotaManagers: QuotaFactory.QuotaManagers = null
+  var globalQuotaManager: GlobalQuotaManager = null
 
   private var _zkClient: KafkaZkClient = null
   val correlationId: AtomicInteger = new AtomicInteger(0)
@@ -259,6 +261,14 @@ class KafkaServer(val config: KafkaConfig, time: Time = Time.SYSTEM, threadNameP
         kafkaController = new KafkaController(config, zkClient, time, metrics, brokerInfo, brokerEpoch, tokenManager, threadNamePrefix)
         kafkaController.startup()
 
+        if (config.clientQuotaGlobalEnable) {
+          globalQuotaManager = new GlobalQuotaManager(config.brokerId, zkClient,
+            Map(QuotaType.Fetch.toString -> quotaManagers.fetch, QuotaType.Produce.toString -> quotaManagers.produce,
+              QuotaType.Request.toString -> quotaManagers.request), kafkaScheduler,
+            config.clientQuotaGlobalSyncIntervalMs, config.clientQuotaGlobalMaxEntities, () => kafkaController.isActive)
+          globalQuotaManager.startup()
+        }
+
         adminManager = new AdminManager(config, metrics, metadataCache, zkClient)
 
         /* start group coordinator */
@@ -283,7 +293,8 @@ class KafkaServer(val config: KafkaConfig, time: Time = Time.SYSTEM, threadNameP
 
         val fetchManager = new FetchManager(Time.SYSTEM,
           new FetchSessionCache(config.maxIncrementalFetchSessionCacheSlots,
-            KafkaServer.MIN_INCREMENTAL_FETCH_SESSION_EVICTION_MS))
+            KafkaServer.MIN_INCREMENTAL_FETCH_SESSION_EVICTION_MS,
+            config.maxIncrementalFetchSessionCachePartitions))
 
         /* start processing requests */
         dataPlaneRequestProcessor = new KafkaApis(socketServer.dataPlaneRequestChannel, replicaManager, adminManager, groupCoordinator, transactionCoordinator,
@@ -180,6 +180,11 @@ class MetadataCache(brokerId: Int) extends Logging {
     metadataSnapshot.partitionStates.get(topic).flatMap(_.get(partitionId))
   }
 
+  // Visible for testing
+  private[server] def getPartitionStates(topic: String): Option[collection.Map[Long, UpdateMetadataPartitionState]] = {
+    metadataSnapshot.partitionStates.get(topic)
+  }
+
   // if the leader is not known, return None;
   // if the leader is known and corresponding node is available, return Some(node)
   // if the leader is known but corresponding node with the listener name is not available, return Some(NO_NODE)
@@ -272,17 +277,26 @@ class MetadataCache(brokerId: Int) extends Logging {
       if (!updateMetadataRequest.partitionStates.iterator.hasNext) {
         metadataSnapshot = MetadataSnapshot(metadataSnapshot.partitionStates, controllerId, aliveBrokers, aliveNodes)
       } else {
-        //since kafka may do partial metadata updates, we start by copying the previous state
+        //since kafka may do partial metadata updates, we start by copying the previous state. the per-topic
+        //partition maps are shared with the previous snapshot until this request modifies them, so that the
+        //cost of an update depends on the number of topics and updated partitions rather than on all partitions
         val partitionStates = new mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]](metadataSnapshot.partitionStates.size)
-        metadataSnapshot.partitionStates.foreach { case (topic, oldPartitionStates) =>
-          val copy = new mutable.LongMap[UpdateMetadataPartitionState](oldPartitionStates.size)
-          copy ++= oldPartitionStates
-          partitionStates += (topic -> copy)
+        partitionStates ++= metadataSnapshot.partitionStates
+        val copiedTopics = mutable.Set.empty[String]
+        def copyOnWrite(topic: String): Unit = {
+          if (copiedTopics.add(topic)) {
+            partitionStates.get(topic).foreach { oldPartitionStates =>
+              val copy = new mutable.LongMap[UpdateMetadataPartitionState](oldPartitionStates.size)
+              copy ++= oldPartitionStates
+              partitionStates(topic) = copy
+            }
+          }
         }
         updateMetadataRequest.partitionStates.asScala.foreach { info =>
           val controllerId = updateMetadataRequest.controllerId
           val controllerEpoch = updateMetadataRequest.controllerEpoch
           val tp = new TopicPartition(info.topicName, info.partitionIndex)
+          copyOnWrite(tp.topic)
           if (info.leader == LeaderAndIsr.LeaderDuringDelete) {
             removePartitionInfo(partitionStates, tp.topic, tp.partition)
             stateChangeLogger.trace(s"Deleted partition $tp from metadata cache in response to UpdateMetadata " +
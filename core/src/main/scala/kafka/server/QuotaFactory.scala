@@ -77,7 +77,9 @@ object QuotaFactory extends Logging {
     ClientQuotaManagerConfig(
       quotaBytesPerSecondDefault = cfg.producerQuotaBytesPerSecondDefault,
       numQuotaSamples = cfg.numQuotaSamples,
-      quotaWindowSizeSeconds = cfg.quotaWindowSizeSeconds
+      quotaWindowSizeSeconds = cfg.quotaWindowSizeSeconds,
+      tokenBucketEnabled = cfg.clientQuotaTokenBucketEnable,
+      globalQuotaEnabled = cfg.clientQuotaGlobalEnable
     )
   }
 
@@ -87,14 +89,18 @@ object QuotaFactory extends Logging {
     ClientQuotaManagerConfig(
       quotaBytesPerSecondDefault = cfg.consumerQuotaBytesPerSecondDefault,
       numQuotaSamples = cfg.numQuotaSamples,
-      quotaWindowSizeSeconds = cfg.quotaWindowSizeSeconds
+      quotaWindowSizeSeconds = cfg.quotaWindowSizeSeconds,
+      tokenBucketEnabled = cfg.clientQuotaTokenBucketEnable,
+      globalQuotaEnabled = cfg.clientQuotaGlobalEnable
     )
   }
 
   def clientRequestConfig(cfg: KafkaConfig): ClientQuotaManagerConfig = {
     ClientQuotaManagerConfig(
       numQuotaSamples = cfg.numQuotaSamples,
-      quotaWindowSizeSeconds = cfg.quotaWindowSizeSeconds
+      quotaWindowSizeSeconds = cfg.quotaWindowSizeSeconds,
+      tokenBucketEnabled = cfg.clientQuotaTokenBucketEnable,
+      globalQuotaEnabled = cfg.clientQuotaGlobalEnable
     )
   }
 
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.server
+
+import java.lang.Double.{doubleToRawLongBits, longBitsToDouble}
+import java.util.concurrent.atomic.{AtomicLong, DoubleAdder}
+
+import org.apache.kafka.common.metrics.{Measurable, MetricConfig}
+
+/**
+ * Tracks the quota usage of one quota entity with a token bucket that can be updated concurrently without locking.
+ *
+ * The bucket is refilled at the quota rate and holds at most `burstMs` worth of quota. This is the credit the
+ * sampled `Rate` used by quota sensors gives to a client, since the rate is computed over at least
+ * `numQuotaSamples - 1` windows. Recorded values are taken out of the bucket and a client is throttled while
+ * the bucket is in debt, for as long as it takes to refill the debt at the quota rate. For a new client, and for a
+ * client that keeps exceeding its quota, this is the same delay the sampled rate computes. Unlike the sampled rate,
+ * usage below the quota does not reduce the burst a client can send once the bucket is full again.
+ *
+ * The bucket is also the `Measurable` for the rate metric of the entity. The rate is computed only when the metric
+ * is read, over the time since it was last computed, and is updated at most once every `rateWindowMs`.
+ *
+ * @param metricTags The quota metric tags of the entity
+ * @param quotaLimit The quota bound
+ * @param burstMs The time span of quota that the bucket can hold
+ * @param rateWindowMs The minimum time span the rate metric is computed over
+ * @param nowMs The current time
+ */
+private[server] class QuotaTokenBucket(val metricTags: Map[String, String],
+                                       quotaLimit: Double,
+                                       burstMs: Long,
+                                       rateWindowMs: Long,
+                                       nowMs: Long) extends Measurable {
+  @volatile private var limit = quotaLimit
+  private val tokens = new AtomicLong(doubleToRawLongBits(capacity))
+  private val lastRefillMs = new AtomicLong(nowMs)
+  private val recorded = new DoubleAdder
+  @volatile private var lastRecordMs = nowMs
+
+  private var lastMeasuredMs = nowMs
+  private var lastMeasuredTotal = 0.0
+  private var lastRate = 0.0
+
+  def bound: Double = limit
+
+  def lastRecordTimeMs: Long = lastRecordMs
+
+  /**
+   * Updates the quota bound. The tokens change by as much as the capacity of the bucket does, which leaves the
+   * usage recorded in the bucket unchanged, like the sum of the samples of a rate is when its quota changes.
+   */
+  def updateBound(quotaLimit: Double): Unit = {
+    val oldCapacity = capacity
+    limit = quotaLimit
+    add(capacity - oldCapacity)
+  }
+
+  /**
+   * Records `value` at `timeMs` and returns the time in milliseconds the client must be throttled for, which is
+   * zero unless the bucket went into debt.
+   */
+  def record(value: Double, timeMs: Long): Long = {
+    val available = take(value, timeMs)
+    if (available >= 0) 0L else math.round(-available / limit * 1000)
+  }
+
+  /**
+   * Records `value` at `timeMs` without checking for quota violation. A debt is paid back by throttling
+   * the next request that is checked.
+   */
+  def recordNoThrottle(value: Double, timeMs: Long): Unit = {
+    take(value, timeMs)
+  }
+
+  /**
+   * Returns the tokens of a recorded value to the bucket
+   */
+  def unrecord(value: Double, timeMs: Long): Unit = {
+    recorded.add(-value)
+    refill(timeMs)
+    add(value)
+  }
+
+  private def capacity: Double = limit * burstMs / 1000
+
+  private def take(value: Double, timeMs: Long): Double = {
+    if (timeMs > lastRecordMs)
+      lastRecordMs = timeMs
+    recorded.add(value)
+    refill(timeMs)
+    add(-value)
+  }
+
+  private def refill(timeMs: Long): Unit = {
+    val last = lastRefillMs.get
+    // only the thread that moves the refill time forward adds the tokens for the elapsed time
+    if (timeMs > last && lastRefillMs.compareAndSet(last, timeMs))
+      add(limit * (timeMs - last) / 1000)
+  }
+
+  private def add(amount: Double): Double = {
+    val maxTokens = capacity
+    var current = tokens.get
+    var updated = math.min(longBitsToDouble(current) + amount, maxTokens)
+    while (!tokens.compareAndSet(current, doubleToRawLongBits(updated))) {
+      current = tokens.get
+      updated = math.min(longBitsToDouble(current) + amount, maxTokens)
+    }
+    updated
+  }
+
+  override def measure(config: MetricConfig, now: Long): Double = synchronized {
+    val elapsedMs = now - lastMeasuredMs
+    if (elapsedMs >= rateWindowMs) {
+      val total = recorded.sum
+      lastRate = (total - lastMeasuredTotal) * 1000 / elapsedMs
+      lastMeasuredTotal = total
+      lastMeasuredMs = now
+    }
+    lastRate
+  }
+}
@@ -1137,6 +1137,15 @@ class ReplicaManager(val config: KafkaConfig,
 
   def getLogConfig(topicPartition: TopicPartition): Option[LogConfig] = localLog(topicPartition).map(_.config)
 
+  def getZstdDictionaries(topicPartition: TopicPartition): ZstdDictionaries =
+    localLog(topicPartition).map(_.zstdDictionaries).getOrElse(ZstdDictionaries.EMPTY)
+
+  def mayHaveDictionaryEncodedBatches(topicPartition: TopicPartition, fromOffset: Long): Boolean =
+    localLog(topicPartition).exists(_.mayHaveDictionaryEncodedBatchesFrom(fromOffset))
+
+  def mayHaveZstdDictionaryBatches(topicPartition: TopicPartition, fromOffset: Long): Boolean =
+    localLog(topicPartition).exists(_.mayHaveZstdDictionaryBatchesFrom(fromOffset))
+
   def getMagic(topicPartition: TopicPartition): Option[Byte] = getLogConfig(topicPartition).map(_.messageFormatVersion.recordVersion.value)
 
   def maybeUpdateMetadataCache(correlationId: Int, updateMetadataRequest: UpdateMetadataRequest) : Seq[TopicPartition] =  {
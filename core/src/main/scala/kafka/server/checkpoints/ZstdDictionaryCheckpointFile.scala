@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.server.checkpoints
+
+import java.io._
+import java.util.regex.Pattern
+
+import kafka.log.ZstdDictionaryEntry
+import kafka.server.LogDirFailureChannel
+import org.apache.kafka.common.record.ZstdDictionary
+
+import scala.collection._
+import scala.util.Try
+
+trait ZstdDictionaryCheckpoint {
+  def write(entries: Seq[ZstdDictionaryEntry]): Unit
+  def read(): Seq[ZstdDictionaryEntry]
+}
+
+object ZstdDictionaryCheckpointFile {
+  private val ZstdDictionaryCheckpointFilename = "zstd-dictionary-checkpoint"
+  private val WhiteSpacesPattern = Pattern.compile("\\s+")
+  private val CurrentVersion = 0
+
+  def newFile(dir: File): File = new File(dir, ZstdDictionaryCheckpointFilename)
+
+  object Formatter extends CheckpointFileFormatter[ZstdDictionaryEntry] {
+
+    override def toLine(entry: ZstdDictionaryEntry): String =
+      s"${entry.dictionary.id} ${entry.retiredAtOffset} ${entry.dictionary.toBase64}"
+
+    override def fromLine(line: String): Option[ZstdDictionaryEntry] = {
+      WhiteSpacesPattern.split(line) match {
+        case Array(id, retiredAtOffset, base64) =>
+          Try(ZstdDictionary.fromBase64(base64)).toOption.filter(_.id == id.toInt)
+            .map(ZstdDictionaryEntry(_, retiredAtOffset.toLong))
+        case _ => None
+      }
+    }
+
+  }
+}
+
+/**
+  * This class persists the zstd dictionaries of a log to a file. The file is only created once there is a dictionary
+  * to write, so that logs of topics without dictionaries do not have one.
+  */
+class ZstdDictionaryCheckpointFile(val file: File, logDirFailureChannel: LogDirFailureChannel = null) extends ZstdDictionaryCheckpoint {
+  import ZstdDictionaryCheckpointFile._
+
+  private lazy val checkpoint = new CheckpointFile[ZstdDictionaryEntry](file, CurrentVersion, Formatter,
+    logDirFailureChannel, file.getParentFile.getParent)
+
+  def write(entries: Seq[ZstdDictionaryEntry]): Unit = {
+    if (entries.nonEmpty || file.exists)
+      checkpoint.write(entries)
+  }
+
+  def read(): Seq[ZstdDictionaryEntry] = if (file.exists) checkpoint.read() else Seq.empty
+}
@@ -23,6 +23,8 @@ import kafka.coordinator.group.GroupMetadataManager
 import kafka.coordinator.transaction.TransactionLog
 import kafka.log._
 import kafka.serializer.Decoder
+import kafka.server.LogDirFailureChannel
+import kafka.server.checkpoints.ZstdDictionaryCheckpointFile
 import kafka.utils._
 import org.apache.kafka.common.record._
 import org.apache.kafka.common.utils.Utils
@@ -160,6 +162,7 @@ object DumpLogSegments {
     val indexFile = new File(file.getAbsoluteFile.getParent, file.getName.split("\\.")(0) + Log.IndexFileSuffix)
     val index = new OffsetIndex(indexFile, baseOffset = startOffset, writable = false)
     val timeIndex = new TimeIndex(file, baseOffset = startOffset, writable = false)
+    val zstdDictionaries = logZstdDictionaries(file)
 
     try {
       //Check that index passes sanityCheck, this is the check that determines if indexes will be rebuilt on startup or not.
@@ -189,7 +192,7 @@ object DumpLogSegments {
           case Some(batch) if batch.lastOffset != entry.offset =>
             timeIndexDumpErrors.recordShallowOffsetNotFound(file, entry.offset, batch.lastOffset)
           case Some(batch) =>
-            for (record <- batch.asScala)
+            for (record <- Log.readRecords(batch, zstdDictionaries))
               maxTimestamp = math.max(maxTimestamp, record.timestamp)
 
             if (maxTimestamp != entry.timestamp)
@@ -240,6 +243,7 @@ object DumpLogSegments {
     val startOffset = file.getName.split("\\.")(0).toLong
     println("Starting offset: " + startOffset)
     val fileRecords = FileRecords.open(file, false)
+    val zstdDictionaries = logZstdDictionaries(file)
     try {
       var validBytes = 0L
       var lastOffset = -1L
@@ -247,7 +251,7 @@ object DumpLogSegments {
       for (batch <- fileRecords.batches.asScala) {
         printBatchLevel(batch, validBytes)
         if (isDeepIteration) {
-          for (record <- batch.asScala) {
+          for (record <- Log.readRecords(batch, zstdDictionaries)) {
             if (lastOffset == -1)
               lastOffset = record.offset
             else if (record.offset != lastOffset + 1) {
@@ -291,6 +295,13 @@ object DumpLogSegments {
     } finally fileRecords.closeHandlers()
   }
 
+  /* the zstd dictionaries checkpointed in the log directory of the file, which batches may be compressed with */
+  private def logZstdDictionaries(file: File): ZstdDictionaries = {
+    val checkpoint = new ZstdDictionaryCheckpointFile(ZstdDictionaryCheckpointFile.newFile(file.getAbsoluteFile.getParentFile),
+      new LogDirFailureChannel(1))
+    ZstdDictionaries.of(checkpoint.read().map(_.dictionary).asJava)
+  }
+
   private def printBatchLevel(batch: FileLogInputStream.FileChannelRecordBatch, accumulativeBytes: Long): Unit = {
     if (batch.magic >= RecordBatch.MAGIC_VALUE_V2)
       print("baseOffset: " + batch.baseOffset + " lastOffset: " + batch.lastOffset + " count: " + batch.countOrNull +
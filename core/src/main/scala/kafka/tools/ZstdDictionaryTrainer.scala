@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.tools
+
+import java.io.File
+import java.nio.file.Files
+
+import com.github.luben.zstd.ZstdDictTrainer
+import kafka.log.Log
+import kafka.utils._
+import kafka.zk.{AdminZkClient, KafkaZkClient}
+import org.apache.kafka.common.record.{BufferSupplier, FileRecords, ZstdDictionaries, ZstdDictionary}
+import org.apache.kafka.common.security.JaasUtils
+import org.apache.kafka.common.utils.{Time, Utils}
+
+import scala.collection.JavaConverters._
+
+/**
+ * Trains a zstd dictionary on the record values of log segments of a topic. The dictionary is written to a file, which
+ * producers and consumers can load with their compression.zstd.dictionaries config, and it is registered for the topic
+ * in zookeeper if requested, so that the compression.zstd.dictionaries config of the topic can refer to its id.
+ */
+object ZstdDictionaryTrainer {
+
+  def main(args: Array[String]): Unit = {
+    val opts = new ZstdDictionaryTrainerOptions(args)
+    CommandLineUtils.printHelpAndExitIfNeeded(opts, "This tool trains a zstd dictionary on the record values of log " +
+      "segments of a topic, which improves the compression ratio of small batches of the topic.")
+    opts.checkArgs()
+
+    // batches compressed with the existing dictionaries are sampled too
+    val existingDictionaries = ZstdDictionaries.of(opts.existingDictionaries.map { path =>
+      ZstdDictionary.fromBytes(Files.readAllBytes(new File(path).toPath))
+    }.asJava)
+
+    val trainer = new ZstdDictTrainer(opts.maxSampleBytes, opts.dictionarySize)
+    var sampleCount = 0
+    var full = false
+    for (arg <- opts.files if !full) {
+      val file = new File(arg)
+      if (!file.getName.endsWith(Log.LogFileSuffix)) {
+        System.err.println(s"Ignoring file $file, which is not a log segment")
+      } else {
+        println(s"Sampling $file")
+        val fileRecords = FileRecords.open(file, false)
+        try {
+          for (batch <- fileRecords.batches.asScala if !full && !batch.isControlBatch) {
+            val records = batch.streamingIterator(BufferSupplier.NO_CACHING, existingDictionaries)
+            try {
+              for (record <- records.asScala if !full && record.hasValue) {
+                if (trainer.addSample(Utils.toArray(record.value)))
+                  sampleCount += 1
+                else
+                  full = true
+              }
+            } finally {
+              records.close()
+            }
+          }
+        } finally {
+          fileRecords.closeHandlers()
+        }
+      }
+    }
+
+    if (sampleCount == 0)
+      Exit.exit(1, Some("No record values were found in the log segments to train a dictionary on"))
+
+    val dictionary = ZstdDictionary.fromBytes(trainer.trainSamples())
+    Files.write(new File(opts.output).toPath, dictionary.bytes)
+    println(s"Trained the zstd dictionary ${dictionary.id} of ${dictionary.bytes.length} bytes on $sampleCount record " +
+      s"values and wrote it to ${opts.output}")
+
+    if (opts.topic.isDefined) {
+      val zkClient = KafkaZkClient(opts.zkConnect, JaasUtils.isZkSecurityEnabled, 30000, 30000, Int.MaxValue, Time.SYSTEM)
+      try {
+        new AdminZkClient(zkClient).registerZstdDictionary(opts.topic.get, dictionary)
+        println(s"Registered the zstd dictionary ${dictionary.id} for topic ${opts.topic.get}. Add ${dictionary.id} to " +
+          "the compression.zstd.dictionaries config of the topic to use it.")
+      } finally {
+        zkClient.close()
+      }
+    }
+  }
+
+  private class ZstdDictionaryTrainerOptions(args: Array[String]) extends CommandDefaultOptions(args) {
+    val filesOpt = parser.accepts("files", "REQUIRED: The comma separated list of log segment files of the topic to sample.")
+      .withRequiredArg
+      .describedAs("file1, file2, ...")
+      .ofType(classOf[String])
+    val outputOpt = parser.accepts("output", "REQUIRED: The file to write the dictionary to.")
+      .withRequiredArg
+      .describedAs("file")
+      .ofType(classOf[String])
+    val dictionarySizeOpt = parser.accepts("dictionary-size", "The maximum size of the dictionary in bytes.")
+      .withRequiredArg
+      .describedAs("size")
+      .ofType(classOf[java.lang.Integer])
+      .defaultsTo(64 * 1024)
+    val maxSampleBytesOpt = parser.accepts("max-sample-bytes", "The maximum total size of the record values to train " +
+      "the dictionary on. The remaining log segments are not sampled once it is reached.")
+      .withRequiredArg
+      .describedAs("size")
+      .ofType(classOf[java.lang.Integer])
+      .defaultsTo(32 * 1024 * 1024)
+    val existingDictionariesOpt = parser.accepts("existing-dictionaries", "The comma separated list of dictionary " +
+      "files the log segments may have batches compressed with.")
+      .withRequiredArg
+      .describedAs("file1, file2, ...")
+      .ofType(classOf[String])
+    val topicOpt = parser.accepts("topic", "The topic to register the dictionary for in zookeeper.")
+      .withRequiredArg
+      .describedAs("topic")
+      .ofType(classOf[String])
+    val zkConnectOpt = parser.accepts("zookeeper", "The connection string for the zookeeper connection in the form " +
+      "host:port, which is required to register the dictionary. Multiple URLS can be given to allow fail-over.")
+      .withRequiredArg
+      .describedAs("urls")
+      .ofType(classOf[String])
+    options = parser.parse(args : _*)
+
+    lazy val files = options.valueOf(filesOpt).split(",")
+    lazy val output = options.valueOf(outputOpt)
+    lazy val dictionarySize = options.valueOf(dictionarySizeOpt).intValue()
+    lazy val maxSampleBytes = options.valueOf(maxSampleBytesOpt).intValue()
+    lazy val existingDictionaries: Seq[String] =
+      if (options.has(existingDictionariesOpt)) options.valueOf(existingDictionariesOpt).split(",").toSeq else Seq.empty
+    lazy val topic = Option(options.valueOf(topicOpt))
+    lazy val zkConnect = options.valueOf(zkConnectOpt)
+
+    def checkArgs(): Unit = {
+      CommandLineUtils.checkRequiredArgs(parser, options, filesOpt, outputOpt)
+      if (options.has(topicOpt))
+        CommandLineUtils.checkRequiredArgs(parser, options, zkConnectOpt)
+    }
+
+  }
+}
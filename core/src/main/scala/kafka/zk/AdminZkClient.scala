@@ -16,7 +16,7 @@
 */
 package kafka.zk
 
-import java.util.Properties
+import java.util.{Arrays, Properties}
 
 import kafka.admin.{AdminOperationException, AdminUtils, BrokerMetadata, RackAwareMode}
 import kafka.common.TopicAlreadyMarkedForDeletionException
@@ -27,6 +27,7 @@ import kafka.utils._
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors._
 import org.apache.kafka.common.internals.Topic
+import org.apache.kafka.common.record.ZstdDictionary
 import org.apache.zookeeper.KeeperException.NodeExistsException
 
 import scala.collection.{Map, Seq}
@@ -133,6 +134,7 @@ class AdminZkClient(zkClient: KafkaZkClient) extends Logging {
         throw new InvalidReplicaAssignmentException("partitions should be a consecutive 0-based integer sequence")
 
     LogConfig.validate(config)
+    validateZstdDictionaries(topic, config)
   }
 
   private def writeTopicPartitionAssignment(topic: String, replicaAssignment: Map[Int, ReplicaAssignment], isUpdate: Boolean): Unit = {
@@ -326,6 +328,46 @@ class AdminZkClient(zkClient: KafkaZkClient) extends Logging {
       throw new AdminOperationException("Topic \"%s\" does not exist.".format(topic))
     // remove the topic overrides
     LogConfig.validate(configs)
+    validateZstdDictionaries(topic, configs)
+  }
+
+  /**
+   * Check that the zstd dictionaries which the topic configs refer to are registered for the topic
+   */
+  private def validateZstdDictionaries(topic: String, configs: Properties): Unit = {
+    val ids = LogConfig(configs).zstdDictionaryIds
+    if (ids.nonEmpty) {
+      val registeredIds = zkClient.getZstdDictionaries(topic).map(_.id).toSet
+      val unregisteredIds = ids.filterNot(registeredIds.contains)
+      if (unregisteredIds.nonEmpty)
+        throw new InvalidConfigurationException(s"The zstd dictionaries ${unregisteredIds.mkString(",")} of the " +
+          s"${LogConfig.CompressionZstdDictionariesProp} config are not registered for topic $topic")
+    }
+  }
+
+  /**
+   * Register a zstd dictionary for an existing topic, so that the compression.zstd.dictionaries config of the topic
+   * can refer to it, and create a topic config change notification so that the brokers read it. Dictionaries stay
+   * registered until the topic is deleted, so that every replica can read the batches compressed with them, including
+   * the replicas created after the dictionaries are removed from the topic config.
+   *
+   * @param topic: The topic to register the dictionary for
+   * @param dictionary: The dictionary
+   */
+  def registerZstdDictionary(topic: String, dictionary: ZstdDictionary): Unit = {
+    Topic.validate(topic)
+    if (!zkClient.topicExists(topic))
+      throw new AdminOperationException("Topic \"%s\" does not exist.".format(topic))
+    val registered = zkClient.getZstdDictionaries(topic)
+    registered.find(_.id == dictionary.id) match {
+      case Some(existing) if Arrays.equals(existing.bytes, dictionary.bytes) =>
+        info(s"The zstd dictionary ${dictionary.id} is already registered for topic $topic")
+      case Some(_) =>
+        throw new AdminOperationException(s"Another zstd dictionary with id ${dictionary.id} is registered for topic $topic")
+      case None =>
+        zkClient.setOrCreateZstdDictionaries(topic, registered :+ dictionary)
+        zkClient.createConfigChangeNotification(ConfigType.Topic + '/' + topic)
+    }
   }
 
   /**
@@ -30,6 +30,7 @@ import kafka.server.ConfigType
 import kafka.utils.Logging
 import kafka.zookeeper._
 import org.apache.kafka.common.errors.ControllerMovedException
+import org.apache.kafka.common.record.ZstdDictionary
 import org.apache.kafka.common.resource.PatternType
 import org.apache.kafka.common.security.token.delegation.{DelegationToken, TokenInformation}
 import org.apache.kafka.common.utils.{Time, Utils}
@@ -38,7 +39,7 @@ import org.apache.zookeeper.KeeperException.{Code, NodeExistsException}
 import org.apache.zookeeper.OpResult.{CreateResult, ErrorResult, SetDataResult}
 import org.apache.zookeeper.data.{ACL, Stat}
 import org.apache.zookeeper.{CreateMode, KeeperException, ZooKeeper}
-import scala.collection.{Map, Seq, mutable}
+import scala.collection.{Map, Seq, immutable, mutable}
 
 /**
  * Provides higher level Kafka-specific operations on top of the pipelined [[kafka.zookeeper.ZooKeeperClient]].
@@ -187,6 +188,13 @@ class KafkaZkClient private[zk] (zooKeeperClient: ZooKeeperClient, isSecure: Boo
 
   /**
    * Sets topic partition states for the given partitions.
+   *
+   * The states are written in batches of up to `MaxSetDataOpsPerMultiRequest` partitions, each of which is a
+   * single ZooKeeper multi-op guarded by the controller epoch check. This saves a round trip per partition when
+   * the controller moves many leaders at once (e.g. during controlled shutdown). If a batch fails because of one
+   * of its partitions (e.g. a BADVERSION conflict), the partitions of that batch are written one by one so that
+   * the result of each partition is the same as if it had been written on its own.
+   *
    * @param leaderIsrAndControllerEpochs the partition states of each partition whose state we wish to set.
    * @param expectedControllerEpochZkVersion expected controller epoch zkVersion.
    * @return sequence of SetDataResponse whose contexts are the partitions they are associated with.
@@ -196,8 +204,52 @@ class KafkaZkClient private[zk] (zooKeeperClient: ZooKeeperClient, isSecure: Boo
       val path = TopicPartitionStateZNode.path(partition)
       val data = TopicPartitionStateZNode.encode(leaderIsrAndControllerEpoch)
       SetDataRequest(path, data, leaderIsrAndControllerEpoch.leaderAndIsr.zkVersion, Some(partition))
+    }.toSeq
+    if (setDataRequests.size > 1)
+      setDataInBatches(setDataRequests, expectedControllerEpochZkVersion)
+    else
+      retryRequestsUntilConnected(setDataRequests, expectedControllerEpochZkVersion)
+  }
+
+  private def setDataInBatches(setDataRequests: Seq[SetDataRequest], expectedControllerEpochZkVersion: Int): Seq[SetDataResponse] = {
+    val checkOps = expectedControllerEpochZkVersion match {
+      case ZkVersion.MatchAnyVersion => Seq.empty
+      case version if version >= 0 => Seq(CheckOp(ControllerEpochZNode.path, version))
+      case invalidVersion =>
+        throw new IllegalArgumentException(s"Expected controller epoch zkVersion $invalidVersion should be non-negative or equal to ${ZkVersion.MatchAnyVersion}")
+    }
+    val multiRequests = setDataRequests.grouped(MaxSetDataOpsPerMultiRequest).map { batch =>
+      MultiRequest(checkOps ++ batch.map(request => SetDataOp(request.path, request.data, request.version)), Some(batch))
+    }.toSeq
+    val multiResponses = retryRequestsUntilConnected(multiRequests)
+
+    val failedRequests = multiResponses.filter(_.resultCode != Code.OK).flatMap { multiResponse =>
+      if (checkOps.nonEmpty) {
+        multiResponse.zkOpResults.headOption.foreach {
+          case ZkOpResult(checkOp: CheckOp, errorResult: ErrorResult) if Code.get(errorResult.getErr) == Code.BADVERSION =>
+            throw new ControllerMovedException(s"Controller epoch zkVersion check fails. Expected zkVersion = ${checkOp.version}")
+          case _ =>
+        }
+      }
+      multiResponse.ctx.get.asInstanceOf[Seq[SetDataRequest]]
+    }
+    val fallbackResponses = retryRequestsUntilConnected(failedRequests, expectedControllerEpochZkVersion).iterator
+
+    multiResponses.flatMap { multiResponse =>
+      val batch = multiResponse.ctx.get.asInstanceOf[Seq[SetDataRequest]]
+      if (multiResponse.resultCode == Code.OK) {
+        val setDataResults = multiResponse.zkOpResults.drop(checkOps.size)
+        batch.zip(setDataResults).map { case (request, ZkOpResult(_, rawOpResult)) =>
+          val stat = rawOpResult match {
+            case s: SetDataResult => s.getStat
+            case _ => null
+          }
+          SetDataResponse(Code.OK, request.path, request.ctx, stat, multiResponse.metadata)
+        }
+      } else {
+        batch.map(_ => fallbackResponses.next())
+      }
     }
-    retryRequestsUntilConnected(setDataRequests.toSeq, expectedControllerEpochZkVersion)
   }
 
   /**
@@ -374,6 +426,42 @@ class KafkaZkClient private[zk] (zooKeeperClient: ZooKeeperClient, isSecure: Boo
     }
   }
 
+  /**
+   * Gets the zstd dictionaries registered for a topic
+   * @param topic the topic
+   * @return the dictionaries, in the order they were registered
+   */
+  def getZstdDictionaries(topic: String): Seq[ZstdDictionary] = {
+    val getDataResponse = retryRequestUntilConnected(GetDataRequest(ZstdDictionariesTopicZNode.path(topic)))
+    getDataResponse.resultCode match {
+      case Code.OK => ZstdDictionariesTopicZNode.decode(getDataResponse.data)
+      case Code.NONODE => Seq.empty
+      case _ => throw getDataResponse.resultException.get
+    }
+  }
+
+  /**
+   * Sets or creates the zstd dictionaries znode of a topic depending on whether it already exists or not
+   * @param topic the topic
+   * @param dictionaries all the dictionaries registered for the topic
+   */
+  def setOrCreateZstdDictionaries(topic: String, dictionaries: Seq[ZstdDictionary]): Unit = {
+    val path = ZstdDictionariesTopicZNode.path(topic)
+    val data = ZstdDictionariesTopicZNode.encode(dictionaries)
+
+    def set(): SetDataResponse = retryRequestUntilConnected(SetDataRequest(path, data, ZkVersion.MatchAnyVersion))
+
+    val setDataResponse = set()
+    setDataResponse.resultCode match {
+      case Code.NONODE =>
+        try createRecursive(path, data)
+        catch {
+          case _: NodeExistsException => set().maybeThrow
+        }
+      case _ => setDataResponse.maybeThrow
+    }
+  }
+
   /**
    * Returns all the entities for a given entityType
    * @param entityType entity type
@@ -1096,6 +1184,17 @@ class KafkaZkClient private[zk] (zooKeeperClient: ZooKeeperClient, isSecure: Boo
     retryRequestsUntilConnected(deleteRequests, expectedControllerEpochZkVersion)
   }
 
+  /**
+   * Deletes the zstd dictionaries znodes of the given topics
+   * @param topics the topics whose dictionaries we wish to delete
+   * @param expectedControllerEpochZkVersion expected controller epoch zkVersion.
+   */
+  def deleteZstdDictionaries(topics: Seq[String], expectedControllerEpochZkVersion: Int): Unit = {
+    val deleteRequests = topics.map(topic => DeleteRequest(ZstdDictionariesTopicZNode.path(topic),
+      ZkVersion.MatchAnyVersion))
+    retryRequestsUntilConnected(deleteRequests, expectedControllerEpochZkVersion)
+  }
+
   //Acl management methods
 
   /**
@@ -1193,6 +1292,86 @@ class KafkaZkClient private[zk] (zooKeeperClient: ZooKeeperClient, isSecure: Boo
     debug(s"Added $isrChangeNotificationPath for $isrChangeSet")
   }
 
+  /**
+   * Sets or creates the ephemeral znode with the client quota usage of a broker.
+   *
+   * @param brokerId the broker the usage was recorded by
+   * @param usage the quota usage, by quota type and quota metric tags
+   * @param quotaLimit the quota limit by quota type and quota metric tags, the entities using the smallest part of
+   *                   their quota are left out if the usage is too large for the znode
+   * @throws KeeperException if there is an error while setting or creating the znode
+   */
+  def setOrCreateQuotaUsage(brokerId: Int, usage: Map[String, Map[immutable.Map[String, String], Double]],
+                            quotaLimit: (String, immutable.Map[String, String]) => Double): Unit = {
+    val path = QuotaUsageBrokerZNode.path(brokerId)
+    val usageData = QuotaUsageBrokerZNode.encode(usage, quotaLimit)
+    val setDataResponse = retryRequestUntilConnected(SetDataRequest(path, usageData, ZkVersion.MatchAnyVersion))
+    setDataResponse.resultCode match {
+      case Code.NONODE =>
+        val createResponse = retryRequestUntilConnected(CreateRequest(path, usageData, defaultAcls(path), CreateMode.EPHEMERAL))
+        createResponse.resultCode match {
+          // another session of this broker may still own the znode, it is updated by the next call
+          case Code.NODEEXISTS =>
+          case _ => createResponse.maybeThrow
+        }
+      case _ => setDataResponse.maybeThrow
+    }
+  }
+
+  /**
+   * Sets or creates the znode with the client quota usage aggregated from all brokers.
+   *
+   * @param numBrokers the number of brokers the usage was aggregated from
+   * @param usage the quota usage, by quota type and quota metric tags
+   * @param quotaLimit the quota limit by quota type and quota metric tags, the entities using the smallest part of
+   *                   their quota are left out if the usage is too large for the znode
+   * @throws KeeperException if there is an error while setting or creating the znode
+   */
+  def setOrCreateTotalQuotaUsage(numBrokers: Int, usage: Map[String, Map[immutable.Map[String, String], Double]],
+                                 quotaLimit: (String, immutable.Map[String, String]) => Double): Unit = {
+    val path = QuotaUsageTotalZNode.path
+    val usageData = QuotaUsageTotalZNode.encode(numBrokers, usage, quotaLimit)
+    val setDataResponse = retryRequestUntilConnected(SetDataRequest(path, usageData, ZkVersion.MatchAnyVersion))
+    setDataResponse.resultCode match {
+      case Code.NONODE => createRecursive(path, usageData, throwIfPathExists = false)
+      case _ => setDataResponse.maybeThrow
+    }
+  }
+
+  /**
+   * Gets the client quota usage aggregated from all brokers.
+   *
+   * @return the number of brokers the usage was aggregated from and the quota usage, by quota type and quota metric
+   *         tags, or None if the usage has not been aggregated yet
+   */
+  def getTotalQuotaUsage: Option[(Int, Map[String, Map[immutable.Map[String, String], Double]])] = {
+    val getDataResponse = retryRequestUntilConnected(GetDataRequest(QuotaUsageTotalZNode.path))
+    getDataResponse.resultCode match {
+      case Code.OK => QuotaUsageTotalZNode.decode(getDataResponse.data)
+      case Code.NONODE => None
+      case _ => throw getDataResponse.resultException.get
+    }
+  }
+
+  /**
+   * Gets the client quota usage published by all brokers.
+   *
+   * @return the quota usage of each broker, by quota type and quota metric tags
+   */
+  def getAllQuotaUsage: Map[Int, Map[String, Map[immutable.Map[String, String], Double]]] = {
+    val brokerIds = getChildren(QuotaUsageBrokersZNode.path).map(_.toInt)
+    val getDataRequests = brokerIds.map(brokerId => GetDataRequest(QuotaUsageBrokerZNode.path(brokerId), ctx = Some(brokerId)))
+    val getDataResponses = retryRequestsUntilConnected(getDataRequests)
+    getDataResponses.flatMap { getDataResponse =>
+      val brokerId = getDataResponse.ctx.get.asInstanceOf[Int]
+      getDataResponse.resultCode match {
+        case Code.OK => Some(brokerId -> QuotaUsageBrokerZNode.decode(getDataResponse.data))
+        case Code.NONODE => None
+        case _ => throw getDataResponse.resultException.get
+      }
+    }.toMap
+  }
+
   /**
    * Deletes all Acl change notifications.
    * @throws KeeperException if there is an error while deleting Acl change notifications
@@ -1828,6 +2007,10 @@ class KafkaZkClient private[zk] (zooKeeperClient: ZooKeeperClient, isSecure: Boo
 
 object KafkaZkClient {
 
+  // The maximum number of znode updates combined into a single multi-op. This keeps the size of each request
+  // well below the default jute.maxbuffer of ZooKeeper.
+  val MaxSetDataOpsPerMultiRequest = 100
+
   /**
    * @param finishedPartitions Partitions that finished either in successfully
    *                      updated partition states or failed with an exception.
@@ -35,6 +35,7 @@ import kafka.utils.json.JsonObject
 import org.apache.kafka.common.{KafkaException, TopicPartition}
 import org.apache.kafka.common.errors.UnsupportedVersionException
 import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.record.ZstdDictionary
 import org.apache.kafka.common.resource.PatternType
 import org.apache.kafka.common.security.auth.SecurityProtocol
 import org.apache.kafka.common.security.token.delegation.{DelegationToken, TokenInformation}
@@ -45,7 +46,7 @@ import org.apache.zookeeper.data.{ACL, Stat}
 import scala.beans.BeanProperty
 import scala.collection.JavaConverters._
 import scala.collection.mutable.ArrayBuffer
-import scala.collection.{Map, Seq, mutable}
+import scala.collection.{Map, Seq, immutable, mutable}
 import scala.util.{Failure, Success, Try}
 
 // This file contains objects for encoding/decoding data stored in ZooKeeper nodes (znodes).
@@ -376,6 +377,107 @@ object IsrChangeNotificationSequenceZNode {
   def sequenceNumber(path: String) = path.substring(path.lastIndexOf(SequenceNumberPrefix) + SequenceNumberPrefix.length)
 }
 
+/**
+ * The client quota usage exchanged by brokers which enforce quotas across the cluster. The usage is kept as the rate
+ * used by each quota entity, keyed by quota type and by the quota metric tags of the entity. It is encoded compactly:
+ * per quota type, the names of the tags are listed once, followed by the tag values and the rate of each entity. The
+ * entities using the smallest part of their quota are left out if the data would grow beyond `MaxDataBytes`.
+ */
+object QuotaUsageZNode {
+  private val VersionKey = "version"
+  private val UsageKey = "usage"
+  private val TagsKey = "tags"
+  private val EntitiesKey = "entities"
+  // well below the default jute.maxbuffer of ZooKeeper
+  private[zk] val MaxDataBytes = 512 * 1024
+
+  def path = "/quota_usage"
+
+  /**
+   * @param usage the quota usage, by quota type and quota metric tags
+   * @param quotaLimit the quota limit of the entity with the given quota type and quota metric tags
+   * @param fields additional fields of the data
+   */
+  private[zk] def encode(usage: Map[String, Map[immutable.Map[String, String], Double]],
+                         quotaLimit: (String, immutable.Map[String, String]) => Double,
+                         fields: immutable.Map[String, Any] = immutable.Map.empty): Array[Byte] = {
+    def encodeUsage(usage: Map[String, Map[immutable.Map[String, String], Double]]): Array[Byte] = {
+      val usageJson = usage.map { case (quotaType, entities) =>
+        val tagNames = entities.keysIterator.flatMap(_.keysIterator).toSet.toSeq.sorted
+        val entitiesJson = entities.iterator.map { case (tags, rate) =>
+          (tagNames.map(tags.getOrElse(_, null)) :+ rate).asJava
+        }.toSeq
+        quotaType -> Map(TagsKey -> tagNames.asJava, EntitiesKey -> entitiesJson.asJava).asJava
+      }
+      Json.encodeAsBytes((fields ++ Map(VersionKey -> 1, UsageKey -> usageJson.asJava)).asJava)
+    }
+
+    var retained = usage
+    var bytes = encodeUsage(retained)
+    if (bytes.length > MaxDataBytes) {
+      // rank the entities by the part of their quota they use once, and halve them until the data fits
+      val ranked = usage.map { case (quotaType, entities) =>
+        quotaType -> entities.toSeq.sortBy { case (tags, rate) => -rate / quotaLimit(quotaType, tags) }
+      }
+      while (bytes.length > MaxDataBytes && retained.values.exists(_.nonEmpty)) {
+        retained = retained.map { case (quotaType, entities) =>
+          quotaType -> ranked(quotaType).take(entities.size / 2).toMap
+        }
+        bytes = encodeUsage(retained)
+      }
+    }
+    bytes
+  }
+
+  private[zk] def decode(js: JsonObject): Map[String, Map[immutable.Map[String, String], Double]] = {
+    js(UsageKey).asJsonObject.iterator.map { case (quotaType, usageJson) =>
+      val tagNames = usageJson.asJsonObject(TagsKey).to[Seq[String]]
+      quotaType -> usageJson.asJsonObject(EntitiesKey).asJsonArray.iterator.map { entity =>
+        val values = entity.asJsonArray.iterator.toIndexedSeq
+        val tags = tagNames.zip(values).flatMap { case (name, value) => value.to[Option[String]].map(name -> _) }
+        tags.toMap -> values.last.to[Double]
+      }.toMap
+    }.toMap
+  }
+}
+
+object QuotaUsageBrokersZNode {
+  def path = s"${QuotaUsageZNode.path}/brokers"
+}
+
+/**
+ * The client quota usage of a broker, limited to the entities which use the largest part of their quota
+ */
+object QuotaUsageBrokerZNode {
+  def path(brokerId: Int) = s"${QuotaUsageBrokersZNode.path}/$brokerId"
+
+  def encode(usage: Map[String, Map[immutable.Map[String, String], Double]],
+             quotaLimit: (String, immutable.Map[String, String]) => Double): Array[Byte] =
+    QuotaUsageZNode.encode(usage, quotaLimit)
+
+  def decode(bytes: Array[Byte]): Map[String, Map[immutable.Map[String, String], Double]] =
+    Json.parseBytes(bytes).map(js => QuotaUsageZNode.decode(js.asJsonObject)).getOrElse(Map.empty)
+}
+
+/**
+ * The client quota usage of all brokers, aggregated by the controller, and the number of brokers it was aggregated from
+ */
+object QuotaUsageTotalZNode {
+  private val BrokersKey = "brokers"
+
+  def path = s"${QuotaUsageZNode.path}/total"
+
+  def encode(numBrokers: Int, usage: Map[String, Map[immutable.Map[String, String], Double]],
+             quotaLimit: (String, immutable.Map[String, String]) => Double): Array[Byte] =
+    QuotaUsageZNode.encode(usage, quotaLimit, immutable.Map(BrokersKey -> numBrokers))
+
+  def decode(bytes: Array[Byte]): Option[(Int, Map[String, Map[immutable.Map[String, String], Double]])] =
+    Json.parseBytes(bytes).map { js =>
+      val usageJson = js.asJsonObject
+      (usageJson(BrokersKey).to[Int], QuotaUsageZNode.decode(usageJson))
+    }
+}
+
 object LogDirEventNotificationZNode {
   def path = "/log_dir_event_notification"
 }
@@ -393,6 +495,24 @@ object LogDirEventNotificationSequenceZNode {
   def sequenceNumber(path: String) = path.substring(path.lastIndexOf(SequenceNumberPrefix) + SequenceNumberPrefix.length)
 }
 
+object ZstdDictionariesZNode {
+  def path = "/zstd_dictionaries"
+}
+
+/**
+ * The zstd dictionaries registered for a topic, which the compression.zstd.dictionaries config of the topic refers to
+ * by id. They are kept out of the topic config, since each of them may be tens of kilobytes.
+ */
+object ZstdDictionariesTopicZNode {
+  def path(topic: String) = s"${ZstdDictionariesZNode.path}/$topic"
+  def encode(dictionaries: Seq[ZstdDictionary]): Array[Byte] = {
+    Json.encodeAsBytes(Map("version" -> 1, "dictionaries" -> dictionaries.map(_.toBase64).asJava).asJava)
+  }
+  def decode(bytes: Array[Byte]): Seq[ZstdDictionary] = Json.parseBytes(bytes).map { js =>
+    js.asJsonObject("dictionaries").to[Seq[String]].map(ZstdDictionary.fromBase64)
+  }.getOrElse(Seq.empty)
+}
+
 object AdminZNode {
   def path = "/admin"
 }
@@ -757,8 +877,10 @@ object ZkData {
     IsrChangeNotificationZNode.path,
     ProducerIdBlockZNode.path,
     LogDirEventNotificationZNode.path,
+    QuotaUsageZNode.path,
     DelegationTokenAuthZNode.path,
-    ExtendedAclZNode.path) ++ ZkAclStore.securePaths
+    ExtendedAclZNode.path,
+    ZstdDictionariesZNode.path) ++ ZkAclStore.securePaths
 
   // These are persistent ZK paths that should exist on kafka broker startup.
   val PersistentZkPaths = Seq(
@@ -770,7 +892,9 @@ object ZkData {
     BrokerSequenceIdZNode.path,
     IsrChangeNotificationZNode.path,
     ProducerIdBlockZNode.path,
-    LogDirEventNotificationZNode.path
+    LogDirEventNotificationZNode.path,
+    QuotaUsageBrokersZNode.path,
+    ZstdDictionariesZNode.path
   ) ++ ConfigType.all.map(ConfigEntityTypeZNode.path)
 
   val SensitiveRootPaths = Seq(
@@ -17,7 +17,7 @@
 
 package kafka.controller
 
-import java.util.concurrent.CountDownLatch
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch}
 import java.util.concurrent.atomic.AtomicInteger
 
 import com.yammer.metrics.Metrics
@@ -118,7 +118,7 @@ class ControllerEventManagerTest {
     controllerEventManager.start()
 
     controllerEventManager.put(TopicChange)
-    controllerEventManager.put(TopicChange)
+    controllerEventManager.put(TopicDeletion)
     latch.countDown()
 
     TestUtils.waitUntilTrue(() => processedEvents.get() == 2,
@@ -132,6 +132,55 @@ class ControllerEventManagerTest {
     assertEquals(500, queueTimeHistogram.max, 0.01)
   }
 
+  @Test
+  def testCoalescePendingEvents(): Unit = {
+    val batchSizeMetricName = "kafka.controller:type=ControllerEventManager,name=EventBatchSize"
+    val controllerStats = new ControllerStats
+    val time = new MockTime()
+    val processingLatch = new CountDownLatch(1)
+    val processedEvents = new ConcurrentLinkedQueue[ControllerEvent]
+
+    val eventProcessor = new ControllerEventProcessor {
+      override def process(event: ControllerEvent): Unit = {
+        processingLatch.await()
+        processedEvents.add(event)
+      }
+      override def preempt(event: ControllerEvent): Unit = {}
+    }
+
+    controllerEventManager = new ControllerEventManager(0, eventProcessor,
+      time, controllerStats.rateAndTimeMetrics)
+    controllerEventManager.start()
+
+    // Block the event thread so that the following events remain in the queue
+    val blockingEvent = controllerEventManager.put(new MockEvent(ControllerState.TopicChange) {
+      override def process(): Unit = {}
+    })
+    blockingEvent.awaitProcessing()
+
+    val isrChange = controllerEventManager.put(IsrChangeNotification)
+    controllerEventManager.put(BrokerModifications(1))
+    assertEquals(isrChange, controllerEventManager.put(IsrChangeNotification))
+    controllerEventManager.put(BrokerModifications(2))
+    controllerEventManager.put(BrokerModifications(1))
+    processingLatch.countDown()
+
+    TestUtils.waitUntilTrue(() => processedEvents.size == 4,
+      "Timed out waiting for processing of all events")
+    assertEquals(List(IsrChangeNotification, BrokerModifications(1), BrokerModifications(2)),
+      processedEvents.asScala.toList.tail)
+
+    // An event which is put once the equal event has been dequeued is processed again
+    controllerEventManager.put(IsrChangeNotification)
+    TestUtils.waitUntilTrue(() => processedEvents.size == 5,
+      "Timed out waiting for processing of the last event")
+
+    val batchSizeHistogram = Metrics.defaultRegistry.allMetrics.asScala.filterKeys(_.getMBeanName == batchSizeMetricName)
+      .values.headOption.getOrElse(fail(s"Unable to find metric $batchSizeMetricName")).asInstanceOf[Histogram]
+    assertEquals(5, batchSizeHistogram.count)
+    assertEquals(2, batchSizeHistogram.max, 0.01)
+  }
+
   @Test
   def testSuccessfulEvent(): Unit = {
     check("kafka.controller:type=ControllerStats,name=AutoLeaderBalanceRateAndTimeMs",
@@ -19,6 +19,7 @@ package kafka.coordinator.group
 
 import java.lang.management.ManagementFactory
 import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.locks.ReentrantLock
 import java.util.{Collections, Optional}
 
@@ -43,7 +44,7 @@ import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.OffsetFetchResponse
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.utils.Utils
-import org.easymock.{Capture, EasyMock, IAnswer}
+import org.easymock.{Capture, CaptureType, EasyMock, IAnswer}
 import org.junit.Assert.{assertEquals, assertFalse, assertNull, assertTrue}
 import org.junit.{Before, Test}
 import org.scalatest.Assertions.fail
@@ -1108,6 +1109,162 @@ class GroupMetadataManagerTest {
     EasyMock.verify(replicaManager)
   }
 
+  @Test
+  def testCommitOffsetsOfDifferentGroupsAppendedTogether(): Unit = {
+    val memberId = ""
+    val topicPartition = new TopicPartition("foo", 0)
+    val otherGroupId = Iterator.from(0).map("group-" + _).find(groupMetadataManager.partitionFor(_) == groupPartitionId).get
+
+    groupMetadataManager.addPartitionOwnership(groupPartitionId)
+
+    val group = new GroupMetadata(groupId, Empty, time)
+    groupMetadataManager.addGroup(group)
+    val otherGroup = new GroupMetadata(otherGroupId, Empty, time)
+    groupMetadataManager.addGroup(otherGroup)
+
+    val capturedRecords = expectAppendMessage(Errors.NONE)
+    EasyMock.replay(replicaManager)
+
+    var commitErrors: Option[immutable.Map[TopicPartition, Errors]] = None
+    var otherCommitErrors: Option[immutable.Map[TopicPartition, Errors]] = None
+
+    // the commit is only queued while the lock of the group is held
+    group.inLock {
+      groupMetadataManager.storeOffsets(group, memberId,
+        immutable.Map(topicPartition -> OffsetAndMetadata(37, "", time.milliseconds())), errors => commitErrors = Some(errors))
+    }
+    assertEquals(None, commitErrors)
+
+    // the commit of the other group is appended together with the queued commit
+    groupMetadataManager.storeOffsets(otherGroup, memberId,
+      immutable.Map(topicPartition -> OffsetAndMetadata(42, "", time.milliseconds())), errors => otherCommitErrors = Some(errors))
+
+    EasyMock.verify(replicaManager)
+    assertEquals(2, capturedRecords.getValue.apply(groupTopicPartition).records.asScala.size)
+    assertEquals(Some(immutable.Map(topicPartition -> Errors.NONE)), commitErrors)
+    assertEquals(Some(immutable.Map(topicPartition -> Errors.NONE)), otherCommitErrors)
+    assertEquals(Some(37), group.offset(topicPartition).map(_.offset))
+    assertEquals(Some(42), otherGroup.offset(topicPartition).map(_.offset))
+  }
+
+  @Test
+  def testCommitOffsetsOfSameGroupAppendedTogether(): Unit = {
+    val memberId = ""
+    val topicPartition = new TopicPartition("foo", 0)
+
+    groupMetadataManager.addPartitionOwnership(groupPartitionId)
+
+    val group = new GroupMetadata(groupId, Empty, time)
+    groupMetadataManager.addGroup(group)
+
+    val capturedRecords = expectAppendMessage(Errors.NONE)
+    EasyMock.replay(replicaManager)
+
+    val commitErrors = mutable.ArrayBuffer[immutable.Map[TopicPartition, Errors]]()
+    group.inLock {
+      groupMetadataManager.storeOffsets(group, memberId,
+        immutable.Map(topicPartition -> OffsetAndMetadata(37, "", time.milliseconds())), commitErrors += _)
+      groupMetadataManager.storeOffsets(group, memberId,
+        immutable.Map(topicPartition -> OffsetAndMetadata(42, "", time.milliseconds())), commitErrors += _)
+    }
+    assertTrue(commitErrors.isEmpty)
+    groupMetadataManager.appendQueuedOffsetCommits()
+
+    EasyMock.verify(replicaManager)
+    assertEquals(List(37L, 42L), capturedRecords.getValue.apply(groupTopicPartition).records.asScala.map { record =>
+      GroupMetadataManager.readOffsetMessageValue(record.value).offset
+    }.toList)
+    assertEquals(Seq.fill(2)(immutable.Map(topicPartition -> Errors.NONE)), commitErrors)
+
+    // the last commit is cached since it is appended after the first one
+    assertEquals(Some(42), group.offset(topicPartition).map(_.offset))
+  }
+
+  @Test
+  def testCommitOffsetsOfSameGroupUseGroupLockForDelayedProduce(): Unit = {
+    val memberId = ""
+    val topicPartition = new TopicPartition("foo", 0)
+
+    groupMetadataManager.addPartitionOwnership(groupPartitionId)
+
+    val group = new GroupMetadata(groupId, Empty, time)
+    groupMetadataManager.addGroup(group)
+
+    val capturedCallback: Capture[Map[TopicPartition, PartitionResponse] => Unit] = EasyMock.newCapture()
+    val capturedLock: Capture[Option[ReentrantLock]] = EasyMock.newCapture()
+    EasyMock.expect(replicaManager.appendRecords(EasyMock.anyLong(),
+      EasyMock.anyShort(),
+      internalTopicsAllowed = EasyMock.eq(true),
+      origin = EasyMock.eq(AppendOrigin.Coordinator),
+      EasyMock.anyObject(),
+      EasyMock.capture(capturedCallback),
+      EasyMock.capture(capturedLock),
+      EasyMock.anyObject())
+    ).andAnswer(new IAnswer[Unit] {
+      override def answer = capturedCallback.getValue.apply(
+        Map(groupTopicPartition -> new PartitionResponse(Errors.NONE, 0L, RecordBatch.NO_TIMESTAMP, 0L)))
+    })
+    EasyMock.expect(replicaManager.getMagic(EasyMock.anyObject())).andStubReturn(Some(RecordBatch.CURRENT_MAGIC_VALUE))
+    EasyMock.replay(replicaManager)
+
+    groupMetadataManager.storeOffsets(group, memberId,
+      immutable.Map(topicPartition -> OffsetAndMetadata(37, "", time.milliseconds())), _ => ())
+
+    EasyMock.verify(replicaManager)
+    assertEquals(Some(group.lock), capturedLock.getValue)
+  }
+
+  @Test
+  def testQueuedOffsetCommitsAppendedInBoundedBatches(): Unit = {
+    val memberId = ""
+    val topicPartition = new TopicPartition("foo", 0)
+    val boundedManager = new GroupMetadataManager(0, ApiVersion.latestVersion, OffsetConfig(offsetCommitAppendBatchBytes = 1),
+      replicaManager, zkClient, time, new kMetrics())
+    boundedManager.addPartitionOwnership(groupPartitionId)
+
+    val group = new GroupMetadata(groupId, Empty, time)
+    boundedManager.addGroup(group)
+
+    val capturedRecords: Capture[Map[TopicPartition, MemoryRecords]] = EasyMock.newCapture(CaptureType.ALL)
+    val capturedCallback: Capture[Map[TopicPartition, PartitionResponse] => Unit] = EasyMock.newCapture()
+    EasyMock.expect(replicaManager.appendRecords(EasyMock.anyLong(),
+      EasyMock.anyShort(),
+      internalTopicsAllowed = EasyMock.eq(true),
+      origin = EasyMock.eq(AppendOrigin.Coordinator),
+      EasyMock.capture(capturedRecords),
+      EasyMock.capture(capturedCallback),
+      EasyMock.anyObject().asInstanceOf[Option[ReentrantLock]],
+      EasyMock.anyObject())
+    ).andAnswer(new IAnswer[Unit] {
+      override def answer = capturedCallback.getValue.apply(
+        Map(groupTopicPartition -> new PartitionResponse(Errors.NONE, 0L, RecordBatch.NO_TIMESTAMP, 0L)))
+    }).times(2)
+    EasyMock.expect(replicaManager.getMagic(EasyMock.anyObject())).andStubReturn(Some(RecordBatch.CURRENT_MAGIC_VALUE))
+    EasyMock.replay(replicaManager)
+
+    try {
+      val commitErrors = mutable.ArrayBuffer[immutable.Map[TopicPartition, Errors]]()
+      group.inLock {
+        boundedManager.storeOffsets(group, memberId,
+          immutable.Map(topicPartition -> OffsetAndMetadata(37, "", time.milliseconds())), commitErrors += _)
+        boundedManager.storeOffsets(group, memberId,
+          immutable.Map(topicPartition -> OffsetAndMetadata(42, "", time.milliseconds())), commitErrors += _)
+      }
+      boundedManager.appendQueuedOffsetCommits()
+
+      EasyMock.verify(replicaManager)
+      // each commit exceeds the batch size, so they are appended one at a time in order
+      assertEquals(List(List(37L), List(42L)), capturedRecords.getValues.asScala.map { records =>
+        records(groupTopicPartition).records.asScala.map { record =>
+          GroupMetadataManager.readOffsetMessageValue(record.value).offset
+        }.toList
+      }.toList)
+      assertEquals(Seq.fill(2)(immutable.Map(topicPartition -> Errors.NONE)), commitErrors)
+    } finally {
+      boundedManager.shutdown()
+    }
+  }
+
   @Test
   def testTransactionalCommitOffsetCommitted(): Unit = {
     val memberId = ""
@@ -2110,6 +2267,7 @@ class GroupMetadataManagerTest {
 
     val logMock: Log = EasyMock.mock(classOf[Log])
     EasyMock.expect(logMock.logStartOffset).andReturn(startOffset).anyTimes()
+    EasyMock.expect(logMock.zstdDictionaries).andStubReturn(ZstdDictionaries.EMPTY)
     EasyMock.expect(logMock.read(EasyMock.eq(startOffset),
       maxLength = EasyMock.anyInt(),
       isolation = EasyMock.eq(FetchLogEnd),
@@ -2271,6 +2429,8 @@ class GroupMetadataManagerTest {
     val fileRecordsMock: FileRecords = EasyMock.mock(classOf[FileRecords])
 
     EasyMock.expect(logMock.logStartOffset).andStubReturn(startOffset)
+
+    EasyMock.expect(logMock.zstdDictionaries).andStubReturn(ZstdDictionaries.EMPTY)
     EasyMock.expect(logMock.read(EasyMock.eq(startOffset),
       maxLength = EasyMock.anyInt(),
       isolation = EasyMock.eq(FetchLogEnd),
@@ -2382,4 +2542,73 @@ class GroupMetadataManagerTest {
     assertTrue(partitionLoadTime("partition-load-time-max") >= 0.0)
     assertTrue(partitionLoadTime( "partition-load-time-avg") >= 0.0)
   }
+
+  @Test
+  def testPerPartitionLoadTimeMetric(): Unit = {
+    val metricName = metrics.metricName("partition-load-time", "group-coordinator-metrics",
+      Map("partition" -> groupPartitionId.toString).asJava)
+    val committedOffsets = Map(new TopicPartition("foo", 0) -> 23L)
+    val records = MemoryRecords.withRecords(15L, CompressionType.NONE,
+      createCommittedOffsetRecords(committedOffsets).toArray: _*)
+    expectGroupMetadataLoad(groupTopicPartition, 15L, records)
+    EasyMock.replay(replicaManager)
+
+    assertNull(metrics.metric(metricName))
+    groupMetadataManager.loadGroupsAndOffsets(groupTopicPartition, _ => ())
+    assertTrue(metrics.metric(metricName).metricValue.asInstanceOf[Double] >= 0.0)
+
+    groupMetadataManager.startup(enableMetadataExpiration = false)
+    try {
+      groupMetadataManager.removeGroupsForPartition(groupPartitionId, _ => ())
+      TestUtils.waitUntilTrue(() => metrics.metric(metricName) == null,
+        "Load time metric should be removed when the partition is unloaded")
+    } finally {
+      groupMetadataManager.shutdown()
+    }
+  }
+
+  @Test
+  def testLoadPartitionsInParallel(): Unit = {
+    val zkClient: KafkaZkClient = EasyMock.createNiceMock(classOf[KafkaZkClient])
+    EasyMock.expect(zkClient.getTopicPartitionCount(Topic.GROUP_METADATA_TOPIC_NAME)).andReturn(Some(2))
+    EasyMock.replay(zkClient)
+    val manager = new GroupMetadataManager(0, ApiVersion.latestVersion, OffsetConfig(loadThreads = 2),
+      replicaManager, zkClient, time, metrics)
+    val slowPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 0)
+    val fastPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, 1)
+    val slowLoadStarted = new CountDownLatch(1)
+    val slowLoadReleased = new CountDownLatch(1)
+
+    EasyMock.expect(replicaManager.getLog(slowPartition)).andAnswer(new IAnswer[Option[Log]] {
+      override def answer: Option[Log] = {
+        slowLoadStarted.countDown()
+        slowLoadReleased.await()
+        None
+      }
+    })
+    EasyMock.expect(replicaManager.getLog(fastPartition)).andReturn(None)
+    // mocks serialize their invocations by default, which would block the second load behind the first one
+    EasyMock.makeThreadSafe(replicaManager, false)
+    EasyMock.replay(replicaManager)
+
+    manager.startup(enableMetadataExpiration = false)
+    try {
+      manager.scheduleLoadGroupAndOffsets(slowPartition.partition, _ => ())
+      slowLoadStarted.await()
+      manager.scheduleLoadGroupAndOffsets(fastPartition.partition, _ => ())
+
+      // the second partition is loaded by another thread while the first one is still loading
+      TestUtils.waitUntilTrue(() => manager.isPartitionOwned(fastPartition.partition),
+        "Partition should be loaded while another partition is loading")
+      assertTrue(manager.isPartitionLoading(slowPartition.partition))
+
+      slowLoadReleased.countDown()
+      TestUtils.waitUntilTrue(() => manager.isPartitionOwned(slowPartition.partition),
+        "Partition should be loaded once its load completes")
+      assertFalse(manager.isLoading)
+    } finally {
+      slowLoadReleased.countDown()
+      manager.shutdown()
+    }
+  }
 }
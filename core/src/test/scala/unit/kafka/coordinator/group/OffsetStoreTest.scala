@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.util.Optional
+
+import kafka.common.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.mutable
+
+class OffsetStoreTest {
+
+  private def commit(offset: Long,
+                     commitTimestamp: Long = 0L,
+                     expireTimestamp: Option[Long] = None,
+                     metadata: String = OffsetAndMetadata.NoMetadata,
+                     appendedBatchOffset: Option[Long] = Some(0L)): CommitRecordMetadataAndOffset = {
+    CommitRecordMetadataAndOffset(appendedBatchOffset,
+      OffsetAndMetadata(offset, Optional.of[Integer](5), metadata, commitTimestamp, expireTimestamp))
+  }
+
+  @Test
+  def testPutGetAndRemove(): Unit = {
+    val store = new OffsetStore
+    val tp = new TopicPartition("foo", 0)
+    assertTrue(store.isEmpty)
+    assertEquals(None, store.get(tp))
+
+    val first = commit(15L, commitTimestamp = 10L, appendedBatchOffset = None)
+    store.put(tp, first)
+    assertEquals(1, store.size)
+    assertTrue(store.contains(tp))
+    assertEquals(Some(first), store.get(tp))
+
+    val second = CommitRecordMetadataAndOffset(Some(3L),
+      OffsetAndMetadata(20L, Optional.empty[Integer](), "meta", 11L, Some(100L)))
+    store.put(tp, second)
+    assertEquals(1, store.size)
+    assertEquals(Some(second), store.get(tp))
+
+    assertEquals(None, store.remove(new TopicPartition("foo", 1)))
+    assertEquals(Some(second), store.remove(tp))
+    assertTrue(store.isEmpty)
+    assertFalse(store.contains(tp))
+  }
+
+  @Test
+  def testManyPartitions(): Unit = {
+    val store = new OffsetStore
+    val expected = mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]()
+    for (topic <- Seq("foo", "bar", "baz"); partition <- 0 until 100) {
+      val tp = new TopicPartition(topic, partition)
+      val partitionCommit = commit(partition.toLong * 7)
+      store.put(tp, partitionCommit)
+      expected.put(tp, partitionCommit)
+    }
+    assertEquals(expected.size, store.size)
+    assertEquals(expected.keySet, store.topicPartitions.toSet)
+    assertEquals(expected.map { case (tp, c) => tp -> c.offsetAndMetadata }, store.offsetsAndMetadata)
+
+    // removing every other entry must keep the remaining entries reachable
+    for (tp <- expected.keys.toList if tp.partition % 2 == 0)
+      assertEquals(expected.remove(tp), store.remove(tp))
+    assertEquals(expected.size, store.size)
+    expected.foreach { case (tp, c) => assertEquals(Some(c), store.get(tp)) }
+    assertEquals(expected.keySet, store.topicPartitions.toSet)
+  }
+
+  @Test
+  def testExpiredOffsets(): Unit = {
+    val store = new OffsetStore
+    val retentionMs = 100L
+    val old = new TopicPartition("foo", 0)
+    val recent = new TopicPartition("foo", 1)
+    val explicit = new TopicPartition("bar", 0)
+    store.put(old, commit(1L, commitTimestamp = 0L))
+    store.put(recent, commit(2L, commitTimestamp = 150L))
+    store.put(explicit, commit(3L, commitTimestamp = 0L, expireTimestamp = Some(500L)))
+
+    assertEquals(Set(old), store.expiredOffsets(200L, retentionMs, None, Set.empty).keySet)
+    assertEquals(Set(old, recent), store.expiredOffsets(200L, retentionMs, Some(50L), Set.empty).keySet)
+    assertEquals(Set(old, recent, explicit), store.expiredOffsets(500L, retentionMs, None, Set.empty).keySet)
+    assertEquals(Set(explicit), store.expiredOffsets(500L, retentionMs, None, Set("foo")).keySet)
+    assertEquals(Some(old -> store.get(old).get.offsetAndMetadata),
+      store.expiredOffsets(200L, retentionMs, None, Set.empty).headOption)
+  }
+
+  @Test
+  def testMetadataIsInterned(): Unit = {
+    val store = new OffsetStore
+    val tp0 = new TopicPartition("foo", 0)
+    val tp1 = new TopicPartition("foo", 1)
+    store.put(tp0, commit(1L, metadata = new String("metadata")))
+    store.put(tp1, commit(1L, metadata = new String("metadata")))
+    assertSame(store.get(tp0).get.offsetAndMetadata.metadata, store.get(tp1).get.offsetAndMetadata.metadata)
+    assertSame(OffsetAndMetadata.NoMetadata, OffsetStore.internMetadata(null))
+  }
+
+  @Test
+  def testTopicIdsAreReleasedWithTheLastOffset(): Unit = {
+    val store = new OffsetStore
+    val foo0 = new TopicPartition("foo", 0)
+    val foo1 = new TopicPartition("foo", 1)
+    val bar0 = new TopicPartition("bar", 0)
+    store.put(foo0, commit(1L))
+    store.put(foo1, commit(2L))
+    store.put(bar0, commit(3L))
+    assertEquals(2, store.numTopics)
+
+    store.remove(foo0)
+    assertEquals(2, store.numTopics)
+    store.remove(foo1)
+    assertEquals(1, store.numTopics)
+
+    // the released id is reused by the next topic, and the offsets of the other topics are unaffected
+    val baz0 = new TopicPartition("baz", 0)
+    store.put(baz0, commit(4L))
+    assertEquals(2, store.numTopics)
+    assertEquals(Set(bar0, baz0), store.topicPartitions.toSet)
+    assertEquals(Some(3L), store.get(bar0).map(_.offsetAndMetadata.offset))
+    assertEquals(Some(4L), store.get(baz0).map(_.offsetAndMetadata.offset))
+    assertEquals(None, store.get(foo0))
+
+    store.remove(bar0)
+    store.remove(baz0)
+    assertEquals(0, store.numTopics)
+  }
+}
@@ -63,7 +63,7 @@ class TransactionMarkerChannelManagerTest {
   private val txnMetadata2 = new TransactionMetadata(transactionalId2, producerId2, producerId2, producerEpoch, lastProducerEpoch,
     txnTimeoutMs, PrepareCommit, mutable.Set[TopicPartition](partition1), 0L, 0L)
 
-  private val capturedErrorsCallback: Capture[Errors => Unit] = EasyMock.newCapture()
+  private val capturedLogAppends: Capture[Iterable[TransactionLogAppend]] = EasyMock.newCapture()
 
   private val txnMarkerPurgatory = new DelayedOperationPurgatory[DelayedTxnMarker]("txn-purgatory-name",
     new MockTimer,
@@ -284,15 +284,11 @@ class TransactionMarkerChannelManagerTest {
 
     val txnTransitionMetadata2 = txnMetadata2.prepareComplete(time.milliseconds())
 
-    EasyMock.expect(txnStateManager.appendTransactionToLog(
-      EasyMock.eq(transactionalId2),
-      EasyMock.eq(coordinatorEpoch),
-      EasyMock.eq(txnTransitionMetadata2),
-      EasyMock.capture(capturedErrorsCallback),
-      EasyMock.anyObject()))
+    EasyMock.expect(txnStateManager.appendTransactionsToLog(EasyMock.capture(capturedLogAppends)))
       .andAnswer(() => {
+        val logAppend = capturedLogAppend(transactionalId2, txnTransitionMetadata2)
         txnMetadata2.completeTransitionTo(txnTransitionMetadata2)
-        capturedErrorsCallback.getValue.apply(Errors.NONE)
+        logAppend.responseCallback(Errors.NONE)
       }).once()
     EasyMock.replay(txnStateManager, metadataCache)
 
@@ -306,6 +302,9 @@ class TransactionMarkerChannelManagerTest {
         null, null, 0, 0, false, null, null, response))
     }
 
+    // the completed transaction is appended to the log by the next drain of the sender thread
+    channelManager.generateRequests()
+
     EasyMock.verify(txnStateManager)
 
     assertEquals(0, txnMarkerPurgatory.watched)
@@ -331,15 +330,11 @@ class TransactionMarkerChannelManagerTest {
 
     val txnTransitionMetadata2 = txnMetadata2.prepareComplete(time.milliseconds())
 
-    EasyMock.expect(txnStateManager.appendTransactionToLog(
-      EasyMock.eq(transactionalId2),
-      EasyMock.eq(coordinatorEpoch),
-      EasyMock.eq(txnTransitionMetadata2),
-      EasyMock.capture(capturedErrorsCallback),
-      EasyMock.anyObject()))
+    EasyMock.expect(txnStateManager.appendTransactionsToLog(EasyMock.capture(capturedLogAppends)))
       .andAnswer(() => {
+        val logAppend = capturedLogAppend(transactionalId2, txnTransitionMetadata2)
         txnMetadata2.pendingState = None
-        capturedErrorsCallback.getValue.apply(Errors.NOT_COORDINATOR)
+        logAppend.responseCallback(Errors.NOT_COORDINATOR)
       }).once()
     EasyMock.replay(txnStateManager, metadataCache)
 
@@ -353,6 +348,9 @@ class TransactionMarkerChannelManagerTest {
         null, null, 0, 0, false, null, null, response))
     }
 
+    // the completed transaction is appended to the log by the next drain of the sender thread
+    channelManager.generateRequests()
+
     EasyMock.verify(txnStateManager)
 
     assertEquals(0, txnMarkerPurgatory.watched)
@@ -378,16 +376,12 @@ class TransactionMarkerChannelManagerTest {
 
     val txnTransitionMetadata2 = txnMetadata2.prepareComplete(time.milliseconds())
 
-    EasyMock.expect(txnStateManager.appendTransactionToLog(
-      EasyMock.eq(transactionalId2),
-      EasyMock.eq(coordinatorEpoch),
-      EasyMock.eq(txnTransitionMetadata2),
-      EasyMock.capture(capturedErrorsCallback),
-      EasyMock.anyObject()))
-      .andAnswer(() => capturedErrorsCallback.getValue.apply(Errors.COORDINATOR_NOT_AVAILABLE))
+    EasyMock.expect(txnStateManager.appendTransactionsToLog(EasyMock.capture(capturedLogAppends)))
+      .andAnswer(() => capturedLogAppend(transactionalId2, txnTransitionMetadata2).responseCallback(Errors.COORDINATOR_NOT_AVAILABLE))
       .andAnswer(() => {
+        val logAppend = capturedLogAppend(transactionalId2, txnTransitionMetadata2)
         txnMetadata2.completeTransitionTo(txnTransitionMetadata2)
-        capturedErrorsCallback.getValue.apply(Errors.NONE)
+        logAppend.responseCallback(Errors.NONE)
       })
 
     EasyMock.replay(txnStateManager, metadataCache)
@@ -402,6 +396,9 @@ class TransactionMarkerChannelManagerTest {
         null, null, 0, 0, false, null, null, response))
     }
 
+    // the completed transaction is appended to the log by the next drain of the sender thread
+    channelManager.generateRequests()
+
     // call this again so that append log will be retried
     channelManager.generateRequests()
 
@@ -413,6 +410,81 @@ class TransactionMarkerChannelManagerTest {
     assertEquals(CompleteCommit, txnMetadata2.state)
   }
 
+  @Test
+  def shouldQueueMarkersForBrokerWithRequestInFlight(): Unit = {
+    mockCache()
+    EasyMock.replay(txnStateManager)
+    mockLeadersOnBroker1()
+
+    channelManager.addTxnMarkersToSend(transactionalId1, coordinatorEpoch, txnResult, txnMetadata1, txnMetadata1.prepareComplete(time.milliseconds()))
+    val firstRequests = channelManager.generateRequests()
+    assertEquals(1, firstRequests.size)
+
+    // the markers of the second transaction wait until the request in flight to the broker completes
+    channelManager.addTxnMarkersToSend(transactionalId2, coordinatorEpoch, txnResult, txnMetadata2, txnMetadata2.prepareComplete(time.milliseconds()))
+    assertTrue(channelManager.generateRequests().isEmpty)
+    assertEquals(1, channelManager.queueForBroker(broker1.id).get.totalNumMarkers)
+
+    val response = new WriteTxnMarkersResponse(Map[java.lang.Long, java.util.Map[TopicPartition, Errors]](
+      java.lang.Long.valueOf(producerId1) -> Map(partition1 -> Errors.NONE, partition2 -> Errors.NONE).asJava).asJava)
+    firstRequests.head.handler.onComplete(new ClientResponse(new RequestHeader(ApiKeys.PRODUCE, 0, "client", 1),
+      null, null, 0, 0, false, null, null, response))
+
+    val expectedBroker1Request = new WriteTxnMarkersRequest.Builder(
+      asList(new WriteTxnMarkersRequest.TxnMarkerEntry(producerId2, producerEpoch, coordinatorEpoch, txnResult, asList(partition1)))).build()
+    val secondRequests: Map[Node, WriteTxnMarkersRequest] = channelManager.generateRequests().map { handler =>
+      (handler.destination, handler.request.asInstanceOf[WriteTxnMarkersRequest.Builder].build())
+    }.toMap
+    assertEquals(Map(broker1 -> expectedBroker1Request), secondRequests)
+  }
+
+  @Test
+  def shouldAppendCompletedTransactionsToLogTogether(): Unit = {
+    mockCache()
+    mockLeadersOnBroker1()
+    EasyMock.expect(txnStateManager.appendTransactionsToLog(EasyMock.capture(capturedLogAppends))).once()
+    EasyMock.replay(txnStateManager)
+
+    val txnTransitionMetadata1 = txnMetadata1.prepareComplete(time.milliseconds())
+    val txnTransitionMetadata2 = txnMetadata2.prepareComplete(time.milliseconds())
+    channelManager.addTxnMarkersToSend(transactionalId1, coordinatorEpoch, txnResult, txnMetadata1, txnTransitionMetadata1)
+    channelManager.addTxnMarkersToSend(transactionalId2, coordinatorEpoch, txnResult, txnMetadata2, txnTransitionMetadata2)
+
+    val requestAndHandlers = channelManager.generateRequests()
+    assertEquals(1, requestAndHandlers.size)
+    val response = new WriteTxnMarkersResponse(Map[java.lang.Long, java.util.Map[TopicPartition, Errors]](
+      java.lang.Long.valueOf(producerId1) -> Map(partition1 -> Errors.NONE, partition2 -> Errors.NONE).asJava,
+      java.lang.Long.valueOf(producerId2) -> Map(partition1 -> Errors.NONE).asJava).asJava)
+    requestAndHandlers.head.handler.onComplete(new ClientResponse(new RequestHeader(ApiKeys.PRODUCE, 0, "client", 1),
+      null, null, 0, 0, false, null, null, response))
+    assertEquals(0, txnMarkerPurgatory.watched)
+
+    channelManager.generateRequests()
+
+    EasyMock.verify(txnStateManager)
+    assertEquals(Seq(transactionalId1 -> txnTransitionMetadata1, transactionalId2 -> txnTransitionMetadata2),
+      capturedLogAppends.getValue.map(logAppend => logAppend.transactionalId -> logAppend.newMetadata).toSeq)
+  }
+
+  private def mockLeadersOnBroker1(): Unit = {
+    EasyMock.expect(metadataCache.getPartitionLeaderEndpoint(
+      EasyMock.anyString(),
+      EasyMock.anyInt(),
+      EasyMock.anyObject())
+    ).andReturn(Some(broker1)).anyTimes()
+    EasyMock.replay(metadataCache)
+  }
+
+  private def capturedLogAppend(transactionalId: String, newMetadata: TxnTransitMetadata): TransactionLogAppend = {
+    val logAppends = capturedLogAppends.getValue
+    assertEquals(1, logAppends.size)
+    val logAppend = logAppends.head
+    assertEquals(transactionalId, logAppend.transactionalId)
+    assertEquals(coordinatorEpoch, logAppend.coordinatorEpoch)
+    assertEquals(newMetadata, logAppend.newMetadata)
+    logAppend
+  }
+
   private def createPidErrorMap(errors: Errors) = {
     val pidMap = new java.util.HashMap[java.lang.Long, java.util.Map[TopicPartition, Errors]]()
     val errorsMap = new java.util.HashMap[TopicPartition, Errors]()
@@ -18,13 +18,14 @@ package kafka.coordinator.transaction
 
 import java.lang.management.ManagementFactory
 import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.locks.ReentrantLock
 
 import javax.management.ObjectName
 import kafka.api.KAFKA_2_4_IV1
 import kafka.log.{AppendOrigin, Log}
 import kafka.server.{FetchDataInfo, FetchLogEnd, LogOffsetMetadata, ReplicaManager}
-import kafka.utils.{MockScheduler, Pool}
+import kafka.utils.{MockScheduler, Pool, TestUtils}
 import kafka.zk.KafkaZkClient
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.internals.Topic.TRANSACTION_STATE_TOPIC_NAME
@@ -34,7 +35,7 @@ import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.requests.TransactionResult
 import org.apache.kafka.common.utils.MockTime
-import org.easymock.{Capture, EasyMock, IAnswer}
+import org.easymock.{Capture, CaptureType, EasyMock, IAnswer}
 import org.junit.Assert.{assertEquals, assertFalse, assertTrue}
 import org.junit.{After, Before, Test}
 import org.scalatest.Assertions.fail
@@ -213,6 +214,122 @@ class TransactionStateManagerTest {
     )
   }
 
+  @Test
+  def testLoadedTransactionsShareTopicPartitions(): Unit = {
+    val partitions = Set(new TopicPartition("topic1", 0), new TopicPartition("topic1", 1))
+
+    txnMetadata1.state = Ongoing
+    txnMetadata1.addPartitions(partitions)
+    txnRecords += new SimpleRecord(txnMessageKeyBytes1, TransactionLog.valueToBytes(txnMetadata1.prepareNoTransit()))
+
+    txnMetadata2.state = Ongoing
+    txnMetadata2.addPartitions(partitions)
+    txnRecords += new SimpleRecord(txnMessageKeyBytes2, TransactionLog.valueToBytes(txnMetadata2.prepareNoTransit()))
+
+    val startOffset = 0L
+    val records = MemoryRecords.withRecords(startOffset, CompressionType.NONE, txnRecords.toArray: _*)
+
+    prepareTxnLog(topicPartition, startOffset, records)
+
+    transactionManager.loadTransactionsForTxnTopicPartition(partitionId, coordinatorEpoch, (_, _, _, _, _) => ())
+    scheduler.tick()
+
+    def loadedPartitions(transactionalId: String): Set[TopicPartition] = transactionManager.getTransactionState(transactionalId).fold(
+      err => fail(transactionalId + "'s transaction state access returns error " + err),
+      entry => entry.getOrElse(fail(transactionalId + "'s transaction state was not loaded into the cache"))
+    ).transactionMetadata.topicPartitions.toSet
+
+    val loadedPartitions1 = loadedPartitions(transactionalId1)
+    val loadedPartitions2 = loadedPartitions(transactionalId2)
+    assertEquals(partitions, loadedPartitions1)
+    assertEquals(partitions, loadedPartitions2)
+    loadedPartitions1.foreach { partition =>
+      assertTrue(loadedPartitions2.exists(_ eq partition))
+    }
+  }
+
+  @Test
+  def testPartitionLoadTimeMetric(): Unit = {
+    val metricName = metrics.metricName("partition-load-time", "transaction-coordinator-metrics",
+      Map("partition" -> partitionId.toString).asJava)
+
+    txnMetadata1.state = Ongoing
+    txnMetadata1.addPartitions(Set(new TopicPartition("topic1", 0)))
+    txnRecords += new SimpleRecord(txnMessageKeyBytes1, TransactionLog.valueToBytes(txnMetadata1.prepareNoTransit()))
+
+    val startOffset = 0L
+    val records = MemoryRecords.withRecords(startOffset, CompressionType.NONE, txnRecords.toArray: _*)
+
+    prepareTxnLog(topicPartition, startOffset, records)
+
+    transactionManager.loadTransactionsForTxnTopicPartition(partitionId, coordinatorEpoch, (_, _, _, _, _) => ())
+    scheduler.tick()
+    assertEquals(0.0, metrics.metrics.get(metricName).metricValue.asInstanceOf[Double], 0.0)
+
+    transactionManager.removeTransactionsForTxnTopicPartition(partitionId, coordinatorEpoch)
+    scheduler.tick()
+    assertFalse(metrics.metrics.containsKey(metricName))
+  }
+
+  @Test
+  def testLoadPartitionsInParallel(): Unit = {
+    val parallelTransactionManager = new TransactionStateManager(0, zkClient, scheduler, replicaManager,
+      TransactionConfig(transactionLogLoadThreads = 2), time, new Metrics(), KAFKA_2_4_IV1)
+    val otherPartitionId = 1
+    val otherTopicPartition = new TopicPartition(TRANSACTION_STATE_TOPIC_NAME, otherPartitionId)
+    val otherTransactionalId = Iterator.from(0).map("txn-" + _).find { transactionalId =>
+      parallelTransactionManager.partitionFor(transactionalId) == otherPartitionId
+    }.get
+
+    txnMetadata1.state = Ongoing
+    txnMetadata1.addPartitions(Set(new TopicPartition("topic1", 0)))
+    val records = MemoryRecords.withRecords(0L, CompressionType.NONE,
+      new SimpleRecord(txnMessageKeyBytes1, TransactionLog.valueToBytes(txnMetadata1.prepareNoTransit())))
+    val otherRecords = MemoryRecords.withRecords(0L, CompressionType.NONE,
+      new SimpleRecord(TransactionLog.keyToBytes(otherTransactionalId),
+        TransactionLog.valueToBytes(transactionMetadata(otherTransactionalId, 3L).prepareNoTransit())))
+
+    // reading the log of the first partition blocks until the other partition has been loaded
+    val otherPartitionLoaded = new CountDownLatch(1)
+    val logMock: Log = EasyMock.mock(classOf[Log])
+    val otherLogMock: Log = EasyMock.mock(classOf[Log])
+    EasyMock.reset(replicaManager)
+    EasyMock.expect(replicaManager.getLog(topicPartition)).andStubReturn(Some(logMock))
+    EasyMock.expect(replicaManager.getLogEndOffset(topicPartition)).andStubReturn(Some(1L))
+    EasyMock.expect(replicaManager.getLog(otherTopicPartition)).andStubReturn(Some(otherLogMock))
+    EasyMock.expect(replicaManager.getLogEndOffset(otherTopicPartition)).andStubReturn(Some(1L))
+    EasyMock.expect(logMock.logStartOffset).andStubReturn(0L)
+    EasyMock.expect(logMock.zstdDictionaries).andStubReturn(ZstdDictionaries.EMPTY)
+    EasyMock.expect(logMock.read(EasyMock.eq(0L), maxLength = EasyMock.anyInt(), isolation = EasyMock.eq(FetchLogEnd),
+      minOneMessage = EasyMock.eq(true))).andAnswer(() => {
+      otherPartitionLoaded.await()
+      FetchDataInfo(LogOffsetMetadata(0L), records)
+    })
+    EasyMock.expect(otherLogMock.logStartOffset).andStubReturn(0L)
+    EasyMock.expect(otherLogMock.zstdDictionaries).andStubReturn(ZstdDictionaries.EMPTY)
+    EasyMock.expect(otherLogMock.read(EasyMock.eq(0L), maxLength = EasyMock.anyInt(), isolation = EasyMock.eq(FetchLogEnd),
+      minOneMessage = EasyMock.eq(true))).andReturn(FetchDataInfo(LogOffsetMetadata(0L), otherRecords))
+    EasyMock.replay(logMock, otherLogMock, replicaManager)
+
+    try {
+      parallelTransactionManager.startup()
+      parallelTransactionManager.loadTransactionsForTxnTopicPartition(partitionId, coordinatorEpoch, (_, _, _, _, _) => ())
+      parallelTransactionManager.loadTransactionsForTxnTopicPartition(otherPartitionId, coordinatorEpoch, (_, _, _, _, _) => ())
+
+      // the transactional ids of the other partition are served while the first partition is still loading
+      TestUtils.waitUntilTrue(() => parallelTransactionManager.getTransactionState(otherTransactionalId).right.exists(_.isDefined),
+        "Transactional id of the loaded partition was not served")
+      assertEquals(Left(Errors.COORDINATOR_LOAD_IN_PROGRESS), parallelTransactionManager.getTransactionState(transactionalId1))
+
+      otherPartitionLoaded.countDown()
+      TestUtils.waitUntilTrue(() => parallelTransactionManager.getTransactionState(transactionalId1).right.exists(_.isDefined),
+        "Transactional id of the first partition was not served")
+    } finally {
+      otherPartitionLoaded.countDown()
+      parallelTransactionManager.shutdown()
+    }
+  }
+
   @Test
   def testCompleteTransitionWhenAppendSucceeded(): Unit = {
     transactionManager.addLoadedTransactionsToCache(partitionId, coordinatorEpoch, new Pool[String, TransactionMetadata]())
@@ -234,6 +351,87 @@ class TransactionStateManagerTest {
     assertTrue(txnMetadata1.pendingState.isEmpty)
   }
 
+  @Test
+  def testAppendTransactionsToLogTogether(): Unit = {
+    transactionManager.addLoadedTransactionsToCache(partitionId, coordinatorEpoch, new Pool[String, TransactionMetadata]())
+    transactionManager.putTransactionStateIfNotExists(transactionalId1, txnMetadata1)
+    transactionManager.putTransactionStateIfNotExists(transactionalId2, txnMetadata2)
+
+    val capturedRecords: Capture[Map[TopicPartition, MemoryRecords]] = EasyMock.newCapture()
+    val capturedCallback: Capture[Map[TopicPartition, PartitionResponse] => Unit] = EasyMock.newCapture()
+    EasyMock.expect(replicaManager.appendRecords(EasyMock.anyLong(),
+      EasyMock.anyShort(),
+      internalTopicsAllowed = EasyMock.eq(true),
+      origin = EasyMock.eq(AppendOrigin.Coordinator),
+      EasyMock.capture(capturedRecords),
+      EasyMock.capture(capturedCallback),
+      EasyMock.anyObject().asInstanceOf[Option[ReentrantLock]],
+      EasyMock.anyObject())
+    ).andAnswer(() => capturedCallback.getValue.apply(
+      Map(topicPartition -> new PartitionResponse(Errors.NONE, 0L, RecordBatch.NO_TIMESTAMP, 0L)))
+    ).once()
+    EasyMock.replay(replicaManager)
+
+    val newMetadata1 = txnMetadata1.prepareAddPartitions(Set[TopicPartition](new TopicPartition("topic1", 0)), time.milliseconds())
+    val newMetadata2 = txnMetadata2.prepareAddPartitions(Set[TopicPartition](new TopicPartition("topic1", 1)), time.milliseconds())
+    transactionManager.appendTransactionsToLog(Seq(
+      TransactionLogAppend(transactionalId1, coordinatorEpoch, newMetadata1, assertCallback),
+      TransactionLogAppend(transactionalId2, coordinatorEpoch, newMetadata2, assertCallback)))
+
+    EasyMock.verify(replicaManager)
+    // the records of both transactions are appended in one batch
+    val batches = capturedRecords.getValue.apply(topicPartition).batches.asScala.toList
+    assertEquals(1, batches.size)
+    assertEquals(List(transactionalId1, transactionalId2),
+      batches.head.asScala.map(record => TransactionLog.readTxnRecordKey(record.key).transactionalId).toList)
+    assertTrue(txnMetadata1.pendingState.isEmpty)
+    assertTrue(txnMetadata2.pendingState.isEmpty)
+    assertEquals(Set(new TopicPartition("topic1", 0)), txnMetadata1.topicPartitions)
+    assertEquals(Set(new TopicPartition("topic1", 1)), txnMetadata2.topicPartitions)
+  }
+
+  @Test
+  def testAppendTransactionsToLogInBoundedBatches(): Unit = {
+    val boundedTransactionManager = new TransactionStateManager(0, zkClient, scheduler, replicaManager,
+      TransactionConfig(transactionLogAppendBatchBytes = 1), time, new Metrics(), KAFKA_2_4_IV1)
+    boundedTransactionManager.addLoadedTransactionsToCache(partitionId, coordinatorEpoch, new Pool[String, TransactionMetadata]())
+    boundedTransactionManager.putTransactionStateIfNotExists(transactionalId1, txnMetadata1)
+    boundedTransactionManager.putTransactionStateIfNotExists(transactionalId2, txnMetadata2)
+
+    val capturedRecords: Capture[Map[TopicPartition, MemoryRecords]] = EasyMock.newCapture(CaptureType.ALL)
+    val capturedCallback: Capture[Map[TopicPartition, PartitionResponse] => Unit] = EasyMock.newCapture()
+    EasyMock.expect(replicaManager.appendRecords(EasyMock.anyLong(),
+      EasyMock.anyShort(),
+      internalTopicsAllowed = EasyMock.eq(true),
+      origin = EasyMock.eq(AppendOrigin.Coordinator),
+      EasyMock.capture(capturedRecords),
+      EasyMock.capture(capturedCallback),
+      EasyMock.anyObject().asInstanceOf[Option[ReentrantLock]],
+      EasyMock.anyObject())
+    ).andAnswer(() => capturedCallback.getValue.apply(
+      Map(topicPartition -> new PartitionResponse(Errors.NONE, 0L, RecordBatch.NO_TIMESTAMP, 0L)))
+    ).times(2)
+    EasyMock.replay(replicaManager)
+
+    try {
+      val newMetadata1 = txnMetadata1.prepareAddPartitions(Set[TopicPartition](new TopicPartition("topic1", 0)), time.milliseconds())
+      val newMetadata2 = txnMetadata2.prepareAddPartitions(Set[TopicPartition](new TopicPartition("topic1", 1)), time.milliseconds())
+      boundedTransactionManager.appendTransactionsToLog(Seq(
+        TransactionLogAppend(transactionalId1, coordinatorEpoch, newMetadata1, assertCallback),
+        TransactionLogAppend(transactionalId2, coordinatorEpoch, newMetadata2, assertCallback)))
+
+      EasyMock.verify(replicaManager)
+      // each record exceeds the batch size, so the transactions are appended one at a time in order
+      assertEquals(List(List(transactionalId1), List(transactionalId2)), capturedRecords.getValues.asScala.map { records =>
+        records(topicPartition).records.asScala.map(record => TransactionLog.readTxnRecordKey(record.key).transactionalId).toList
+      }.toList)
+      assertTrue(txnMetadata1.pendingState.isEmpty)
+      assertTrue(txnMetadata2.pendingState.isEmpty)
+    } finally {
+      boundedTransactionManager.shutdown()
+    }
+  }
+
   @Test
   def testAppendFailToCoordinatorNotAvailableError(): Unit = {
     transactionManager.addLoadedTransactionsToCache(partitionId, coordinatorEpoch, new Pool[String, TransactionMetadata]())
@@ -505,6 +703,7 @@ class TransactionStateManagerTest {
     val logMock: Log = EasyMock.mock(classOf[Log])
     EasyMock.expect(replicaManager.getLog(topicPartition)).andStubReturn(Some(logMock))
     EasyMock.expect(logMock.logStartOffset).andStubReturn(startOffset)
+    EasyMock.expect(logMock.zstdDictionaries).andStubReturn(ZstdDictionaries.EMPTY)
     EasyMock.expect(logMock.read(EasyMock.eq(startOffset),
       maxLength = EasyMock.anyInt(),
       isolation = EasyMock.eq(FetchLogEnd),
@@ -638,6 +837,8 @@ class TransactionStateManagerTest {
     EasyMock.expect(replicaManager.getLogEndOffset(topicPartition)).andStubReturn(Some(endOffset))
 
     EasyMock.expect(logMock.logStartOffset).andStubReturn(startOffset)
+
+    EasyMock.expect(logMock.zstdDictionaries).andStubReturn(ZstdDictionaries.EMPTY)
     EasyMock.expect(logMock.read(EasyMock.eq(startOffset),
       maxLength = EasyMock.anyInt(),
       isolation = EasyMock.eq(FetchLogEnd),
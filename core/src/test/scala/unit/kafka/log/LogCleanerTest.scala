@@ -327,6 +327,82 @@ class LogCleanerTest {
     assertEquals(List(2, 3, 6, 7, 8, 9, 11, 12), LogTest.keysInLog(log))
   }
 
+  @Test
+  def testConcurrentRecopyMatchesSequentialCleaning(): Unit = {
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1024: java.lang.Integer)
+    val config = LogConfig.fromProps(logConfig.originals, logProps)
+    val sequentialLog = makeLog(dir = TestUtils.randomPartitionLogDir(tmpdir), config = config)
+    val concurrentLog = makeLog(dir = TestUtils.randomPartitionLogDir(tmpdir), config = config)
+
+    // aborted and committed transactions spanning segments, so that the groups recopied concurrently have to start
+    // with the transaction state left by the groups before them
+    val producerEpoch = 0.toShort
+    for (log <- Seq(sequentialLog, concurrentLog)) {
+      val appendProducer1 = appendTransactionalAsLeader(log, 1, producerEpoch)
+      val appendProducer2 = appendTransactionalAsLeader(log, 2, producerEpoch)
+      for (key <- 0 until 30) {
+        appendProducer1(Seq(key % 11, key % 13))
+        appendProducer2(Seq(key % 5))
+        log.appendAsLeader(record(key % 7, key), leaderEpoch = 0)
+        if (key % 8 == 7) {
+          log.appendAsLeader(abortMarker(1, producerEpoch), leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+          log.appendAsLeader(commitMarker(2, producerEpoch), leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+        }
+      }
+      log.appendAsLeader(commitMarker(1, producerEpoch), leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+      log.appendAsLeader(abortMarker(2, producerEpoch), leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+      log.roll()
+    }
+    assertTrue(sequentialLog.numberOfSegments > 4)
+
+    makeCleaner(Int.MaxValue).clean(LogToClean(new TopicPartition("test", 0), sequentialLog, 0L,
+      sequentialLog.activeSegment.baseOffset))
+    val concurrentCleaner = makeCleaner(Int.MaxValue, recopyThreads = 3)
+    try {
+      concurrentCleaner.clean(LogToClean(new TopicPartition("test", 0), concurrentLog, 0L,
+        concurrentLog.activeSegment.baseOffset))
+    } finally {
+      concurrentCleaner.shutdown()
+    }
+
+    assertEquals(LogTest.keysInLog(sequentialLog).toList, LogTest.keysInLog(concurrentLog).toList)
+    assertEquals(offsetsInLog(sequentialLog).toList, offsetsInLog(concurrentLog).toList)
+    assertEquals(lastOffsetsPerBatchInLog(sequentialLog).toList, lastOffsetsPerBatchInLog(concurrentLog).toList)
+    assertEquals(sequentialLog.logSegments.map(_.baseOffset).toList, concurrentLog.logSegments.map(_.baseOffset).toList)
+    assertEquals(sequentialLog.collectAbortedTransactions(0L, sequentialLog.logEndOffset),
+      concurrentLog.collectAbortedTransactions(0L, concurrentLog.logEndOffset))
+  }
+
+  @Test
+  def testAbortedConcurrentRecopyDeletesCleanedSegments(): Unit = {
+    // abort the cleaning as soon as a recopy thread checks whether it is done
+    val cleaner = makeCleaner(Int.MaxValue, recopyThreads = 2, checkDone = _ =>
+      if (Thread.currentThread.getName.contains("-recopy-"))
+        throw new LogCleaningAbortedException())
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1024: java.lang.Integer)
+    val log = makeLog(config = LogConfig.fromProps(logConfig.originals, logProps))
+
+    while (log.numberOfSegments < 4)
+      log.appendAsLeader(record(log.logEndOffset.toInt % 5, log.logEndOffset.toInt), leaderEpoch = 0)
+    log.roll()
+    val segmentsBefore = log.logSegments.toList
+    val keysBefore = LogTest.keysInLog(log).toList
+
+    try {
+      intercept[LogCleaningAbortedException] {
+        cleaner.clean(LogToClean(new TopicPartition("test", 0), log, 0L, log.activeSegment.baseOffset))
+      }
+    } finally {
+      cleaner.shutdown()
+    }
+
+    assertEquals(segmentsBefore, log.logSegments.toList)
+    assertEquals(keysBefore, LogTest.keysInLog(log).toList)
+    assertFalse(log.dir.listFiles.exists(_.getName.endsWith(Log.CleanedFileSuffix)))
+  }
+
   @Test
   def testCommitMarkerRemoval(): Unit = {
     val tp = new TopicPartition("test", 0)
@@ -842,6 +918,70 @@ class LogCleanerTest {
     assertTrue(stats.endTime >= stats.startTime)
   }
 
+  @Test
+  def testCleanerStatsPhaseThroughput(): Unit = {
+    val stats = new CleanerStats(time)
+    assertEquals(0.0, stats.indexBytesPerSec, 0.0)
+    assertEquals(0.0, stats.recopyBytesPerSec, 0.0)
+
+    stats.indexBytesRead(4000)
+    time.sleep(2000)
+    stats.indexDone()
+
+    // three seconds recopying and one second swapping in the cleaned segments
+    stats.readMessages(10, 9000)
+    time.sleep(4000)
+    stats.segmentsSwapped(1000)
+    stats.allDone()
+
+    assertEquals(2000.0, stats.indexBytesPerSec, 0.0)
+    assertEquals(3000.0, stats.recopyBytesPerSec, 0.0)
+    assertEquals(1.0, stats.elapsedSwapSecs, 0.0)
+    assertEquals(6.0, stats.elapsedSecs, 0.0)
+  }
+
+  @Test
+  def testCleaningSkipsSegmentsWithoutSupersededKeys(): Unit = {
+    val cleaner = new Cleaner(id = 0,
+      offsetMap = new FakeOffsetMap(1000),
+      ioBufferSize = 64 * 1024,
+      maxIoBufferSize = 64 * 1024,
+      dupBufferLoadFactor = 0.75,
+      throttler = throttler,
+      time = time,
+      checkDone = _ => (),
+      keySummaryMaxBytes = 1024)
+    val logProps = new Properties()
+    logProps.put(LogConfig.SegmentBytesProp, 1024: java.lang.Integer)
+    val log = makeLog(config = LogConfig.fromProps(logConfig.originals, logProps))
+
+    var key = 0
+    while (log.numberOfSegments < 5) {
+      log.appendAsLeader(record(key, key), leaderEpoch = 0)
+      key += 1
+    }
+    log.roll()
+
+    // the first cleaning recopies every segment and summarizes the keys of the cleaned segments
+    val (firstDirtyOffset, _) = cleaner.clean(LogToClean(new TopicPartition("test", 0), log, 0, log.activeSegment.baseOffset))
+    val cleanSegments = log.logSegments(0, firstDirtyOffset).toList
+    assertTrue(cleanSegments.size > 2)
+    assertTrue(cleanSegments.forall(_.keySummary.isDefined))
+
+    // the segment with the key updated since then needs to be recopied by the next cleaning, and so does the
+    // last, partially filled, segment which is grouped with the dirty segment
+    log.appendAsLeader(record(0, key), leaderEpoch = 0)
+    log.roll()
+    val (_, stats) = cleaner.clean(LogToClean(new TopicPartition("test", 0), log, firstDirtyOffset, log.activeSegment.baseOffset))
+
+    val skippedSegments = cleanSegments.tail.init
+    assertFalse(log.logSegments.exists(_ eq cleanSegments.head))
+    assertFalse(log.logSegments.exists(_ eq cleanSegments.last))
+    skippedSegments.foreach(segment => assertTrue(log.logSegments.exists(_ eq segment)))
+    assertEquals(skippedSegments.map(_.size.toLong).sum, stats.bytesSkipped)
+    assertEquals((0 until key).toList, LogTest.keysInLog(log).toList.sorted)
+  }
+
   @Test
   def testLogCleanerRetainsProducerLastSequence(): Unit = {
     val cleaner = makeCleaner(10)
@@ -1442,6 +1582,21 @@ class LogCleanerTest {
     assertEquals("Map should contain second value", offsetEnd, map.get(key(1)))
   }
 
+  @Test
+  def testBuildOffsetMapStopsAtOffsetOutOfMapRange(): Unit = {
+    val map = new Murmur3OffsetMap(4096)
+    val log = makeLog()
+    val cleaner = makeCleaner(Int.MaxValue)
+    val offsetOutOfRange = (1L << 32) + 5L
+    writeToLog(log, (0 until 3) zip (0 until 3), Seq(0L, 1L, offsetOutOfRange))
+
+    cleaner.buildOffsetMap(log, 0L, offsetOutOfRange + 1L, map, new CleanerStats())
+    assertEquals(2, map.size)
+    assertEquals(1L, map.latestOffset)
+    assertEquals(1L, map.get(key(1)))
+    assertEquals(-1L, map.get(key(2)))
+  }
+
   /**
    * Test building a partial offset map of part of a log segment
    */
@@ -1602,7 +1757,8 @@ class LogCleanerTest {
       producerIdExpirationCheckIntervalMs = LogManager.ProducerIdExpirationCheckIntervalMs,
       logDirFailureChannel = new LogDirFailureChannel(10))
 
-  private def makeCleaner(capacity: Int, checkDone: TopicPartition => Unit = _ => (), maxMessageSize: Int = 64*1024) =
+  private def makeCleaner(capacity: Int, checkDone: TopicPartition => Unit = _ => (), maxMessageSize: Int = 64*1024,
+                          recopyThreads: Int = 1) =
     new Cleaner(id = 0,
                 offsetMap = new FakeOffsetMap(capacity),
                 ioBufferSize = maxMessageSize,
@@ -1610,7 +1766,8 @@ class LogCleanerTest {
                 dupBufferLoadFactor = 0.75,
                 throttler = throttler,
                 time = time,
-                checkDone = checkDone)
+                checkDone = checkDone,
+                recopyThreads = recopyThreads)
 
   private def writeToLog(log: Log, seq: Iterable[(Int, Int)]): Iterable[Long] = {
     for ((key, value) <- seq) yield log.appendAsLeader(record(key, value), leaderEpoch = 0).firstOffset.get
@@ -1712,5 +1869,7 @@ class FakeOffsetMap(val slots: Int) extends OffsetMap {
     lastOffset = offset
   }
 
+  override def supportsConcurrentReads: Boolean = true
+
   override def toString: String = map.toString
 }
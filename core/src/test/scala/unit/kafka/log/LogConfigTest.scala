@@ -93,6 +93,22 @@ class LogConfigTest {
     }
   }
 
+  @Test
+  def testZstdDictionaryIds(): Unit = {
+    val props = new Properties
+    props.setProperty(LogConfig.CompressionZstdDictionariesProp, "12,-7")
+    LogConfig.validate(props)
+    assertEquals(List(12, -7), LogConfig(props).zstdDictionaryIds)
+    props.setProperty(LogConfig.CompressionZstdDictionariesProp, "12,12")
+    intercept[ConfigException] {
+      LogConfig.validate(props)
+    }
+    props.setProperty(LogConfig.CompressionZstdDictionariesProp, "not_an_id")
+    intercept[ConfigException] {
+      LogConfig.validate(props)
+    }
+  }
+
   @Test
   def shouldValidateThrottledReplicasConfig(): Unit = {
     assertTrue(isValid("*"))
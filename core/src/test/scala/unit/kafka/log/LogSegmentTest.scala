@@ -335,8 +335,9 @@ class LogSegmentTest {
 
     // recover again, but this time assuming the transaction from pid2 began on a previous segment
     stateManager = new ProducerStateManager(topicPartition, logDir)
-    stateManager.loadProducerEntry(new ProducerStateEntry(pid2,
-      mutable.Queue[BatchMetadata](BatchMetadata(10, 10L, 5, RecordBatch.NO_TIMESTAMP)), producerEpoch,
+    val batchMetadata = new BatchMetadataWindow(ProducerStateManager.DefaultRetainedBatches)
+    batchMetadata.add(BatchMetadata(10, 10L, 5, RecordBatch.NO_TIMESTAMP))
+    stateManager.loadProducerEntry(new ProducerStateEntry(pid2, batchMetadata, producerEpoch,
       0, RecordBatch.NO_TIMESTAMP, Some(75L)))
     segment.recover(stateManager)
     assertEquals(108L, stateManager.mapEndOffset)
@@ -374,6 +374,33 @@ class LogTest {
     assertEquals("Appending an empty message set should not roll log even if sufficient time has passed.", numSegments, log.numberOfSegments)
   }
 
+  @Test
+  def testDictionaryEncodedBatchesTrackedOnAppend(): Unit = {
+    val logConfig = LogTest.createLogConfig(segmentBytes = 1024 * 1024)
+    var log = createLog(logDir, logConfig)
+    assertFalse(log.mayHaveDictionaryEncodedBatchesFrom(0L))
+
+    log.appendAsFollower(TestUtils.records(List(new SimpleRecord("k0".getBytes, "v0".getBytes)), baseOffset = 0L))
+    val builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.MAGIC_VALUE_V2, CompressionType.NONE,
+      TimestampType.CREATE_TIME, 1L, true, null)
+    builder.append(mockTime.milliseconds, "k1".getBytes, "v1".getBytes)
+    builder.append(mockTime.milliseconds, "k2".getBytes, "v2".getBytes)
+    log.appendAsFollower(builder.build())
+    log.appendAsFollower(TestUtils.records(List(new SimpleRecord("k3".getBytes, "v3".getBytes)), baseOffset = 3L))
+
+    assertTrue(log.mayHaveDictionaryEncodedBatchesFrom(0L))
+    assertTrue(log.mayHaveDictionaryEncodedBatchesFrom(2L))
+    assertFalse(log.mayHaveDictionaryEncodedBatchesFrom(3L))
+    assertFalse(log.mayHaveZstdDictionaryBatchesFrom(0L))
+
+    // the batches of a reloaded log are not known
+    log.close()
+    log = createLog(logDir, logConfig)
+    assertTrue(log.mayHaveDictionaryEncodedBatchesFrom(3L))
+    assertTrue(log.mayHaveZstdDictionaryBatchesFrom(3L))
+    assertFalse(log.mayHaveDictionaryEncodedBatchesFrom(4L))
+  }
+
   @Test
   def testRollSegmentThatAlreadyExists(): Unit = {
     val logConfig = LogTest.createLogConfig(segmentMs = 1 * 60 * 60L)
@@ -20,7 +20,7 @@ import java.nio.ByteBuffer
 import java.util.concurrent.TimeUnit
 
 import com.yammer.metrics.Metrics
-import kafka.api.{ApiVersion, KAFKA_2_0_IV1, KAFKA_2_3_IV1}
+import kafka.api.{ApiVersion, KAFKA_2_0_IV1, KAFKA_2_3_IV1, KAFKA_2_4_IV1}
 import kafka.common.{LongRef, RecordValidationException}
 import kafka.message._
 import kafka.server.BrokerTopicStats
@@ -28,8 +28,10 @@ import kafka.utils.TestUtils.meterCount
 import org.apache.kafka.common.InvalidRecordException
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedCompressionTypeException, UnsupportedForMessageFormatException}
+import org.apache.kafka.common.header.Header
+import org.apache.kafka.common.header.internals.RecordHeader
 import org.apache.kafka.common.record._
-import org.apache.kafka.common.utils.Time
+import org.apache.kafka.common.utils.{Time, Utils}
 import org.apache.kafka.test.TestUtils
 import org.junit.Assert._
 import org.junit.Test
@@ -1240,6 +1242,159 @@ class LogValidatorTest {
       brokerTopicStats = brokerTopicStats)
   }
 
+  @Test
+  def testDictionaryEncodedBatchConvertedWhenDisabled(): Unit = {
+    checkDictionaryEncodedBatch(CompressionType.NONE, dictionaryEncodingEnabled = false)
+    checkDictionaryEncodedBatch(CompressionType.GZIP, dictionaryEncodingEnabled = false)
+  }
+
+  @Test
+  def testDictionaryEncodedBatchRetainedWhenEnabled(): Unit = {
+    checkDictionaryEncodedBatch(CompressionType.NONE, dictionaryEncodingEnabled = true)
+    checkDictionaryEncodedBatch(CompressionType.GZIP, dictionaryEncodingEnabled = true)
+  }
+
+  @Test
+  def testDictionaryEncodedBatchConvertedWithUnavailableIBPVersion(): Unit = {
+    checkDictionaryEncodedBatch(CompressionType.NONE, dictionaryEncodingEnabled = true, KAFKA_2_4_IV1)
+    checkDictionaryEncodedBatch(CompressionType.GZIP, dictionaryEncodingEnabled = true, KAFKA_2_4_IV1)
+  }
+
+  private def checkDictionaryEncodedBatch(codec: CompressionType,
+                                          dictionaryEncodingEnabled: Boolean,
+                                          interBrokerProtocolVersion: ApiVersion = ApiVersion.latestVersion): Unit = {
+    val buf = ByteBuffer.allocate(1024)
+    val builder = new MemoryRecordsBuilder(buf, RecordBatch.MAGIC_VALUE_V2, codec, TimestampType.CREATE_TIME, 0L,
+      RecordBatch.NO_TIMESTAMP, RecordBatch.NO_PRODUCER_ID, RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE,
+      false, false, RecordBatch.NO_PARTITION_LEADER_EPOCH, buf.capacity, true)
+    val headers: Array[Header] = Array(new RecordHeader("content-type", "json".getBytes))
+    builder.append(1000L, "key-1".getBytes, "hello".getBytes, headers)
+    builder.append(1001L, "key-2".getBytes, "there".getBytes, headers)
+    val records = builder.build()
+
+    val compressionCodec = CompressionCodec.getCompressionCodec(codec.name)
+    val validatedResults = LogValidator.validateMessagesAndAssignOffsets(records,
+      topicPartition,
+      offsetCounter = new LongRef(0),
+      time = time,
+      now = System.currentTimeMillis(),
+      sourceCodec = compressionCodec,
+      targetCodec = compressionCodec,
+      compactedTopic = false,
+      magic = RecordBatch.MAGIC_VALUE_V2,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = 5000L,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      origin = AppendOrigin.Client,
+      interBrokerProtocolVersion = interBrokerProtocolVersion,
+      brokerTopicStats = brokerTopicStats,
+      dictionaryEncodingEnabled = dictionaryEncodingEnabled)
+
+    val validatedRecords = validatedResults.validatedRecords
+    for (batch <- validatedRecords.batches.asScala)
+      assertEquals(dictionaryEncodingEnabled && interBrokerProtocolVersion == ApiVersion.latestVersion,
+        batch.isDictionaryEncoded)
+    checkOffsets(validatedRecords, 0)
+    val validated = validatedRecords.records.asScala.toList
+    assertEquals(List("key-1", "key-2"), validated.map(record => Utils.utf8(record.key)))
+    assertEquals(List("hello", "there"), validated.map(record => Utils.utf8(record.value)))
+    validated.foreach(record => assertEquals(headers.toSeq, record.headers.toSeq))
+  }
+
+  @Test
+  def testZstdDictionaryBatchRecompressedWithoutTopicDictionary(): Unit = {
+    // the dictionary is no longer the topic's, but the log still has it
+    val dictionary = ZstdDictionaryTest.trainDictionary(10)
+    val validatedRecords = checkZstdDictionaryBatch(CompressionType.ZSTD, Some(dictionary), Seq.empty,
+      ZstdDictionaries.of(dictionary))
+    for (batch <- validatedRecords.batches.asScala)
+      assertFalse(batch.usesZstdDictionary)
+  }
+
+  @Test
+  def testZstdDictionaryBatchWithUnknownDictionary(): Unit = {
+    val dictionary = ZstdDictionaryTest.trainDictionary(13)
+    assertThrows[InvalidRecordException] {
+      checkZstdDictionaryBatch(CompressionType.ZSTD, Some(dictionary), Seq.empty, ZstdDictionaries.EMPTY)
+    }
+  }
+
+  @Test
+  def testZstdDictionaryBatchRetainedWithTopicDictionary(): Unit = {
+    val dictionary = ZstdDictionaryTest.trainDictionary(11)
+    val validatedRecords = checkZstdDictionaryBatch(CompressionType.ZSTD, Some(dictionary), Seq(dictionary),
+      ZstdDictionaries.of(dictionary))
+    for (batch <- validatedRecords.batches.asScala) {
+      assertTrue(batch.usesZstdDictionary)
+      assertEquals(dictionary.id, batch.asInstanceOf[DefaultRecordBatch].zstdDictionaryId)
+    }
+  }
+
+  @Test
+  def testZstdDictionaryBatchRecompressedWithUnavailableIBPVersion(): Unit = {
+    val dictionary = ZstdDictionaryTest.trainDictionary(14)
+    val validatedRecords = checkZstdDictionaryBatch(CompressionType.ZSTD, Some(dictionary), Seq(dictionary),
+      ZstdDictionaries.of(dictionary), KAFKA_2_4_IV1)
+    for (batch <- validatedRecords.batches.asScala) {
+      assertEquals(CompressionType.ZSTD, batch.compressionType)
+      assertFalse(batch.usesZstdDictionary)
+    }
+  }
+
+  @Test
+  def testRecompressedWithTopicZstdDictionary(): Unit = {
+    val dictionary = ZstdDictionaryTest.trainDictionary(12)
+    val validatedRecords = checkZstdDictionaryBatch(CompressionType.NONE, None, Seq(dictionary),
+      ZstdDictionaries.of(dictionary))
+    for (batch <- validatedRecords.batches.asScala) {
+      assertEquals(CompressionType.ZSTD, batch.compressionType)
+      assertTrue(batch.usesZstdDictionary)
+      assertEquals(dictionary.id, batch.asInstanceOf[DefaultRecordBatch].zstdDictionaryId)
+    }
+  }
+
+  private def checkZstdDictionaryBatch(codec: CompressionType,
+                                       dictionary: Option[ZstdDictionary],
+                                       topicDictionaries: Seq[ZstdDictionary],
+                                       logDictionaries: ZstdDictionaries,
+                                       interBrokerProtocolVersion: ApiVersion = ApiVersion.latestVersion): MemoryRecords = {
+    val buf = ByteBuffer.allocate(1024)
+    val builder = MemoryRecords.builder(buf, RecordBatch.MAGIC_VALUE_V2, codec, TimestampType.CREATE_TIME, 0L, false,
+      dictionary.orNull)
+    builder.append(1000L, "key-1".getBytes, "hello".getBytes)
+    builder.append(1001L, "key-2".getBytes, "there".getBytes)
+    val records = builder.build()
+
+    val validatedResults = LogValidator.validateMessagesAndAssignOffsets(records,
+      topicPartition,
+      offsetCounter = new LongRef(0),
+      time = time,
+      now = System.currentTimeMillis(),
+      sourceCodec = CompressionCodec.getCompressionCodec(codec.name),
+      targetCodec = ZStdCompressionCodec,
+      compactedTopic = false,
+      magic = RecordBatch.MAGIC_VALUE_V2,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = 5000L,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      origin = AppendOrigin.Client,
+      interBrokerProtocolVersion = interBrokerProtocolVersion,
+      brokerTopicStats = brokerTopicStats,
+      zstdDictionaries = topicDictionaries,
+      readableZstdDictionaries = logDictionaries)
+
+    val validatedRecords = validatedResults.validatedRecords
+    val validated = validatedRecords.batches.asScala.flatMap { batch =>
+      val iterator = batch.streamingIterator(BufferSupplier.NO_CACHING, logDictionaries)
+      try iterator.asScala.toList
+      finally iterator.close()
+    }.toList
+    assertEquals(List(0L, 1L), validated.map(_.offset))
+    assertEquals(List("key-1", "key-2"), validated.map(record => Utils.utf8(record.key)))
+    assertEquals(List("hello", "there"), validated.map(record => Utils.utf8(record.value)))
+    validatedRecords
+  }
+
   @Test(expected = classOf[InvalidRecordException])
   def testUncompressedBatchWithoutRecordsNotAllowed(): Unit = {
     testBatchWithoutRecordsNotAllowed(NoCompressionCodec, NoCompressionCodec)
@@ -57,6 +57,96 @@ class OffsetMapTest {
     assertEquals(map.get(key(i-1L)), i-1L)
   }
 
+  @Test
+  def testMurmur3BasicValidation(): Unit = {
+    for (items <- Seq(10, 100, 1000, 5000)) {
+      val map = new Murmur3OffsetMap((items / 0.5 * 16).toInt)
+      for (i <- 0 until items)
+        map.put(key(i), i)
+      for (i <- 0 until items)
+        assertEquals(i.toLong, map.get(key(i)))
+      assertEquals(items, map.size)
+    }
+  }
+
+  @Test
+  def testMurmur3Overwrite(): Unit = {
+    val map = new Murmur3OffsetMap(4000)
+    for (i <- 0 until 50)
+      map.put(key(i % 10), i)
+    assertEquals(10, map.size)
+    for (i <- 0 until 10)
+      assertEquals(40L + i, map.get(key(i)))
+    assertEquals(49L, map.latestOffset)
+  }
+
+  @Test
+  def testMurmur3Clear(): Unit = {
+    val map = new Murmur3OffsetMap(4000)
+    for (i <- 0 until 10)
+      map.put(key(i), i)
+    map.clear()
+    assertEquals(0, map.size)
+    assertEquals(-1L, map.latestOffset)
+    for (i <- 0 until 10)
+      assertEquals(-1L, map.get(key(i)))
+  }
+
+  @Test
+  def testMurmur3GetWhenFull(): Unit = {
+    val map = new Murmur3OffsetMap(4096)
+    var i = 37L
+    while (map.size < map.slots) {
+      map.put(key(i), i)
+      i = i + 1L
+    }
+    assertEquals(-1L, map.get(key(i)))
+    for (j <- 37L until i)
+      assertEquals(j, map.get(key(j)))
+  }
+
+  @Test
+  def testMurmur3OffsetRange(): Unit = {
+    val map = new Murmur3OffsetMap(4000)
+    assertEquals(250, map.slots)
+    map.put(key(0), 10L)
+    val lastInRange = 10L + 0xffffffffL
+    assertTrue(map.canPut(lastInRange))
+    assertFalse(map.canPut(lastInRange + 1))
+    assertFalse(map.canPut(9L))
+
+    map.put(key(1), lastInRange)
+    assertEquals(10L, map.get(key(0)))
+    assertEquals(lastInRange, map.get(key(1)))
+
+    map.clear()
+    assertTrue(map.canPut(0L))
+    map.put(key(0), 0L)
+    assertEquals(0L, map.get(key(0)))
+  }
+
+  @Test
+  def testMurmur3HashIgnoresKeyPositionAndByteOrder(): Unit = {
+    val map = new Murmur3OffsetMap(4000)
+    val bytes = "some-longer-key-spanning-more-than-one-block".getBytes
+    map.put(ByteBuffer.wrap(bytes), 5L)
+
+    val embedded = ByteBuffer.allocate(bytes.length + 10)
+    embedded.position(7)
+    embedded.put(bytes)
+    embedded.position(7)
+    embedded.limit(7 + bytes.length)
+    assertEquals(5L, map.get(embedded.slice().order(ByteOrder.LITTLE_ENDIAN)))
+    assertEquals(5L, map.get(embedded))
+    assertEquals(7, embedded.position())
+  }
+
+  @Test
+  def testOffsetMapForHashAlgorithm(): Unit = {
+    assertTrue(OffsetMap(4096, OffsetMap.Murmur3HashAlgorithm).isInstanceOf[Murmur3OffsetMap])
+    assertTrue(OffsetMap(4096, "MD5").isInstanceOf[SkimpyOffsetMap])
+  }
+
   def key(key: Long) = ByteBuffer.wrap(key.toString.getBytes)
   
   def validateMap(items: Int, loadFactor: Double = 0.5): SkimpyOffsetMap = {
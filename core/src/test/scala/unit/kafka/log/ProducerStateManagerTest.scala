@@ -150,6 +150,58 @@ class ProducerStateManagerTest {
     assertEquals(2020L, lastEntry.lastDataOffset)
   }
 
+  @Test
+  def testRetainedBatches(): Unit = {
+    val epoch = 0.toShort
+    for (seq <- 0 until ProducerStateManager.DefaultRetainedBatches + 1)
+      append(stateManager, producerId, epoch, seq, seq.toLong)
+
+    val entry = stateManager.lastEntry(producerId).get
+    assertEquals(ProducerStateManager.DefaultRetainedBatches, entry.batchMetadata.size)
+    assertEquals(None, entry.batchWithSequenceRange(0, 0))
+    assertEquals(Some(BatchMetadata(1, 1L, 0, time.milliseconds())), entry.batchWithSequenceRange(1, 1))
+  }
+
+  @Test
+  def testRetainMoreBatches(): Unit = {
+    val numBatchesToRetain = 32
+    stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, numBatchesToRetain)
+    val epoch = 0.toShort
+    for (seq <- 0 until numBatchesToRetain + 1)
+      append(stateManager, producerId, epoch, seq, seq.toLong)
+
+    val entry = stateManager.lastEntry(producerId).get
+    assertEquals(numBatchesToRetain, entry.batchMetadata.size)
+    assertEquals(1, entry.firstSeq)
+    assertEquals(numBatchesToRetain, entry.lastSeq)
+    assertEquals(None, entry.batchWithSequenceRange(0, 0))
+    assertEquals(Some(BatchMetadata(1, 1L, 0, time.milliseconds())), entry.batchWithSequenceRange(1, 1))
+  }
+
+  @Test
+  def testBatchMetadataWindow(): Unit = {
+    val window = new BatchMetadataWindow(3)
+    assertTrue(window.isEmpty)
+    assertEquals(None, window.headOption)
+
+    for (i <- 0 until 5)
+      window.add(BatchMetadata(lastSeq = i * 10 + 9, lastOffset = i * 100L + 9, offsetDelta = 9, timestamp = i.toLong))
+    assertEquals(3, window.size)
+    assertEquals(Seq(29, 39, 49), window.toSeq.map(_.lastSeq))
+    assertEquals(BatchMetadata(29, 209L, 9, 2L), window.front)
+    assertEquals(BatchMetadata(49, 409L, 9, 4L), window.last)
+    assertEquals(Some(BatchMetadata(39, 309L, 9, 3L)), window.find(30, 39))
+    assertEquals(None, window.find(31, 39))
+    assertEquals(None, window.find(10, 19))
+
+    assertEquals(BatchMetadata(29, 209L, 9, 2L), window.removeFirst())
+    window.add(BatchMetadata(59, 509L, 9, 5L))
+    assertEquals(Seq(39, 49, 59), window.toSeq.map(_.lastSeq))
+
+    window.clear()
+    assertTrue(window.isEmpty)
+  }
+
   @Test(expected = classOf[OutOfOrderSequenceException])
   def testProducerSequenceInvalidWrapAround(): Unit = {
     val epoch = 15.toShort
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.nio.ByteBuffer
+
+import org.junit.Assert._
+import org.junit.Test
+
+class SegmentKeySummaryTest {
+
+  @Test
+  def testContainsAddedKeysAfterFolding(): Unit = {
+    val summary = new SegmentKeySummary(64 * 1024)
+    for (i <- 0 until 100)
+      summary.add(key(i))
+    val completed = summary.complete().getOrElse(throw new AssertionError("The keys should fit in the summary"))
+    assertEquals(100L, completed.numKeys)
+    assertTrue(completed.sizeInBytes < 64 * 1024)
+    assertTrue(completed.sizeInBytes * 8 >= 100 * SegmentKeySummary.BitsPerKey)
+    for (i <- 0 until 100)
+      assertTrue(completed.mightContain(hash(i)))
+  }
+
+  @Test
+  def testFalsePositiveRate(): Unit = {
+    val summary = new SegmentKeySummary(64 * 1024)
+    for (i <- 0 until 1000)
+      summary.add(key(i))
+    val completed = summary.complete().get
+    val falsePositives = (1000 until 11000).count(i => completed.mightContain(hash(i)))
+    assertTrue(s"Unexpected number of false positives $falsePositives", falsePositives < 300)
+  }
+
+  @Test
+  def testTooManyKeys(): Unit = {
+    val summary = new SegmentKeySummary(16)
+    for (i <- 0 until 100)
+      summary.add(key(i))
+    assertEquals(None, summary.complete())
+  }
+
+  private def key(i: Int): ByteBuffer = ByteBuffer.wrap(i.toString.getBytes)
+
+  private def hash(i: Int): Array[Long] = {
+    val hash = new Array[Long](2)
+    Murmur3OffsetMap.hash128(key(i), hash)
+    hash
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.log
+
+import java.nio.ByteBuffer
+
+import kafka.server.checkpoints.{ZstdDictionaryCheckpoint, ZstdDictionaryCheckpointFile}
+import kafka.utils.TestUtils
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, RecordBatch, TimestampType, ZstdDictionary, ZstdDictionaryTest}
+import org.junit.Assert._
+import org.junit.Test
+
+import scala.collection.Seq
+
+class ZstdDictionaryCacheTest {
+  private val tp = new TopicPartition("TestTopic", 5)
+  private val checkpoint: ZstdDictionaryCheckpoint = new ZstdDictionaryCheckpoint {
+    private var entries: Seq[ZstdDictionaryEntry] = Seq()
+    override def write(entries: Seq[ZstdDictionaryEntry]): Unit = this.entries = entries
+    override def read(): Seq[ZstdDictionaryEntry] = this.entries
+  }
+  private val dictionary = ZstdDictionaryTest.trainDictionary(20)
+  private val otherDictionary = ZstdDictionaryTest.trainDictionary(21)
+
+  @Test
+  def testRetiredDictionaryKeptUntilLogStartOffset(): Unit = {
+    val cache = new ZstdDictionaryCache(tp, checkpoint)
+    cache.update(Seq(dictionary), 0L)
+    cache.update(Seq(otherDictionary), 10L)
+    assertEquals(dictionary, cache.dictionaries.get(dictionary.id))
+    assertEquals(otherDictionary, cache.dictionaries.get(otherDictionary.id))
+
+    cache.truncateFromStart(9L)
+    assertEquals(dictionary, cache.dictionaries.get(dictionary.id))
+    cache.truncateFromStart(10L)
+    assertNull(cache.dictionaries.get(dictionary.id))
+    assertEquals(otherDictionary, cache.dictionaries.get(otherDictionary.id))
+  }
+
+  @Test
+  def testAppendWithRetiredDictionaryExtendsRetirement(): Unit = {
+    val cache = new ZstdDictionaryCache(tp, checkpoint)
+    cache.update(Seq(dictionary), 0L)
+    cache.update(Seq.empty, 10L)
+    cache.onAppend(records(dictionary, 10L))
+    assertEquals(Seq(ZstdDictionaryEntry(dictionary, 12L)), cache.entriesSnapshot)
+
+    cache.truncateFromStart(11L)
+    assertEquals(dictionary, cache.dictionaries.get(dictionary.id))
+    cache.truncateFromStart(12L)
+    assertTrue(cache.dictionaries.isEmpty)
+  }
+
+  @Test
+  def testRegisteredAgainIsNoLongerRetired(): Unit = {
+    val cache = new ZstdDictionaryCache(tp, checkpoint)
+    cache.update(Seq(dictionary), 0L)
+    cache.update(Seq.empty, 10L)
+    cache.update(Seq(dictionary), 20L)
+    cache.truncateFromStart(30L)
+    assertEquals(Seq(ZstdDictionaryEntry(dictionary, ZstdDictionaryEntry.NotRetired)), cache.entriesSnapshot)
+  }
+
+  @Test
+  def testDictionariesAreCheckpointed(): Unit = {
+    val file = ZstdDictionaryCheckpointFile.newFile(TestUtils.tempDir())
+    val cache = new ZstdDictionaryCache(tp, new ZstdDictionaryCheckpointFile(file))
+    cache.update(Seq.empty, 0L)
+    assertFalse(file.exists)
+
+    cache.update(Seq(dictionary), 0L)
+    cache.update(Seq(otherDictionary), 10L)
+
+    val reloaded = new ZstdDictionaryCache(tp, new ZstdDictionaryCheckpointFile(file))
+    assertEquals(Seq(dictionary.id -> 10L, otherDictionary.id -> ZstdDictionaryEntry.NotRetired),
+      reloaded.entriesSnapshot.map(entry => entry.dictionary.id -> entry.retiredAtOffset))
+    assertArrayEquals(dictionary.bytes, reloaded.dictionaries.get(dictionary.id).bytes)
+    assertArrayEquals(otherDictionary.bytes, reloaded.dictionaries.get(otherDictionary.id).bytes)
+  }
+
+  private def records(dictionary: ZstdDictionary, baseOffset: Long): MemoryRecords = {
+    val builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.MAGIC_VALUE_V2, CompressionType.ZSTD,
+      TimestampType.CREATE_TIME, baseOffset, false, dictionary)
+    builder.append(1000L, "key-1".getBytes, "hello".getBytes)
+    builder.append(1001L, "key-2".getBytes, "there".getBytes)
+    builder.build()
+  }
+}
@@ -19,6 +19,7 @@ package kafka.server
 import java.net.InetAddress
 import java.util
 import java.util.Collections
+import java.util.concurrent.{Callable, Executors}
 
 import kafka.network.RequestChannel
 import kafka.network.RequestChannel.{EndThrottlingResponse, Session, StartThrottlingResponse}
@@ -36,6 +37,8 @@ import org.easymock.EasyMock
 import org.junit.Assert.{assertEquals, assertTrue}
 import org.junit.{After, Test}
 
+import scala.collection.JavaConverters._
+
 class ClientQuotaManagerTest {
   private val time = new MockTime
   private val metrics = new Metrics(new MetricConfig(), Collections.emptyList(), time)
@@ -194,8 +197,16 @@ class ClientQuotaManagerTest {
 
   @Test
   def testQuotaConfigPrecedence(): Unit = {
-    val quotaManager = new ClientQuotaManager(ClientQuotaManagerConfig(quotaBytesPerSecondDefault=Long.MaxValue),
-      metrics, Produce, time, "")
+    testQuotaConfigPrecedence(ClientQuotaManagerConfig(quotaBytesPerSecondDefault=Long.MaxValue))
+  }
+
+  @Test
+  def testQuotaConfigPrecedenceWithTokenBuckets(): Unit = {
+    testQuotaConfigPrecedence(ClientQuotaManagerConfig(quotaBytesPerSecondDefault=Long.MaxValue, tokenBucketEnabled = true))
+  }
+
+  private def testQuotaConfigPrecedence(config: ClientQuotaManagerConfig): Unit = {
+    val quotaManager = new ClientQuotaManager(config, metrics, Produce, time, "")
 
     def checkQuota(user: String, clientId: String, expectedBound: Int, value: Int, expectThrottle: Boolean): Unit = {
       assertEquals(expectedBound, quotaManager.quota(user, clientId).bound, 0.0)
@@ -374,6 +385,191 @@ class ClientQuotaManagerTest {
     }
   }
 
+  @Test
+  def testTokenBucketQuotaViolation(): Unit = {
+    val quotaManager = new ClientQuotaManager(config.copy(tokenBucketEnabled = true), metrics, Produce, time, "")
+    try {
+      // No quota violation if we produce under the quota
+      for (_ <- 0 until 10) {
+        assertEquals(0, maybeRecord(quotaManager, "ANONYMOUS", "unknown", 400))
+        time.sleep(1000)
+      }
+
+      // Create a spike. The bucket is full again and holds 10 seconds of quota, 5000 bytes.
+      // (6050 - 5000)/quota = 2100
+      time.sleep(500)
+      val throttleTimeMs = maybeRecord(quotaManager, "ANONYMOUS", "unknown", 6050)
+      assertEquals("Should be throttled", 2100, throttleTimeMs)
+
+      // The debt has been paid back once the client has been throttled
+      time.sleep(throttleTimeMs)
+      assertEquals(0, maybeRecord(quotaManager, "ANONYMOUS", "unknown", 0))
+
+      // A client that keeps exceeding its quota is throttled for the growing excess
+      for (i <- 1 to 5) {
+        assertEquals((i + 1) * 1000, maybeRecord(quotaManager, "ANONYMOUS", "unknown", 1000))
+        time.sleep(1000)
+      }
+    } finally {
+      quotaManager.shutdown()
+    }
+  }
+
+  @Test
+  def testTokenBucketThrottleMatchesRateForNewClients(): Unit = {
+    val rateQuotaManager = new ClientQuotaManager(config, metrics, Produce, time, "")
+    val bucketMetrics = new Metrics(new MetricConfig(), Collections.emptyList(), time)
+    val bucketQuotaManager = new ClientQuotaManager(config.copy(tokenBucketEnabled = true), bucketMetrics, Produce, time, "")
+    try {
+      for ((clientId, value) <- Seq("client1" -> 4000, "client2" -> 5000, "client3" -> 6000, "client4" -> 12345)) {
+        assertEquals(maybeRecord(rateQuotaManager, "ANONYMOUS", clientId, value),
+          maybeRecord(bucketQuotaManager, "ANONYMOUS", clientId, value))
+      }
+    } finally {
+      rateQuotaManager.shutdown()
+      bucketQuotaManager.shutdown()
+      bucketMetrics.close()
+    }
+  }
+
+  @Test
+  def testTokenBucketUnrecord(): Unit = {
+    val quotaManager = new ClientQuotaManager(config.copy(tokenBucketEnabled = true), metrics, Fetch, time, "")
+    quotaManager.updateQuota(Some("ANONYMOUS"), None, None, Some(Quota.upperBound(500)))
+    try {
+      val (_, request) = buildRequest(FetchRequest.Builder.forConsumer(0, 1000, new util.HashMap[TopicPartition, PartitionData]))
+      assertEquals(2000, quotaManager.maybeRecordAndGetThrottleTimeMs(request, 6000, time.milliseconds))
+      quotaManager.unrecordQuotaSensor(request, 6000, time.milliseconds)
+      assertEquals(0, quotaManager.maybeRecordAndGetThrottleTimeMs(request, 5000, time.milliseconds))
+    } finally {
+      quotaManager.shutdown()
+    }
+  }
+
+  @Test
+  def testTokenBucketRequestQuotaThrottleTimeIsBounded(): Unit = {
+    val quotaManager = new ClientRequestQuotaManager(config.copy(tokenBucketEnabled = true), metrics, time, "", None)
+    quotaManager.updateQuota(Some("ANONYMOUS"), Some("test-client"), Some("test-client"), Some(Quota.upperBound(1)))
+    def millisToPercent(millis: Double) = millis * 1000 * 1000 * ClientQuotaManagerConfig.NanosToPercentagePerSecond
+    try {
+      // 10 seconds of a 1% quota is 100ms, so 100ms more is 10 seconds of debt
+      assertEquals(0, maybeRecord(quotaManager, "ANONYMOUS", "test-client", millisToPercent(100)))
+      assertEquals(1000, maybeRecord(quotaManager, "ANONYMOUS", "test-client", millisToPercent(100)))
+      time.sleep(9500)
+      assertEquals(500, maybeRecord(quotaManager, "ANONYMOUS", "test-client", 0))
+    } finally {
+      quotaManager.shutdown()
+    }
+  }
+
+  @Test
+  def testTokenBucketConcurrentRecording(): Unit = {
+    val quotaManager = new ClientQuotaManager(config.copy(tokenBucketEnabled = true), metrics, Produce, time, "")
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val futures = (0 until 4).map { _ =>
+        executor.submit(new Callable[Int] {
+          override def call(): Int = (0 until 1000).map(_ => maybeRecord(quotaManager, "ANONYMOUS", "client1", 1)).sum
+        })
+      }
+      assertEquals(0, futures.map(_.get).sum)
+      // 4000 of the 5000 bytes in the bucket have been used
+      assertEquals(1000, maybeRecord(quotaManager, "ANONYMOUS", "client1", 1500))
+    } finally {
+      executor.shutdownNow()
+      quotaManager.shutdown()
+    }
+  }
+
+  @Test
+  def testTokenBucketMetrics(): Unit = {
+    val quotaManager = new ClientQuotaManager(config.copy(tokenBucketEnabled = true), metrics, Produce, time, "")
+    try {
+      val byteRateMetricName = metrics.metricName("byte-rate", "Produce", "",
+        Map(ClientQuotaManager.DefaultTags.User -> "", ClientQuotaManager.DefaultTags.ClientId -> "client1").asJava)
+      maybeRecord(quotaManager, "ANONYMOUS", "client1", 1000)
+      time.sleep(2000)
+      assertEquals(500.0, metrics.metrics.get(byteRateMetricName).metricValue.asInstanceOf[Double], 0.0)
+
+      // quota sensors are not used, throttle time sensors are created when a client is throttled
+      assertEquals(null, metrics.getSensor("Produce-:client1"))
+      throttle(quotaManager, "ANONYMOUS", "client1", maybeRecord(quotaManager, "ANONYMOUS", "client1", 6000), callback)
+      // the throttled request has an empty client-id
+      assertTrue(metrics.getSensor("ProduceThrottleTime-:") != null)
+
+      // buckets of inactive clients are removed along with their metrics
+      time.sleep(ClientQuotaManagerConfig.InactiveSensorExpirationTimeSeconds * 1000 + 1)
+      maybeRecord(quotaManager, "ANONYMOUS", "client2", 0)
+      quotaManager.maybePurgeTokenBuckets(time.milliseconds)
+      assertEquals(null, metrics.metrics.get(byteRateMetricName))
+      assertEquals(0, maybeRecord(quotaManager, "ANONYMOUS", "client1", 1000))
+      assertTrue(metrics.metrics.get(byteRateMetricName) != null)
+    } finally {
+      quotaManager.shutdown()
+    }
+  }
+
+  @Test
+  def testGlobalQuotaShare(): Unit = {
+    // unused quota is shared equally when the total usage is within the quota
+    assertEquals(500.0, ClientQuotaManager.globalQuotaShare(1000, 200, 400, 2), 0.0)
+    assertEquals(250.0, ClientQuotaManager.globalQuotaShare(1000, 0, 0, 4), 0.0)
+    // the quota is split in proportion to usage otherwise
+    assertEquals(500.0, ClientQuotaManager.globalQuotaShare(1000, 900, 1800, 2), 0.0)
+    // with a minimum share for brokers that use little of the quota
+    assertEquals(50.0, ClientQuotaManager.globalQuotaShare(1000, 0, 2000, 2), 0.0)
+  }
+
+  @Test
+  def testGlobalQuotaViolation(): Unit = {
+    val quotaManager = new ClientQuotaManager(config.copy(globalQuotaEnabled = true), metrics, Produce, time, "")
+    try {
+      // The whole quota is enforced until the usage of other brokers is known. 2000/10 seconds = 200 bytes/sec
+      assertEquals(500.0, quotaManager.quota("ANONYMOUS", "client1").bound, 0.0)
+      assertEquals(0, maybeRecord(quotaManager, "ANONYMOUS", "client1", 2000))
+      val tags = Map(ClientQuotaManager.DefaultTags.User -> "", ClientQuotaManager.DefaultTags.ClientId -> "client1")
+      val localUsage = quotaManager.localQuotaUsage(maxEntities = 10)
+      assertEquals(Map(tags -> 200.0), localUsage)
+
+      // Another broker uses 800 bytes/sec of the quota, the share of this broker is 500 * 200/1000
+      quotaManager.updateGlobalQuotaShares(localUsage, Map(tags -> 1000.0), 2)
+      assertEquals(100.0, quotaManager.quota("ANONYMOUS", "client1").bound, 0.0)
+      assertTrue(maybeRecord(quotaManager, "ANONYMOUS", "client1", 0) > 0)
+      // Clients without any usage get an equal share
+      assertEquals(250.0, quotaManager.quota("ANONYMOUS", "client2").bound, 0.0)
+
+      // The other broker has left, this broker gets the whole quota again
+      quotaManager.updateGlobalQuotaShares(localUsage, Map.empty, 1)
+      assertEquals(500.0, quotaManager.quota("ANONYMOUS", "client1").bound, 0.0)
+      assertEquals(0, maybeRecord(quotaManager, "ANONYMOUS", "client1", 0))
+    } finally {
+      quotaManager.shutdown()
+    }
+  }
+
+  @Test
+  def testLocalQuotaUsageKeepsMostUsedQuotas(): Unit = {
+    val quotaManager = new ClientQuotaManager(config.copy(globalQuotaEnabled = true), metrics, Produce, time, "")
+    try {
+      quotaManager.updateQuota(None, Some("client2"), Some("client2"), Some(new Quota(2000, true)))
+      // 200 bytes/sec of a quota of 500, and 300 bytes/sec of a quota of 2000
+      maybeRecord(quotaManager, "ANONYMOUS", "client1", 2000)
+      maybeRecord(quotaManager, "ANONYMOUS", "client2", 3000)
+      def tags(clientId: String) = Map(ClientQuotaManager.DefaultTags.User -> "", ClientQuotaManager.DefaultTags.ClientId -> clientId)
+
+      assertEquals(Map(tags("client1") -> 200.0, tags("client2") -> 300.0), quotaManager.localQuotaUsage(maxEntities = 2))
+      assertEquals(Map(tags("client1") -> 200.0), quotaManager.localQuotaUsage(maxEntities = 1))
+      assertEquals(Map.empty, quotaManager.localQuotaUsage(maxEntities = 0))
+
+      // entities are no longer read once their quota sensors have expired
+      time.sleep(ClientQuotaManagerConfig.InactiveSensorExpirationTimeSeconds * 1000 + 1)
+      maybeRecord(quotaManager, "ANONYMOUS", "client1", 2000)
+      assertEquals(Map(tags("client1") -> 200.0), quotaManager.localQuotaUsage(maxEntities = 2))
+    } finally {
+      quotaManager.shutdown()
+    }
+  }
+
   @Test
   def testExpireThrottleTimeSensor(): Unit = {
     val clientMetrics = new ClientQuotaManager(config, metrics, Produce, time, "")
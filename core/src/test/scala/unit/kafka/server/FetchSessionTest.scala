@@ -126,6 +126,99 @@ class FetchSessionTest {
     assertEquals(3, cache.totalPartitions)
   }
 
+  @Test
+  def testCachedPartitionsLimit(): Unit = {
+    val cache = new FetchSessionCache(10, 100, 10)
+    // A session which could never fit is not created.
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(0, true, 11, () => dummyCreate(11)))
+    val id1 = cache.maybeCreateSession(0, false, 4, () => dummyCreate(4))
+    val id2 = cache.maybeCreateSession(10, false, 5, () => dummyCreate(5))
+    assertCacheContains(cache, id1, id2)
+    assertEquals(9, cache.totalPartitions)
+    // Neither existing session is stale or old enough to be evicted.
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(20, false, 5, () => dummyCreate(5)))
+    assertCacheContains(cache, id1, id2)
+    // Once both sessions are evictable, the smaller one is evicted to make room.
+    cache.touch(cache.get(id1).get, 200)
+    cache.touch(cache.get(id2).get, 200)
+    val id3 = cache.maybeCreateSession(210, false, 5, () => dummyCreate(5))
+    assertCacheContains(cache, id2, id3)
+    assertEquals(10, cache.totalPartitions)
+  }
+
+  @Test
+  def testCachedPartitionsLimitEvictsOnlyIfEnoughRoom(): Unit = {
+    val cache = new FetchSessionCache(10, 100, 10)
+    val id1 = cache.maybeCreateSession(0, false, 4, () => dummyCreate(4))
+    val id2 = cache.maybeCreateSession(150, false, 5, () => dummyCreate(5))
+    // Only the first session is old enough to be evicted.
+    cache.touch(cache.get(id1).get, 200)
+    cache.touch(cache.get(id2).get, 200)
+    // Evicting the first session would not make room for 7 partitions, so it is kept.
+    assertEquals(INVALID_SESSION_ID, cache.maybeCreateSession(210, false, 7, () => dummyCreate(7)))
+    assertCacheContains(cache, id1, id2)
+    assertEquals(0, cache.evictionsMeter.count)
+    val id3 = cache.maybeCreateSession(210, false, 5, () => dummyCreate(5))
+    assertCacheContains(cache, id2, id3)
+    assertEquals(1, cache.evictionsMeter.count)
+    assertEquals(10, cache.totalPartitions)
+  }
+
+  @Test
+  def testCachedPartitionsLimitOnIncrementalFetch(): Unit = {
+    val time = new MockTime()
+    val cache = new FetchSessionCache(10, 1000, 3)
+    val fetchManager = new FetchManager(time, cache)
+
+    def reqData(partitions: Int*): FetchSession.REQ_MAP = {
+      val data = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+      partitions.foreach(p => data.put(new TopicPartition("foo", p), new FetchRequest.PartitionData(0, 0, 100,
+        Optional.empty())))
+      data
+    }
+
+    val context1 = fetchManager.newContext(JFetchMetadata.INITIAL, reqData(0, 1), EMPTY_PART_LIST, false)
+    val respData1 = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData[Records]]
+    for (p <- 0 to 1)
+      respData1.put(new TopicPartition("foo", p), new FetchResponse.PartitionData(Errors.NONE, 10, 10, 10, null, null))
+    val sessionId = context1.updateAndGenerateResponseData(respData1).sessionId
+    assertTrue(sessionId != INVALID_SESSION_ID)
+    assertEquals(2, cache.totalPartitions)
+
+    // Replacing a partition keeps the session within the limit.
+    val context2 = fetchManager.newContext(new JFetchMetadata(sessionId, 1), reqData(2),
+      util.Arrays.asList(new TopicPartition("foo", 0)), false)
+    assertEquals(classOf[IncrementalFetchContext], context2.getClass)
+    assertEquals(2, cache.totalPartitions)
+
+    // Adding two partitions would exceed the limit, so the session is closed.
+    val context3 = fetchManager.newContext(new JFetchMetadata(sessionId, 2), reqData(3, 4), EMPTY_PART_LIST, false)
+    assertEquals(classOf[SessionlessFetchContext], context3.getClass)
+    assertEquals(None, cache.get(sessionId))
+    assertEquals(0, cache.totalPartitions)
+  }
+
+  @Test
+  def testCachedPartitionTopicsAreInterned(): Unit = {
+    val cache = new FetchSessionCache(10, 1000)
+    val fetchManager = new FetchManager(new MockTime(), cache)
+
+    def createSession(): FetchSession = {
+      // Use a distinct String instance for each request, as request deserialization does.
+      val tp = new TopicPartition(new String("foo"), 0)
+      val reqData = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+      reqData.put(tp, new FetchRequest.PartitionData(0, 0, 100, Optional.empty()))
+      val context = fetchManager.newContext(JFetchMetadata.INITIAL, reqData, EMPTY_PART_LIST, false)
+      val respData = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData[Records]]
+      respData.put(tp, new FetchResponse.PartitionData(Errors.NONE, 10, 10, 10, null, null))
+      cache.get(context.updateAndGenerateResponseData(respData).sessionId).get
+    }
+
+    val session1 = createSession()
+    val session2 = createSession()
+    assertSame(session1.partitionMap.iterator.next.topic, session2.partitionMap.iterator.next.topic)
+  }
+
   val EMPTY_PART_LIST = Collections.unmodifiableList(new util.ArrayList[TopicPartition]())
 
   @Test
@@ -0,0 +1,80 @@
+/**
+  * Licensed to the Apache Software Foundation (ASF) under one or more
+  * contributor license agreements.  See the NOTICE file distributed with
+  * this work for additional information regarding copyright ownership.
+  * The ASF licenses this file to You under the Apache License, Version 2.0
+  * (the "License"); you may not use this file except in compliance with
+  * the License.  You may obtain a copy of the License at
+  *
+  * http://www.apache.org/licenses/LICENSE-2.0
+  *
+  * Unless required by applicable law or agreed to in writing, software
+  * distributed under the License is distributed on an "AS IS" BASIS,
+  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  * See the License for the specific language governing permissions and
+  * limitations under the License.
+  */
+package kafka.server
+
+import java.util.Collections
+
+import kafka.network.RequestChannel.Session
+import kafka.server.QuotaType.Produce
+import kafka.utils.MockScheduler
+import kafka.zk.{QuotaUsageBrokersZNode, ZooKeeperTestHarness}
+import org.apache.kafka.common.metrics.{MetricConfig, Metrics}
+import org.apache.kafka.common.security.auth.KafkaPrincipal
+import org.apache.kafka.common.utils.MockTime
+import org.junit.Assert.assertEquals
+import org.junit.{After, Before, Test}
+
+class GlobalQuotaManagerTest extends ZooKeeperTestHarness {
+  private val time = new MockTime
+  private val config = ClientQuotaManagerConfig(quotaBytesPerSecondDefault = 500, globalQuotaEnabled = true)
+  private var metrics: Seq[Metrics] = Seq.empty
+  private var quotaManagers: Seq[ClientQuotaManager] = Seq.empty
+
+  @Before
+  override def setUp(): Unit = {
+    super.setUp()
+    zkClient.createRecursive(QuotaUsageBrokersZNode.path)
+    metrics = (0 until 3).map(_ => new Metrics(new MetricConfig(), Collections.emptyList(), time))
+    quotaManagers = metrics.map(new ClientQuotaManager(config, _, Produce, time, ""))
+  }
+
+  @After
+  override def tearDown(): Unit = {
+    quotaManagers.foreach(_.shutdown())
+    metrics.foreach(_.close())
+    super.tearDown()
+  }
+
+  @Test
+  def testQuotaSharedByUsage(): Unit = {
+    val session = Session(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "ANONYMOUS"), null)
+    // 100, 200 and 300 bytes/sec over 10 seconds of quota samples
+    quotaManagers.zipWithIndex.foreach { case (quotaManager, brokerId) =>
+      quotaManager.maybeRecordAndGetThrottleTimeMs(session, "client1", (brokerId + 1) * 1000, time.milliseconds)
+    }
+    // the last broker is the controller, which aggregates the usage of all brokers
+    val globalQuotaManagers = quotaManagers.zipWithIndex.map { case (quotaManager, brokerId) =>
+      new GlobalQuotaManager(brokerId, zkClient, Map(Produce.toString -> quotaManager), new MockScheduler(time), 1000,
+        maxEntities = 10, isController = () => brokerId == 2)
+    }
+
+    // the first broker only knows its own usage until the usage of all brokers is aggregated
+    globalQuotaManagers.head.sync()
+    assertEquals(500.0, quotaManagers.head.quota("ANONYMOUS", "client1").bound, 0.0)
+
+    globalQuotaManagers.foreach(_.sync())
+    globalQuotaManagers.foreach(_.sync())
+    // the total usage of 600 bytes/sec exceeds the quota, which is split in proportion to usage
+    val shares = quotaManagers.map(_.quota("ANONYMOUS", "client1").bound)
+    Seq(100.0, 200.0, 300.0).zip(shares).foreach { case (usage, share) =>
+      assertEquals(500 * usage / 600, share, 0.001)
+    }
+    assertEquals(500.0, shares.sum, 0.001)
+    // clients that have not been used anywhere get an equal share
+    assertEquals(500.0 / 3, quotaManagers.head.quota("ANONYMOUS", "client2").bound, 0.001)
+  }
+}
@@ -57,7 +57,7 @@ import org.apache.kafka.common.requests.{FetchMetadata => JFetchMetadata, _}
 import org.apache.kafka.common.security.auth.{KafkaPrincipal, SecurityProtocol}
 import org.apache.kafka.server.authorizer.Authorizer
 import org.easymock.EasyMock._
-import org.easymock.{Capture, EasyMock, IAnswer}
+import org.easymock.{Capture, CaptureType, EasyMock, IAnswer}
 import org.junit.Assert.{assertArrayEquals, assertEquals, assertNull, assertTrue}
 import org.junit.{After, Test}
 
@@ -374,6 +374,54 @@ class KafkaApisTest {
     EasyMock.verify(replicaManager)
   }
 
+  @Test
+  def shouldAppendMarkersOfDifferentProducersTogether(): Unit = {
+    val tp1 = new TopicPartition("t", 0)
+    val tp2 = new TopicPartition("t", 1)
+    val writeTxnMarkersRequest = new WriteTxnMarkersRequest.Builder(asList(
+      new TxnMarkerEntry(1, 1.toShort, 0, TransactionResult.COMMIT, asList(tp1, tp2)),
+      new TxnMarkerEntry(2, 1.toShort, 0, TransactionResult.ABORT, asList(tp1)),
+      new TxnMarkerEntry(3, 1.toShort, 0, TransactionResult.COMMIT, asList(tp2))))
+    val (markersRequest, request) = buildRequest(writeTxnMarkersRequest)
+
+    val capturedResponse: Capture[RequestChannel.Response] = EasyMock.newCapture()
+    val capturedRecords: Capture[Map[TopicPartition, MemoryRecords]] = EasyMock.newCapture(CaptureType.ALL)
+    val responseCallback: Capture[Map[TopicPartition, PartitionResponse] => Unit] = EasyMock.newCapture()
+
+    EasyMock.expect(replicaManager.getMagic(EasyMock.anyObject()))
+      .andReturn(Some(RecordBatch.MAGIC_VALUE_V2)).anyTimes()
+
+    // the markers are appended in two rounds with at most one marker for each partition
+    EasyMock.expect(replicaManager.appendRecords(EasyMock.anyLong(),
+      EasyMock.anyShort(),
+      EasyMock.eq(true),
+      EasyMock.eq(AppendOrigin.Coordinator),
+      EasyMock.capture(capturedRecords),
+      EasyMock.capture(responseCallback),
+      EasyMock.anyObject(),
+      EasyMock.anyObject())
+    ).andAnswer(() => responseCallback.getValue.apply(capturedRecords.getValues.asScala.last.map { case (tp, _) =>
+      tp -> new PartitionResponse(Errors.NONE)
+    })).times(2)
+
+    EasyMock.expect(requestChannel.sendResponse(EasyMock.capture(capturedResponse)))
+    EasyMock.replay(replicaManager, replicaQuotaManager, requestChannel)
+
+    createKafkaApis().handleWriteTxnMarkersRequest(request)
+
+    val producerIdsPerRound = capturedRecords.getValues.asScala.map(_.map { case (tp, records) =>
+      tp -> records.batches.asScala.head.producerId
+    })
+    assertEquals(Seq(Map(tp1 -> 1L, tp2 -> 1L), Map(tp1 -> 2L, tp2 -> 3L)), producerIdsPerRound)
+
+    val markersResponse = readResponse(ApiKeys.WRITE_TXN_MARKERS, markersRequest, capturedResponse)
+      .asInstanceOf[WriteTxnMarkersResponse]
+    assertEquals(Map(tp1 -> Errors.NONE, tp2 -> Errors.NONE).asJava, markersResponse.errors(1))
+    assertEquals(Map(tp1 -> Errors.NONE).asJava, markersResponse.errors(2))
+    assertEquals(Map(tp2 -> Errors.NONE).asJava, markersResponse.errors(3))
+    EasyMock.verify(replicaManager)
+  }
+
   @Test
   def testLeaderReplicaIfLocalRaisesFencedLeaderEpoch(): Unit = {
     testListOffsetFailedGetLeaderReplica(Errors.FENCED_LEADER_EPOCH)
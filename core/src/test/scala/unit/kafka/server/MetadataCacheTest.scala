@@ -20,6 +20,8 @@ import java.util
 import java.util.Optional
 import util.Arrays.asList
 
+import kafka.api.LeaderAndIsr
+import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.message.UpdateMetadataRequestData.{UpdateMetadataBroker, UpdateMetadataEndpoint, UpdateMetadataPartitionState}
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors}
@@ -503,4 +505,56 @@ class MetadataCacheTest {
     assertEquals(initialBrokerIds.toSet, aliveBrokersFromCache.map(_.id).toSet)
   }
 
+  @Test
+  def partialUpdateShouldOnlyModifyUpdatedPartitions(): Unit = {
+    val cache = new MetadataCache(1)
+    val securityProtocol = SecurityProtocol.PLAINTEXT
+    val brokers = Seq(new UpdateMetadataBroker()
+      .setId(0)
+      .setRack("")
+      .setEndpoints(Seq(new UpdateMetadataEndpoint()
+        .setHost("foo")
+        .setPort(9092)
+        .setSecurityProtocol(securityProtocol.id)
+        .setListener(ListenerName.forSecurityProtocol(securityProtocol).value)).asJava))
+    val controllerEpoch = 1
+
+    def partitionState(topic: String, partition: Int, leader: Int) = new UpdateMetadataPartitionState()
+      .setTopicName(topic)
+      .setPartitionIndex(partition)
+      .setControllerEpoch(controllerEpoch)
+      .setLeader(leader)
+      .setLeaderEpoch(0)
+      .setIsr(asList[Integer](0))
+      .setZkVersion(3)
+      .setReplicas(asList[Integer](0))
+
+    def updateCache(partitionStates: Seq[UpdateMetadataPartitionState]): Unit = {
+      val version = ApiKeys.UPDATE_METADATA.latestVersion
+      val updateMetadataRequest = new UpdateMetadataRequest.Builder(version, 2, controllerEpoch, brokerEpoch,
+        partitionStates.asJava, brokers.asJava).build()
+      cache.updateMetadata(15, updateMetadataRequest)
+    }
+
+    updateCache(Seq(partitionState("topic-0", 0, 0), partitionState("topic-0", 1, 0), partitionState("topic-1", 0, 0)))
+    val topic0Partition0 = cache.getPartitionInfo("topic-0", 0).get
+    val topic0PartitionStates = cache.getPartitionStates("topic-0").get
+
+    // The partition states of a topic which is not updated are shared with the new snapshot.
+    updateCache(Seq(partitionState("topic-1", 0, 1)))
+    assertSame(topic0PartitionStates, cache.getPartitionStates("topic-0").get)
+    assertEquals(1, cache.getPartitionInfo("topic-1", 0).get.leader)
+
+    updateCache(Seq(partitionState("topic-0", 1, LeaderAndIsr.LeaderDuringDelete), partitionState("topic-1", 0, -1)))
+    assertNotSame(topic0PartitionStates, cache.getPartitionStates("topic-0").get)
+    assertEquals(2, topic0PartitionStates.size)
+    assertSame(topic0Partition0, cache.getPartitionInfo("topic-0", 0).get)
+    assertEquals(None, cache.getPartitionInfo("topic-0", 1))
+    assertEquals(-1, cache.getPartitionInfo("topic-1", 0).get.leader)
+    assertEquals(Set(new TopicPartition("topic-0", 0), new TopicPartition("topic-1", 0)), cache.getAllPartitions())
+
+    updateCache(Seq(partitionState("topic-1", 0, LeaderAndIsr.LeaderDuringDelete), partitionState("topic-2", 0, 0)))
+    assertEquals(Set("topic-0", "topic-2"), cache.getAllTopics())
+  }
+
 }
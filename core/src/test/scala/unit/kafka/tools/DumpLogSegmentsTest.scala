@@ -18,13 +18,14 @@
 package kafka.tools
 
 import java.io.{ByteArrayOutputStream, File}
+import java.nio.ByteBuffer
 import java.util.Properties
 
 import kafka.log.{Log, LogConfig, LogManager}
 import kafka.server.{BrokerTopicStats, LogDirFailureChannel}
 import kafka.tools.DumpLogSegments.TimeIndexDumpErrors
 import kafka.utils.{MockTime, TestUtils}
-import org.apache.kafka.common.record.{CompressionType, MemoryRecords, SimpleRecord}
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, RecordBatch, SimpleRecord, TimestampType, ZstdDictionaryTest}
 import org.apache.kafka.common.utils.Utils
 import org.junit.Assert._
 import org.junit.{After, Before, Test}
@@ -151,6 +152,35 @@ class DumpLogSegmentsTest {
     verifyNoRecordsInOutput(Array("--files", logFilePath))
   }
 
+  @Test
+  def testPrintZstdDictionaryCompressedLog(): Unit = {
+    val dictionary = ZstdDictionaryTest.trainDictionary(30)
+    val dictionaryLogDir = TestUtils.randomPartitionLogDir(tmpDir)
+    val props = new Properties
+    props.setProperty(LogConfig.CompressionZstdDictionariesProp, dictionary.id.toString)
+    val dictionaryLog = Log(dictionaryLogDir, LogConfig(props), logStartOffset = 0L, recoveryPoint = 0L,
+      scheduler = time.scheduler, time = time, brokerTopicStats = new BrokerTopicStats,
+      maxProducerIdExpirationMs = 60 * 60 * 1000,
+      producerIdExpirationCheckIntervalMs = LogManager.ProducerIdExpirationCheckIntervalMs,
+      logDirFailureChannel = new LogDirFailureChannel(10))
+    try {
+      dictionaryLog.updateZstdDictionaries(Seq(dictionary))
+      val builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.MAGIC_VALUE_V2, CompressionType.ZSTD,
+        TimestampType.CREATE_TIME, 0L, false, dictionary)
+      builder.append(1000L, "key-1".getBytes, "hello".getBytes)
+      builder.append(1001L, "key-2".getBytes, "there".getBytes)
+      dictionaryLog.appendAsLeader(builder.build(), leaderEpoch = 0)
+      dictionaryLog.flush()
+
+      // the records are read with the dictionaries checkpointed in the log directory
+      val output = runDumpLogSegments(Array("--print-data-log", "--files", s"$dictionaryLogDir/$segmentName.log"))
+      assertTrue(s"Records not printed: $output", output.contains(s"${DumpLogSegments.RecordIndent} offset: 0"))
+      assertTrue(s"Records not printed: $output", output.contains("key: key-2 payload: there"))
+    } finally {
+      dictionaryLog.close()
+    }
+  }
+
   @Test
   def testDumpIndexMismatches(): Unit = {
     val offsetMismatches = mutable.Map[String, List[(Long, Long)]]()
@@ -19,6 +19,7 @@ package kafka.admin
 import java.util
 import java.util.Properties
 
+import kafka.admin.AdminOperationException
 import kafka.controller.ReplicaAssignment
 import kafka.log._
 import kafka.server.DynamicConfig.Broker._
@@ -30,8 +31,9 @@ import kafka.utils.{Logging, TestUtils}
 import kafka.zk.{AdminZkClient, KafkaZkClient, ZooKeeperTestHarness}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.config.TopicConfig
-import org.apache.kafka.common.errors.{InvalidReplicaAssignmentException, InvalidTopicException, TopicExistsException}
+import org.apache.kafka.common.errors.{InvalidConfigurationException, InvalidReplicaAssignmentException, InvalidTopicException, TopicExistsException}
 import org.apache.kafka.common.metrics.Quota
+import org.apache.kafka.common.record.ZstdDictionaryTest
 import org.apache.kafka.test.{TestUtils => JTestUtils}
 import org.easymock.EasyMock
 import org.junit.Assert._
@@ -269,6 +271,47 @@ class AdminZkClientTest extends ZooKeeperTestHarness with Logging with RackAware
     checkConfig(Defaults.MaxMessageSize, Defaults.RetentionMs, "", "",  quotaManagerIsThrottled = false)
   }
 
+  @Test
+  def testZstdDictionaryRegistration(): Unit = {
+    val topic = "my-topic"
+    val tp = new TopicPartition(topic, 0)
+    val server = TestUtils.createServer(KafkaConfig.fromProps(TestUtils.createBrokerConfig(0, zkConnect)))
+    servers = Seq(server)
+    val dictionary = ZstdDictionaryTest.trainDictionary(50)
+    val otherDictionary = ZstdDictionaryTest.trainDictionary(51)
+
+    intercept[AdminOperationException] {
+      adminZkClient.registerZstdDictionary(topic, dictionary)
+    }
+    adminZkClient.createTopic(topic, 1, 1)
+    TestUtils.waitUntilTrue(() => server.logManager.getLog(tp).isDefined, "Log was not created")
+
+    // the config can only refer to registered dictionaries
+    intercept[InvalidConfigurationException] {
+      adminZkClient.changeTopicConfig(topic, propsWith(LogConfig.CompressionZstdDictionariesProp, dictionary.id.toString))
+    }
+    adminZkClient.registerZstdDictionary(topic, dictionary)
+    adminZkClient.registerZstdDictionary(topic, dictionary)
+    assertEquals(Seq(dictionary.id), zkClient.getZstdDictionaries(topic).map(_.id))
+    adminZkClient.changeTopicConfig(topic, propsWith(LogConfig.CompressionZstdDictionariesProp, dictionary.id.toString))
+    TestUtils.retry(10000) {
+      val log = server.logManager.getLog(tp).get
+      assertEquals(List(dictionary.id), log.config.zstdDictionaryIds)
+      assertNotNull(log.zstdDictionaries.get(dictionary.id))
+    }
+
+    // a registered dictionary is kept after it is removed from the config
+    adminZkClient.registerZstdDictionary(topic, otherDictionary)
+    adminZkClient.changeTopicConfig(topic, propsWith(LogConfig.CompressionZstdDictionariesProp, otherDictionary.id.toString))
+    TestUtils.retry(10000) {
+      val log = server.logManager.getLog(tp).get
+      assertEquals(List(otherDictionary.id), log.config.zstdDictionaryIds)
+      assertNotNull(log.zstdDictionaries.get(dictionary.id))
+      assertNotNull(log.zstdDictionaries.get(otherDictionary.id))
+    }
+    assertEquals(Seq(dictionary.id, otherDictionary.id), zkClient.getZstdDictionaries(topic).map(_.id))
+  }
+
   @Test
   def shouldPropagateDynamicBrokerConfigs(): Unit = {
     val brokerIds = Seq(0, 1, 2)
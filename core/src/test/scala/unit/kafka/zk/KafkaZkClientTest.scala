@@ -28,6 +28,7 @@ import kafka.server.ConfigType
 import kafka.utils.CoreUtils
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.record.ZstdDictionaryTest
 import org.apache.kafka.common.security.auth.{KafkaPrincipal, SecurityProtocol}
 import org.apache.kafka.common.security.token.delegation.TokenInformation
 import org.apache.kafka.common.utils.{SecurityUtils, Time}
@@ -84,6 +85,7 @@ class KafkaZkClientTest extends ZooKeeperTestHarness {
   }
 
   private val topicPartition = new TopicPartition("topic", 0)
+  private val noQuotaLimit = (_: String, _: Map[String, String]) => 1.0
 
   @Test
   def testSetAndGetConsumerOffset(): Unit = {
@@ -361,6 +363,54 @@ class KafkaZkClientTest extends ZooKeeperTestHarness {
     assertEquals(Seq(3, 3, 4), zkClient.getBrokerIdsFromLogDirEvents(notifications012))
   }
 
+  @Test
+  def testQuotaUsage(): Unit = {
+    // Should not fail even if parent node does not exist
+    assertEquals(Map.empty, zkClient.getAllQuotaUsage)
+
+    zkClient.createRecursive(QuotaUsageBrokersZNode.path)
+    val tags = Map("user" -> "", "client-id" -> "client1")
+    val usage = Map("Produce" -> Map(tags -> 100.5), "Fetch" -> Map.empty[Map[String, String], Double])
+    zkClient.setOrCreateQuotaUsage(1, usage, noQuotaLimit)
+    zkClient.setOrCreateQuotaUsage(2, Map("Produce" -> Map(tags -> 10.0)), noQuotaLimit)
+    assertEquals(Map(1 -> usage, 2 -> Map("Produce" -> Map(tags -> 10.0))), zkClient.getAllQuotaUsage)
+
+    // the usage of a broker is replaced when it is published again
+    zkClient.setOrCreateQuotaUsage(1, Map("Produce" -> Map(tags -> 200.0)), noQuotaLimit)
+    assertEquals(Map("Produce" -> Map(tags -> 200.0)), zkClient.getAllQuotaUsage(1))
+  }
+
+  @Test
+  def testTotalQuotaUsage(): Unit = {
+    assertEquals(None, zkClient.getTotalQuotaUsage)
+
+    // tags which only some entities have are kept apart
+    val usage = Map("Produce" -> Map(Map("user" -> "", "client-id" -> "client1") -> 100.5, Map("client-id" -> "client2") -> 3.0),
+      "Fetch" -> Map.empty[Map[String, String], Double])
+    zkClient.setOrCreateTotalQuotaUsage(3, usage, noQuotaLimit)
+    assertEquals(Some((3, usage)), zkClient.getTotalQuotaUsage)
+
+    zkClient.setOrCreateTotalQuotaUsage(2, Map("Produce" -> Map(Map("client-id" -> "client2") -> 1.0)), noQuotaLimit)
+    assertEquals(Some((2, Map("Produce" -> Map(Map("client-id" -> "client2") -> 1.0)))), zkClient.getTotalQuotaUsage)
+  }
+
+  @Test
+  def testQuotaUsageDataIsBounded(): Unit = {
+    // the clients with odd ids have a quota 1000 times smaller than the others
+    def clientId(i: Int) = s"client-$i-${"x" * 40}"
+    val usage = Map("Produce" -> (0 until 20000).map(i => Map("user" -> "", "client-id" -> clientId(i)) -> i.toDouble).toMap)
+    val quotaLimit = (_: String, tags: Map[String, String]) =>
+      if (tags("client-id").split("-")(1).toInt % 2 == 1) 1000.0 else 1000000.0
+    val data = QuotaUsageBrokerZNode.encode(usage, quotaLimit)
+    assertTrue(data.length <= QuotaUsageZNode.MaxDataBytes)
+    // the entities using the largest part of their quota are kept, not the ones with the largest rate
+    val decoded = QuotaUsageBrokerZNode.decode(data)("Produce")
+    assertTrue(decoded.nonEmpty)
+    assertTrue(decoded.size <= 10000)
+    assertEquals(decoded.keySet, (0 until 20000).filter(_ % 2 == 1).takeRight(decoded.size)
+      .map(i => Map("user" -> "", "client-id" -> clientId(i))).toSet)
+  }
+
   @Test
   def testLogDirEventNotificationsDeletion(): Unit = {
     // Should not fail even if parent node does not exist
@@ -616,6 +666,28 @@ class KafkaZkClientTest extends ZooKeeperTestHarness {
     assertTrue(zkClient.getEntityConfigs(ConfigType.Topic, topic1).isEmpty)
   }
 
+  @Test
+  def testZstdDictionariesMethods(): Unit = {
+    assertTrue(zkClient.getZstdDictionaries(topic1).isEmpty)
+
+    val dictionary = ZstdDictionaryTest.trainDictionary(40)
+    val otherDictionary = ZstdDictionaryTest.trainDictionary(41)
+    zkClient.setOrCreateZstdDictionaries(topic1, Seq(dictionary))
+    assertEquals(Seq(dictionary.id), zkClient.getZstdDictionaries(topic1).map(_.id))
+
+    zkClient.setOrCreateZstdDictionaries(topic1, Seq(dictionary, otherDictionary))
+    val dictionaries = zkClient.getZstdDictionaries(topic1)
+    assertEquals(Seq(dictionary.id, otherDictionary.id), dictionaries.map(_.id))
+    assertArrayEquals(otherDictionary.bytes, dictionaries(1).bytes)
+    assertTrue(zkClient.getZstdDictionaries(topic2).isEmpty)
+
+    intercept[ControllerMovedException](zkClient.deleteZstdDictionaries(Seq(topic1), controllerEpochZkVersion + 1))
+    assertEquals(2, zkClient.getZstdDictionaries(topic1).size)
+
+    zkClient.deleteZstdDictionaries(Seq(topic1, topic2), controllerEpochZkVersion)
+    assertTrue(zkClient.getZstdDictionaries(topic1).isEmpty)
+  }
+
   @Test
   def testCreateConfigChangeNotification(): Unit = {
     assertFalse(zkClient.pathExists(ConfigEntityChangeNotificationZNode.path))
@@ -878,6 +950,43 @@ class KafkaZkClientTest extends ZooKeeperTestHarness {
       zkClient.updateLeaderAndIsr(mixedState, controllerEpoch = 4, controllerEpochZkVersion))
   }
 
+  @Test
+  def testUpdateLeaderAndIsrForManyPartitions(): Unit = {
+    zkClient.createRecursive(TopicZNode.path(topic1))
+    val partitions = (0 until 2000).map(new TopicPartition(topic1, _))
+    def leaderIsrs(leader: Int, zkVersion: Int): Map[TopicPartition, LeaderAndIsr] =
+      partitions.map(_ -> LeaderAndIsr(leader = leader, leaderEpoch = leader, isr = List(0, 1, 2), zkVersion = zkVersion)).toMap
+    val initialLeaderIsrs = leaderIsrs(leader = 0, zkVersion = 0)
+    zkClient.createTopicPartitionStatesRaw(initialLeaderIsrs.mapValues(LeaderIsrAndControllerEpoch(_, 4)).toMap,
+      controllerEpochZkVersion)
+
+    // Mismatch controller epoch zkVersion
+    intercept[ControllerMovedException](zkClient.updateLeaderAndIsr(leaderIsrs(leader = 1, zkVersion = 0),
+      controllerEpoch = 4, controllerEpochZkVersion + 1))
+
+    // All partitions are moved away from broker 0
+    checkUpdateLeaderAndIsrResult(
+      leaderIsrs(leader = 1, zkVersion = 1),
+      mutable.ArrayBuffer.empty,
+      Map.empty,
+      zkClient.updateLeaderAndIsr(leaderIsrs(leader = 1, zkVersion = 0), controllerEpoch = 4, controllerEpochZkVersion))
+
+    // A conflicting update of one partition only fails that partition
+    val conflictingPartition = partitions(150)
+    val updates = leaderIsrs(leader = 2, zkVersion = 1) +
+      (conflictingPartition -> LeaderAndIsr(leader = 2, leaderEpoch = 2, isr = List(0, 1, 2), zkVersion = 0))
+    checkUpdateLeaderAndIsrResult(
+      leaderIsrs(leader = 2, zkVersion = 2) - conflictingPartition,
+      ArrayBuffer(conflictingPartition),
+      Map.empty,
+      zkClient.updateLeaderAndIsr(updates, controllerEpoch = 4, controllerEpochZkVersion))
+
+    assertEquals(Some(LeaderAndIsr(leader = 1, leaderEpoch = 1, isr = List(0, 1, 2), zkVersion = 1)),
+      zkClient.getTopicPartitionState(conflictingPartition).map(_.leaderAndIsr))
+    assertEquals(Some(LeaderAndIsr(leader = 2, leaderEpoch = 2, isr = List(0, 1, 2), zkVersion = 2)),
+      zkClient.getTopicPartitionState(partitions.last).map(_.leaderAndIsr))
+  }
+
   private def checkGetDataResponse(
       leaderIsrAndControllerEpochs: Map[TopicPartition,LeaderIsrAndControllerEpoch],
       topicPartition: TopicPartition,
@@ -17,13 +17,19 @@
 
 package org.apache.kafka.jmh.fetchsession;
 
+import kafka.server.FetchContext;
+import kafka.server.FetchManager;
+import kafka.server.FetchSessionCache;
 import org.apache.kafka.clients.FetchSessionHandler;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.requests.FetchMetadata;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
 import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.Time;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
@@ -38,6 +44,7 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Warmup;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -63,6 +70,9 @@ public class FetchSessionBenchmark {
 
     private LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetches;
     private FetchSessionHandler handler;
+    private FetchManager fetchManager;
+    private FetchMetadata brokerSessionMetadata;
+    private LinkedHashMap<TopicPartition, FetchRequest.PartitionData> brokerSessionUpdates;
 
     @Setup(Level.Trial)
     public void setUp() {
@@ -71,6 +81,7 @@ public class FetchSessionBenchmark {
         FetchSessionHandler.Builder builder = handler.newBuilder();
 
         LinkedHashMap<TopicPartition, FetchResponse.PartitionData<MemoryRecords>> respMap = new LinkedHashMap<>();
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData<Records>> brokerRespMap = new LinkedHashMap<>();
         for (int i = 0; i < partitionCount; i++) {
             TopicPartition tp = new TopicPartition("foo", i);
             FetchRequest.PartitionData partitionData = new FetchRequest.PartitionData(0, 0, 200,
@@ -84,18 +95,35 @@ public class FetchSessionBenchmark {
                     0,
                     null,
                     null));
+            brokerRespMap.put(tp, new FetchResponse.PartitionData<>(
+                    Errors.NONE,
+                    0L,
+                    0L,
+                    0,
+                    null,
+                    null));
         }
         builder.build();
         // build and handle an initial response so that the next fetch will be incremental
         handler.handleResponse(new FetchResponse<>(Errors.NONE, respMap, 0, 1));
 
+        // create the equivalent session on the broker side
+        fetchManager = new FetchManager(Time.SYSTEM, new FetchSessionCache(1000, 1000, Integer.MAX_VALUE));
+        FetchContext fullContext = fetchManager.newContext(FetchMetadata.INITIAL, new LinkedHashMap<>(fetches),
+                Collections.emptyList(), false);
+        int brokerSessionId = fullContext.updateAndGenerateResponseData(brokerRespMap).sessionId();
+        brokerSessionMetadata = FetchMetadata.newIncremental(brokerSessionId);
+        brokerSessionUpdates = new LinkedHashMap<>();
+
         int counter = 0;
         for (TopicPartition topicPartition: new ArrayList<>(fetches.keySet())) {
             if (updatedPercentage != 0 && counter % (100 / updatedPercentage) == 0) {
                 // reorder in fetch session, and update log start offset
                 fetches.remove(topicPartition);
-                fetches.put(topicPartition, new FetchRequest.PartitionData(50, 40, 200,
-                        Optional.empty()));
+                FetchRequest.PartitionData partitionData = new FetchRequest.PartitionData(50, 40, 200,
+                        Optional.empty());
+                fetches.put(topicPartition, partitionData);
+                brokerSessionUpdates.put(topicPartition, partitionData);
             }
             counter++;
         }
@@ -116,4 +144,13 @@ public class FetchSessionBenchmark {
 
         builder.build();
     }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public FetchContext incrementalFetchContextUpdate() {
+        FetchContext context = fetchManager.newContext(brokerSessionMetadata, brokerSessionUpdates,
+                Collections.emptyList(), false);
+        brokerSessionMetadata = brokerSessionMetadata.nextIncremental();
+        return context;
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.log;
+
+import kafka.log.OffsetMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of building and probing the cleaner's offset map with the message digest based
+ * SkimpyOffsetMap and the Murmur3OffsetMap, at the load factor the cleaner fills the map to.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OffsetMapBenchmark {
+
+    private static final int MEMORY = 24 * 1024 * 1024;
+    private static final double LOAD_FACTOR = 0.9;
+
+    @Param({"MD5", "MURMUR3"})
+    private String hashAlgorithm;
+
+    @Param({"16", "64"})
+    private int keySize;
+
+    private OffsetMap map;
+    private ByteBuffer[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = OffsetMap.apply(MEMORY, hashAlgorithm);
+        keys = new ByteBuffer[(int) (map.slots() * LOAD_FACTOR)];
+        for (int i = 0; i < keys.length; i++) {
+            StringBuilder key = new StringBuilder("key-").append(i);
+            while (key.length() < keySize)
+                key.append('x');
+            keys[i] = ByteBuffer.wrap(key.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public long buildAndProbe() {
+        map.clear();
+        for (int i = 0; i < keys.length; i++)
+            map.put(keys[i], i);
+        long sum = 0;
+        for (ByteBuffer key : keys)
+            sum += map.get(key);
+        return sum;
+    }
+}
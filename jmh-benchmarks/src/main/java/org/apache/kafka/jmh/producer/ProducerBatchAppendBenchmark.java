@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.SendBatchFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of appending small records to a producer batch with a future and callback for each record, as
+ * {@code KafkaProducer.send} does, and without them, as {@code KafkaProducer.sendBatch} does. Run it with the GC
+ * profiler ({@code -prof gc}) to compare the bytes allocated per record ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProducerBatchAppendBenchmark {
+
+    private static final int BATCH_SIZE = 1024 * 1024;
+    private static final Callback CALLBACK = (metadata, exception) -> { };
+
+    @Param({"10", "100"})
+    private int valueSize;
+
+    private final TopicPartition tp = new TopicPartition("topic", 0);
+    private final ByteBuffer buffer = ByteBuffer.allocate(BATCH_SIZE);
+    private byte[] value;
+    private ProducerBatch batch;
+    private SendBatchFuture sendBatchFuture;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        value = new byte[valueSize];
+        newBatch();
+    }
+
+    private void newBatch() {
+        buffer.clear();
+        batch = new ProducerBatch(tp, MemoryRecords.builder(buffer, RecordBatch.CURRENT_MAGIC_VALUE,
+            CompressionType.NONE, TimestampType.CREATE_TIME, 0L), 0L);
+        sendBatchFuture = new SendBatchFuture();
+    }
+
+    @Benchmark
+    public Object appendWithCallback() {
+        Object future = batch.tryAppend(0L, null, value, Record.EMPTY_HEADERS, CALLBACK, 0L);
+        if (future == null) {
+            newBatch();
+            future = batch.tryAppend(0L, null, value, Record.EMPTY_HEADERS, CALLBACK, 0L);
+        }
+        return future;
+    }
+
+    @Benchmark
+    public boolean appendUntracked() {
+        if (batch.tryAppendUntracked(0L, null, value, Record.EMPTY_HEADERS, sendBatchFuture, 0L))
+            return true;
+        newBatch();
+        return batch.tryAppendUntracked(0L, null, value, Record.EMPTY_HEADERS, sendBatchFuture, 0L);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ProducerBatchAppendBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.internals.BatchCompressor;
+import org.apache.kafka.clients.producer.internals.BufferPool;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.SerializingValueWriter;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of appending records to a few partitions of a record accumulator shared by a growing number of
+ * threads, while a sender thread drains the ready batches as the producer's sender does. With compression threads,
+ * the drained batches are compressed by a {@link BatchCompressor} rather than by the appending threads. With
+ * serializeIntoBatch, the string values are serialized directly into the batches as the producer does with the
+ * {@link StringSerializer}, rather than into byte arrays which are then copied.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecordAccumulatorAppendBenchmark {
+
+    private static final String TOPIC = "topic";
+    private static final int BATCH_SIZE = 16384;
+    private static final long TOTAL_MEMORY = 32 * 1024 * 1024L;
+
+    @Param({"1", "8"})
+    private int appendLanes;
+
+    @Param({"4"})
+    private int partitionCount;
+
+    @Param({"NONE", "ZSTD"})
+    private CompressionType compressionType;
+
+    @Param({"0", "2"})
+    private int compressionThreads;
+
+    @Param({"100"})
+    private int valueSize;
+
+    @Param({"false", "true"})
+    private boolean serializeIntoBatch;
+
+    private final Time time = Time.SYSTEM;
+    private Metrics metrics;
+    private RecordAccumulator accumulator;
+    private Cluster cluster;
+    private List<TopicPartition> partitions;
+    private final StringSerializer serializer = new StringSerializer();
+    private String value;
+    private BatchCompressor compressor;
+    private Thread sender;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Node node = new Node(0, "localhost", 9092);
+        Node[] replicas = new Node[] {node};
+        List<PartitionInfo> partitionInfos = new ArrayList<>();
+        partitions = new ArrayList<>();
+        for (int partition = 0; partition < partitionCount; partition++) {
+            partitionInfos.add(new PartitionInfo(TOPIC, partition, node, replicas, replicas));
+            partitions.add(new TopicPartition(TOPIC, partition));
+        }
+        cluster = new Cluster("cluster", Collections.singletonList(node), partitionInfos,
+            Collections.emptySet(), Collections.emptySet());
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        value = new String(chars);
+
+        metrics = new Metrics(time);
+        compressor = compressionThreads > 0 ? new BatchCompressor(compressionThreads, "benchmark") : null;
+        accumulator = new RecordAccumulator(new LogContext(), BATCH_SIZE, compressionType, 0, 100L,
+            Integer.MAX_VALUE, metrics, "producer-metrics", time, new ApiVersions(), null,
+            new BufferPool(TOTAL_MEMORY, BATCH_SIZE, metrics, time, "producer-metrics"), appendLanes, compressor, null, null, false,
+            Collections.emptyMap());
+
+        running = true;
+        sender = new Thread(this::drainLoop, "record-accumulator-sender");
+        sender.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        sender.join();
+        accumulator.abortIncompleteBatches();
+        if (compressor != null)
+            compressor.close();
+        metrics.close();
+    }
+
+    private void drainLoop() {
+        while (running) {
+            long now = time.milliseconds();
+            RecordAccumulator.ReadyCheckResult result = accumulator.ready(cluster, now);
+            Map<Integer, List<ProducerBatch>> drained = accumulator.drain(cluster, result.readyNodes,
+                Integer.MAX_VALUE, now);
+            for (List<ProducerBatch> batches : drained.values()) {
+                for (ProducerBatch batch : batches)
+                    accumulator.deallocate(batch);
+            }
+        }
+    }
+
+    private RecordAccumulator.RecordAppendResult append() throws InterruptedException {
+        TopicPartition tp = partitions.get(ThreadLocalRandom.current().nextInt(partitions.size()));
+        if (serializeIntoBatch) {
+            SerializingValueWriter<String> valueWriter = new SerializingValueWriter<>(serializer, TOPIC, null, value,
+                serializer.serializedSize(TOPIC, null, value));
+            return accumulator.append(tp, 0L, null, valueWriter, Record.EMPTY_HEADERS, null, Long.MAX_VALUE, false,
+                time.milliseconds());
+        }
+        return accumulator.append(tp, 0L, null, serializer.serialize(TOPIC, null, value), Record.EMPTY_HEADERS, null,
+            Long.MAX_VALUE, false, time.milliseconds());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public RecordAccumulator.RecordAppendResult appendOneThread() throws InterruptedException {
+        return append();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public RecordAccumulator.RecordAppendResult appendEightThreads() throws InterruptedException {
+        return append();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public RecordAccumulator.RecordAppendResult appendSixtyFourThreads() throws InterruptedException {
+        return append();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.SerializingValueWriter;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing record values into byte arrays which are then copied into a batch with serializing them
+ * directly into the batch, as the producer does with the built-in {@link StringSerializer}. This measures a single
+ * thread building one batch, see {@link RecordAccumulatorAppendBenchmark} for concurrent appends to the accumulator.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueSerializationBenchmark {
+
+    private static final String TOPIC = "topic";
+    private static final int BATCH_SIZE = 1024 * 1024;
+
+    @Param({"NONE", "LZ4"})
+    private CompressionType compressionType;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    @Param({"100"})
+    private int recordsPerBatch;
+
+    private final StringSerializer serializer = new StringSerializer();
+    private ByteBuffer buffer;
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        buffer = ByteBuffer.allocate(BATCH_SIZE);
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        value = new String(chars);
+    }
+
+    private MemoryRecordsBuilder builder() {
+        buffer.clear();
+        return MemoryRecords.builder(buffer, compressionType, TimestampType.CREATE_TIME, 0L);
+    }
+
+    @Benchmark
+    public MemoryRecords serializeIntoArray() {
+        MemoryRecordsBuilder builder = builder();
+        for (int i = 0; i < recordsPerBatch; i++)
+            builder.append(0L, null, serializer.serialize(TOPIC, null, value), Record.EMPTY_HEADERS);
+        return builder.build();
+    }
+
+    @Benchmark
+    public MemoryRecords serializeIntoBatch() {
+        MemoryRecordsBuilder builder = builder();
+        for (int i = 0; i < recordsPerBatch; i++) {
+            SerializingValueWriter<String> valueWriter = new SerializingValueWriter<>(serializer, TOPIC, null, value,
+                serializer.serializedSize(TOPIC, null, value));
+            builder.append(0L, null, valueWriter, Record.EMPTY_HEADERS);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.record.BufferSupplier;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares dictionary encoded record batches with plain ones: the cost of building a batch, the cost of iterating its
+ * records, and the size of the batch, which is reported as the {@code batchSizeInBytes} secondary result of the build
+ * benchmark. The records have keys sharing a prefix and headers whose keys and most values repeat across records.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 15)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DictionaryEncodingBenchmark {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    @Param({"false", "true"})
+    private boolean dictionaryEncoded;
+
+    @Param({"NONE", "LZ4", "ZSTD"})
+    private CompressionType compressionType;
+
+    @Param({"100", "1000"})
+    private int recordCount;
+
+    @Param({"0", "4"})
+    private int headerCount;
+
+    @Param({"100"})
+    private int valueSize;
+
+    private final Random random = new Random(0);
+    private byte[][] keys;
+    private byte[][] values;
+    private Header[][] headers;
+    private ByteBuffer buildBuffer;
+    private ByteBuffer batchBuffer;
+    private BufferSupplier bufferSupplier;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class BatchSize {
+        public long batchSizeInBytes;
+    }
+
+    @Setup
+    public void setup() {
+        keys = new byte[recordCount][];
+        values = new byte[recordCount][];
+        headers = new Header[recordCount][];
+        for (int i = 0; i < recordCount; i++) {
+            keys[i] = String.format("customer-%08d", i / 10).getBytes(StandardCharsets.UTF_8);
+            values[i] = new byte[valueSize];
+            random.nextBytes(values[i]);
+            headers[i] = new Header[headerCount];
+            for (int j = 0; j < headerCount; j++) {
+                // one header value which changes with every record and the rest taken from a few choices
+                String value = j == 0 ? "trace-" + random.nextLong() : "value-" + random.nextInt(4);
+                headers[i][j] = new RecordHeader("header-" + j, value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        bufferSupplier = BufferSupplier.create();
+        buildBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        batchBuffer = build();
+    }
+
+    private ByteBuffer build() {
+        buildBuffer.clear();
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buildBuffer, RecordBatch.MAGIC_VALUE_V2,
+            compressionType, TimestampType.CREATE_TIME, 0L, 0L, RecordBatch.NO_PRODUCER_ID,
+            RecordBatch.NO_PRODUCER_EPOCH, RecordBatch.NO_SEQUENCE, false, false,
+            RecordBatch.NO_PARTITION_LEADER_EPOCH, BUFFER_SIZE, dictionaryEncoded);
+        for (int i = 0; i < recordCount; i++)
+            builder.append(i, keys[i], values[i], headers[i]);
+        return builder.build().buffer();
+    }
+
+    @Benchmark
+    public ByteBuffer measureBuild(BatchSize batchSize) {
+        ByteBuffer buffer = build();
+        batchSize.batchSizeInBytes = buffer.remaining();
+        return buffer;
+    }
+
+    @Benchmark
+    public void measureStreamingIterator(Blackhole bh) {
+        for (RecordBatch batch : MemoryRecords.readableRecords(batchBuffer.duplicate()).batches()) {
+            try (CloseableIterator<Record> iterator = batch.streamingIterator(bufferSupplier)) {
+                while (iterator.hasNext())
+                    bh.consume(iterator.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void measureSkipIterator(Blackhole bh) {
+        for (MutableRecordBatch batch : MemoryRecords.readableRecords(batchBuffer.duplicate()).batches()) {
+            try (CloseableIterator<Record> iterator = batch.skipKeyValueIterator(bufferSupplier)) {
+                while (iterator.hasNext())
+                    bh.consume(iterator.next());
+            }
+        }
+    }
+}
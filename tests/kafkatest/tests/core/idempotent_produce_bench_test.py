@@ -0,0 +1,85 @@
+# Licensed to the Apache Software Foundation (ASF) under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# The ASF licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+import json
+from ducktape.mark import parametrize
+from ducktape.tests.test import Test
+from kafkatest.services.kafka import KafkaService
+from kafkatest.services.trogdor.degraded_network_fault_spec import DegradedNetworkFaultSpec
+from kafkatest.services.trogdor.produce_bench_workload import ProduceBenchWorkloadService, ProduceBenchWorkloadSpec
+from kafkatest.services.trogdor.task_spec import TaskSpec
+from kafkatest.services.trogdor.trogdor import TrogdorService
+from kafkatest.services.zookeeper import ZookeeperService
+
+
+class IdempotentProduceBenchTest(Test):
+    """
+    Benchmarks an idempotent producer on a high latency link, such as between data centers, which is simulated by
+    adding latency to the network device of the producer node with "tc". Compare the throughput of the runs with
+    different numbers of requests in flight: the brokers retain enough batches of each producer for all of them.
+    """
+    RETAINED_BATCHES = 32
+
+    def __init__(self, test_context):
+        """:type test_context: ducktape.tests.test.TestContext"""
+        super(IdempotentProduceBenchTest, self).__init__(test_context)
+        self.zk = ZookeeperService(test_context, num_nodes=3)
+        self.kafka = KafkaService(test_context, num_nodes=3, zk=self.zk,
+                                  server_prop_overides=[
+                                      ["producer.state.retained.batches", str(self.RETAINED_BATCHES)]
+                                  ])
+        self.workload_service = ProduceBenchWorkloadService(test_context, self.kafka)
+        self.trogdor = TrogdorService(context=self.test_context,
+                                      client_services=[self.kafka, self.workload_service])
+        self.active_topics = {"idempotent_produce_bench_topic": {"numPartitions": 3, "replicationFactor": 3}}
+
+    def setUp(self):
+        self.trogdor.start()
+        self.zk.start()
+        self.kafka.start()
+
+    def teardown(self):
+        self.trogdor.stop()
+        self.kafka.stop()
+        self.zk.stop()
+
+    @parametrize(max_in_flight_requests=5, latency_ms=50)
+    @parametrize(max_in_flight_requests=32, latency_ms=50)
+    def test_produce_bench_with_latency(self, max_in_flight_requests, latency_ms):
+        latency_spec = DegradedNetworkFaultSpec(0, TaskSpec.MAX_DURATION_MS)
+        latency_spec.add_node_spec(self.workload_service.nodes[0].name, "eth0", latencyMs=latency_ms)
+        latency = self.trogdor.create_task("latency", latency_spec)
+
+        spec = ProduceBenchWorkloadSpec(0, TaskSpec.MAX_DURATION_MS,
+                                        self.workload_service.producer_node,
+                                        self.workload_service.bootstrap_servers,
+                                        target_messages_per_sec=100000,
+                                        max_messages=1000000,
+                                        producer_conf={
+                                            "enable.idempotence": "true",
+                                            "max.in.flight.requests.per.connection": str(max_in_flight_requests),
+                                            "producer.state.retained.batches": str(self.RETAINED_BATCHES),
+                                            "linger.ms": "5"
+                                        },
+                                        admin_client_conf={},
+                                        common_client_conf={},
+                                        inactive_topics={},
+                                        active_topics=self.active_topics)
+        workload1 = self.trogdor.create_task("workload1", spec)
+        workload1.wait_for_done(timeout_sec=900)
+        latency.stop()
+        latency.wait_for_done()
+        tasks = self.trogdor.tasks()
+        self.logger.info("TASKS: %s\n" % json.dumps(tasks, sort_keys=True, indent=2))